@@ -0,0 +1,328 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.network.NetworkConnector;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.jms.listener.SimpleMessageListenerContainer;
+
+/**
+ * Throughput and latency percentiles of a synchronous remote invocation through a network of two
+ * embedded brokers: the exporter is connected to the first broker, the proxy to the second one, as
+ * in {@code ActiveMQTest}.
+ * <p>
+ * The thread count is set by the runner ({@link JmsInvokerBenchmarkRunner}), the other dimensions
+ * by the parameters below. The topic over half duplex bridges is not benchmarked since it is the
+ * setup reproduced by {@code ActiveMQTest#testNobTopicUsingHalfDuplex}.
+ *
+ * @author T0130672
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class JmsInvokerBenchmark {
+
+	/** maximum time waited for the network bridges (ms) */
+	private static final long BRIDGE_TIMEOUT = 10000;
+
+	/** client transport: "vm" for in-JVM connections, "tcp" for loopback TCP */
+	@Param({ "vm", "tcp" })
+	public String transport;
+
+	/** destination type: "queue" or "topic" */
+	@Param({ "queue", "topic" })
+	public String destination;
+
+	/** network of brokers setup: ONE_DUPLEX or HALF_DUPLEX */
+	@Param({ "ONE_DUPLEX", "HALF_DUPLEX" })
+	public String nob;
+
+	/** size of the invocation argument (characters) */
+	@Param({ "16", "1024", "65536" })
+	public int payloadSize;
+
+	/** proxy setup: "default", or "pooled" for a shared reply consumer and a session pool */
+	@Param({ "default", "pooled" })
+	public String proxyMode;
+
+	/** the broker of the exporter */
+	private BrokerService mBroker1;
+
+	/** the broker of the proxy */
+	private BrokerService mBroker2;
+
+	/** the connection factories of the exporter and of the proxy */
+	private final List<SingleConnectionFactory> mConnectionFactories = new ArrayList<SingleConnectionFactory>();
+
+	/** the exporter listener container */
+	private SimpleMessageListenerContainer mContainer;
+
+	/** the proxy factory */
+	private JmsInvokerProxyFactoryBean mProxyFactory;
+
+	/** the remote service */
+	private IMockService mService;
+
+	/** the invocation argument */
+	private String mPayload;
+
+	/**
+	 * Starts the brokers, the exporter and the proxy.
+	 *
+	 * @throws Exception
+	 *             if the setup fails
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if ("topic".equals(destination) && "HALF_DUPLEX".equals(nob)) {
+			throw new IllegalStateException("Topic over half duplex bridges is a known failing setup");
+		}
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+
+		int lPort1 = freePort();
+		int lPort2 = freePort();
+		mBroker1 = createBroker("broker1", lPort1);
+		mBroker2 = createBroker("broker2", lPort2);
+		NetworkConnector lBridge1 = mBroker1.addNetworkConnector("static://(tcp://127.0.0.1:" + lPort2 + ")");
+		NetworkConnector lBridge2 = null;
+		if ("ONE_DUPLEX".equals(nob)) {
+			lBridge1.setDuplex(true);
+		} else {
+			lBridge2 = mBroker2.addNetworkConnector("static://(tcp://127.0.0.1:" + lPort1 + ")");
+		}
+		mBroker1.start();
+		mBroker2.start();
+		awaitBridge(lBridge1);
+		if (lBridge2 != null) {
+			awaitBridge(lBridge2);
+		}
+
+		Destination lDestination = "queue".equals(destination) ? new ActiveMQQueue("BENCH_QUEUE")
+				: new ActiveMQTopic("BENCH_TOPIC");
+		mContainer = startExporter(lDestination, clientUrl("broker1", lPort1));
+		mProxyFactory = createProxy(lDestination, clientUrl("broker2", lPort2));
+		mService = (IMockService) mProxyFactory.getObject();
+		char[] lPayload = new char[payloadSize];
+		Arrays.fill(lPayload, 'x');
+		mPayload = new String(lPayload);
+		// the first invocation creates the consumers and lets the topic subscriptions propagate
+		mService.call(mPayload);
+	}
+
+	/**
+	 * Stops the proxy, the exporter and the brokers.
+	 *
+	 * @throws Exception
+	 *             if the teardown fails
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		if (mProxyFactory != null) {
+			mProxyFactory.destroy();
+		}
+		if (mContainer != null) {
+			mContainer.shutdown();
+		}
+		for (SingleConnectionFactory lConnectionFactory : mConnectionFactories) {
+			lConnectionFactory.destroy();
+		}
+		mConnectionFactories.clear();
+		for (BrokerService lBroker : new BrokerService[] { mBroker1, mBroker2 }) {
+			if (lBroker != null) {
+				lBroker.stop();
+				lBroker.waitUntilStopped();
+			}
+		}
+	}
+
+	/**
+	 * A synchronous remote invocation.
+	 *
+	 * @throws MockServiceException
+	 *             if the invocation fails
+	 */
+	@Benchmark
+	public void invoke() throws MockServiceException {
+		mService.call(mPayload);
+	}
+
+	/**
+	 * Creates an embedded non persistent broker.
+	 *
+	 * @param pName
+	 *            the broker name
+	 * @param pPort
+	 *            the TCP port
+	 * @return the broker
+	 * @throws Exception
+	 *             if the connector cannot be added
+	 */
+	private static BrokerService createBroker(String pName, int pPort) throws Exception {
+		BrokerService lBroker = new BrokerService();
+		lBroker.setPersistent(false);
+		lBroker.setUseJmx(false);
+		lBroker.setBrokerName(pName);
+		lBroker.setPlugins(ActiveMQTest.getPlugins());
+		lBroker.addConnector("tcp://127.0.0.1:" + pPort + "?maximumConnections=1000&wireFormat.maxFrameSize=104857600");
+		return lBroker;
+	}
+
+	/**
+	 * Waits until a network connector has an active bridge.
+	 *
+	 * @param pConnector
+	 *            the network connector
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	private static void awaitBridge(NetworkConnector pConnector) throws InterruptedException {
+		long lDeadline = System.currentTimeMillis() + BRIDGE_TIMEOUT;
+		while (pConnector.activeBridges().isEmpty()) {
+			if (System.currentTimeMillis() > lDeadline) {
+				throw new IllegalStateException("Network bridge " + pConnector.getName() + " not started");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Returns a free TCP port.
+	 *
+	 * @return the port
+	 * @throws IOException
+	 *             if no port is available
+	 */
+	private static int freePort() throws IOException {
+		try (ServerSocket lSocket = new ServerSocket(0)) {
+			return lSocket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Returns the URL of a client of a broker.
+	 *
+	 * @param pBrokerName
+	 *            the broker name
+	 * @param pPort
+	 *            the broker TCP port
+	 * @return the URL for the benchmarked transport
+	 */
+	private String clientUrl(String pBrokerName, int pPort) {
+		if ("vm".equals(transport)) {
+			return "vm://" + pBrokerName + "?create=false";
+		}
+		return "tcp://127.0.0.1:" + pPort;
+	}
+
+	/**
+	 * Creates a connection factory shared by the JMS resources of a client.
+	 *
+	 * @param pUrl
+	 *            the broker URL
+	 * @return the connection factory
+	 */
+	private SingleConnectionFactory createConnectionFactory(String pUrl) {
+		ActiveMQConnectionFactory lConnectionFactory = new ActiveMQConnectionFactory(pUrl);
+		lConnectionFactory.setTrustAllPackages(true);
+		SingleConnectionFactory lSingleConnectionFactory = new SingleConnectionFactory();
+		lSingleConnectionFactory.setTargetConnectionFactory(lConnectionFactory);
+		lSingleConnectionFactory.setReconnectOnException(true);
+		lSingleConnectionFactory.afterPropertiesSet();
+		mConnectionFactories.add(lSingleConnectionFactory);
+		return lSingleConnectionFactory;
+	}
+
+	/**
+	 * Starts an exporter of a no-op service.
+	 *
+	 * @param pDestination
+	 *            the request destination
+	 * @param pUrl
+	 *            the broker URL
+	 * @return the listener container
+	 */
+	private SimpleMessageListenerContainer startExporter(Destination pDestination, String pUrl) {
+		SingleConnectionFactory lConnectionFactory = createConnectionFactory(pUrl);
+		JmsInvokerServiceExporter lExporter = new JmsInvokerServiceExporter();
+		lExporter.setServiceInterface(IMockService.class);
+		lExporter.setService(new IMockService() {
+			@Override
+			public void call(String pMessage) {
+				// Nothing
+			}
+
+			@Override
+			public void call() {
+				// Nothing
+			}
+		});
+		lExporter.setReplyConnectionFactory(lConnectionFactory);
+		lExporter.afterPropertiesSet();
+		SimpleMessageListenerContainer lContainer = new SimpleMessageListenerContainer();
+		lContainer.setConnectionFactory(lConnectionFactory);
+		lContainer.setDestination(pDestination);
+		lContainer.setMessageListener(lExporter);
+		lContainer.afterPropertiesSet();
+		lContainer.start();
+		return lContainer;
+	}
+
+	/**
+	 * Creates the proxy.
+	 *
+	 * @param pDestination
+	 *            the request destination
+	 * @param pUrl
+	 *            the broker URL
+	 * @return the proxy factory
+	 */
+	private JmsInvokerProxyFactoryBean createProxy(Destination pDestination, String pUrl) {
+		JmsInvokerProxyFactoryBean lProxyFactory = new JmsInvokerProxyFactoryBean();
+		lProxyFactory.setServiceInterface(IMockService.class);
+		lProxyFactory.setConnectionFactory(createConnectionFactory(pUrl));
+		lProxyFactory.setDestination(pDestination);
+		lProxyFactory.setAckDestination(new ActiveMQTopic("BENCH_ACK"));
+		lProxyFactory.setReceiveTimeout(10000);
+		if ("pooled".equals(proxyMode)) {
+			lProxyFactory.setSharedReplyConsumer(true);
+			lProxyFactory.setSessionPoolSize(32);
+		}
+		lProxyFactory.afterPropertiesSet();
+		return lProxyFactory;
+	}
+}
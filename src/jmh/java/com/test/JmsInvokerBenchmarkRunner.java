@@ -0,0 +1,48 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks once per thread count of the {@code jmh.threads} system property (comma
+ * separated, "1" by default). The arguments are the usual JMH command line options, e.g.
+ * {@code -p transport=vm -rf json}.
+ *
+ * @author T0130672
+ */
+public final class JmsInvokerBenchmarkRunner {
+
+	/**
+	 * Constructor
+	 */
+	private JmsInvokerBenchmarkRunner() {
+		// main only
+	}
+
+	/**
+	 * Main
+	 *
+	 * @param pArgs
+	 *            the JMH command line options
+	 * @throws Exception
+	 *             if the benchmarks cannot run
+	 */
+	public static void main(String[] pArgs) throws Exception {
+		CommandLineOptions lCommandLine = new CommandLineOptions(pArgs);
+		for (String lThreads : System.getProperty("jmh.threads", "1").split(",")) {
+			OptionsBuilder lOptions = new OptionsBuilder();
+			lOptions.parent(lCommandLine);
+			if (lCommandLine.getIncludes().isEmpty()) {
+				lOptions.include(JmsInvokerBenchmark.class.getSimpleName());
+			}
+			lOptions.threads(Integer.parseInt(lThreads.trim()));
+			new Runner(lOptions.build()).run();
+		}
+	}
+}
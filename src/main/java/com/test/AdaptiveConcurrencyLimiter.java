@@ -0,0 +1,172 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of invocations in flight with a limit adapted to the observed round trip
+ * times (AIMD): the limit grows by one per round trip while the round trips stay close to the
+ * smallest one observed recently, and is cut by {@link #BACKOFF_RATIO} on a timeout or a round trip
+ * longer than {@link #RTT_TOLERANCE} times the smallest one, at most once per round trip.
+ *
+ * @author T0130672
+ */
+final class AdaptiveConcurrencyLimiter {
+
+	/** ratio applied to the limit on congestion */
+	private static final double BACKOFF_RATIO = 0.9;
+
+	/** ratio of the smallest round trip above which a round trip is a sign of congestion */
+	private static final double RTT_TOLERANCE = 2.0;
+
+	/** number of round trips after which the smallest round trip is measured again */
+	private static final int RTT_WINDOW = 500;
+
+	/** the minimum limit */
+	private final int mMinLimit;
+
+	/** the maximum limit */
+	private final int mMaxLimit;
+
+	/** the lock guarding the state */
+	private final ReentrantLock mLock = new ReentrantLock();
+
+	/** signaled when a permit is released */
+	private final Condition mReleased = mLock.newCondition();
+
+	/** the current limit */
+	private double mLimit;
+
+	/** the number of invocations in flight */
+	private int mInFlight;
+
+	/** the smallest round trip of the previous window (ns) */
+	private long mMinRtt = Long.MAX_VALUE;
+
+	/** the smallest round trip of the current window (ns) */
+	private long mWindowMinRtt = Long.MAX_VALUE;
+
+	/** the number of round trips of the current window */
+	private int mWindowCount;
+
+	/** the time of the last decrease of the limit */
+	private long mLastDecrease;
+
+	/** the number of rejected invocations */
+	private final LongAdder mRejected = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pInitialLimit
+	 *            the initial limit
+	 * @param pMinLimit
+	 *            the minimum limit
+	 * @param pMaxLimit
+	 *            the maximum limit
+	 */
+	AdaptiveConcurrencyLimiter(int pInitialLimit, int pMinLimit, int pMaxLimit) {
+		if (pMinLimit < 1 || pMaxLimit < pMinLimit) {
+			throw new IllegalArgumentException("Invalid concurrency limits [" + pMinLimit + ", " + pMaxLimit + "]");
+		}
+		mMinLimit = pMinLimit;
+		mMaxLimit = pMaxLimit;
+		mLimit = Math.max(pMinLimit, Math.min(pMaxLimit, pInitialLimit));
+		mLastDecrease = System.nanoTime();
+	}
+
+	/**
+	 * Acquires a permit, waiting for one if the limit is reached.
+	 *
+	 * @param pTimeout
+	 *            the maximum waiting time (ms), 0 to fail immediately
+	 * @return true if acquired, false if rejected
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean acquire(long pTimeout) throws InterruptedException {
+		long lRemaining = TimeUnit.MILLISECONDS.toNanos(pTimeout);
+		mLock.lock();
+		try {
+			while (mInFlight >= (int) mLimit) {
+				if (lRemaining <= 0) {
+					mRejected.increment();
+					return false;
+				}
+				lRemaining = mReleased.awaitNanos(lRemaining);
+			}
+			mInFlight++;
+			return true;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a permit and adapts the limit to the outcome of the invocation.
+	 *
+	 * @param pRtt
+	 *            the round trip time of the invocation (ns)
+	 * @param pDropped
+	 *            true if the invocation timed out
+	 */
+	void release(long pRtt, boolean pDropped) {
+		mLock.lock();
+		try {
+			boolean lSaturated = mInFlight * 2 >= mLimit;
+			mInFlight--;
+			if (!pDropped) {
+				mWindowMinRtt = Math.min(mWindowMinRtt, pRtt);
+				if (++mWindowCount >= RTT_WINDOW || mMinRtt == Long.MAX_VALUE) {
+					mMinRtt = mWindowMinRtt;
+					mWindowMinRtt = Long.MAX_VALUE;
+					mWindowCount = 0;
+				}
+			}
+			long lNow = System.nanoTime();
+			long lThreshold = mMinRtt == Long.MAX_VALUE ? Long.MAX_VALUE : (long) (mMinRtt * RTT_TOLERANCE);
+			if (pDropped || pRtt > lThreshold) {
+				// one decrease per round trip, the other late replies belong to the same congestion
+				if (lNow - mLastDecrease >= Math.min(pRtt, lThreshold)) {
+					mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+					mLastDecrease = lNow;
+				}
+			} else if (lSaturated) {
+				mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+			}
+			mReleased.signalAll();
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the current limit
+	 *
+	 * @return the limit
+	 */
+	int getLimit() {
+		mLock.lock();
+		try {
+			return (int) mLimit;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of rejected invocations
+	 *
+	 * @return the number of rejected invocations
+	 */
+	long getRejectedCount() {
+		return mRejected.sum();
+	}
+}
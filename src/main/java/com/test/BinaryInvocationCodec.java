@@ -0,0 +1,485 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * Compact binary codec.
+ * <p>
+ * The methods of the service interface are resolved once by reflection: an invocation is encoded
+ * as a method ID (hash of the method signature, identical on both peers sharing the interface)
+ * followed by its arguments, instead of the method name and parameter type names. Strings,
+ * primitive wrappers and byte arrays are written natively, any other value falls back to the Java
+ * serialization, restricted to the trusted packages as by the {@link JavaSerializationCodec}: by
+ * default the {@code java} packages, the Spring remoting classes and the package of the service
+ * interface.
+ *
+ * @author T0130672
+ */
+public class BinaryInvocationCodec implements InvocationCodec {
+
+	/** the codec name */
+	public static final String NAME = "binary";
+
+	/** encoding version */
+	private static final byte VERSION = 1;
+
+	/** value tag: null */
+	private static final byte TAG_NULL = 0;
+
+	/** value tag: String */
+	private static final byte TAG_STRING = 1;
+
+	/** value tag: Integer */
+	private static final byte TAG_INT = 2;
+
+	/** value tag: Long */
+	private static final byte TAG_LONG = 3;
+
+	/** value tag: Boolean */
+	private static final byte TAG_BOOLEAN = 4;
+
+	/** value tag: Double */
+	private static final byte TAG_DOUBLE = 5;
+
+	/** value tag: Float */
+	private static final byte TAG_FLOAT = 6;
+
+	/** value tag: Short */
+	private static final byte TAG_SHORT = 7;
+
+	/** value tag: Byte */
+	private static final byte TAG_BYTE = 8;
+
+	/** value tag: Character */
+	private static final byte TAG_CHAR = 9;
+
+	/** value tag: byte[] */
+	private static final byte TAG_BYTES = 10;
+
+	/** value tag: Java serialized object */
+	private static final byte TAG_SERIALIZED = 11;
+
+	/** result flag: value */
+	private static final byte RESULT_VALUE = 0;
+
+	/** result flag: exception */
+	private static final byte RESULT_EXCEPTION = 1;
+
+	/** the methods indexed by ID */
+	private final Map<Integer, MethodEntry> mMethodsById = new HashMap<Integer, MethodEntry>();
+
+	/** the methods indexed by name */
+	private final Map<String, MethodEntry[]> mMethodsByName = new HashMap<String, MethodEntry[]>();
+
+	/** the class loader used to resolve the serialized values */
+	private final ClassLoader mClassLoader;
+
+	/** the packages and classes of the serialized values which may be deserialized */
+	private final Collection<String> mTrustedPackages;
+
+	/**
+	 * Constructor using the default trusted packages
+	 *
+	 * @param pServiceInterface
+	 *            the service interface whose methods are encoded
+	 */
+	public BinaryInvocationCodec(Class<?> pServiceInterface) {
+		this(pServiceInterface, JavaSerializationCodec.getTrustedPackages(pServiceInterface));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param pServiceInterface
+	 *            the service interface whose methods are encoded
+	 * @param pTrustedPackages
+	 *            the packages and classes of the serialized values which may be deserialized
+	 */
+	public BinaryInvocationCodec(Class<?> pServiceInterface, Collection<String> pTrustedPackages) {
+		if (pServiceInterface == null || !pServiceInterface.isInterface()) {
+			throw new IllegalArgumentException("'serviceInterface' must be an interface");
+		}
+		for (Method lMethod : pServiceInterface.getMethods()) {
+			MethodEntry lEntry = new MethodEntry(lMethod);
+			MethodEntry lPrevious = mMethodsById.get(lEntry.getId());
+			if (lPrevious != null) {
+				if (lPrevious.matches(lMethod.getName(), lMethod.getParameterTypes())) {
+					// same signature inherited from several interfaces
+					continue;
+				}
+				throw new IllegalArgumentException("Method ID collision between " + lPrevious.getMethod() + " and "
+						+ lMethod);
+			}
+			mMethodsById.put(lEntry.getId(), lEntry);
+			MethodEntry[] lSameName = mMethodsByName.get(lMethod.getName());
+			if (lSameName == null) {
+				lSameName = new MethodEntry[] { lEntry };
+			} else {
+				lSameName = Arrays.copyOf(lSameName, lSameName.length + 1);
+				lSameName[lSameName.length - 1] = lEntry;
+			}
+			mMethodsByName.put(lMethod.getName(), lSameName);
+		}
+		mClassLoader = pServiceInterface.getClassLoader();
+		mTrustedPackages = new ArrayList<String>(pTrustedPackages);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] encodeInvocation(RemoteInvocation pInvocation) throws IOException {
+		MethodEntry lEntry = getMethod(pInvocation.getMethodName(), pInvocation.getParameterTypes());
+		ByteArrayOutputStream lBytes = new ByteArrayOutputStream(64);
+		DataOutputStream lOut = new DataOutputStream(lBytes);
+		lOut.writeByte(VERSION);
+		lOut.writeInt(lEntry.getId());
+		Object[] lArguments = pInvocation.getArguments();
+		int lLength = lArguments != null ? lArguments.length : 0;
+		lOut.writeShort(lLength);
+		for (int i = 0; i < lLength; i++) {
+			writeValue(lOut, lArguments[i]);
+		}
+		Map<String, Serializable> lAttributes = pInvocation.getAttributes();
+		lOut.writeBoolean(lAttributes != null);
+		if (lAttributes != null) {
+			writeSerialized(lOut, lAttributes);
+		}
+		lOut.flush();
+		return lBytes.toByteArray();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public RemoteInvocation decodeInvocation(byte[] pData) throws IOException {
+		DataInputStream lIn = new DataInputStream(new ByteArrayInputStream(pData));
+		checkVersion(lIn);
+		int lId = lIn.readInt();
+		MethodEntry lEntry = mMethodsById.get(lId);
+		if (lEntry == null) {
+			throw new IOException("Unknown method ID " + lId);
+		}
+		Object[] lArguments = new Object[lIn.readUnsignedShort()];
+		for (int i = 0; i < lArguments.length; i++) {
+			lArguments[i] = readValue(lIn);
+		}
+		RemoteInvocation lInvocation = new RemoteInvocation(lEntry.getMethod().getName(),
+				lEntry.getParameterTypes().clone(), lArguments);
+		if (lIn.readBoolean()) {
+			lInvocation.setAttributes((Map<String, Serializable>) readSerialized(lIn));
+		}
+		return lInvocation;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] encodeResult(RemoteInvocationResult pResult) throws IOException {
+		ByteArrayOutputStream lBytes = new ByteArrayOutputStream(32);
+		DataOutputStream lOut = new DataOutputStream(lBytes);
+		lOut.writeByte(VERSION);
+		if (pResult.hasException()) {
+			lOut.writeByte(RESULT_EXCEPTION);
+			writeSerialized(lOut, pResult.getException());
+		} else {
+			lOut.writeByte(RESULT_VALUE);
+			writeValue(lOut, pResult.getValue());
+		}
+		lOut.flush();
+		return lBytes.toByteArray();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RemoteInvocationResult decodeResult(byte[] pData) throws IOException {
+		DataInputStream lIn = new DataInputStream(new ByteArrayInputStream(pData));
+		checkVersion(lIn);
+		if (lIn.readByte() == RESULT_EXCEPTION) {
+			return new RemoteInvocationResult((Throwable) readSerialized(lIn));
+		}
+		return new RemoteInvocationResult(readValue(lIn));
+	}
+
+	/**
+	 * Returns the method matching the given signature.
+	 *
+	 * @param pName
+	 *            the method name
+	 * @param pParameterTypes
+	 *            the parameter types
+	 * @return the method
+	 * @throws IOException
+	 *             if the method is not part of the service interface
+	 */
+	private MethodEntry getMethod(String pName, Class<?>[] pParameterTypes) throws IOException {
+		MethodEntry[] lEntries = mMethodsByName.get(pName);
+		if (lEntries != null) {
+			for (MethodEntry lEntry : lEntries) {
+				if (lEntry.matches(pName, pParameterTypes)) {
+					return lEntry;
+				}
+			}
+		}
+		throw new IOException("Method " + pName + Arrays.toString(pParameterTypes) + " is not part of the service interface");
+	}
+
+	/**
+	 * Checks the encoding version.
+	 *
+	 * @param pIn
+	 *            the input
+	 * @throws IOException
+	 *             if the version is not supported
+	 */
+	private static void checkVersion(DataInputStream pIn) throws IOException {
+		byte lVersion = pIn.readByte();
+		if (lVersion != VERSION) {
+			throw new IOException("Unsupported binary encoding version " + lVersion);
+		}
+	}
+
+	/**
+	 * Writes a value.
+	 *
+	 * @param pOut
+	 *            the output
+	 * @param pValue
+	 *            the value
+	 * @throws IOException
+	 *             if the value cannot be written
+	 */
+	private static void writeValue(DataOutputStream pOut, Object pValue) throws IOException {
+		if (pValue == null) {
+			pOut.writeByte(TAG_NULL);
+		} else if (pValue instanceof String) {
+			pOut.writeByte(TAG_STRING);
+			byte[] lBytes = ((String) pValue).getBytes(StandardCharsets.UTF_8);
+			pOut.writeInt(lBytes.length);
+			pOut.write(lBytes);
+		} else if (pValue instanceof Integer) {
+			pOut.writeByte(TAG_INT);
+			pOut.writeInt((Integer) pValue);
+		} else if (pValue instanceof Long) {
+			pOut.writeByte(TAG_LONG);
+			pOut.writeLong((Long) pValue);
+		} else if (pValue instanceof Boolean) {
+			pOut.writeByte(TAG_BOOLEAN);
+			pOut.writeBoolean((Boolean) pValue);
+		} else if (pValue instanceof Double) {
+			pOut.writeByte(TAG_DOUBLE);
+			pOut.writeDouble((Double) pValue);
+		} else if (pValue instanceof Float) {
+			pOut.writeByte(TAG_FLOAT);
+			pOut.writeFloat((Float) pValue);
+		} else if (pValue instanceof Short) {
+			pOut.writeByte(TAG_SHORT);
+			pOut.writeShort((Short) pValue);
+		} else if (pValue instanceof Byte) {
+			pOut.writeByte(TAG_BYTE);
+			pOut.writeByte((Byte) pValue);
+		} else if (pValue instanceof Character) {
+			pOut.writeByte(TAG_CHAR);
+			pOut.writeChar((Character) pValue);
+		} else if (pValue instanceof byte[]) {
+			pOut.writeByte(TAG_BYTES);
+			pOut.writeInt(((byte[]) pValue).length);
+			pOut.write((byte[]) pValue);
+		} else {
+			pOut.writeByte(TAG_SERIALIZED);
+			writeSerialized(pOut, pValue);
+		}
+	}
+
+	/**
+	 * Reads a value.
+	 *
+	 * @param pIn
+	 *            the input
+	 * @return the value
+	 * @throws IOException
+	 *             if the value cannot be read
+	 */
+	private Object readValue(DataInputStream pIn) throws IOException {
+		byte lTag = pIn.readByte();
+		switch (lTag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			return new String(readBytes(pIn), StandardCharsets.UTF_8);
+		case TAG_INT:
+			return pIn.readInt();
+		case TAG_LONG:
+			return pIn.readLong();
+		case TAG_BOOLEAN:
+			return pIn.readBoolean();
+		case TAG_DOUBLE:
+			return pIn.readDouble();
+		case TAG_FLOAT:
+			return pIn.readFloat();
+		case TAG_SHORT:
+			return pIn.readShort();
+		case TAG_BYTE:
+			return pIn.readByte();
+		case TAG_CHAR:
+			return pIn.readChar();
+		case TAG_BYTES:
+			return readBytes(pIn);
+		case TAG_SERIALIZED:
+			return readSerialized(pIn);
+		default:
+			throw new IOException("Unknown value tag " + lTag);
+		}
+	}
+
+	/**
+	 * Writes a Java serialized object.
+	 *
+	 * @param pOut
+	 *            the output
+	 * @param pObject
+	 *            the object
+	 * @throws IOException
+	 *             if the object is not serializable
+	 */
+	private static void writeSerialized(DataOutputStream pOut, Object pObject) throws IOException {
+		byte[] lBytes = JavaSerializationCodec.serialize(pObject);
+		pOut.writeInt(lBytes.length);
+		pOut.write(lBytes);
+	}
+
+	/**
+	 * Reads a Java serialized object.
+	 *
+	 * @param pIn
+	 *            the input
+	 * @return the object
+	 * @throws IOException
+	 *             if the object cannot be deserialized
+	 */
+	private Object readSerialized(DataInputStream pIn) throws IOException {
+		return JavaSerializationCodec.deserialize(readBytes(pIn), mClassLoader, mTrustedPackages, Object.class);
+	}
+
+	/**
+	 * Reads a length-prefixed byte array.
+	 *
+	 * @param pIn
+	 *            the input
+	 * @return the byte array
+	 * @throws IOException
+	 *             if the array cannot be read
+	 */
+	private static byte[] readBytes(DataInputStream pIn) throws IOException {
+		byte[] lBytes = new byte[pIn.readInt()];
+		pIn.readFully(lBytes);
+		return lBytes;
+	}
+
+	/**
+	 * A method of the service interface with its ID.
+	 */
+	private static class MethodEntry {
+
+		/** the method */
+		private final Method mMethod;
+
+		/** the parameter types */
+		private final Class<?>[] mParameterTypes;
+
+		/** the method ID */
+		private final int mId;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pMethod
+		 *            the method
+		 */
+		MethodEntry(Method pMethod) {
+			mMethod = pMethod;
+			mParameterTypes = pMethod.getParameterTypes();
+			StringBuilder lSignature = new StringBuilder(pMethod.getName()).append('(');
+			for (Class<?> lType : mParameterTypes) {
+				lSignature.append(lType.getName()).append(',');
+			}
+			mId = lSignature.append(')').toString().hashCode();
+		}
+
+		/**
+		 * Returns the method
+		 *
+		 * @return the method
+		 */
+		Method getMethod() {
+			return mMethod;
+		}
+
+		/**
+		 * Returns the parameter types
+		 *
+		 * @return the parameter types
+		 */
+		Class<?>[] getParameterTypes() {
+			return mParameterTypes;
+		}
+
+		/**
+		 * Returns the method ID
+		 *
+		 * @return the method ID
+		 */
+		int getId() {
+			return mId;
+		}
+
+		/**
+		 * Tells whether the method has the given signature
+		 *
+		 * @param pName
+		 *            the method name
+		 * @param pParameterTypes
+		 *            the parameter types
+		 * @return true if the signature matches
+		 */
+		boolean matches(String pName, Class<?>[] pParameterTypes) {
+			if (pParameterTypes == null) {
+				return mParameterTypes.length == 0 && mMethod.getName().equals(pName);
+			}
+			return Arrays.equals(mParameterTypes, pParameterTypes) && mMethod.getName().equals(pName);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.advisory.AdvisorySupport;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.springframework.jms.connection.ConnectionFactoryUtils;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Waits for a network of brokers to be ready by watching the ActiveMQ advisories, instead of
+ * sleeping for a fixed time.
+ * <p>
+ * The broker replays the advisories of the existing consumers and network bridges to a new
+ * advisory subscriber, so a condition already met is detected at once. A consumer connected to a
+ * remote broker is seen through the subscription the network bridge creates on the local broker,
+ * i.e. once both the bridge and the remote consumer are up.
+ *
+ * @author T0130672
+ */
+public final class BrokerReadiness {
+
+	/** name of the network bridge advisory property telling the bridge is started */
+	private static final String BRIDGE_STARTED_PROPERTY = "started";
+
+	/** the connection factory of the local broker */
+	private final ConnectionFactory mConnectionFactory;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pConnectionFactory
+	 *            the connection factory of the local broker
+	 */
+	public BrokerReadiness(ConnectionFactory pConnectionFactory) {
+		mConnectionFactory = pConnectionFactory;
+	}
+
+	/**
+	 * Waits until a destination has a consumer, local or behind a network bridge.
+	 *
+	 * @param pDestination
+	 *            the queue or topic
+	 * @param pTimeout
+	 *            the maximum wait (ms)
+	 * @return true if a consumer is present, false if the timeout elapsed
+	 * @throws JMSException
+	 *             if the advisories cannot be consumed
+	 */
+	public boolean awaitConsumer(Destination pDestination, long pTimeout) throws JMSException {
+		Topic lAdvisoryTopic = AdvisorySupport.getConsumerAdvisoryTopic(ActiveMQDestination.transform(pDestination));
+		return await(lAdvisoryTopic, pTimeout, lMessage -> lMessage.propertyExists(AdvisorySupport.MSG_PROPERTY_CONSUMER_COUNT)
+				&& lMessage.getIntProperty(AdvisorySupport.MSG_PROPERTY_CONSUMER_COUNT) > 0);
+	}
+
+	/**
+	 * Waits until a network bridge of the local broker is started.
+	 *
+	 * @param pTimeout
+	 *            the maximum wait (ms)
+	 * @return true if a bridge is started, false if the timeout elapsed
+	 * @throws JMSException
+	 *             if the advisories cannot be consumed
+	 */
+	public boolean awaitNetworkBridge(long pTimeout) throws JMSException {
+		return await(AdvisorySupport.getNetworkBridgeAdvisoryTopic(), pTimeout,
+				lMessage -> lMessage.propertyExists(BRIDGE_STARTED_PROPERTY) && lMessage.getBooleanProperty(BRIDGE_STARTED_PROPERTY));
+	}
+
+	/**
+	 * Consumes an advisory topic until an advisory meets a condition.
+	 *
+	 * @param pAdvisoryTopic
+	 *            the advisory topic
+	 * @param pTimeout
+	 *            the maximum wait (ms)
+	 * @param pCondition
+	 *            the condition
+	 * @return true if the condition is met, false if the timeout elapsed
+	 * @throws JMSException
+	 *             if the advisories cannot be consumed
+	 */
+	private boolean await(Topic pAdvisoryTopic, long pTimeout, Condition pCondition) throws JMSException {
+		long lDeadline = System.currentTimeMillis() + pTimeout;
+		Connection lConnection = mConnectionFactory.createConnection();
+		Session lSession = null;
+		try {
+			lSession = lConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer lConsumer = lSession.createConsumer(pAdvisoryTopic);
+			lConnection.start();
+			long lRemaining;
+			while ((lRemaining = lDeadline - System.currentTimeMillis()) > 0) {
+				Message lMessage = lConsumer.receive(lRemaining);
+				if (lMessage == null) {
+					return false;
+				}
+				if (pCondition.isMet(lMessage)) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			JmsUtils.closeSession(lSession);
+			ConnectionFactoryUtils.releaseConnection(lConnection, mConnectionFactory, true);
+		}
+	}
+
+	/**
+	 * Condition on an advisory.
+	 */
+	private interface Condition {
+
+		/**
+		 * Tells whether an advisory meets the condition.
+		 *
+		 * @param pMessage
+		 *            the advisory
+		 * @return true if the condition is met
+		 * @throws JMSException
+		 *             if the advisory cannot be read
+		 */
+		boolean isMet(Message pMessage) throws JMSException;
+	}
+}
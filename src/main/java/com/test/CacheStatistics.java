@@ -0,0 +1,122 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * Snapshot of the statistics of a cache of remote invocation results.
+ *
+ * @author T0130672
+ */
+public class CacheStatistics {
+
+	/** the maximum number of entries */
+	private final int mMaxSize;
+
+	/** the number of entries */
+	private final int mSize;
+
+	/** the number of hits */
+	private final long mHitCount;
+
+	/** the number of misses */
+	private final long mMissCount;
+
+	/** the number of entries evicted because the cache was full */
+	private final long mEvictionCount;
+
+	/** the number of entries removed because expired */
+	private final long mExpirationCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMaxSize
+	 *            the maximum number of entries
+	 * @param pSize
+	 *            the number of entries
+	 * @param pHitCount
+	 *            the number of hits
+	 * @param pMissCount
+	 *            the number of misses
+	 * @param pEvictionCount
+	 *            the number of evicted entries
+	 * @param pExpirationCount
+	 *            the number of expired entries
+	 */
+	public CacheStatistics(int pMaxSize, int pSize, long pHitCount, long pMissCount, long pEvictionCount,
+			long pExpirationCount) {
+		mMaxSize = pMaxSize;
+		mSize = pSize;
+		mHitCount = pHitCount;
+		mMissCount = pMissCount;
+		mEvictionCount = pEvictionCount;
+		mExpirationCount = pExpirationCount;
+	}
+
+	/**
+	 * Returns the maximum number of entries
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Returns the number of entries, loaded or being loaded
+	 *
+	 * @return the number of entries
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Returns the number of results found in the cache, including the results being loaded by a
+	 * concurrent call
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Returns the number of results not found in the cache
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Returns the number of entries evicted because the cache was full
+	 *
+	 * @return the number of evicted entries
+	 */
+	public long getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	/**
+	 * Returns the number of entries removed because expired
+	 *
+	 * @return the number of expired entries
+	 */
+	public long getExpirationCount() {
+		return mExpirationCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "CacheStatistics [maxSize=" + mMaxSize + ", size=" + mSize + ", hits=" + mHitCount + ", misses="
+				+ mMissCount + ", evictions=" + mEvictionCount + ", expirations=" + mExpirationCount + "]";
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * Circuit breaker opened by the rate of reply timeouts over the last invocations.
+ * <p>
+ * While open, the invocations fail immediately instead of waiting for their timeout. Once the open
+ * time has elapsed, a single probe invocation is let through: its reply closes the breaker, its
+ * timeout opens it again. The breaker is also closed as soon as a consumer of the destination
+ * reappears.
+ *
+ * @author T0130672
+ */
+final class CircuitBreaker {
+
+	/** the states of the breaker */
+	enum State {
+		/** the invocations are let through */
+		CLOSED,
+		/** the invocations fail immediately */
+		OPEN,
+		/** a probe invocation is in flight */
+		HALF_OPEN
+	}
+
+	/** the outcomes of the last invocations, true for a timeout */
+	private final boolean[] mOutcomes;
+
+	/** the minimum number of outcomes to compute a timeout rate */
+	private final int mMinimumCount;
+
+	/** the timeout rate opening the breaker */
+	private final double mTimeoutRate;
+
+	/** the time the breaker stays open before a probe (ms) */
+	private final long mOpenTime;
+
+	/** the index of the next outcome */
+	private int mIndex;
+
+	/** the number of outcomes recorded, up to the window size */
+	private int mCount;
+
+	/** the number of timeouts among the recorded outcomes */
+	private int mTimeoutCount;
+
+	/** the state */
+	private State mState = State.CLOSED;
+
+	/** the time the breaker was opened (ms) */
+	private long mOpenedTime;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pWindowSize
+	 *            the number of last invocations whose timeout rate is computed
+	 * @param pTimeoutRate
+	 *            the timeout rate opening the breaker, between 0 and 1
+	 * @param pOpenTime
+	 *            the time the breaker stays open before a probe (ms)
+	 */
+	CircuitBreaker(int pWindowSize, double pTimeoutRate, long pOpenTime) {
+		mOutcomes = new boolean[pWindowSize];
+		mMinimumCount = Math.max(1, pWindowSize / 2);
+		mTimeoutRate = pTimeoutRate;
+		mOpenTime = pOpenTime;
+	}
+
+	/**
+	 * Lets an invocation through, as a probe if the open time has elapsed.
+	 *
+	 * @return false if the invocation must fail immediately
+	 */
+	synchronized boolean tryAcquire() {
+		if (mState == State.CLOSED) {
+			return true;
+		}
+		if (mState == State.OPEN && System.currentTimeMillis() - mOpenedTime >= mOpenTime) {
+			mState = State.HALF_OPEN;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records an invocation answered by the exporter, successfully or not.
+	 */
+	synchronized void onReply() {
+		if (mState == State.HALF_OPEN) {
+			close();
+		} else if (mState == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	/**
+	 * Records an invocation whose reply timed out.
+	 */
+	synchronized void onTimeout() {
+		if (mState == State.HALF_OPEN) {
+			open();
+		} else if (mState == State.CLOSED) {
+			record(true);
+			if (mCount >= mMinimumCount && mTimeoutCount >= mTimeoutRate * mCount) {
+				open();
+			}
+		}
+	}
+
+	/**
+	 * Records an invocation which did not reach the exporter for another reason, e.g. a rejection by
+	 * the concurrency limiter: a probe is let through again.
+	 */
+	synchronized void onAbort() {
+		if (mState == State.HALF_OPEN) {
+			mState = State.OPEN;
+		}
+	}
+
+	/**
+	 * Closes the breaker, e.g. when a consumer of the destination reappears.
+	 */
+	synchronized void close() {
+		mState = State.CLOSED;
+		mIndex = 0;
+		mCount = 0;
+		mTimeoutCount = 0;
+	}
+
+	/**
+	 * Returns the state
+	 *
+	 * @return the state
+	 */
+	synchronized State getState() {
+		return mState;
+	}
+
+	/**
+	 * Opens the breaker.
+	 */
+	private void open() {
+		mState = State.OPEN;
+		mOpenedTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records an outcome in the window.
+	 *
+	 * @param pTimeout
+	 *            true for a timeout
+	 */
+	private void record(boolean pTimeout) {
+		if (mCount == mOutcomes.length) {
+			if (mOutcomes[mIndex]) {
+				mTimeoutCount--;
+			}
+		} else {
+			mCount++;
+		}
+		mOutcomes[mIndex] = pTimeout;
+		if (pTimeout) {
+			mTimeoutCount++;
+		}
+		mIndex = (mIndex + 1) % mOutcomes.length;
+	}
+}
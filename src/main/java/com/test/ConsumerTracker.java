@@ -0,0 +1,180 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.advisory.AdvisorySupport;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jms.connection.ConnectionFactoryUtils;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Tracks the number of consumers of a destination from the ActiveMQ consumer advisories: each
+ * advisory carries the consumer count once a consumer is added or removed, and the existing
+ * consumers are replayed when the advisory consumer subscribes. A consumer behind a network bridge
+ * is counted through the subscription the bridge creates on the local broker.
+ * <p>
+ * The count is unknown until the first advisory is received, and after a failure of the advisory
+ * consumer until it is re-opened by {@link #start()}.
+ *
+ * @author T0130672
+ */
+final class ConsumerTracker implements MessageListener, ExceptionListener {
+
+	/** logger */
+	private static final Log LOGGER = LogFactory.getLog(ConsumerTracker.class);
+
+	/** value of the consumer count while unknown */
+	static final int UNKNOWN = -1;
+
+	/** the connection factory */
+	private final ConnectionFactory mConnectionFactory;
+
+	/** the tracked destination */
+	private final Destination mDestination;
+
+	/** called when a consumer appears on the destination */
+	private final Runnable mOnConsumerAdded;
+
+	/** the JMS connection */
+	private Connection mConnection;
+
+	/** the JMS session owning the advisory consumer */
+	private Session mSession;
+
+	/** the advisory consumer */
+	private MessageConsumer mConsumer;
+
+	/** the consumer count */
+	private volatile int mConsumerCount = UNKNOWN;
+
+	/** started flag */
+	private volatile boolean mStarted;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pConnectionFactory
+	 *            the connection factory of the broker
+	 * @param pDestination
+	 *            the tracked destination
+	 * @param pOnConsumerAdded
+	 *            called when a consumer appears on the destination which had none
+	 */
+	ConsumerTracker(ConnectionFactory pConnectionFactory, Destination pDestination, Runnable pOnConsumerAdded) {
+		mConnectionFactory = pConnectionFactory;
+		mDestination = pDestination;
+		mOnConsumerAdded = pOnConsumerAdded;
+	}
+
+	/**
+	 * Opens the advisory consumer if not already done.
+	 *
+	 * @throws JMSException
+	 *             if the consumer cannot be created
+	 */
+	void start() throws JMSException {
+		if (mStarted) {
+			return;
+		}
+		synchronized (this) {
+			if (mStarted) {
+				return;
+			}
+			Connection lConnection = mConnectionFactory.createConnection();
+			try {
+				try {
+					lConnection.setExceptionListener(this);
+				} catch (javax.jms.IllegalStateException lE) {
+					// shared connection without reconnect support: the count is kept until the
+					// advisories stop
+					LOGGER.debug("Cannot register exception listener on advisory connection", lE);
+				}
+				mSession = lConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				mConsumer = mSession.createConsumer(
+						AdvisorySupport.getConsumerAdvisoryTopic(ActiveMQDestination.transform(mDestination)));
+				mConsumer.setMessageListener(this);
+				lConnection.start();
+				mConnection = lConnection;
+				mStarted = true;
+			} finally {
+				if (!mStarted) {
+					JmsUtils.closeMessageConsumer(mConsumer);
+					JmsUtils.closeSession(mSession);
+					ConnectionFactoryUtils.releaseConnection(lConnection, mConnectionFactory, true);
+					mConsumer = null;
+					mSession = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of consumers of the destination
+	 *
+	 * @return the consumer count, {@link #UNKNOWN} if unknown
+	 */
+	int getConsumerCount() {
+		return mConsumerCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onMessage(Message pMessage) {
+		try {
+			if (!pMessage.propertyExists(AdvisorySupport.MSG_PROPERTY_CONSUMER_COUNT)) {
+				return;
+			}
+			int lCount = pMessage.getIntProperty(AdvisorySupport.MSG_PROPERTY_CONSUMER_COUNT);
+			int lPrevious = mConsumerCount;
+			mConsumerCount = lCount;
+			if (lCount > 0 && lPrevious <= 0) {
+				mOnConsumerAdded.run();
+			}
+		} catch (JMSException lE) {
+			LOGGER.warn("Cannot read consumer advisory of " + mDestination, lE);
+		}
+	}
+
+	/**
+	 * Forgets the count on a connection failure: the advisory consumer is re-opened on the next
+	 * {@link #start()}.
+	 */
+	@Override
+	public void onException(JMSException pException) {
+		LOGGER.warn("Advisory connection failure, consumers of " + mDestination + " unknown", pException);
+		stop();
+	}
+
+	/**
+	 * Closes the advisory consumer.
+	 */
+	synchronized void stop() {
+		mStarted = false;
+		mConsumerCount = UNKNOWN;
+		JmsUtils.closeMessageConsumer(mConsumer);
+		JmsUtils.closeSession(mSession);
+		if (mConnection != null) {
+			ConnectionFactoryUtils.releaseConnection(mConnection, mConnectionFactory, true);
+		}
+		mConsumer = null;
+		mSession = null;
+		mConnection = null;
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded cache of values expiring after a time to live. The least recently used entry is
+ * evicted when the cache is full.
+ * <p>
+ * A value is loaded once for concurrent misses of the same key: the first caller loads it while
+ * the others wait for its result (or its failure, which is not cached).
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ * @author T0130672
+ */
+final class ExpiringCache<K, V> {
+
+	/** the maximum number of entries */
+	private final int mMaxSize;
+
+	/** the entries in access order, guarded by itself */
+	private final LinkedHashMap<K, CacheEntry<V>> mEntries;
+
+	/** the number of values found in the cache, loaded or being loaded */
+	private final LongAdder mHits = new LongAdder();
+
+	/** the number of values loaded */
+	private final LongAdder mMisses = new LongAdder();
+
+	/** the number of entries evicted because the cache was full */
+	private final LongAdder mEvictions = new LongAdder();
+
+	/** the number of entries removed because expired */
+	private final LongAdder mExpirations = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMaxSize
+	 *            the maximum number of entries
+	 */
+	ExpiringCache(int pMaxSize) {
+		if (pMaxSize <= 0) {
+			throw new IllegalArgumentException("Invalid cache size " + pMaxSize);
+		}
+		mMaxSize = pMaxSize;
+		mEntries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> pEldest) {
+				if (size() > mMaxSize) {
+					mEvictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the value of a key, loading it if absent or expired.
+	 *
+	 * @param pKey
+	 *            the key
+	 * @param pTimeToLive
+	 *            the time to live of a loaded value (ms)
+	 * @param pLoader
+	 *            the loader of the value
+	 * @return the value
+	 * @throws Throwable
+	 *             the failure of the loader, for the caller which loaded the value and for the
+	 *             callers waiting for it
+	 */
+	V get(K pKey, long pTimeToLive, Loader<V> pLoader) throws Throwable {
+		return get(pKey, pTimeToLive, pLoader, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the value of a key, loading it if absent or expired. A caller waiting for the value
+	 * loaded by another caller gives up after a maximum wait.
+	 *
+	 * @param pKey
+	 *            the key
+	 * @param pTimeToLive
+	 *            the time to live of a loaded value (ms)
+	 * @param pLoader
+	 *            the loader of the value
+	 * @param pMaxWait
+	 *            the maximum wait for a value being loaded by another caller (ms)
+	 * @return the value
+	 * @throws TimeoutException
+	 *             if the value being loaded by another caller is not loaded in time
+	 * @throws Throwable
+	 *             the failure of the loader, for the caller which loaded the value and for the
+	 *             callers waiting for it
+	 */
+	V get(K pKey, long pTimeToLive, Loader<V> pLoader, long pMaxWait) throws Throwable {
+		CacheEntry<V> lEntry;
+		boolean lLoader = false;
+		synchronized (mEntries) {
+			lEntry = mEntries.get(pKey);
+			if (lEntry != null && lEntry.isExpired(System.currentTimeMillis())) {
+				mEntries.remove(pKey);
+				mExpirations.increment();
+				lEntry = null;
+			}
+			if (lEntry == null) {
+				lEntry = new CacheEntry<V>();
+				mEntries.put(pKey, lEntry);
+				lLoader = true;
+			}
+		}
+		if (!lLoader) {
+			mHits.increment();
+			return lEntry.await(pMaxWait);
+		}
+		mMisses.increment();
+		try {
+			V lValue = pLoader.load();
+			lEntry.complete(lValue, System.currentTimeMillis() + pTimeToLive);
+			return lValue;
+		} catch (Throwable lE) {// NOSONAR the waiting callers must be released whatever the failure
+			synchronized (mEntries) {
+				mEntries.remove(pKey, lEntry);
+			}
+			lEntry.completeExceptionally(lE);
+			throw lE;
+		}
+	}
+
+	/**
+	 * Removes the expired entries. The expired entries are otherwise removed when accessed or
+	 * evicted when the cache is full.
+	 */
+	void purge() {
+		long lNow = System.currentTimeMillis();
+		synchronized (mEntries) {
+			Iterator<CacheEntry<V>> lIterator = mEntries.values().iterator();
+			while (lIterator.hasNext()) {
+				if (lIterator.next().isExpired(lNow)) {
+					lIterator.remove();
+					mExpirations.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry.
+	 */
+	void clear() {
+		synchronized (mEntries) {
+			mEntries.clear();
+		}
+	}
+
+	/**
+	 * Returns the statistics of the cache
+	 *
+	 * @return the statistics snapshot
+	 */
+	CacheStatistics getStatistics() {
+		int lSize;
+		synchronized (mEntries) {
+			lSize = mEntries.size();
+		}
+		return new CacheStatistics(mMaxSize, lSize, mHits.sum(), mMisses.sum(), mEvictions.sum(), mExpirations.sum());
+	}
+
+	/**
+	 * Loads a value.
+	 *
+	 * @param <V>
+	 *            the value type
+	 */
+	interface Loader<V> {
+
+		/**
+		 * Loads the value.
+		 *
+		 * @return the value
+		 * @throws Throwable
+		 *             if the value cannot be loaded
+		 */
+		V load() throws Throwable;// NOSONAR same contract as MethodInterceptor#invoke
+	}
+
+	/**
+	 * A value, loaded or being loaded.
+	 *
+	 * @param <V>
+	 *            the value type
+	 */
+	private static final class CacheEntry<V> extends CompletableFuture<V> {
+
+		/** the expiration time, never while loading */
+		private volatile long mExpiration = Long.MAX_VALUE;
+
+		/**
+		 * Sets the loaded value.
+		 *
+		 * @param pValue
+		 *            the value
+		 * @param pExpiration
+		 *            the expiration time
+		 */
+		void complete(V pValue, long pExpiration) {
+			mExpiration = pExpiration;
+			complete(pValue);
+		}
+
+		/**
+		 * Tells whether the value is expired
+		 *
+		 * @param pNow
+		 *            the current time
+		 * @return true if expired
+		 */
+		boolean isExpired(long pNow) {
+			return mExpiration <= pNow;
+		}
+
+		/**
+		 * Waits for the value.
+		 *
+		 * @param pMaxWait
+		 *            the maximum wait (ms)
+		 * @return the value
+		 * @throws TimeoutException
+		 *             if the value is not loaded in time
+		 * @throws Throwable
+		 *             the failure of the loader
+		 */
+		V await(long pMaxWait) throws Throwable {
+			long lStart = System.currentTimeMillis();
+			boolean lInterrupted = false;
+			try {
+				while (true) {
+					try {
+						if (pMaxWait == Long.MAX_VALUE) {
+							return get();
+						}
+						return get(Math.max(0, lStart + pMaxWait - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					} catch (InterruptedException lE) {
+						// the loader is bounded by its own timeout
+						lInterrupted = true;
+					} catch (ExecutionException lE) {
+						throw lE.getCause();
+					}
+				}
+			} finally {
+				if (lInterrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteTimeoutException;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * The replies of the exporters subscribed to a topic to a broadcast request, gathered into the list
+ * of their results.
+ * <p>
+ * The gathering completes once the expected number of results is received, or at the deadline. A
+ * partial list is returned if it reaches the quorum; otherwise the invocation fails with the
+ * exception of the first failed reply, or with a timeout if no reply failed.
+ *
+ * @author T0130672
+ */
+final class GatheredReplies implements ReplyDispatcher.ReplyStream {
+
+	/** the description of the request for the error messages */
+	private final String mDescription;
+
+	/** the number of results expected, 0 to gather until the deadline */
+	private final int mCount;
+
+	/** the minimum number of results */
+	private final int mQuorum;
+
+	/** the reader of the replies */
+	private final StreamedResult.ResultReader mReader;
+
+	/** the replies received, or the failure of the reply consumer */
+	private final BlockingQueue<Object> mReplies = new LinkedBlockingQueue<Object>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pDescription
+	 *            the description of the request
+	 * @param pCount
+	 *            the number of results expected, 0 to gather until the deadline
+	 * @param pQuorum
+	 *            the minimum number of results
+	 * @param pReader
+	 *            the reader of the replies
+	 */
+	GatheredReplies(String pDescription, int pCount, int pQuorum, StreamedResult.ResultReader pReader) {
+		mDescription = pDescription;
+		mCount = pCount;
+		mQuorum = pQuorum;
+		mReader = pReader;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onMessage(Message pMessage) {
+		mReplies.add(pMessage);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onException(JMSException pException) {
+		mReplies.add(pException);
+	}
+
+	/**
+	 * Waits for the replies.
+	 *
+	 * @param pTimeout
+	 *            the maximum wait (ms), 0 for no timeout
+	 * @return the results in the order of their arrival
+	 * @throws Throwable
+	 *             the exception of the first failed reply, a {@link RemoteTimeoutException} if the
+	 *             quorum is not reached in time
+	 */
+	List<Object> await(long pTimeout) throws Throwable {
+		long lDeadline = System.currentTimeMillis() + pTimeout;
+		List<Object> lResults = new ArrayList<Object>();
+		RemoteInvocationResult lFailure = null;
+		int lFailureCount = 0;
+		while (mCount == 0 || lResults.size() < mCount) {
+			Object lReply;
+			try {
+				if (pTimeout > 0) {
+					long lRemaining = lDeadline - System.currentTimeMillis();
+					lReply = lRemaining > 0 ? mReplies.poll(lRemaining, TimeUnit.MILLISECONDS) : null;
+				} else {
+					lReply = mReplies.take();
+				}
+			} catch (InterruptedException lE) {
+				Thread.currentThread().interrupt();
+				throw new RemoteAccessException("Interrupted while gathering " + mDescription);
+			}
+			if (lReply == null) {
+				break;
+			}
+			if (lReply instanceof JMSException) {
+				throw new RemoteAccessException("Reply consumer of " + mDescription + " failed", (JMSException) lReply);
+			}
+			RemoteInvocationResult lResult = mReader.read((Message) lReply);
+			if (lResult.hasException()) {
+				lFailureCount++;
+				if (lFailure == null) {
+					lFailure = lResult;
+				}
+			} else {
+				lResults.add(lResult.getValue());
+			}
+		}
+		if (lResults.size() >= mQuorum) {
+			return lResults;
+		}
+		if (lFailure != null) {
+			// rethrows the exception of the exporter
+			lFailure.recreate();
+		}
+		throw new RemoteTimeoutException(lResults.size() + " results and " + lFailureCount + " failures of " + mDescription
+				+ " within " + pTimeout + " ms, quorum " + mQuorum);
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a service interface as idempotent: the proxy may send its request more than
+ * once, e.g. a hedged duplicate through a second broker when the reply is late. The exporters
+ * should detect the duplicates (see
+ * {@link JmsInvokerServiceExporter#setIdempotencyCacheSize(int)}) when the method is not free of
+ * side effects.
+ *
+ * @author T0130672
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+}
@@ -0,0 +1,120 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+
+/**
+ * The conversion between the JMS messages and the payloads of a batch of invocations, or of the
+ * results of a batch.
+ * <p>
+ * A batch is a {@link BytesMessage} carrying the number of entries in the {@value #BATCH_SIZE_PROPERTY}
+ * property and the codec of the entries in the {@value InvocationCodecs#CODEC_PROPERTY} property; the
+ * body holds the length and the encoded payload of each entry. The results of a batch are sent back
+ * in a single message, in the order of the invocations. The exporter advertises its support of the
+ * batches in the {@value #ACCEPT_BATCHES_PROPERTY} property of its replies.
+ *
+ * @author T0130672
+ */
+final class InvocationBatch {
+
+	/** name of the property holding the number of entries of a batch */
+	static final String BATCH_SIZE_PROPERTY = "batchSize";
+
+	/** name of the property telling that the exporter accepts the batches */
+	static final String ACCEPT_BATCHES_PROPERTY = "acceptBatches";
+
+	/**
+	 * Constructor
+	 */
+	private InvocationBatch() {
+		// static methods only
+	}
+
+	/**
+	 * Tells whether a message is a batch.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return true if the message is a batch
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static boolean isBatch(Message pMessage) throws JMSException {
+		return pMessage.propertyExists(BATCH_SIZE_PROPERTY);
+	}
+
+	/**
+	 * Tells whether a reply advertises the support of the batches.
+	 *
+	 * @param pMessage
+	 *            the reply
+	 * @return true if the batches are accepted
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static boolean acceptsBatches(Message pMessage) throws JMSException {
+		return pMessage.propertyExists(ACCEPT_BATCHES_PROPERTY) && pMessage.getBooleanProperty(ACCEPT_BATCHES_PROPERTY);
+	}
+
+	/**
+	 * Creates the message of a batch.
+	 *
+	 * @param pSession
+	 *            the JMS session
+	 * @param pPayloads
+	 *            the encoded entries
+	 * @param pCodec
+	 *            the codec of the entries
+	 * @return the message
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static Message createMessage(Session pSession, List<byte[]> pPayloads, InvocationCodec pCodec)
+			throws JMSException {
+		BytesMessage lMessage = pSession.createBytesMessage();
+		for (byte[] lPayload : pPayloads) {
+			lMessage.writeInt(lPayload.length);
+			lMessage.writeBytes(lPayload);
+		}
+		lMessage.setIntProperty(BATCH_SIZE_PROPERTY, pPayloads.size());
+		lMessage.setStringProperty(InvocationCodecs.CODEC_PROPERTY, pCodec.getName());
+		return lMessage;
+	}
+
+	/**
+	 * Reads the entries of a batch.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the encoded entries
+	 * @throws JMSException
+	 *             if the message is not a valid batch
+	 */
+	static List<byte[]> read(Message pMessage) throws JMSException {
+		if (!(pMessage instanceof BytesMessage)) {
+			throw new MessageFormatException("Expected a BytesMessage but got " + pMessage.getClass().getName());
+		}
+		BytesMessage lMessage = (BytesMessage) pMessage;
+		int lSize = pMessage.getIntProperty(BATCH_SIZE_PROPERTY);
+		List<byte[]> lPayloads = new ArrayList<byte[]>(lSize);
+		for (int i = 0; i < lSize; i++) {
+			byte[] lPayload = new byte[lMessage.readInt()];
+			if (lPayload.length > 0 && lMessage.readBytes(lPayload) != lPayload.length) {
+				throw new MessageFormatException("Truncated batch entry " + i + " of " + lSize);
+			}
+			lPayloads.add(lPayload);
+		}
+		return lPayloads;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Gathers the items submitted concurrently into batches. A batch is flushed when it holds the
+ * maximum number of items, by the submitting thread, or when the maximum delay since its first item
+ * has elapsed, by the scheduler.
+ *
+ * @param <T>
+ *            the item type
+ * @author T0130672
+ */
+class InvocationBatcher<T> {
+
+	/** the maximum number of items of a batch */
+	private final int mMaxSize;
+
+	/** the maximum delay between the first item of a batch and its flush (us) */
+	private final long mMaxDelay;
+
+	/** the scheduler flushing the batches on delay */
+	private final ScheduledExecutorService mScheduler;
+
+	/** the callback sending a batch */
+	private final Consumer<List<T>> mFlusher;
+
+	/** the batch being gathered, guarded by this */
+	private List<T> mCurrent;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMaxSize
+	 *            the maximum number of items of a batch
+	 * @param pMaxDelay
+	 *            the maximum delay between the first item of a batch and its flush (us)
+	 * @param pScheduler
+	 *            the scheduler flushing the batches on delay
+	 * @param pFlusher
+	 *            the callback sending a batch
+	 */
+	InvocationBatcher(int pMaxSize, long pMaxDelay, ScheduledExecutorService pScheduler, Consumer<List<T>> pFlusher) {
+		mMaxSize = pMaxSize;
+		mMaxDelay = pMaxDelay;
+		mScheduler = pScheduler;
+		mFlusher = pFlusher;
+	}
+
+	/**
+	 * Adds an item to the current batch, flushing the batch if full.
+	 *
+	 * @param pItem
+	 *            the item
+	 */
+	void add(T pItem) {
+		List<T> lFull = null;
+		List<T> lStarted = null;
+		synchronized (this) {
+			if (mCurrent == null) {
+				mCurrent = new ArrayList<T>(mMaxSize);
+				lStarted = mCurrent;
+			}
+			mCurrent.add(pItem);
+			if (mCurrent.size() >= mMaxSize) {
+				lFull = mCurrent;
+				mCurrent = null;
+			}
+		}
+		if (lFull != null) {
+			mFlusher.accept(lFull);
+		} else if (lStarted != null) {
+			final List<T> lBatch = lStarted;
+			mScheduler.schedule(() -> flush(lBatch), mMaxDelay, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	/**
+	 * Flushes a batch on delay, unless already flushed because full.
+	 *
+	 * @param pBatch
+	 *            the batch
+	 */
+	private void flush(List<T> pBatch) {
+		synchronized (this) {
+			if (mCurrent != pBatch) {
+				return;
+			}
+			mCurrent = null;
+		}
+		mFlusher.accept(pBatch);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.IOException;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * Encoding of the remote invocations and of their results exchanged between
+ * {@link JmsInvokerProxyFactoryBean} and {@link JmsInvokerServiceExporter}.
+ * <p>
+ * The encoded payload travels in a {@code BytesMessage} carrying the codec name, so that the
+ * receiver can pick the matching codec. Implementations must be thread-safe.
+ *
+ * @author T0130672
+ */
+public interface InvocationCodec {
+
+	/**
+	 * Returns the codec name, used for the negotiation between the peers
+	 *
+	 * @return the codec name
+	 */
+	String getName();
+
+	/**
+	 * Encodes a remote invocation.
+	 *
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @return the encoded invocation
+	 * @throws IOException
+	 *             if the invocation cannot be encoded
+	 */
+	byte[] encodeInvocation(RemoteInvocation pInvocation) throws IOException;
+
+	/**
+	 * Decodes a remote invocation.
+	 *
+	 * @param pData
+	 *            the encoded invocation
+	 * @return the remote invocation
+	 * @throws IOException
+	 *             if the invocation cannot be decoded
+	 */
+	RemoteInvocation decodeInvocation(byte[] pData) throws IOException;
+
+	/**
+	 * Encodes the result of a remote invocation.
+	 *
+	 * @param pResult
+	 *            the invocation result
+	 * @return the encoded result
+	 * @throws IOException
+	 *             if the result cannot be encoded
+	 */
+	byte[] encodeResult(RemoteInvocationResult pResult) throws IOException;
+
+	/**
+	 * Decodes the result of a remote invocation.
+	 *
+	 * @param pData
+	 *            the encoded result
+	 * @return the invocation result
+	 * @throws IOException
+	 *             if the result cannot be decoded
+	 */
+	RemoteInvocationResult decodeResult(byte[] pData) throws IOException;
+}
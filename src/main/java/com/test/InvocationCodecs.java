@@ -0,0 +1,265 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * The codecs known by a peer, and the conversion between the encoded payloads and the JMS messages.
+ * <p>
+ * A message encoded by a codec is a {@link BytesMessage} carrying the codec name in the
+ * {@value #CODEC_PROPERTY} property; a message without this property is a legacy
+ * {@code ObjectMessage}. The exporter advertises the codecs it accepts in the
+ * {@value #ACCEPT_CODECS_PROPERTY} property of its replies, along with its ID in the
+ * {@value #EXPORTER_ID_PROPERTY} property, so that a proxy only switches to its codec once every
+ * exporter of the service is known to support it.
+ *
+ * @author T0130672
+ */
+final class InvocationCodecs {
+
+	/** name of the property holding the codec of a message */
+	static final String CODEC_PROPERTY = "codec";
+
+	/** name of the property holding the codecs accepted by the exporter */
+	static final String ACCEPT_CODECS_PROPERTY = "acceptCodecs";
+
+	/** name of the property holding the ID of the exporter advertising its capabilities */
+	static final String EXPORTER_ID_PROPERTY = "exporterId";
+
+	/** the codecs indexed by name */
+	private final Map<String, InvocationCodec> mCodecs = new LinkedHashMap<String, InvocationCodec>();
+
+	/** the comma separated codec names */
+	private final String mNames;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pCodecs
+	 *            the codecs
+	 */
+	InvocationCodecs(Collection<? extends InvocationCodec> pCodecs) {
+		StringBuilder lNames = new StringBuilder();
+		for (InvocationCodec lCodec : pCodecs) {
+			mCodecs.put(lCodec.getName(), lCodec);
+			if (lNames.length() > 0) {
+				lNames.append(',');
+			}
+			lNames.append(lCodec.getName());
+		}
+		mNames = lNames.toString();
+	}
+
+	/**
+	 * Returns the comma separated codec names
+	 *
+	 * @return the codec names
+	 */
+	String getNames() {
+		return mNames;
+	}
+
+	/**
+	 * Returns the codec of a message
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the codec name, or null for a legacy message
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static String getCodecName(Message pMessage) throws JMSException {
+		return pMessage.getStringProperty(CODEC_PROPERTY);
+	}
+
+	/**
+	 * Tells whether a codec appears in a list of accepted codecs.
+	 *
+	 * @param pAcceptedCodecs
+	 *            the comma separated accepted codec names (may be null)
+	 * @param pName
+	 *            the codec name
+	 * @return true if the codec is accepted
+	 */
+	static boolean accepts(String pAcceptedCodecs, String pName) {
+		if (pAcceptedCodecs == null) {
+			return false;
+		}
+		for (String lAccepted : pAcceptedCodecs.split(",")) {
+			if (lAccepted.trim().equals(pName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the message of a remote invocation.
+	 *
+	 * @param pSession
+	 *            the JMS session
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pCodec
+	 *            the codec
+	 * @return the message
+	 * @throws JMSException
+	 *             if the invocation cannot be encoded
+	 */
+	static Message createInvocationMessage(Session pSession, RemoteInvocation pInvocation, InvocationCodec pCodec)
+			throws JMSException {
+		try {
+			return createMessage(pSession, pCodec.encodeInvocation(pInvocation), pCodec);
+		} catch (IOException lE) {
+			throw conversionFailure("Cannot encode " + pInvocation, lE);
+		}
+	}
+
+	/**
+	 * Creates the message of an invocation result.
+	 *
+	 * @param pSession
+	 *            the JMS session
+	 * @param pResult
+	 *            the invocation result
+	 * @param pCodec
+	 *            the codec
+	 * @return the message
+	 * @throws JMSException
+	 *             if the result cannot be encoded
+	 */
+	static Message createResultMessage(Session pSession, RemoteInvocationResult pResult, InvocationCodec pCodec)
+			throws JMSException {
+		try {
+			return createMessage(pSession, pCodec.encodeResult(pResult), pCodec);
+		} catch (IOException lE) {
+			throw conversionFailure("Cannot encode invocation result", lE);
+		}
+	}
+
+	/**
+	 * Reads the remote invocation of a message encoded by one of the codecs.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the remote invocation
+	 * @throws JMSException
+	 *             if the invocation cannot be decoded
+	 */
+	RemoteInvocation readInvocation(Message pMessage) throws JMSException {
+		InvocationCodec lCodec = getCodec(pMessage);
+		try {
+			return lCodec.decodeInvocation(readBody(pMessage));
+		} catch (IOException lE) {
+			throw conversionFailure("Cannot decode invocation with codec " + lCodec.getName(), lE);
+		}
+	}
+
+	/**
+	 * Reads the invocation result of a message encoded by one of the codecs.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the invocation result
+	 * @throws JMSException
+	 *             if the result cannot be decoded
+	 */
+	RemoteInvocationResult readResult(Message pMessage) throws JMSException {
+		InvocationCodec lCodec = getCodec(pMessage);
+		try {
+			return lCodec.decodeResult(readBody(pMessage));
+		} catch (IOException lE) {
+			throw conversionFailure("Cannot decode invocation result with codec " + lCodec.getName(), lE);
+		}
+	}
+
+	/**
+	 * Returns the codec of a message.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the codec
+	 * @throws JMSException
+	 *             if the codec is unknown
+	 */
+	InvocationCodec getCodec(Message pMessage) throws JMSException {
+		String lName = getCodecName(pMessage);
+		InvocationCodec lCodec = lName != null ? mCodecs.get(lName) : null;
+		if (lCodec == null) {
+			throw new MessageFormatException("Unsupported codec " + lName + ", supported codecs are " + mNames);
+		}
+		return lCodec;
+	}
+
+	/**
+	 * Creates a bytes message tagged with its codec.
+	 *
+	 * @param pSession
+	 *            the JMS session
+	 * @param pPayload
+	 *            the encoded payload
+	 * @param pCodec
+	 *            the codec
+	 * @return the message
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private static Message createMessage(Session pSession, byte[] pPayload, InvocationCodec pCodec)
+			throws JMSException {
+		BytesMessage lMessage = pSession.createBytesMessage();
+		lMessage.writeBytes(pPayload);
+		lMessage.setStringProperty(CODEC_PROPERTY, pCodec.getName());
+		return lMessage;
+	}
+
+	/**
+	 * Reads the body of a bytes message.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return the body
+	 * @throws JMSException
+	 *             if the message is not a bytes message
+	 */
+	static byte[] readBody(Message pMessage) throws JMSException {
+		if (!(pMessage instanceof BytesMessage)) {
+			throw new MessageFormatException("Expected a BytesMessage but got " + pMessage.getClass().getName());
+		}
+		BytesMessage lMessage = (BytesMessage) pMessage;
+		byte[] lBody = new byte[(int) lMessage.getBodyLength()];
+		lMessage.readBytes(lBody);
+		return lBody;
+	}
+
+	/**
+	 * Creates the JMS exception reporting a conversion failure.
+	 *
+	 * @param pMessage
+	 *            the failure message
+	 * @param pCause
+	 *            the cause
+	 * @return the JMS exception
+	 */
+	static JMSException conversionFailure(String pMessage, Exception pCause) {
+		JMSException lException = new MessageFormatException(pMessage + ": " + pCause.getMessage());
+		lException.setLinkedException(pCause);
+		lException.initCause(pCause);
+		return lException;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * The context of the remote invocation run by the current thread of an exporter: the service can
+ * read the time left before the caller gives up, and stop a work nobody waits for anymore. The
+ * deadline is propagated to the remote invocations made by the service itself.
+ * <p>
+ * The deadline is an absolute time stamped by the proxy, so the clocks of the hosts are expected to
+ * be synchronized.
+ *
+ * @author T0130672
+ */
+public final class InvocationContext {
+
+	/** name of the request property holding the absolute deadline (ms since the epoch) */
+	static final String DEADLINE_PROPERTY = "deadline";
+
+	/** value of the deadline when the caller waits without timeout */
+	public static final long NO_DEADLINE = 0;
+
+	/** the deadline of the invocation run by the current thread */
+	private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+	/**
+	 * Constructor
+	 */
+	private InvocationContext() {
+		// static only
+	}
+
+	/**
+	 * Returns the deadline of the current invocation
+	 *
+	 * @return the absolute deadline (ms since the epoch), {@link #NO_DEADLINE} if none or if the
+	 *         current thread runs no remote invocation
+	 */
+	public static long getDeadline() {
+		Long lDeadline = DEADLINE.get();
+		return lDeadline != null ? lDeadline : NO_DEADLINE;
+	}
+
+	/**
+	 * Returns the time left before the caller of the current invocation gives up
+	 *
+	 * @return the remaining time (ms), negative if expired, {@link Long#MAX_VALUE} if no deadline
+	 */
+	public static long getRemainingTime() {
+		long lDeadline = getDeadline();
+		return lDeadline != NO_DEADLINE ? lDeadline - System.currentTimeMillis() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Tells whether the caller of the current invocation gave up
+	 *
+	 * @return true if the deadline has passed
+	 */
+	public static boolean isExpired() {
+		return getRemainingTime() <= 0;
+	}
+
+	/**
+	 * Sets the deadline of the invocation run by the current thread.
+	 *
+	 * @param pDeadline
+	 *            the absolute deadline, {@link #NO_DEADLINE} for none
+	 * @return the previous deadline, to restore once the invocation is done
+	 */
+	static long enter(long pDeadline) {
+		long lPrevious = getDeadline();
+		if (pDeadline != NO_DEADLINE) {
+			DEADLINE.set(pDeadline);
+		} else {
+			DEADLINE.remove();
+		}
+		return lPrevious;
+	}
+
+	/**
+	 * Restores the deadline of the current thread once an invocation is done.
+	 *
+	 * @param pPrevious
+	 *            the deadline returned by {@link #enter(long)}
+	 */
+	static void exit(long pPrevious) {
+		enter(pPrevious);
+	}
+}
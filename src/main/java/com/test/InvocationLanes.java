@@ -0,0 +1,67 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.command.ActiveMQDestination;
+
+/**
+ * The lanes of the requests: the requests of a lane are sent to their own destination, named after
+ * the service destination suffixed with {@value #LANE_SEPARATOR} and the lane name, and carry the
+ * lane name in the {@value #LANE_PROPERTY} property. Each lane destination is consumed by its own
+ * listener container, and the exporter dispatches each lane to its own executor, so that a lane
+ * saturated by bulk requests does not delay the requests of the other lanes.
+ *
+ * @author T0130672
+ */
+final class InvocationLanes {
+
+	/** name of the request property holding the lane */
+	static final String LANE_PROPERTY = "lane";
+
+	/** separator between the service destination name and the lane name */
+	static final String LANE_SEPARATOR = ".";
+
+	/**
+	 * Constructor
+	 */
+	private InvocationLanes() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the destination of a lane.
+	 *
+	 * @param pDestination
+	 *            the service destination, a queue or a topic
+	 * @param pLane
+	 *            the lane name
+	 * @return the lane destination, of the same type as the service destination
+	 * @throws JMSException
+	 *             if the service destination cannot be converted to an ActiveMQ destination
+	 */
+	static Destination getDestination(Destination pDestination, String pLane) throws JMSException {
+		ActiveMQDestination lDestination = ActiveMQDestination.transform(pDestination);
+		return ActiveMQDestination.createDestination(lDestination.getPhysicalName() + LANE_SEPARATOR + pLane,
+				lDestination.getDestinationType());
+	}
+
+	/**
+	 * Returns the lane of a request.
+	 *
+	 * @param pMessage
+	 *            the request message
+	 * @return the lane name, or null for the default lane
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static String getLane(Message pMessage) throws JMSException {
+		return pMessage.getStringProperty(LANE_PROPERTY);
+	}
+}
@@ -0,0 +1,288 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.activemq.command.ActiveMQMessage;
+
+/**
+ * Per-method latency histograms of the {@link InvocationPhase phases} of the remote invocations,
+ * with timeout and error counters, recorded by a proxy or an exporter. The data can be read
+ * programmatically or through JMX.
+ *
+ * @author T0130672
+ */
+public class InvocationMetrics implements InvocationMetricsMXBean {
+
+	/** the metrics of the methods, indexed by method name */
+	private final ConcurrentMap<String, MethodMetrics> mMethods = new ConcurrentHashMap<String, MethodMetrics>();
+
+	/** the name under which this object is registered in the platform MBean server (null if not) */
+	private ObjectName mObjectName;
+
+	/**
+	 * Records the duration of a phase.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @param pPhase
+	 *            the phase
+	 * @param pNanos
+	 *            the duration in nanoseconds
+	 */
+	void record(String pMethodName, InvocationPhase pPhase, long pNanos) {
+		getMethodMetrics(pMethodName).mHistograms.get(pPhase).record(pNanos);
+	}
+
+	/**
+	 * Records the duration of a phase started at a given time.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @param pPhase
+	 *            the phase
+	 * @param pStart
+	 *            the start of the phase, as returned by {@link System#nanoTime()}
+	 */
+	void recordSince(String pMethodName, InvocationPhase pPhase, long pStart) {
+		record(pMethodName, pPhase, System.nanoTime() - pStart);
+	}
+
+	/**
+	 * Records the transit of a message through the brokers: the time between its reception by the
+	 * first broker and its dispatch by the last one when ActiveMQ provides them, the time elapsed
+	 * since it was sent otherwise.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @param pPhase
+	 *            the transit phase
+	 * @param pMessage
+	 *            the received message
+	 */
+	void recordTransit(String pMethodName, InvocationPhase pPhase, Message pMessage) {
+		long lMillis = -1;
+		if (pMessage instanceof ActiveMQMessage) {
+			ActiveMQMessage lMessage = (ActiveMQMessage) pMessage;
+			if (lMessage.getBrokerInTime() > 0 && lMessage.getBrokerOutTime() >= lMessage.getBrokerInTime()) {
+				lMillis = lMessage.getBrokerOutTime() - lMessage.getBrokerInTime();
+			}
+		}
+		try {
+			if (lMillis < 0 && pMessage.getJMSTimestamp() > 0) {
+				lMillis = System.currentTimeMillis() - pMessage.getJMSTimestamp();
+			}
+		} catch (JMSException lE) {
+			// the transit is unknown
+		}
+		if (lMillis >= 0) {
+			record(pMethodName, pPhase, TimeUnit.MILLISECONDS.toNanos(lMillis));
+		}
+	}
+
+	/**
+	 * Counts an invocation without reply in time.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 */
+	void recordTimeout(String pMethodName) {
+		getMethodMetrics(pMethodName).mTimeouts.increment();
+	}
+
+	/**
+	 * Counts a failed invocation.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 */
+	void recordError(String pMethodName) {
+		getMethodMetrics(pMethodName).mErrors.increment();
+	}
+
+	/**
+	 * Returns the metrics of a method, creating them if needed.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @return the metrics
+	 */
+	private MethodMetrics getMethodMetrics(String pMethodName) {
+		MethodMetrics lMetrics = mMethods.get(pMethodName);
+		if (lMetrics == null) {
+			lMetrics = mMethods.computeIfAbsent(pMethodName, pName -> new MethodMetrics());
+		}
+		return lMetrics;
+	}
+
+	/**
+	 * Returns the latency of a phase of a method.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @param pPhase
+	 *            the phase
+	 * @return the latency snapshot, or null if the method was never invoked
+	 */
+	public LatencySnapshot getLatency(String pMethodName, InvocationPhase pPhase) {
+		MethodMetrics lMetrics = mMethods.get(pMethodName);
+		return lMetrics != null ? lMetrics.mHistograms.get(pPhase).snapshot() : null;
+	}
+
+	/**
+	 * Returns the number of invocations of a method without reply in time
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @return the timeout count
+	 */
+	public long getTimeoutCount(String pMethodName) {
+		MethodMetrics lMetrics = mMethods.get(pMethodName);
+		return lMetrics != null ? lMetrics.mTimeouts.sum() : 0;
+	}
+
+	/**
+	 * Returns the number of failed invocations of a method, timeouts included
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @return the error count
+	 */
+	public long getErrorCount(String pMethodName) {
+		MethodMetrics lMetrics = mMethods.get(pMethodName);
+		return lMetrics != null ? lMetrics.mErrors.sum() : 0;
+	}
+
+	/**
+	 * {@inheritDoc} Only the phases having recorded values are returned.
+	 */
+	@Override
+	public Map<String, LatencySnapshot> getLatencies() {
+		Map<String, LatencySnapshot> lLatencies = new TreeMap<String, LatencySnapshot>();
+		for (Map.Entry<String, MethodMetrics> lMethod : mMethods.entrySet()) {
+			for (Map.Entry<InvocationPhase, LatencyHistogram> lPhase : lMethod.getValue().mHistograms.entrySet()) {
+				LatencySnapshot lSnapshot = lPhase.getValue().snapshot();
+				if (lSnapshot.getCount() > 0) {
+					lLatencies.put(lMethod.getKey() + "." + lPhase.getKey(), lSnapshot);
+				}
+			}
+		}
+		return lLatencies;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> getTimeouts() {
+		Map<String, Long> lTimeouts = new TreeMap<String, Long>();
+		for (Map.Entry<String, MethodMetrics> lMethod : mMethods.entrySet()) {
+			lTimeouts.put(lMethod.getKey(), lMethod.getValue().mTimeouts.sum());
+		}
+		return lTimeouts;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> lErrors = new TreeMap<String, Long>();
+		for (Map.Entry<String, MethodMetrics> lMethod : mMethods.entrySet()) {
+			lErrors.put(lMethod.getKey(), lMethod.getValue().mErrors.sum());
+		}
+		return lErrors;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() {
+		for (MethodMetrics lMetrics : mMethods.values()) {
+			for (LatencyHistogram lHistogram : lMetrics.mHistograms.values()) {
+				lHistogram.reset();
+			}
+			lMetrics.mTimeouts.reset();
+			lMetrics.mErrors.reset();
+		}
+	}
+
+	/**
+	 * Registers this object in the platform MBean server.
+	 *
+	 * @param pObjectName
+	 *            the object name
+	 * @throws IllegalArgumentException
+	 *             if the registration fails
+	 */
+	synchronized void registerMBean(String pObjectName) {
+		try {
+			ObjectName lObjectName = new ObjectName(pObjectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, lObjectName);
+			mObjectName = lObjectName;
+		} catch (JMException lE) {
+			throw new IllegalArgumentException("Cannot register the invocation metrics as " + pObjectName, lE);
+		}
+	}
+
+	/**
+	 * Unregisters this object from the platform MBean server, if registered.
+	 */
+	synchronized void unregisterMBean() {
+		if (mObjectName == null) {
+			return;
+		}
+		MBeanServer lServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (lServer.isRegistered(mObjectName)) {
+				lServer.unregisterMBean(mObjectName);
+			}
+		} catch (JMException lE) {
+			// already unregistered
+		}
+		mObjectName = null;
+	}
+
+	/**
+	 * The histograms and counters of a method.
+	 */
+	private static final class MethodMetrics {
+
+		/** the histograms of the phases */
+		private final Map<InvocationPhase, LatencyHistogram> mHistograms = new EnumMap<InvocationPhase, LatencyHistogram>(
+				InvocationPhase.class);
+
+		/** the timeout counter */
+		private final LongAdder mTimeouts = new LongAdder();
+
+		/** the error counter */
+		private final LongAdder mErrors = new LongAdder();
+
+		/**
+		 * Constructor
+		 */
+		MethodMetrics() {
+			for (InvocationPhase lPhase : InvocationPhase.values()) {
+				mHistograms.put(lPhase, new LatencyHistogram());
+			}
+		}
+	}
+}
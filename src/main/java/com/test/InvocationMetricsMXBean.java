@@ -0,0 +1,42 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link InvocationMetrics}.
+ *
+ * @author T0130672
+ */
+public interface InvocationMetricsMXBean {
+
+	/**
+	 * Returns the latencies of the invoked methods
+	 *
+	 * @return the latency snapshots indexed by "method.PHASE"
+	 */
+	Map<String, LatencySnapshot> getLatencies();
+
+	/**
+	 * Returns the number of invocations without reply in time
+	 *
+	 * @return the timeout counts indexed by method name
+	 */
+	Map<String, Long> getTimeouts();
+
+	/**
+	 * Returns the number of failed invocations, timeouts included
+	 *
+	 * @return the error counts indexed by method name
+	 */
+	Map<String, Long> getErrors();
+
+	/**
+	 * Forgets the recorded values.
+	 */
+	void reset();
+}
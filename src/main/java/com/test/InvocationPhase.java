@@ -0,0 +1,37 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * The phases of a remote invocation measured by the {@link InvocationMetrics}. The proxy measures
+ * the phases of the request and the transit of the reply, the exporter the transit of the request,
+ * the service execution and the phases of the reply.
+ *
+ * @author T0130672
+ */
+public enum InvocationPhase {
+
+	/** encoding of the request (proxy) or of the reply (exporter) */
+	SERIALIZE,
+
+	/** sending of the request (proxy) or of the reply (exporter) */
+	SEND,
+
+	/** transit of the request through the brokers (exporter) */
+	BROKER_TRANSIT,
+
+	/** execution of the service (exporter) */
+	SERVICE,
+
+	/** transit of the reply through the brokers (proxy) */
+	REPLY_TRANSIT,
+
+	/** decoding of the reply (proxy) or of the request (exporter) */
+	DESERIALIZE,
+
+	/** whole invocation as seen by the caller (proxy) */
+	TOTAL
+}
@@ -0,0 +1,90 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the JMS settings of the requests of a service interface method. An attribute left to
+ * its default value keeps the setting of the proxy; a {@link MethodPolicy} configured on the proxy
+ * for the same method takes precedence over this annotation.
+ *
+ * @author T0130672
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface InvocationPolicy {
+
+	/** value of the attributes keeping the setting of the proxy */
+	int INHERIT = -1;
+
+	/**
+	 * The JMS priority of the requests, from 0 to 9
+	 *
+	 * @return the priority
+	 */
+	int priority() default INHERIT;
+
+	/**
+	 * The JMS delivery mode of the requests, {@link javax.jms.DeliveryMode#PERSISTENT} or
+	 * {@link javax.jms.DeliveryMode#NON_PERSISTENT}
+	 *
+	 * @return the delivery mode
+	 */
+	int deliveryMode() default INHERIT;
+
+	/**
+	 * The time to live of the requests in milliseconds, 0 for no expiration
+	 *
+	 * @return the time to live
+	 */
+	long timeToLive() default INHERIT;
+
+	/**
+	 * The reply timeout in milliseconds, 0 for no timeout
+	 *
+	 * @return the reply timeout
+	 */
+	long receiveTimeout() default INHERIT;
+
+	/**
+	 * The time to live of the results cached by the proxy in milliseconds, 0 for no caching. The
+	 * results are cached by arguments, which is only correct for a method without side effect, and
+	 * only for serializable arguments (see {@link JmsInvokerProxyFactoryBean#setCacheSize(int)}).
+	 *
+	 * @return the time to live of the cached results
+	 */
+	long cacheTimeToLive() default INHERIT;
+
+	/**
+	 * The number of replies gathered from a topic, 0 to gather the replies until the reply timeout
+	 * (see {@link MethodPolicy#setGatherCount(Integer)})
+	 *
+	 * @return the number of replies
+	 */
+	int gatherCount() default INHERIT;
+
+	/**
+	 * The minimum number of successful replies gathered from a topic, 0 for the gather count (see
+	 * {@link MethodPolicy#setGatherQuorum(Integer)})
+	 *
+	 * @return the quorum
+	 */
+	int gatherQuorum() default INHERIT;
+
+	/**
+	 * The lane of the requests, an empty string for the lane of the proxy (see
+	 * {@link MethodPolicy#setLane(String)})
+	 *
+	 * @return the lane
+	 */
+	String lane() default "";
+}
@@ -0,0 +1,156 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQDestination;
+
+/**
+ * The shards of a queue: the proxy hashes the routing key of each request onto one of the shard
+ * queues, named after the service queue suffixed with {@value #SHARD_SEPARATOR} and the shard
+ * index, and sends the key in the {@value #KEY_PROPERTY} property so that the exporter keeps the
+ * requests of a key in order.
+ * <p>
+ * The keys are placed on a consistent hash ring holding {@value #VIRTUAL_NODES} points per shard,
+ * so that changing the number of shards moves about the share of the keys of the added or removed
+ * shards only. A key is hashed by its string form, which must be stable across the JVMs (strings,
+ * numbers, enums...).
+ * <p>
+ * The exporters claim the shards as exclusive consumers: the broker dispatches a shard to its live
+ * consumer of highest priority, and each exporter ranks the shards by rendezvous hashing of its node
+ * ID, so that the shards spread over the exporters and move to another one when an exporter leaves
+ * or a better ranked one joins.
+ *
+ * @author T0130672
+ */
+final class InvocationShards {
+
+	/** name of the request property holding the routing key */
+	static final String KEY_PROPERTY = "shardKey";
+
+	/** separator between the service queue name and the shard index */
+	static final String SHARD_SEPARATOR = ".shard.";
+
+	/** the number of points of a shard on the hash ring */
+	private static final int VIRTUAL_NODES = 100;
+
+	/** the highest priority of a shard consumer, below the priority always taking the exclusivity */
+	private static final int MAX_CLAIM_PRIORITY = 126;
+
+	/** the points of the hash ring, sorted */
+	private final long[] mPoints;
+
+	/** the shard of each point */
+	private final int[] mShards;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pShardCount
+	 *            the number of shards
+	 */
+	InvocationShards(int pShardCount) {
+		long[][] lRing = new long[pShardCount * VIRTUAL_NODES][];
+		for (int lShard = 0; lShard < pShardCount; lShard++) {
+			for (int lNode = 0; lNode < VIRTUAL_NODES; lNode++) {
+				lRing[lShard * VIRTUAL_NODES + lNode] = new long[] { hash("shard-" + lShard + "#" + lNode), lShard };
+			}
+		}
+		Arrays.sort(lRing, (pLeft, pRight) -> Long.compare(pLeft[0], pRight[0]));
+		mPoints = new long[lRing.length];
+		mShards = new int[lRing.length];
+		for (int i = 0; i < lRing.length; i++) {
+			mPoints[i] = lRing[i][0];
+			mShards[i] = (int) lRing[i][1];
+		}
+	}
+
+	/**
+	 * Returns the shard of a routing key: the shard of the first point of the ring following the
+	 * hash of the key.
+	 *
+	 * @param pKey
+	 *            the routing key
+	 * @return the shard index
+	 */
+	int getShard(String pKey) {
+		int lIndex = Arrays.binarySearch(mPoints, hash(pKey));
+		if (lIndex < 0) {
+			lIndex = -lIndex - 1;
+		}
+		return mShards[lIndex < mPoints.length ? lIndex : 0];
+	}
+
+	/**
+	 * Returns the routing key of an argument.
+	 *
+	 * @param pArgument
+	 *            the argument, may be null
+	 * @return the string form of the argument, the name of an enum, an empty string for null
+	 */
+	static String getKey(Object pArgument) {
+		if (pArgument instanceof Enum) {
+			return ((Enum<?>) pArgument).name();
+		}
+		return pArgument != null ? pArgument.toString() : "";
+	}
+
+	/**
+	 * Returns the queue of a shard.
+	 *
+	 * @param pDestination
+	 *            the service queue
+	 * @param pShard
+	 *            the shard index
+	 * @return the shard queue
+	 * @throws JMSException
+	 *             if the service queue cannot be converted to an ActiveMQ destination
+	 */
+	static Destination getDestination(Destination pDestination, int pShard) throws JMSException {
+		ActiveMQDestination lDestination = ActiveMQDestination.transform(pDestination);
+		return ActiveMQDestination.createDestination(lDestination.getPhysicalName() + SHARD_SEPARATOR + pShard,
+				lDestination.getDestinationType());
+	}
+
+	/**
+	 * Returns the priority with which an exporter node claims a shard, by rendezvous hashing.
+	 *
+	 * @param pNodeId
+	 *            the node ID of the exporter
+	 * @param pShard
+	 *            the shard index
+	 * @return the consumer priority, from 1 to {@value #MAX_CLAIM_PRIORITY}
+	 */
+	static int getClaimPriority(String pNodeId, int pShard) {
+		return 1 + (int) Long.remainderUnsigned(hash(pNodeId + "#" + pShard), MAX_CLAIM_PRIORITY);
+	}
+
+	/**
+	 * Hashes a string: FNV-1a over its UTF-8 bytes, followed by a finalizer spreading the bits.
+	 *
+	 * @param pValue
+	 *            the string
+	 * @return the hash
+	 */
+	private static long hash(String pValue) {
+		long lHash = 0xcbf29ce484222325L;
+		for (byte lByte : pValue.getBytes(StandardCharsets.UTF_8)) {
+			lHash ^= lByte & 0xff;
+			lHash *= 0x100000001b3L;
+		}
+		lHash ^= lHash >>> 33;
+		lHash *= 0xff51afd7ed558ccdL;
+		lHash ^= lHash >>> 33;
+		lHash *= 0xc4ceb9fe1a85ec53L;
+		lHash ^= lHash >>> 33;
+		return lHash;
+	}
+}
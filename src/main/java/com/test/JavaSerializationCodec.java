@@ -0,0 +1,276 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Codec using the Java serialization, i.e. the same encoding as the {@code ObjectMessage} sent by
+ * default, as a byte payload.
+ * <p>
+ * Unlike the {@code ObjectMessage}, whose classes are checked against the trusted packages of the
+ * ActiveMQ connection factory, the payload is deserialized by the codec itself: it only resolves
+ * the classes of its trusted packages, and rejects any other class before instantiating it. An
+ * entry of the trusted packages is a package name, trusting its sub-packages too, or a class name.
+ * By default the {@code java} packages and the Spring remoting classes are trusted, along with the
+ * package of the service interface when known.
+ *
+ * @author T0130672
+ */
+public class JavaSerializationCodec implements InvocationCodec {
+
+	/** the codec name */
+	public static final String NAME = "java";
+
+	/** the packages and classes trusted by default */
+	static final List<String> DEFAULT_TRUSTED_PACKAGES = Collections.unmodifiableList(Arrays.asList("java",
+			"org.springframework.remoting", "org.springframework.core.NestedRuntimeException",
+			"org.springframework.core.NestedCheckedException"));
+
+	/** the class loader used to resolve the deserialized classes */
+	private final ClassLoader mClassLoader;
+
+	/** the packages and classes which may be deserialized */
+	private final Collection<String> mTrustedPackages;
+
+	/**
+	 * Constructor using the class loader of this class and the default trusted packages
+	 */
+	public JavaSerializationCodec() {
+		this(JavaSerializationCodec.class.getClassLoader());
+	}
+
+	/**
+	 * Constructor using the default trusted packages
+	 *
+	 * @param pClassLoader
+	 *            the class loader used to resolve the deserialized classes
+	 */
+	public JavaSerializationCodec(ClassLoader pClassLoader) {
+		this(pClassLoader, DEFAULT_TRUSTED_PACKAGES);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param pClassLoader
+	 *            the class loader used to resolve the deserialized classes
+	 * @param pTrustedPackages
+	 *            the packages and classes which may be deserialized
+	 */
+	public JavaSerializationCodec(ClassLoader pClassLoader, Collection<String> pTrustedPackages) {
+		mClassLoader = pClassLoader;
+		mTrustedPackages = new ArrayList<String>(pTrustedPackages);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] encodeInvocation(RemoteInvocation pInvocation) throws IOException {
+		return serialize(pInvocation);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RemoteInvocation decodeInvocation(byte[] pData) throws IOException {
+		return deserialize(pData, mClassLoader, mTrustedPackages, RemoteInvocation.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] encodeResult(RemoteInvocationResult pResult) throws IOException {
+		return serialize(pResult);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RemoteInvocationResult decodeResult(byte[] pData) throws IOException {
+		return deserialize(pData, mClassLoader, mTrustedPackages, RemoteInvocationResult.class);
+	}
+
+	/**
+	 * Returns the default trusted packages of a service: the {@link #DEFAULT_TRUSTED_PACKAGES} and the
+	 * package of its interface.
+	 *
+	 * @param pServiceInterface
+	 *            the service interface, may be null
+	 * @return the trusted packages
+	 */
+	static List<String> getTrustedPackages(Class<?> pServiceInterface) {
+		List<String> lTrustedPackages = new ArrayList<String>(DEFAULT_TRUSTED_PACKAGES);
+		if (pServiceInterface != null) {
+			lTrustedPackages.add(ClassUtils.getPackageName(pServiceInterface));
+		}
+		return lTrustedPackages;
+	}
+
+	/**
+	 * Serializes an object.
+	 *
+	 * @param pObject
+	 *            the object
+	 * @return the serialized object
+	 * @throws IOException
+	 *             if the object is not serializable
+	 */
+	static byte[] serialize(Object pObject) throws IOException {
+		ByteArrayOutputStream lBytes = new ByteArrayOutputStream(256);
+		ObjectOutputStream lOut = new ObjectOutputStream(lBytes);
+		try {
+			lOut.writeObject(pObject);
+		} finally {
+			lOut.close();
+		}
+		return lBytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes an object.
+	 *
+	 * @param pData
+	 *            the serialized object
+	 * @param pClassLoader
+	 *            the class loader used to resolve the classes
+	 * @param pTrustedPackages
+	 *            the packages and classes which may be deserialized
+	 * @param pType
+	 *            the expected type
+	 * @return the object
+	 * @throws IOException
+	 *             if the object cannot be deserialized, holds an untrusted class or has not the
+	 *             expected type
+	 */
+	static <T> T deserialize(byte[] pData, ClassLoader pClassLoader, Collection<String> pTrustedPackages,
+			Class<T> pType) throws IOException {
+		ObjectInputStream lIn = new TrustedObjectInputStream(new ByteArrayInputStream(pData), pClassLoader,
+				pTrustedPackages);
+		try {
+			Object lObject = lIn.readObject();
+			if (lObject != null && !pType.isInstance(lObject)) {
+				throw new InvalidObjectException("Expected " + pType.getName() + " but got " + lObject.getClass().getName());
+			}
+			return pType.cast(lObject);
+		} catch (ClassNotFoundException lE) {
+			throw new IOException("Cannot deserialize " + pType.getName(), lE);
+		} finally {
+			lIn.close();
+		}
+	}
+
+	/**
+	 * Tells whether a class may be deserialized.
+	 *
+	 * @param pClassName
+	 *            the class name, possibly of an array
+	 * @param pTrustedPackages
+	 *            the packages and classes which may be deserialized
+	 * @return true if the class, or the component class of the array, is trusted
+	 */
+	static boolean isTrusted(String pClassName, Collection<String> pTrustedPackages) {
+		String lClassName = pClassName;
+		int lDimensions = 0;
+		while (lDimensions < lClassName.length() && lClassName.charAt(lDimensions) == '[') {
+			lDimensions++;
+		}
+		if (lDimensions > 0) {
+			if (lClassName.charAt(lDimensions) != 'L') {
+				// array of primitives
+				return true;
+			}
+			lClassName = lClassName.substring(lDimensions + 1, lClassName.length() - 1);
+		}
+		for (String lTrusted : pTrustedPackages) {
+			if (lClassName.equals(lTrusted) || lClassName.startsWith(lTrusted + ".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Object input stream rejecting the classes outside the trusted packages.
+	 */
+	private static final class TrustedObjectInputStream extends ConfigurableObjectInputStream {
+
+		/** the packages and classes which may be deserialized */
+		private final Collection<String> mTrustedPackages;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pIn
+		 *            the serialized data
+		 * @param pClassLoader
+		 *            the class loader used to resolve the classes
+		 * @param pTrustedPackages
+		 *            the packages and classes which may be deserialized
+		 * @throws IOException
+		 *             if the stream header cannot be read
+		 */
+		TrustedObjectInputStream(InputStream pIn, ClassLoader pClassLoader, Collection<String> pTrustedPackages)
+				throws IOException {
+			super(pIn, pClassLoader);
+			mTrustedPackages = pTrustedPackages;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass pClassDesc) throws IOException, ClassNotFoundException {
+			if (!isTrusted(pClassDesc.getName(), mTrustedPackages)) {
+				throw new InvalidClassException(pClassDesc.getName(), "Class not trusted for deserialization");
+			}
+			return super.resolveClass(pClassDesc);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Class<?> resolveProxyClass(String[] pInterfaces) throws IOException, ClassNotFoundException {
+			for (String lInterface : pInterfaces) {
+				if (!isTrusted(lInterface, mTrustedPackages)) {
+					throw new InvalidClassException(lInterface, "Interface not trusted for deserialization");
+				}
+			}
+			return super.resolveProxyClass(pInterfaces);
+		}
+	}
+}
@@ -5,31 +5,77 @@
  */
 package com.test;
 
-import java.lang.reflect.Constructor;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageFormatException;
 import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.Topic;
 
 import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.jms.connection.ConnectionFactoryUtils;
 import org.springframework.jms.support.JmsUtils;
+import org.springframework.remoting.RemoteConnectFailureException;
+import org.springframework.remoting.RemoteInvocationFailureException;
+import org.springframework.remoting.RemoteTimeoutException;
 import org.springframework.remoting.support.RemoteInvocation;
 import org.springframework.remoting.support.RemoteInvocationFactory;
 import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
+
+import com.test.ReplyDispatcher.PendingReply;
+import com.test.SessionPool.PooledSession;
 
 /**
  * @author T0130672
  */
-public class JmsInvokerProxyFactoryBean extends org.springframework.jms.remoting.JmsInvokerProxyFactoryBean {
+public class JmsInvokerProxyFactoryBean extends org.springframework.jms.remoting.JmsInvokerProxyFactoryBean
+		implements DisposableBean {
 
 	private Destination mDestination;
 	
@@ -50,161 +96,2051 @@ public class JmsInvokerProxyFactoryBean extends org.springframework.jms.remoting
 	/** JMS message non persistent flag */
 	private boolean mJmsMessageNonPersistent;
 
+	/** period of the sweep removing orphaned pending replies (ms) */
+	private static final long REPLY_SWEEP_PERIOD = 1000;
+
+	/** shared reply consumer flag */
+	private boolean mSharedReplyConsumer;
+
+	/** unique ID of this proxy, prefix of the response IDs in shared reply consumer mode */
+	private final String mProxyId = UUID.randomUUID().toString();
+
+	/** request counter used to build the response IDs in shared reply consumer mode */
+	private final AtomicLong mRequestCounter = new AtomicLong();
+
+	/** prefix of the name of the private reply queues */
+	private static final String PRIVATE_REPLY_QUEUE_PREFIX = "REPLY.";
+
+	/** suffix of the private reply queue on the broker receiving the hedged requests */
+	private static final String HEDGE_REPLY_QUEUE_SUFFIX = ".HEDGE";
+
+	/** the routing of the replies */
+	private ReplyRouting mReplyRouting = ReplyRouting.SHARED_DESTINATION;
+
+	/** the shared reply consumer (null if not in shared reply consumer mode) */
+	private ReplyDispatcher mReplyDispatcher;
+
+	/** scheduler for the proxy background tasks */
+	private ScheduledExecutorService mScheduler;
+
+	/** executor completing the futures returned by asynchronous methods */
+	private Executor mAsyncExecutor = ForkJoinPool.commonPool();
+
+	/** maximum number of pooled sessions, 0 to disable the pooling */
+	private int mSessionPoolSize;
+
+	/** the session pool (null if the pooling is disabled) */
+	private SessionPool mSessionPool;
+
+	/** the codec of the requests (null to send Java serialized object messages) */
+	private InvocationCodec mCodec;
+
+	/** the codecs decoding the replies */
+	private InvocationCodecs mReplyCodecs;
+
+	/** the Java serialization codec, encoding the batches while the codec is not accepted */
+	private InvocationCodec mSerializationCodec;
+
+	/** codec negotiation flag */
+	private boolean mCodecNegotiation = true;
+
+	/** set once every exporter is known to accept the codec */
+	private volatile boolean mCodecAccepted;
+
+	/** the packages and classes the replies may hold, null for the default ones */
+	private Collection<String> mTrustedPackages;
+
+	/** the number of exporters of the service, 0 if unknown */
+	private int mExporterCount;
+
+	/** the IDs of the exporters known to accept the codec */
+	private final Set<String> mCodecExporters = ConcurrentHashMap.newKeySet();
+
+	/** the names of the methods configured as one-way */
+	private Collection<String> mOneWayMethodNames = Collections.emptySet();
+
+	/** the names of the methods configured as idempotent */
+	private Collection<String> mIdempotentMethodNames = Collections.emptySet();
+
+	/** the lane of the requests, null for the default lane */
+	private String mLane;
+
+	/** the number of shards of the queue, 0 if not sharded */
+	private int mShardCount;
+
+	/** the index of the argument holding the routing key of the sharded requests */
+	private int mShardKeyArgument;
+
+	/** the hash ring of the shards (null if not sharded) */
+	private InvocationShards mShards;
+
+	/** the shard queues, indexed by request destination (empty if not sharded) */
+	private final Map<Destination, Destination[]> mShardDestinations = new HashMap<Destination, Destination[]>();
+
+	/** the policies of the methods, indexed by method name */
+	private Map<String, MethodPolicy> mMethodPolicies = Collections.emptyMap();
+
+	/** the settings of the service interface methods, resolved at initialization */
+	private final Map<Method, MethodMetadata> mMethodMetadata = new HashMap<Method, MethodMetadata>();
+
+	/** the settings of the methods outside the service interface */
+	private MethodMetadata mDefaultMetadata;
+
+	/** maximum number of invocations of a batch, 0 or 1 to disable the batching */
+	private int mBatchSize;
+
+	/** maximum delay between the first invocation of a batch and its sending (us) */
+	private long mBatchDelay = 500;
+
+	/** the batchers, one per method settings since the invocations of a batch share them */
+	private final ConcurrentMap<MethodMetadata, InvocationBatcher<BatchedInvocation>> mBatchers = new ConcurrentHashMap<MethodMetadata, InvocationBatcher<BatchedInvocation>>();
+
+	/** set once every exporter is known to accept the batches */
+	private volatile boolean mBatchAccepted;
+
+	/** the IDs of the exporters known to accept the batches */
+	private final Set<String> mBatchExporters = ConcurrentHashMap.newKeySet();
+
+	/** size above which a payload is compressed (bytes), 0 to never compress */
+	private int mCompressionThreshold;
+
+	/** size above which a payload is sent as chunks (bytes), 0 to never chunk */
+	private int mChunkSize;
+
+	/** memory budget of the reply chunks being reassembled (bytes) */
+	private long mMaxReassemblySize = PayloadChunker.DEFAULT_MAX_REASSEMBLY_SIZE;
+
+	/** the compression and chunking of the payloads */
+	private PayloadChunker mPayloadChunker;
+
+	/** set once every exporter is known to accept the compressed and chunked payloads */
+	private volatile boolean mLargePayloadsAccepted;
+
+	/** the IDs of the exporters known to accept the compressed and chunked payloads */
+	private final Set<String> mLargePayloadExporters = ConcurrentHashMap.newKeySet();
+
+	/** number of replies of a streamed result the exporter may send ahead of the caller */
+	private int mStreamWindow = 4;
+
+	/** the connection factory of the broker receiving the hedged requests (null for no hedging) */
+	private ConnectionFactory mHedgeConnectionFactory;
+
+	/** percentile of the latencies of a method after which its request is hedged */
+	private double mHedgePercentile = 0.95;
+
+	/** minimum delay before hedging a request (ms) */
+	private long mHedgeDelay = 100;
+
+	/** the delays and counters of the hedged requests (null if no request is hedged) */
+	private RequestHedger mHedger;
+
+	/** the reply consumer of the hedged requests (null if no request is hedged) */
+	private ReplyDispatcher mHedgeReplyDispatcher;
+
+	/** maximum number of cached results */
+	private int mCacheSize = 1000;
+
+	/** the cached results (null if no method result is cached) */
+	private ExpiringCache<CacheKey, Object> mResultCache;
+
+	/** initial limit of the invocations in flight */
+	private static final int INITIAL_CONCURRENCY_LIMIT = 10;
+
+	/** maximum number of invocations in flight, 0 for no limit */
+	private int mMaxConcurrentInvocations;
+
+	/** maximum time an invocation waits for the limit (ms), 0 to reject it immediately */
+	private long mConcurrencyQueueTimeout;
+
+	/** the limiter of the invocations in flight (null if not limited) */
+	private AdaptiveConcurrencyLimiter mConcurrencyLimiter;
+
+	/** number of last invocations whose timeout rate opens the circuit breaker, 0 to disable it */
+	private int mCircuitBreakerWindow;
+
+	/** timeout rate opening the circuit breaker */
+	private double mCircuitBreakerTimeoutRate = 0.5;
+
+	/** time the circuit breaker stays open before a probe invocation (ms) */
+	private long mCircuitBreakerOpenTime = 5000;
+
+	/** the circuit breaker (null if disabled) */
+	private CircuitBreaker mCircuitBreaker;
+
+	/** the trackers of the consumers of the request destinations (empty without circuit breaker) */
+	private final Map<Destination, ConsumerTracker> mConsumerTrackers = new HashMap<Destination, ConsumerTracker>();
+
+	/** the number of invocations failed fast */
+	private final LongAdder mFastFailedCount = new LongAdder();
+
+	/** metrics flag */
+	private boolean mMetricsEnabled;
+
+	/** the JMX name of the metrics (null to not register them) */
+	private String mMetricsObjectName;
+
+	/** the invocation metrics (null if the metrics are disabled) */
+	private InvocationMetrics mMetrics;
+
 	@Override
 	public void afterPropertiesSet() {
 		super.afterPropertiesSet();
 		if (mDestination == null) {
 			throw new IllegalArgumentException("'destination' is required");
 		}
-		if (mAckDestination == null) {
+		if (mReplyRouting == null) {
+			throw new IllegalArgumentException("'replyRouting' is required");
+		}
+		if (mAckDestination == null && mReplyRouting == ReplyRouting.SHARED_DESTINATION) {
 			throw new IllegalArgumentException("'ackDestination' is required");
 		}
+		if (!(mDestination instanceof Topic) && !(mDestination instanceof Queue)) {
+			throw new IllegalArgumentException("Either topic or queue as destination is supported");
+		}
+		if (mCodecNegotiation && mExporterCount == 0
+				&& (mCodec != null || mBatchSize > 1 || isLargePayloadEnabled())) {
+			// the negotiation would never end
+			throw new IllegalArgumentException("'exporterCount' is required to negotiate the codec, the batches and"
+					+ " the large payloads with the exporters");
+		}
+		resolveMethodMetadata(getObjectType());
+		if (mShardCount > 0) {
+			createShards();
+		}
+		mPayloadChunker = new PayloadChunker(mCompressionThreshold, mChunkSize, mMaxReassemblySize,
+				PayloadChunker.DEFAULT_REASSEMBLY_TIMEOUT);
+		boolean lHedging = mHedgeConnectionFactory != null && hasIdempotentMethod();
+		// asynchronous, streamed, gathered and hedged methods, batches and private reply queues can
+		// only be served by the shared reply consumer
+		if (mReplyRouting != ReplyRouting.SHARED_DESTINATION || mSharedReplyConsumer || hasAsynchronousMethod()
+				|| hasStreamedMethod() || hasGatheredMethod() || lHedging || mBatchSize > 1) {
+			mReplyDispatcher = createReplyDispatcher(getConnectionFactory(), "");
+		}
+		if (lHedging) {
+			mHedger = new RequestHedger(mHedgePercentile, mHedgeDelay);
+			mHedgeReplyDispatcher = createReplyDispatcher(mHedgeConnectionFactory, HEDGE_REPLY_QUEUE_SUFFIX);
+		}
+		if (mSessionPoolSize > 0) {
+			mSessionPool = new SessionPool(getConnectionFactory(), mSessionPoolSize);
+		}
+		if (mMaxConcurrentInvocations > 0) {
+			mConcurrencyLimiter = new AdaptiveConcurrencyLimiter(INITIAL_CONCURRENCY_LIMIT, 1,
+					mMaxConcurrentInvocations);
+		}
+		if (mCircuitBreakerWindow > 0) {
+			mCircuitBreaker = new CircuitBreaker(mCircuitBreakerWindow, mCircuitBreakerTimeoutRate,
+					mCircuitBreakerOpenTime);
+			// a consumer reappearing closes the breaker without waiting for a probe
+			for (Destination lDestination : getRequestDestinations()) {
+				mConsumerTrackers.put(lDestination,
+						new ConsumerTracker(getConnectionFactory(), lDestination, mCircuitBreaker::close));
+			}
+		}
+		if (hasCachedMethod()) {
+			mResultCache = new ExpiringCache<CacheKey, Object>(mCacheSize);
+			getScheduler().scheduleWithFixedDelay(mResultCache::purge, REPLY_SWEEP_PERIOD, REPLY_SWEEP_PERIOD,
+					TimeUnit.MILLISECONDS);
+		}
+		Collection<String> lTrustedPackages = mTrustedPackages != null ? mTrustedPackages
+				: JavaSerializationCodec.getTrustedPackages(getObjectType());
+		mSerializationCodec = new JavaSerializationCodec(ClassUtils.getDefaultClassLoader(), lTrustedPackages);
+		if (mCodec == null && isLargePayloadEnabled()) {
+			// only the payloads encoded by a codec can be compressed and chunked
+			mCodec = mSerializationCodec;
+		}
+		List<InvocationCodec> lReplyCodecs = new ArrayList<InvocationCodec>();
+		lReplyCodecs.add(mSerializationCodec);
+		if (mCodec != null) {
+			lReplyCodecs.add(mCodec);
+		}
+		mReplyCodecs = new InvocationCodecs(lReplyCodecs);
+		if (!mCodecNegotiation) {
+			mCodecAccepted = mCodec != null;
+			mBatchAccepted = mBatchSize > 1;
+			mLargePayloadsAccepted = isLargePayloadEnabled();
+		}
+		if (mMetricsEnabled || mMetricsObjectName != null) {
+			mMetrics = new InvocationMetrics();
+			if (mMetricsObjectName != null) {
+				mMetrics.registerMBean(mMetricsObjectName);
+			}
+		}
 	}
 
-	protected Object getDestination() {
-		return mDestination;
+	/**
+	 * Creates the hash ring and the queues of the shards.
+	 */
+	private void createShards() {
+		if (!(mDestination instanceof Queue)) {
+			throw new IllegalArgumentException("Only a queue can be sharded");
+		}
+		if (mBatchSize > 1) {
+			throw new IllegalArgumentException("The requests of a sharded queue cannot be batched");
+		}
+		mShards = new InvocationShards(mShardCount);
+		mShardDestinations.clear();
+		try {
+			for (Destination lDestination : getRequestDestinations()) {
+				Destination[] lShardDestinations = new Destination[mShardCount];
+				for (int i = 0; i < mShardCount; i++) {
+					lShardDestinations[i] = InvocationShards.getDestination(lDestination, i);
+				}
+				mShardDestinations.put(lDestination, lShardDestinations);
+			}
+		} catch (JMSException lE) {
+			throw new IllegalArgumentException("Cannot create the shards of " + mDestination, lE);
+		}
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Returns the destination of a request: the queue of the shard of its routing key if the queue is
+	 * sharded, or else the destination of the method.
+	 * 
+	 * @param pMetadata
+	 *            the method settings
+	 * @param pArguments
+	 *            the invocation arguments
+	 * @return the destination
 	 */
-	@Override
-	public Object invoke(MethodInvocation pMethodInvocation) throws Throwable {
-		// the Object to return
-		Object lResult = null;
+	private Destination getRequestDestination(MethodMetadata pMetadata, Object[] pArguments) {
+		if (mShards == null) {
+			return pMetadata.getDestination();
+		}
+		return mShardDestinations.get(pMetadata.getDestination())[mShards.getShard(getShardKey(pArguments))];
+	}
 
-		try {
-			lResult = super.invoke(pMethodInvocation);
+	/**
+	 * Returns the routing key of a sharded request.
+	 * 
+	 * @param pArguments
+	 *            the invocation arguments
+	 * @return the routing key, an empty string if the method has no such argument
+	 */
+	private String getShardKey(Object[] pArguments) {
+		Object lArgument = pArguments != null && pArguments.length > mShardKeyArgument ? pArguments[mShardKeyArgument]
+				: null;
+		return InvocationShards.getKey(lArgument);
+	}
+
+	/**
+	 * Creates a shared reply consumer according to the reply routing.
+	 * 
+	 * @param pConnectionFactory
+	 *            the connection factory of the reply consumer
+	 * @param pQueueSuffix
+	 *            the suffix of the private reply queue, distinguishing the consumers on several brokers
+	 * @return the reply consumer
+	 */
+	private ReplyDispatcher createReplyDispatcher(ConnectionFactory pConnectionFactory, String pQueueSuffix) {
+		ReplyDispatcher lReplyDispatcher;
+		if (mReplyRouting == ReplyRouting.TEMPORARY_QUEUE) {
+			lReplyDispatcher = new ReplyDispatcher(pConnectionFactory, null);
+		} else if (mReplyRouting == ReplyRouting.PRIVATE_QUEUE) {
+			lReplyDispatcher = new ReplyDispatcher(pConnectionFactory, PRIVATE_REPLY_QUEUE_PREFIX + mProxyId + pQueueSuffix);
+		} else {
+			lReplyDispatcher = new ReplyDispatcher(pConnectionFactory, mAckDestination,
+					ReplyDispatcher.RESPONSE_ID_PROPERTY + " LIKE '" + mProxyId + ":%'");
 		}
-		// runtime exception are converted to an exception declared on the
-		// invoked method (if possible)
-		catch (RuntimeException lE)/// NOSONAR
-		{
-			Throwable lToThrow = lE;
-			if (pMethodInvocation != null && pMethodInvocation.getMethod() != null) {
-				// the exeptions classes present in methods from methods
-				// invocation
-				Class<?>[] lExceptionClasses = pMethodInvocation.getMethod().getExceptionTypes();
-				if (lExceptionClasses.length > 0) {
-					// rethrow a new exception
-					Constructor<?> lConst = lExceptionClasses[0].getConstructor(String.class, Throwable.class);
-					throw (Throwable) lConst.newInstance("A runtime exception occurred during the method invocation.",
-							lE);
+		lReplyDispatcher.setPayloadChunker(mPayloadChunker);
+		lReplyDispatcher.scheduleSweep(getScheduler(), REPLY_SWEEP_PERIOD);
+		return lReplyDispatcher;
+	}
+
+	/**
+	 * Resolves the settings of the methods of the service interface from the proxy settings, the
+	 * {@link InvocationPolicy} and {@link OneWay} annotations and the configured method policies.
+	 * 
+	 * @param pInterface
+	 *            the service interface (may be null)
+	 */
+	private void resolveMethodMetadata(Class<?> pInterface) {
+		mMethodMetadata.clear();
+		mDefaultMetadata = createMethodMetadata(null);
+		if (pInterface == null) {
+			return;
+		}
+		for (Method lMethod : pInterface.getMethods()) {
+			mMethodMetadata.put(lMethod, createMethodMetadata(lMethod));
+		}
+	}
+
+	/**
+	 * Creates the settings of a method. The settings of a method policy take precedence over the
+	 * annotation of the method, which takes precedence over the proxy settings. Requests sent to a
+	 * topic keep the default producer settings unless overridden.
+	 * 
+	 * @param pMethod
+	 *            the method, or null for the methods outside the service interface
+	 * @return the method settings
+	 */
+	private MethodMetadata createMethodMetadata(Method pMethod) {
+		boolean lQueue = mDestination instanceof Queue;
+		int lPriority = DEFAULT_PRIORITY;
+		int lDeliveryMode = lQueue ? getDeliveryMode() : Message.DEFAULT_DELIVERY_MODE;
+		long lReceiveTimeout = getReceiveTimeout();
+		Long lTimeToLive = null;
+		boolean lOneWay = false;
+		long lCacheTimeToLive = 0;
+		int lGatherCount = -1;
+		int lGatherQuorum = 0;
+		boolean lIdempotent = false;
+		String lLane = mLane;
+		if (pMethod != null) {
+			InvocationPolicy lAnnotation = pMethod.getAnnotation(InvocationPolicy.class);
+			if (lAnnotation != null) {
+				if (lAnnotation.priority() != InvocationPolicy.INHERIT) {
+					lPriority = lAnnotation.priority();
+				}
+				if (lAnnotation.deliveryMode() != InvocationPolicy.INHERIT) {
+					lDeliveryMode = lAnnotation.deliveryMode();
+				}
+				if (lAnnotation.receiveTimeout() != InvocationPolicy.INHERIT) {
+					lReceiveTimeout = lAnnotation.receiveTimeout();
+				}
+				if (lAnnotation.timeToLive() != InvocationPolicy.INHERIT) {
+					lTimeToLive = lAnnotation.timeToLive();
+				}
+				if (lAnnotation.cacheTimeToLive() != InvocationPolicy.INHERIT) {
+					lCacheTimeToLive = lAnnotation.cacheTimeToLive();
+				}
+				if (lAnnotation.gatherCount() != InvocationPolicy.INHERIT) {
+					lGatherCount = lAnnotation.gatherCount();
+				}
+				if (lAnnotation.gatherQuorum() != InvocationPolicy.INHERIT) {
+					lGatherQuorum = lAnnotation.gatherQuorum();
+				}
+				if (!lAnnotation.lane().isEmpty()) {
+					lLane = lAnnotation.lane();
+				}
+			}
+			MethodPolicy lPolicy = mMethodPolicies.get(pMethod.getName());
+			if (lPolicy != null) {
+				if (lPolicy.getPriority() != null) {
+					lPriority = lPolicy.getPriority();
+				}
+				if (lPolicy.getDeliveryMode() != null) {
+					lDeliveryMode = lPolicy.getDeliveryMode();
+				}
+				if (lPolicy.getReceiveTimeout() != null) {
+					lReceiveTimeout = lPolicy.getReceiveTimeout();
+				}
+				if (lPolicy.getTimeToLive() != null) {
+					lTimeToLive = lPolicy.getTimeToLive();
+				}
+				if (lPolicy.getCacheTimeToLive() != null) {
+					lCacheTimeToLive = lPolicy.getCacheTimeToLive();
+				}
+				if (lPolicy.getGatherCount() != null) {
+					lGatherCount = lPolicy.getGatherCount();
+				}
+				if (lPolicy.getGatherQuorum() != null) {
+					lGatherQuorum = lPolicy.getGatherQuorum();
+				}
+				if (lPolicy.getLane() != null) {
+					lLane = lPolicy.getLane().isEmpty() ? null : lPolicy.getLane();
 				}
 			}
-			// if no exception is handled by the methods, re-throw the exception
-			throw lToThrow;
+			if (lGatherQuorum > 0 && lGatherCount < 0) {
+				// a quorum alone gathers the replies until the reply timeout
+				lGatherCount = 0;
+			}
+			lOneWay = pMethod.isAnnotationPresent(OneWay.class) || mOneWayMethodNames.contains(pMethod.getName());
+			lIdempotent = pMethod.isAnnotationPresent(Idempotent.class)
+					|| mIdempotentMethodNames.contains(pMethod.getName());
+			if (lOneWay && !void.class.equals(pMethod.getReturnType())) {
+				throw new IllegalArgumentException("One-way method " + pMethod + " must return void");
+			}
 		}
-		// return the result of super.invoke
-		return lResult;
+		if (lPriority < 0 || lPriority > 9) {
+			throw new IllegalArgumentException("Invalid priority " + lPriority + " for method " + pMethod);
+		}
+		if (lDeliveryMode != DeliveryMode.PERSISTENT && lDeliveryMode != DeliveryMode.NON_PERSISTENT) {
+			throw new IllegalArgumentException("Invalid delivery mode " + lDeliveryMode + " for method " + pMethod);
+		}
+		if (lTimeToLive == null) {
+			// the requests of a queue expire with their reply timeout
+			lTimeToLive = lQueue && mJmsMessageExpiration ? lReceiveTimeout : DEFAULT_TTL;
+		}
+		Destination lDestination = mDestination;
+		if (lLane != null) {
+			try {
+				lDestination = InvocationLanes.getDestination(mDestination, lLane);
+			} catch (JMSException lE) {
+				throw new IllegalArgumentException("Cannot create the destination of lane " + lLane + " for method "
+						+ pMethod, lE);
+			}
+		}
+		MethodMetadata lMetadata = new MethodMetadata(pMethod, lPriority, lDeliveryMode, lTimeToLive, lReceiveTimeout,
+				lOneWay, lCacheTimeToLive, lGatherCount, lGatherQuorum, lIdempotent, lLane, lDestination);
+		if (lCacheTimeToLive > 0
+				&& (lOneWay || lMetadata.isAsynchronous() || lMetadata.isStreamed() || lMetadata.isGathered())) {
+			throw new IllegalArgumentException("Only the results of synchronous methods can be cached: " + pMethod);
+		}
+		if (lMetadata.isGathered()) {
+			checkGathered(pMethod, lMetadata);
+		}
+		return lMetadata;
 	}
 
-	@Override
-	protected RemoteInvocationResult executeRequest(RemoteInvocation invocation) throws JMSException {
-		Connection con = createConnection();
-		Session session = null;
-		try {
-			session = createSession(con);
-			Destination destinationToUse = mDestination;
-			Message requestMessage = createRequestMessage(session, invocation);
-			con.start();
-			Message responseMessage = doExecuteRequest(session, destinationToUse, requestMessage);
-			if (responseMessage != null) {
-				return extractInvocationResult(responseMessage);
-			} else {
-				return onReceiveTimeout(invocation);
+	/**
+	 * Checks that the replies of a method can be gathered.
+	 * 
+	 * @param pMethod
+	 *            the method
+	 * @param pMetadata
+	 *            the method settings
+	 */
+	private void checkGathered(Method pMethod, MethodMetadata pMetadata) {
+		if (!(mDestination instanceof Topic)) {
+			throw new IllegalArgumentException("Only the replies to a topic can be gathered: " + pMethod);
+		}
+		if (pMetadata.isOneWay() || pMetadata.isAsynchronous() || pMetadata.isStreamed()
+				|| !pMethod.getReturnType().isAssignableFrom(List.class)) {
+			throw new IllegalArgumentException("Method gathering replies must return a List: " + pMethod);
+		}
+		if (pMetadata.getGatherCount() > 0 && pMetadata.getGatherQuorum() > pMetadata.getGatherCount()) {
+			throw new IllegalArgumentException("Invalid quorum " + pMetadata.getGatherQuorum() + " for method " + pMethod);
+		}
+		if (pMetadata.getGatherCount() == 0 && pMetadata.getReceiveTimeout() <= 0) {
+			throw new IllegalArgumentException("Method gathering replies until the timeout needs a timeout: " + pMethod);
+		}
+	}
+
+	/**
+	 * Returns the settings of an invoked method.
+	 * 
+	 * @param pMethod
+	 *            the method
+	 * @return the method settings
+	 */
+	private MethodMetadata getMethodMetadata(Method pMethod) {
+		MethodMetadata lMetadata = mMethodMetadata.get(pMethod);
+		return lMetadata != null ? lMetadata : mDefaultMetadata;
+	}
+
+	/**
+	 * Tells whether the service interface declares a method returning an {@link Iterator} or a
+	 * {@link Stream}.
+	 * 
+	 * @return true if a streamed method is declared
+	 */
+	private boolean hasStreamedMethod() {
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			if (lMetadata.isStreamed()) {
+				return true;
 			}
-		} finally {
-			JmsUtils.closeSession(session);
-			ConnectionFactoryUtils.releaseConnection(con, getConnectionFactory(), true);
 		}
+		return false;
 	}
 
+	/**
+	 * Tells whether the service interface declares an idempotent method.
+	 * 
+	 * @return true if an idempotent method is declared
+	 */
+	private boolean hasIdempotentMethod() {
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			if (lMetadata.isIdempotent()) {
+				return true;
+			}
+		}
+		return false;
+	}
 
 	/**
-	 * Sets the JMS destination.
+	 * Tells whether the replies of a method of the service interface are gathered.
 	 * 
-	 * @param pDestination
-	 *            the JMS destination to set.
+	 * @return true if a gathered method is declared
 	 */
-	public void setDestination(Destination pDestination) {
-		mDestination = pDestination;
-		// Spring requires to have this configured !
-		setQueueName("empty");
+	private boolean hasGatheredMethod() {
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			if (lMetadata.isGathered()) {
+				return true;
+			}
+		}
+		return false;
 	}
-	
-	public void setAckDestination(Destination pDestination) {
-		mAckDestination = pDestination;
+
+	/**
+	 * Tells whether the service interface declares a method returning a {@link CompletableFuture}.
+	 * 
+	 * @return true if an asynchronous method is declared
+	 */
+	private boolean hasAsynchronousMethod() {
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			if (lMetadata.isAsynchronous()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	protected Message doExecuteRequest(Session pSession, Destination pDestination, Message pRequestMessage)
-			throws JMSException {
-		MessageProducer lProducer = null;
-		MessageConsumer lConsumer = null;
-		try {
-			// Create producer.
-			String responseID = UUID.randomUUID().toString();
-			lProducer = pSession.createProducer(pDestination);
-			lConsumer = pSession.createConsumer(mAckDestination, "responseID='" + responseID + "'");
-			pRequestMessage.setJMSReplyTo(mAckDestination);
-			pRequestMessage.setStringProperty("responseID", responseID);
-			if (mDestination instanceof Topic) {
-				lProducer.send(pRequestMessage);
-			} else if (mDestination instanceof Queue) {
-				lProducer.send(pRequestMessage, getDeliveryMode(), DEFAULT_PRIORITY, getTTL());
-			} else {
-				throw new IllegalArgumentException("Either topic or queue as destination is supported");
+	/**
+	 * Tells whether the results of a method of the service interface are cached.
+	 * 
+	 * @return true if a result is cached
+	 */
+	private boolean hasCachedMethod() {
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			if (lMetadata.getCacheTimeToLive() > 0) {
+				return true;
 			}
-			
-			long lTimeout = getReceiveTimeout();
-			Message lMessage = null;
-			// If timeout is defined
-			if (lTimeout > 0) {
-				lMessage = lConsumer.receive(lTimeout);
-			} else {
-				lMessage = lConsumer.receive();
+		}
+		return false;
+	}
+
+	/**
+	 * Opens the pooled sessions and the shared reply consumer in advance, then waits until the
+	 * destination, and the destinations of the lanes, have a consumer, i.e. until the network bridge
+	 * and the remote exporter are up.
+	 * <p>
+	 * The consumer is detected from the ActiveMQ advisories of the broker the proxy is connected to.
+	 *
+	 * @param pTimeout
+	 *            the maximum wait (ms)
+	 * @return true if the proxy is ready to take traffic, false if no consumer appeared in time
+	 * @throws JMSException
+	 *             if the broker cannot be reached
+	 */
+	public boolean awaitReady(long pTimeout) throws JMSException {
+		if (mSessionPool != null) {
+			mSessionPool.prewarm();
+		}
+		if (mReplyDispatcher != null) {
+			mReplyDispatcher.start();
+		}
+		if (mHedgeReplyDispatcher != null) {
+			mHedgeReplyDispatcher.start();
+		}
+		for (ConsumerTracker lTracker : mConsumerTrackers.values()) {
+			lTracker.start();
+		}
+		BrokerReadiness lReadiness = new BrokerReadiness(getConnectionFactory());
+		long lDeadline = System.currentTimeMillis() + pTimeout;
+		for (Destination lDestination : getRequestDestinations()) {
+			if (!lReadiness.awaitConsumer(lDestination, Math.max(1, lDeadline - System.currentTimeMillis()))) {
+				return false;
 			}
-			return lMessage;
-		} finally {
-			// Close jms consumer and producer.
-			JmsUtils.closeMessageConsumer(lConsumer);
-			JmsUtils.closeMessageProducer(lProducer);
 		}
+		return true;
 	}
 
-	private long getTTL() {
-		long lResult = DEFAULT_TTL;
-		if (mJmsMessageExpiration) {
-			lResult = getReceiveTimeout();
+	/**
+	 * Returns the destinations of the requests: the service destination and the destinations of the
+	 * lanes of the methods, or their shard queues if sharded.
+	 * 
+	 * @return the destinations
+	 */
+	private Set<Destination> getRequestDestinations() {
+		Set<Destination> lDestinations = new LinkedHashSet<Destination>();
+		lDestinations.add(mDestination);
+		for (MethodMetadata lMetadata : mMethodMetadata.values()) {
+			lDestinations.add(lMetadata.getDestination());
 		}
-		return lResult;
+		if (mShardDestinations.isEmpty()) {
+			return lDestinations;
+		}
+		Set<Destination> lShardDestinations = new LinkedHashSet<Destination>();
+		for (Destination lDestination : lDestinations) {
+			lShardDestinations.addAll(Arrays.asList(mShardDestinations.get(lDestination)));
+		}
+		return lShardDestinations;
 	}
 
 	/**
-	 * Returns the delivery mode
+	 * Closes the shared reply consumer and stops the background tasks.
+	 */
+	@Override
+	public void destroy() {
+		if (mMetrics != null) {
+			mMetrics.unregisterMBean();
+		}
+		if (mReplyDispatcher != null) {
+			mReplyDispatcher.stop();
+		}
+		if (mHedgeReplyDispatcher != null) {
+			mHedgeReplyDispatcher.stop();
+		}
+		for (ConsumerTracker lTracker : mConsumerTrackers.values()) {
+			lTracker.stop();
+		}
+		if (mSessionPool != null) {
+			mSessionPool.close();
+		}
+		if (mResultCache != null) {
+			mResultCache.clear();
+		}
+		synchronized (this) {
+			if (mScheduler != null) {
+				mScheduler.shutdownNow();
+				mScheduler = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the scheduler for the proxy background tasks, creating it if needed.
 	 * 
-	 * @return the delivery mode
+	 * @return the scheduler
 	 */
-	private int getDeliveryMode() {
-		int lResult = DEFAULT_DELIVERY_MODE;
-		if (mJmsMessageNonPersistent) {
-			lResult = DeliveryMode.NON_PERSISTENT;
+	protected synchronized ScheduledExecutorService getScheduler() {
+		if (mScheduler == null) {
+			CustomizableThreadFactory lThreadFactory = new CustomizableThreadFactory("jms-invoker-" + mProxyId + "-");
+			lThreadFactory.setDaemon(true);
+			mScheduler = Executors.newSingleThreadScheduledExecutor(lThreadFactory);
 		}
-		return lResult;
+		return mScheduler;
 	}
 
-	 /**
-	   * Sets the JMS message expiration flag
-	   * 
-	   * @param jmsMessageExpiration
-	   *          the JMS message expiration flag
-	   */
-	  public void setJmsMessageExpiration(boolean jmsMessageExpiration)
-	  {
-	    this.mJmsMessageExpiration = jmsMessageExpiration;
-	  }
+	protected Object getDestination() {
+		return mDestination;
+	}
 
-	  /**
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object invoke(MethodInvocation pMethodInvocation) throws Throwable {
+		MethodMetadata lMetadata = getMethodMetadata(pMethodInvocation.getMethod());
+		if (lMetadata.isAsynchronous()) {
+			return invokeAsynchronously(pMethodInvocation, lMetadata);
+		}
+		if (lMetadata.isStreamed()) {
+			return invokeStreamed(pMethodInvocation, lMetadata);
+		}
+		if (lMetadata.isGathered()) {
+			return invokeGathered(pMethodInvocation, lMetadata);
+		}
+		long lStart = startPhase();
+		boolean lSucceeded = false;
+		try {
+			if (lMetadata.isOneWay()) {
+				Object lResult = invokeOneWay(pMethodInvocation, lMetadata);
+				lSucceeded = true;
+				return lResult;
+			}
+
+			// the Object to return
+			Object lResult = null;
+
+			try {
+				CacheKey lKey = null;
+				if (mResultCache != null && lMetadata.getCacheTimeToLive() > 0) {
+					lKey = CacheKey.create(lMetadata, pMethodInvocation.getArguments());
+				}
+				if (lKey != null) {
+					lResult = mResultCache.get(lKey, lMetadata.getCacheTimeToLive(),
+							() -> invokeWithinCircuit(pMethodInvocation, lMetadata));
+				} else {
+					lResult = invokeWithinCircuit(pMethodInvocation, lMetadata);
+				}
+			}
+			// runtime exception are converted to an exception declared on the
+			// invoked method (if possible)
+			catch (RuntimeException lE)/// NOSONAR
+			{
+				throw lMetadata.convert(lE);
+			}
+			lSucceeded = true;
+			// return the result of the invocation
+			return lResult;
+		} finally {
+			recordInvocation(pMethodInvocation.getMethod().getName(), lStart, lSucceeded);
+		}
+	}
+
+	/**
+	 * Invokes a method synchronously unless the circuit breaker fails it fast.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the result
+	 * @throws Throwable
+	 *             the remote exception, or a {@link RemoteConnectFailureException} if the invocation
+	 *             fails fast
+	 */
+	private Object invokeWithinCircuit(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) throws Throwable {
+		if (mCircuitBreaker == null) {
+			return invokeWithinLimit(pMethodInvocation, pMetadata);
+		}
+		checkCircuit(pMethodInvocation, pMetadata);
+		Throwable lFailure = null;
+		try {
+			return invokeWithinLimit(pMethodInvocation, pMetadata);
+		} catch (Throwable lE) {// NOSONAR rethrown
+			lFailure = lE;
+			throw lE;
+		} finally {
+			recordOutcome(lFailure);
+		}
+	}
+
+	/**
+	 * Fails an invocation fast if the destination has no consumer or if the circuit breaker is open.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @throws RemoteConnectFailureException
+	 *             if the invocation fails fast
+	 */
+	private void checkCircuit(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) {
+		Destination lDestination = getRequestDestination(pMetadata, pMethodInvocation.getArguments());
+		ConsumerTracker lTracker = mConsumerTrackers.get(lDestination);
+		try {
+			lTracker.start();
+		} catch (JMSException lE) {// NOSONAR
+			// the consumers stay unknown: the invocation fails on its own if the broker is down
+		}
+		String lReason;
+		if (lTracker.getConsumerCount() == 0) {
+			lReason = "no consumer on";
+		} else if (!mCircuitBreaker.tryAcquire()) {
+			lReason = "circuit breaker open for";
+		} else {
+			return;
+		}
+		mFastFailedCount.increment();
+		throw new RemoteConnectFailureException(pMethodInvocation.getMethod().getName() + " failed fast, " + lReason
+				+ " destination [" + lDestination + "]", null);
+	}
+
+	/**
+	 * Records the outcome of an invocation let through by the circuit breaker.
+	 * 
+	 * @param pFailure
+	 *            the failure of the invocation, null if it succeeded
+	 */
+	private void recordOutcome(Throwable pFailure) {
+		if (pFailure == null) {
+			mCircuitBreaker.onReply();
+		} else if (isTimeout(pFailure)) {
+			mCircuitBreaker.onTimeout();
+		} else if (isRejected(pFailure)) {
+			mCircuitBreaker.onAbort();
+		} else {
+			// the exporter answered with an exception
+			mCircuitBreaker.onReply();
+		}
+	}
+
+	/**
+	 * Tells whether a failure is caused by the concurrency limiter
+	 * 
+	 * @param pFailure
+	 *            the failure
+	 * @return true if a {@link RejectedExecutionException} is in the causes
+	 */
+	private static boolean isRejected(Throwable pFailure) {
+		for (Throwable lCause = pFailure; lCause != null; lCause = lCause.getCause()) {
+			if (lCause instanceof RejectedExecutionException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Invokes a method synchronously within the limit of the invocations in flight.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the result
+	 * @throws Throwable
+	 *             the remote exception, or a {@link RejectedExecutionException} if the limit is
+	 *             reached
+	 */
+	private Object invokeWithinLimit(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) throws Throwable {
+		if (mConcurrencyLimiter == null) {
+			return invokeSynchronously(pMethodInvocation, pMetadata);
+		}
+		acquirePermit(pMethodInvocation);
+		long lStart = System.nanoTime();
+		boolean lDropped = false;
+		try {
+			return invokeSynchronously(pMethodInvocation, pMetadata);
+		} catch (RemoteTimeoutException lE) {
+			lDropped = true;
+			throw lE;
+		} finally {
+			mConcurrencyLimiter.release(System.nanoTime() - lStart, lDropped);
+		}
+	}
+
+	/**
+	 * Acquires a permit of the concurrency limiter.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @throws RejectedExecutionException
+	 *             if the limit is reached
+	 */
+	private void acquirePermit(MethodInvocation pMethodInvocation) {
+		try {
+			if (mConcurrencyLimiter.acquire(mConcurrencyQueueTimeout)) {
+				return;
+			}
+		} catch (InterruptedException lE) {
+			Thread.currentThread().interrupt();
+		}
+		throw new RejectedExecutionException("Too many invocations in flight, " + pMethodInvocation.getMethod().getName()
+				+ " rejected (limit " + mConcurrencyLimiter.getLimit() + ")");
+	}
+
+	/**
+	 * Tells whether a failure is caused by a reply timeout
+	 * 
+	 * @param pFailure
+	 *            the failure
+	 * @return true if a {@link RemoteTimeoutException} is in the causes
+	 */
+	private static boolean isTimeout(Throwable pFailure) {
+		for (Throwable lCause = pFailure; lCause != null; lCause = lCause.getCause()) {
+			if (lCause instanceof RemoteTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the start time of a measured phase.
+	 * 
+	 * @return the current {@link System#nanoTime()}, or 0 if the metrics are disabled
+	 */
+	private long startPhase() {
+		return mMetrics != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the duration of a phase, if the metrics are enabled.
+	 * 
+	 * @param pMethodName
+	 *            the method name (the phase is not recorded if null)
+	 * @param pPhase
+	 *            the phase
+	 * @param pStart
+	 *            the start time of the phase
+	 */
+	private void recordPhase(String pMethodName, InvocationPhase pPhase, long pStart) {
+		if (mMetrics != null && pMethodName != null) {
+			mMetrics.recordSince(pMethodName, pPhase, pStart);
+		}
+	}
+
+	/**
+	 * Records a completed invocation, if the metrics are enabled.
+	 * 
+	 * @param pMethodName
+	 *            the method name
+	 * @param pStart
+	 *            the start time of the invocation
+	 * @param pSucceeded
+	 *            true if the invocation succeeded
+	 */
+	private void recordInvocation(String pMethodName, long pStart, boolean pSucceeded) {
+		if (mMetrics != null) {
+			mMetrics.recordSince(pMethodName, InvocationPhase.TOTAL, pStart);
+			if (!pSucceeded) {
+				mMetrics.recordError(pMethodName);
+			}
+		}
+	}
+
+	/**
+	 * Invokes a method and waits for its reply.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the remote result
+	 * @throws Throwable
+	 *             the remote exception
+	 */
+	private Object invokeSynchronously(MethodInvocation pMethodInvocation, MethodMetadata pMetadata)
+			throws Throwable {
+		if (AopUtils.isToStringMethod(pMethodInvocation.getMethod())) {
+			return "JMS invoker proxy for destination [" + mDestination + "]";
+		}
+		RemoteInvocation lInvocation = createRemoteInvocation(pMethodInvocation);
+		RemoteInvocationResult lResult;
+		try {
+			lResult = executeRequest(lInvocation, pMetadata);
+		} catch (JMSException lE) {
+			throw convertJmsInvokerAccessException(lE);
+		}
+		return recreateInvocationResult(pMethodInvocation, lResult);
+	}
+
+	/**
+	 * Invokes a one-way method: the request is sent without reply destination and no reply is
+	 * awaited.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return null
+	 * @throws Throwable
+	 *             the exception declared on the method if the request cannot be sent
+	 */
+	private Object invokeOneWay(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) throws Throwable {
+		RemoteInvocation lInvocation = createRemoteInvocation(pMethodInvocation);
+		try {
+			sendOneWayRequest(lInvocation, pMetadata);
+		} catch (JMSException lE) {
+			throw pMetadata.convert(convertJmsInvokerAccessException(lE));
+		}
+		return null;
+	}
+
+	/**
+	 * Sends the request of a one-way invocation.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendOneWayRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata) throws JMSException {
+		Destination lDestination = getRequestDestination(pMetadata, pInvocation.getArguments());
+		withSession((pSession, pProducer) -> {
+			sendRequest(pSession, pProducer, lDestination, createRequestMessage(pSession, pInvocation), pMetadata);
+			return null;
+		});
+	}
+
+	/**
+	 * Invokes a method returning a {@link CompletableFuture}: the request is sent right away and the
+	 * returned future is completed when the correlated reply arrives, so that the calling thread is
+	 * never blocked.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the future of the remote result
+	 */
+	private CompletableFuture<Object> invokeAsynchronously(final MethodInvocation pMethodInvocation,
+			final MethodMetadata pMetadata) {
+		final CompletableFuture<Object> lFuture = new CompletableFuture<Object>();
+		if (AopUtils.isToStringMethod(pMethodInvocation.getMethod())) {
+			lFuture.complete("JMS invoker proxy for destination [" + mDestination + "]");
+			return lFuture;
+		}
+		if (mCircuitBreaker != null) {
+			try {
+				checkCircuit(pMethodInvocation, pMetadata);
+			} catch (RemoteConnectFailureException lE) {
+				completeExceptionally(lFuture, pMetadata, lE);
+				return lFuture;
+			}
+			lFuture.whenComplete((pValue, pFailure) -> recordOutcome(pFailure));
+		}
+		if (mConcurrencyLimiter != null) {
+			try {
+				acquirePermit(pMethodInvocation);
+			} catch (RejectedExecutionException lE) {
+				completeExceptionally(lFuture, pMetadata, lE);
+				return lFuture;
+			}
+			final long lSent = System.nanoTime();
+			lFuture.whenComplete((pValue, pFailure) -> mConcurrencyLimiter.release(System.nanoTime() - lSent,
+					pFailure != null && isTimeout(pFailure)));
+		}
+		final long lStart = startPhase();
+		final RemoteInvocation lInvocation = createRemoteInvocation(pMethodInvocation);
+		if (mMetrics != null) {
+			lFuture.whenComplete((pValue, pFailure) -> recordInvocation(lInvocation.getMethodName(), lStart,
+					pFailure == null));
+		}
+		final PendingReply lPending;
+		try {
+			lPending = sendAsynchronousRequest(lInvocation, pMetadata);
+		} catch (JMSException lE) {
+			completeExceptionally(lFuture, pMetadata, convertJmsInvokerAccessException(lE));
+			return lFuture;
+		}
+		lPending.whenCompleteAsync((pMessage, pFailure) -> {
+			try {
+				if (pFailure != null) {
+					throw pFailure;
+				}
+				RemoteInvocationResult lResult = pMessage != null ? readResult(pMessage, lInvocation)
+						: onReceiveTimeout(lInvocation);
+				lFuture.complete(recreateInvocationResult(pMethodInvocation, lResult));
+			} catch (JMSException lE) {
+				completeExceptionally(lFuture, pMetadata, convertJmsInvokerAccessException(lE));
+			} catch (Throwable lE) {// NOSONAR
+				completeExceptionally(lFuture, pMetadata, lE);
+			}
+		}, mAsyncExecutor);
+		// a caller cancelling its future does not wait for the reply anymore
+		lFuture.whenComplete((pValue, pFailure) -> {
+			if (lFuture.isCancelled()) {
+				mReplyDispatcher.unregister(lPending.getCorrelationId());
+			}
+		});
+		return lFuture;
+	}
+
+	/**
+	 * Recreates the value of an invocation result.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pResult
+	 *            the invocation result
+	 * @return the value
+	 * @throws Throwable
+	 *             the remote exception
+	 */
+	private Object recreateInvocationResult(MethodInvocation pMethodInvocation, RemoteInvocationResult pResult)
+			throws Throwable {
+		try {
+			return recreateRemoteInvocationResult(pResult);
+		} catch (Throwable lE) {// NOSONAR
+			if (pResult.hasInvocationTargetException()) {
+				throw lE;
+			}
+			throw new RemoteInvocationFailureException("Invocation of method [" + pMethodInvocation.getMethod()
+					+ "] failed in JMS invoker remote service at destination [" + mDestination + "]", lE);
+		}
+	}
+
+	/**
+	 * Completes the future of an asynchronous invocation with a failure, converting runtime exceptions
+	 * the same way as synchronous invocations.
+	 * 
+	 * @param pFuture
+	 *            the future
+	 * @param pMetadata
+	 *            the method settings
+	 * @param pFailure
+	 *            the failure
+	 */
+	private void completeExceptionally(CompletableFuture<Object> pFuture, MethodMetadata pMetadata,
+			Throwable pFailure) {
+		Throwable lFailure = pFailure;
+		if (pFailure instanceof RuntimeException) {
+			lFailure = pMetadata.convert((RuntimeException) pFailure);
+		}
+		pFuture.completeExceptionally(lFailure);
+	}
+
+	/**
+	 * Invokes a method returning an {@link Iterator} or a {@link Stream}: the returned iterator
+	 * receives the elements as the exporter streams them, and the stream is cancelled if closed before
+	 * its end.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the iterator, or the stream, of the remote result
+	 * @throws Throwable
+	 *             if the request cannot be sent
+	 */
+	private Object invokeStreamed(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) throws Throwable {
+		RemoteInvocation lInvocation = createRemoteInvocation(pMethodInvocation);
+		final String lResponseID = nextResponseId();
+		StreamedResult lStream = new StreamedResult("stream of " + lInvocation.getMethodName() + " " + lResponseID,
+				mStreamWindow, pMetadata.getReceiveTimeout(), this::extractInvocationResult, this::sendStreamCredits,
+				() -> mReplyDispatcher.unregisterStream(lResponseID));
+		try {
+			mReplyDispatcher.start();
+			// registered before sending so that a fast reply cannot be missed
+			mReplyDispatcher.registerStream(lResponseID, lStream);
+			sendRegisteredRequest(lInvocation, pMetadata, lResponseID);
+		} catch (JMSException lE) {
+			lStream.close();
+			throw pMetadata.convert(convertJmsInvokerAccessException(lE));
+		}
+		if (Stream.class.equals(pMethodInvocation.getMethod().getReturnType())) {
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(lStream, Spliterator.ORDERED), false)
+					.onClose(lStream::close);
+		}
+		return lStream;
+	}
+
+	/**
+	 * Invokes a method by broadcasting its request to the exporters subscribed to the topic, and
+	 * gathers their results.
+	 * 
+	 * @param pMethodInvocation
+	 *            the method invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the list of the results
+	 * @throws Throwable
+	 *             the exception of a failed reply, or if the quorum is not reached
+	 */
+	private Object invokeGathered(MethodInvocation pMethodInvocation, MethodMetadata pMetadata) throws Throwable {
+		RemoteInvocation lInvocation = createRemoteInvocation(pMethodInvocation);
+		String lResponseID = nextResponseId();
+		GatheredReplies lReplies = new GatheredReplies("gathering of " + lInvocation.getMethodName() + " " + lResponseID,
+				pMetadata.getGatherCount(), pMetadata.getGatherQuorum(), this::extractInvocationResult);
+		try {
+			mReplyDispatcher.start();
+			// registered before sending so that a fast reply cannot be missed
+			mReplyDispatcher.registerStream(lResponseID, lReplies);
+			sendRegisteredRequest(lInvocation, pMetadata, lResponseID);
+			return lReplies.await(pMetadata.getReceiveTimeout());
+		} catch (JMSException lE) {
+			throw pMetadata.convert(convertJmsInvokerAccessException(lE));
+		} catch (RuntimeException lE) {
+			throw pMetadata.convert(lE);
+		} finally {
+			mReplyDispatcher.unregisterStream(lResponseID);
+		}
+	}
+
+	/**
+	 * Sends the request of a streamed or gathered invocation, whose replies are received by a stream
+	 * registered on the shared reply consumer.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @param pResponseID
+	 *            the correlation ID of the stream
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendRegisteredRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata, String pResponseID)
+			throws JMSException {
+		Destination lDestination = getRequestDestination(pMetadata, pInvocation.getArguments());
+		withSession((pSession, pProducer) -> {
+			Message lRequestMessage = createRequestMessage(pSession, pInvocation);
+			if (pMetadata.isStreamed()) {
+				lRequestMessage.setIntProperty(StreamedResult.WINDOW_PROPERTY, mStreamWindow);
+			}
+			sendSharedRequest(pSession, pProducer, lDestination, lRequestMessage, pMetadata, pResponseID);
+			return null;
+		});
+	}
+
+	/**
+	 * Sends credits, or the cancellation, of a stream to the exporter.
+	 * 
+	 * @param pDestination
+	 *            the destination receiving the credits
+	 * @param pCredits
+	 *            the number of replies the exporter may send in addition
+	 * @param pCancel
+	 *            true to cancel the stream
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendStreamCredits(Destination pDestination, int pCredits, boolean pCancel) throws JMSException {
+		withSession((pSession, pProducer) -> {
+			pProducer.send(pDestination, StreamedResult.createCreditMessage(pSession, pCredits, pCancel),
+					DeliveryMode.NON_PERSISTENT, DEFAULT_PRIORITY, 0);
+			return null;
+		});
+	}
+
+	/**
+	 * Sends the request of an asynchronous invocation.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the pending reply
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private PendingReply sendAsynchronousRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata)
+			throws JMSException {
+		Destination lDestination = getRequestDestination(pMetadata, pInvocation.getArguments());
+		return withSession((pSession, pProducer) -> sendSharedRequest(pSession, pProducer, lDestination,
+				createRequestMessage(pSession, pInvocation), pMetadata));
+	}
+
+	@Override
+	protected RemoteInvocationResult executeRequest(RemoteInvocation invocation) throws JMSException {
+		return executeRequest(invocation, mDefaultMetadata);
+	}
+
+	/**
+	 * Sends the request of an invocation and waits for its reply.
+	 * 
+	 * @param invocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the invocation result
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private RemoteInvocationResult executeRequest(RemoteInvocation invocation, MethodMetadata pMetadata)
+			throws JMSException {
+		if (mHedger != null && pMetadata.isIdempotent()) {
+			return executeHedgedRequest(invocation, pMetadata);
+		}
+		if (mBatchAccepted) {
+			return executeBatchedRequest(invocation, pMetadata);
+		}
+		Destination destinationToUse = getRequestDestination(pMetadata, invocation.getArguments());
+		Message responseMessage = withSession((pSession, pProducer) -> doExecuteRequest(pSession, pProducer,
+				destinationToUse, createRequestMessage(pSession, invocation), pMetadata));
+		if (responseMessage != null) {
+			return readResult(responseMessage, invocation);
+		} else {
+			return onReceiveTimeout(invocation);
+		}
+	}
+
+	/**
+	 * Sends the request of an idempotent method and waits for its reply. When the reply is later than
+	 * the hedge delay, or if the first broker fails, a duplicate request with the same correlation ID
+	 * is sent through the second broker: the first reply wins and the other one is discarded.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the invocation result
+	 * @throws JMSException
+	 *             if the request cannot be sent through either broker
+	 */
+	private RemoteInvocationResult executeHedgedRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata)
+			throws JMSException {
+		String lMethodName = pInvocation.getMethodName();
+		long lTimeout = pMetadata.getReceiveTimeout();
+		long lStart = System.nanoTime();
+		String lResponseID = nextResponseId();
+		// registered before sending so that a fast reply cannot be missed
+		PendingReply lPending = mReplyDispatcher.register(lResponseID, lTimeout);
+		PendingReply lHedge = null;
+		try {
+			long lDelay = mHedger.getDelay(lMethodName);
+			Message lReply = null;
+			try {
+				mReplyDispatcher.start();
+				sendRegisteredRequest(pInvocation, pMetadata, lResponseID);
+				lReply = awaitReply(lPending, lTimeout > 0 ? Math.min(lDelay, lTimeout) : lDelay, lResponseID);
+			} catch (JMSException lE) {
+				// the first broker failed, only the hedge can answer
+				lPending.completeExceptionally(lE);
+			}
+			if (lReply != null) {
+				mHedger.record(lMethodName, System.nanoTime() - lStart);
+				return readResult(lReply, pInvocation);
+			}
+			long lElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lStart);
+			if (lTimeout > 0 && lElapsed >= lTimeout) {
+				return onReceiveTimeout(pInvocation);
+			}
+			long lHedgeStart = System.nanoTime();
+			lHedge = mHedgeReplyDispatcher.register(lResponseID, lTimeout);
+			sendHedgeRequest(pInvocation, pMetadata, lResponseID);
+			lReply = awaitReply(firstReply(lPending, lHedge), lTimeout > 0 ? lTimeout - lElapsed : 0, lResponseID);
+			if (lReply == null) {
+				return onReceiveTimeout(pInvocation);
+			}
+			boolean lWon = !lHedge.isCompletedExceptionally() && lHedge.getNow(null) == lReply;
+			mHedger.recordHedge(lWon);
+			mHedger.record(lMethodName, System.nanoTime() - (lWon ? lHedgeStart : lStart));
+			return readResult(lReply, pInvocation);
+		} finally {
+			mReplyDispatcher.unregister(lResponseID);
+			if (lHedge != null) {
+				mHedgeReplyDispatcher.unregister(lResponseID);
+			}
+		}
+	}
+
+	/**
+	 * Sends the hedged duplicate of a request through the second broker.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @param pResponseID
+	 *            the correlation ID of the original request
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendHedgeRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata, String pResponseID)
+			throws JMSException {
+		Destination lDestination = getRequestDestination(pMetadata, pInvocation.getArguments());
+		mHedgeReplyDispatcher.start();
+		Destination lReplyDestination = mHedgeReplyDispatcher.getReplyDestination();
+		if (lReplyDestination == null) {
+			throw new JMSException("Hedge reply consumer closed before sending " + pResponseID);
+		}
+		Connection lConnection = mHedgeConnectionFactory.createConnection();
+		Session lSession = null;
+		MessageProducer lProducer = null;
+		try {
+			lSession = lConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			lProducer = lSession.createProducer(lDestination);
+			Message lRequestMessage = createRequestMessage(lSession, pInvocation);
+			lRequestMessage.setJMSReplyTo(lReplyDestination);
+			lRequestMessage.setStringProperty(ReplyDispatcher.RESPONSE_ID_PROPERTY, pResponseID);
+			sendRequest(lSession, lProducer, lDestination, lRequestMessage, pMetadata);
+		} finally {
+			JmsUtils.closeMessageProducer(lProducer);
+			JmsUtils.closeSession(lSession);
+			ConnectionFactoryUtils.releaseConnection(lConnection, mHedgeConnectionFactory, true);
+		}
+	}
+
+	/**
+	 * Returns the first successful reply of a request and of its hedge.
+	 * 
+	 * @param pPending
+	 *            the reply of the request
+	 * @param pHedge
+	 *            the reply of the hedge
+	 * @return the future completed by the first reply, or by the last failure
+	 */
+	private static CompletableFuture<Message> firstReply(PendingReply pPending, PendingReply pHedge) {
+		CompletableFuture<Message> lReply = new CompletableFuture<Message>();
+		AtomicInteger lFailureCount = new AtomicInteger();
+		BiConsumer<Message, Throwable> lListener = (pMessage, pFailure) -> {
+			if (pFailure == null) {
+				lReply.complete(pMessage);
+			} else if (lFailureCount.incrementAndGet() == 2) {
+				lReply.completeExceptionally(pFailure);
+			}
+		};
+		pPending.whenComplete(lListener);
+		pHedge.whenComplete(lListener);
+		return lReply;
+	}
+
+	/**
+	 * Creates the request message with the codec once accepted by the exporter, as a Java serialized
+	 * object message otherwise.
+	 */
+	@Override
+	protected Message createRequestMessage(Session pSession, RemoteInvocation pInvocation) throws JMSException {
+		long lStart = startPhase();
+		Message lMessage;
+		if (mCodecAccepted) {
+			lMessage = InvocationCodecs.createInvocationMessage(pSession, pInvocation, mCodec);
+		} else {
+			lMessage = super.createRequestMessage(pSession, pInvocation);
+		}
+		if (mShards != null) {
+			lMessage.setStringProperty(InvocationShards.KEY_PROPERTY, getShardKey(pInvocation.getArguments()));
+		}
+		recordPhase(pInvocation.getMethodName(), InvocationPhase.SERIALIZE, lStart);
+		return lMessage;
+	}
+
+	/**
+	 * Reads the result of an invocation from its reply, recording the reply transit and decoding
+	 * durations.
+	 * 
+	 * @param pResponseMessage
+	 *            the reply
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @return the invocation result
+	 * @throws JMSException
+	 *             if the reply cannot be read
+	 */
+	private RemoteInvocationResult readResult(Message pResponseMessage, RemoteInvocation pInvocation)
+			throws JMSException {
+		if (mMetrics == null) {
+			return extractInvocationResult(pResponseMessage);
+		}
+		mMetrics.recordTransit(pInvocation.getMethodName(), InvocationPhase.REPLY_TRANSIT, pResponseMessage);
+		long lStart = System.nanoTime();
+		RemoteInvocationResult lResult = extractInvocationResult(pResponseMessage);
+		mMetrics.recordSince(pInvocation.getMethodName(), InvocationPhase.DESERIALIZE, lStart);
+		return lResult;
+	}
+
+	/**
+	 * Counts the timeout before delegating to the default handling.
+	 */
+	@Override
+	protected RemoteInvocationResult onReceiveTimeout(RemoteInvocation pInvocation) {
+		if (mMetrics != null) {
+			mMetrics.recordTimeout(pInvocation.getMethodName());
+		}
+		return super.onReceiveTimeout(pInvocation);
+	}
+
+	/**
+	 * Extracts the invocation result according to the codec of the reply, and records the
+	 * capabilities advertised by the exporter.
+	 */
+	@Override
+	protected RemoteInvocationResult extractInvocationResult(Message pResponseMessage) throws JMSException {
+		recordCapabilities(pResponseMessage);
+		if (InvocationCodecs.getCodecName(pResponseMessage) != null) {
+			return mReplyCodecs.readResult(pResponseMessage);
+		}
+		return super.extractInvocationResult(pResponseMessage);
+	}
+
+	/**
+	 * Records the codecs, the batching and the large payload support advertised by the exporter in a
+	 * reply. A capability is used once all the exporters of the service have advertised it, since a
+	 * reply only tells about the exporter which sent it.
+	 * 
+	 * @param pResponseMessage
+	 *            the reply
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void recordCapabilities(Message pResponseMessage) throws JMSException {
+		String lExporterId = pResponseMessage.getStringProperty(InvocationCodecs.EXPORTER_ID_PROPERTY);
+		if (lExporterId == null) {
+			// legacy exporter, accepting nothing
+			return;
+		}
+		if (mCodec != null && !mCodecAccepted && InvocationCodecs.accepts(
+				pResponseMessage.getStringProperty(InvocationCodecs.ACCEPT_CODECS_PROPERTY), mCodec.getName())) {
+			mCodecAccepted = isAcceptedByAll(mCodecExporters, lExporterId);
+		}
+		if (mBatchSize > 1 && !mBatchAccepted && InvocationBatch.acceptsBatches(pResponseMessage)) {
+			mBatchAccepted = isAcceptedByAll(mBatchExporters, lExporterId);
+		}
+		if (isLargePayloadEnabled() && !mLargePayloadsAccepted && PayloadChunker.accepts(pResponseMessage)) {
+			mLargePayloadsAccepted = isAcceptedByAll(mLargePayloadExporters, lExporterId);
+		}
+	}
+
+	/**
+	 * Records an exporter accepting a capability.
+	 * 
+	 * @param pExporters
+	 *            the IDs of the exporters known to accept the capability
+	 * @param pExporterId
+	 *            the ID of the exporter
+	 * @return true once the capability is accepted by as many exporters as the service has
+	 */
+	private boolean isAcceptedByAll(Set<String> pExporters, String pExporterId) {
+		pExporters.add(pExporterId);
+		return mExporterCount > 0 && pExporters.size() >= mExporterCount;
+	}
+
+	/**
+	 * Tells whether the payloads are compressed or chunked
+	 * 
+	 * @return true if a compression threshold or a chunk size is set
+	 */
+	private boolean isLargePayloadEnabled() {
+		return mCompressionThreshold > 0 || mChunkSize > 0;
+	}
+
+	/**
+	 * Runs an action on a session borrowed from the session pool, or without pool on a session of a
+	 * new started connection, closed once the action is done. A pooled session is discarded if the
+	 * action fails.
+	 * 
+	 * @param pCallback
+	 *            the action
+	 * @return the result of the action
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private <T> T withSession(SessionCallback<T> pCallback) throws JMSException {
+		if (mSessionPool != null) {
+			PooledSession lPooled = mSessionPool.borrow();
+			boolean lBroken = true;
+			try {
+				T lResult = pCallback.doInSession(lPooled.getSession(), lPooled.getProducer());
+				lBroken = false;
+				return lResult;
+			} finally {
+				mSessionPool.release(lPooled, lBroken);
+			}
+		}
+		Connection lConnection = createConnection();
+		Session lSession = null;
+		MessageProducer lProducer = null;
+		try {
+			lSession = createSession(lConnection);
+			lProducer = lSession.createProducer(null);
+			lConnection.start();
+			return pCallback.doInSession(lSession, lProducer);
+		} finally {
+			JmsUtils.closeMessageProducer(lProducer);
+			JmsUtils.closeSession(lSession);
+			ConnectionFactoryUtils.releaseConnection(lConnection, getConnectionFactory(), true);
+		}
+	}
+
+	/**
+	 * Sets the JMS destination.
+	 * 
+	 * @param pDestination
+	 *            the JMS destination to set.
+	 */
+	public void setDestination(Destination pDestination) {
+		mDestination = pDestination;
+		// Spring requires to have this configured !
+		setQueueName("empty");
+	}
+	
+	public void setAckDestination(Destination pDestination) {
+		mAckDestination = pDestination;
+	}
+
+	protected Message doExecuteRequest(Session pSession, Destination pDestination, Message pRequestMessage)
+			throws JMSException {
+		return doExecuteRequest(pSession, null, pDestination, pRequestMessage, mDefaultMetadata);
+	}
+
+	/**
+	 * Sends the request and waits for its reply.
+	 * 
+	 * @param pSession
+	 *            the JMS session
+	 * @param pProducer
+	 *            an anonymous producer of the session, or null to create a producer for this request
+	 * @param pDestination
+	 *            the request destination
+	 * @param pRequestMessage
+	 *            the request message
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the reply, or null on timeout
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private Message doExecuteRequest(Session pSession, MessageProducer pProducer, Destination pDestination,
+			Message pRequestMessage, MethodMetadata pMetadata) throws JMSException {
+		if (mReplyDispatcher != null) {
+			return doExecuteSharedRequest(pSession, pProducer, pDestination, pRequestMessage, pMetadata);
+		}
+		MessageProducer lProducer = null;
+		MessageConsumer lConsumer = null;
+		try {
+			// Create producer.
+			String responseID = UUID.randomUUID().toString();
+			lProducer = pProducer != null ? pProducer : pSession.createProducer(pDestination);
+			lConsumer = pSession.createConsumer(mAckDestination, "responseID='" + responseID + "'");
+			pRequestMessage.setJMSReplyTo(mAckDestination);
+			pRequestMessage.setStringProperty("responseID", responseID);
+			sendRequest(pSession, lProducer, pDestination, pRequestMessage, pMetadata);
+			
+			long lTimeout = pMetadata.getReceiveTimeout();
+			long lDeadline = System.currentTimeMillis() + lTimeout;
+			while (true) {
+				Message lMessage = null;
+				// If timeout is defined
+				if (lTimeout > 0) {
+					long lRemaining = lDeadline - System.currentTimeMillis();
+					lMessage = lRemaining > 0 ? lConsumer.receive(lRemaining) : null;
+				} else {
+					lMessage = lConsumer.receive();
+				}
+				if (lMessage == null) {
+					return null;
+				}
+				// a chunked reply is complete with its last chunk
+				lMessage = mPayloadChunker.restore(lMessage);
+				if (lMessage != null) {
+					return lMessage;
+				}
+			}
+		} finally {
+			// Close jms consumer and producer.
+			JmsUtils.closeMessageConsumer(lConsumer);
+			if (pProducer == null) {
+				JmsUtils.closeMessageProducer(lProducer);
+			}
+		}
+	}
+
+	/**
+	 * Sends the request and waits for its reply through the shared reply consumer.
+	 * 
+	 * @param pSession
+	 *            the JMS session
+	 * @param pProducer
+	 *            an anonymous producer of the session, or null to create a producer for this request
+	 * @param pDestination
+	 *            the request destination
+	 * @param pRequestMessage
+	 *            the request message
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the reply, or null on timeout
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private Message doExecuteSharedRequest(Session pSession, MessageProducer pProducer, Destination pDestination,
+			Message pRequestMessage, MethodMetadata pMetadata) throws JMSException {
+		PendingReply lPending = sendSharedRequest(pSession, pProducer, pDestination, pRequestMessage, pMetadata);
+		try {
+			return awaitReply(lPending, pMetadata.getReceiveTimeout(), lPending.getCorrelationId());
+		} finally {
+			mReplyDispatcher.unregister(lPending.getCorrelationId());
+		}
+	}
+
+	/**
+	 * Sends a request whose reply is received by the shared reply consumer.
+	 * 
+	 * @param pSession
+	 *            the JMS session
+	 * @param pProducer
+	 *            an anonymous producer of the session, or null to create a producer for this request
+	 * @param pDestination
+	 *            the request destination
+	 * @param pRequestMessage
+	 *            the request message
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the pending reply
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private PendingReply sendSharedRequest(Session pSession, MessageProducer pProducer, Destination pDestination,
+			Message pRequestMessage, MethodMetadata pMetadata) throws JMSException {
+		mReplyDispatcher.start();
+		String lResponseID = nextResponseId();
+		// registered before sending so that a fast reply cannot be missed
+		PendingReply lPending = mReplyDispatcher.register(lResponseID, pMetadata.getReceiveTimeout());
+		boolean lSent = false;
+		try {
+			sendSharedRequest(pSession, pProducer, pDestination, pRequestMessage, pMetadata, lResponseID);
+			lSent = true;
+			return lPending;
+		} finally {
+			if (!lSent) {
+				mReplyDispatcher.unregister(lResponseID);
+			}
+		}
+	}
+
+	/**
+	 * Sends a request whose replies are received by the shared reply consumer under a registered
+	 * correlation ID.
+	 * 
+	 * @param pSession
+	 *            the JMS session
+	 * @param pProducer
+	 *            an anonymous producer of the session, or null to create a producer for this request
+	 * @param pDestination
+	 *            the request destination
+	 * @param pRequestMessage
+	 *            the request message
+	 * @param pMetadata
+	 *            the method settings
+	 * @param pResponseID
+	 *            the correlation ID
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendSharedRequest(Session pSession, MessageProducer pProducer, Destination pDestination,
+			Message pRequestMessage, MethodMetadata pMetadata, String pResponseID) throws JMSException {
+		MessageProducer lProducer = null;
+		try {
+			Destination lReplyDestination = mReplyDispatcher.getReplyDestination();
+			if (lReplyDestination == null) {
+				throw new JMSException("Reply consumer closed before sending " + pResponseID);
+			}
+			lProducer = pProducer != null ? pProducer : pSession.createProducer(pDestination);
+			pRequestMessage.setJMSReplyTo(lReplyDestination);
+			pRequestMessage.setStringProperty(ReplyDispatcher.RESPONSE_ID_PROPERTY, pResponseID);
+			sendRequest(pSession, lProducer, pDestination, pRequestMessage, pMetadata);
+		} finally {
+			if (pProducer == null) {
+				JmsUtils.closeMessageProducer(lProducer);
+			}
+		}
+	}
+
+	/**
+	 * Returns a new correlation ID of the shared reply consumer.
+	 * 
+	 * @return the correlation ID
+	 */
+	private String nextResponseId() {
+		return mProxyId + ":" + mRequestCounter.incrementAndGet();
+	}
+
+	/**
+	 * Waits for a pending reply.
+	 * 
+	 * @param pPending
+	 *            the pending reply
+	 * @param pTimeout
+	 *            the timeout in milliseconds, 0 for no timeout
+	 * @param pDescription
+	 *            the description of the reply for the error message
+	 * @return the reply, or null on timeout
+	 * @throws JMSException
+	 *             if the reply consumer failed while waiting
+	 */
+	private <T> T awaitReply(CompletableFuture<T> pPending, long pTimeout, Object pDescription) throws JMSException {
+		try {
+			if (pTimeout > 0) {
+				return pPending.get(pTimeout, TimeUnit.MILLISECONDS);
+			}
+			return pPending.get();
+		} catch (TimeoutException lE) {
+			return null;
+		} catch (InterruptedException lE) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException lE) {
+			if (lE.getCause() instanceof JMSException) {
+				throw (JMSException) lE.getCause();
+			}
+			JMSException lJmsException = new JMSException("Failure while waiting for reply " + pDescription);
+			lJmsException.initCause(lE.getCause());
+			throw lJmsException;
+		}
+	}
+
+	/**
+	 * Adds an invocation to the current batch of its method settings and waits for its result.
+	 * 
+	 * @param pInvocation
+	 *            the remote invocation
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the invocation result
+	 * @throws JMSException
+	 *             if the batch cannot be sent or its reply cannot be read
+	 */
+	private RemoteInvocationResult executeBatchedRequest(RemoteInvocation pInvocation, MethodMetadata pMetadata)
+			throws JMSException {
+		BatchedInvocation lBatched = new BatchedInvocation(pInvocation);
+		getBatcher(pMetadata).add(lBatched);
+		RemoteInvocationResult lResult = awaitReply(lBatched, pMetadata.getReceiveTimeout(), pInvocation);
+		return lResult != null ? lResult : onReceiveTimeout(pInvocation);
+	}
+
+	/**
+	 * Returns the batcher of some method settings, creating it if needed.
+	 * 
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the batcher
+	 */
+	private InvocationBatcher<BatchedInvocation> getBatcher(final MethodMetadata pMetadata) {
+		InvocationBatcher<BatchedInvocation> lBatcher = mBatchers.get(pMetadata);
+		if (lBatcher == null) {
+			lBatcher = mBatchers.computeIfAbsent(pMetadata, pKey -> new InvocationBatcher<BatchedInvocation>(
+					mBatchSize, mBatchDelay, getScheduler(), pBatch -> sendBatch(pBatch, pKey)));
+		}
+		return lBatcher;
+	}
+
+	/**
+	 * Sends a batch of invocations; its reply is demultiplexed to the invocations on the asynchronous
+	 * executor.
+	 * 
+	 * @param pBatch
+	 *            the batched invocations
+	 * @param pMetadata
+	 *            the settings of the batched methods
+	 */
+	private void sendBatch(List<BatchedInvocation> pBatch, MethodMetadata pMetadata) {
+		InvocationCodec lCodec = mCodecAccepted ? mCodec : mSerializationCodec;
+		final List<BatchedInvocation> lSent = new ArrayList<BatchedInvocation>(pBatch.size());
+		List<byte[]> lPayloads = new ArrayList<byte[]>(pBatch.size());
+		for (BatchedInvocation lBatched : pBatch) {
+			try {
+				long lStart = startPhase();
+				lPayloads.add(lCodec.encodeInvocation(lBatched.getInvocation()));
+				recordPhase(lBatched.getInvocation().getMethodName(), InvocationPhase.SERIALIZE, lStart);
+				lSent.add(lBatched);
+			} catch (IOException lE) {
+				lBatched.completeExceptionally(
+						InvocationCodecs.conversionFailure("Cannot encode " + lBatched.getInvocation(), lE));
+			}
+		}
+		if (lSent.isEmpty()) {
+			return;
+		}
+		try {
+			PendingReply lPending = sendBatchRequest(lPayloads, lCodec, pMetadata);
+			lPending.whenCompleteAsync((pMessage, pFailure) -> completeBatch(lSent, pMessage, pFailure),
+					mAsyncExecutor);
+		} catch (JMSException | RuntimeException lE) {
+			completeBatch(lSent, null, lE);
+		}
+	}
+
+	/**
+	 * Sends the message of a batch.
+	 * 
+	 * @param pPayloads
+	 *            the encoded invocations
+	 * @param pCodec
+	 *            the codec of the invocations
+	 * @param pMetadata
+	 *            the settings of the batched methods
+	 * @return the pending reply of the batch
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private PendingReply sendBatchRequest(List<byte[]> pPayloads, InvocationCodec pCodec, MethodMetadata pMetadata)
+			throws JMSException {
+		return withSession((pSession, pProducer) -> sendSharedRequest(pSession, pProducer,
+				pMetadata.getDestination(), InvocationBatch.createMessage(pSession, pPayloads, pCodec), pMetadata));
+	}
+
+	/**
+	 * Completes the batched invocations with the results of the batch reply.
+	 * 
+	 * @param pBatch
+	 *            the batched invocations, in the order of the batch
+	 * @param pMessage
+	 *            the batch reply, or null on timeout
+	 * @param pFailure
+	 *            the failure of the batch, or null
+	 */
+	private void completeBatch(List<BatchedInvocation> pBatch, Message pMessage, Throwable pFailure) {
+		if (pFailure != null) {
+			for (BatchedInvocation lBatched : pBatch) {
+				lBatched.completeExceptionally(pFailure);
+			}
+			return;
+		}
+		if (pMessage == null) {
+			for (BatchedInvocation lBatched : pBatch) {
+				lBatched.complete(null);
+			}
+			return;
+		}
+		try {
+			recordCapabilities(pMessage);
+			InvocationCodec lCodec = mReplyCodecs.getCodec(pMessage);
+			List<byte[]> lPayloads = InvocationBatch.read(pMessage);
+			if (lPayloads.size() != pBatch.size()) {
+				throw new MessageFormatException(
+						"Batch reply holds " + lPayloads.size() + " results for " + pBatch.size() + " invocations");
+			}
+			for (int i = 0; i < lPayloads.size(); i++) {
+				String lMethodName = pBatch.get(i).getInvocation().getMethodName();
+				if (mMetrics != null) {
+					mMetrics.recordTransit(lMethodName, InvocationPhase.REPLY_TRANSIT, pMessage);
+				}
+				try {
+					long lStart = startPhase();
+					RemoteInvocationResult lResult = lCodec.decodeResult(lPayloads.get(i));
+					recordPhase(lMethodName, InvocationPhase.DESERIALIZE, lStart);
+					pBatch.get(i).complete(lResult);
+				} catch (IOException lE) {
+					pBatch.get(i).completeExceptionally(InvocationCodecs.conversionFailure(
+							"Cannot decode invocation result with codec " + lCodec.getName(), lE));
+				}
+			}
+		} catch (JMSException lE) {
+			for (BatchedInvocation lBatched : pBatch) {
+				lBatched.completeExceptionally(lE);
+			}
+		}
+	}
+
+	/**
+	 * Sends a request with the delivery settings of the invoked method, compressed and chunked
+	 * according to its size once the exporter accepts it.
+	 * 
+	 * @param pSession
+	 *            the session of the producer
+	 * @param pProducer
+	 *            the producer, bound to the destination or anonymous
+	 * @param pDestination
+	 *            the request destination
+	 * @param pRequestMessage
+	 *            the request message
+	 * @param pMetadata
+	 *            the method settings
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private void sendRequest(Session pSession, final MessageProducer pProducer, final Destination pDestination,
+			Message pRequestMessage, final MethodMetadata pMetadata) throws JMSException {
+		long lStart = startPhase();
+		if (pRequestMessage.getJMSReplyTo() != null) {
+			long lDeadline = getDeadline(pMetadata);
+			if (lDeadline != InvocationContext.NO_DEADLINE) {
+				pRequestMessage.setLongProperty(InvocationContext.DEADLINE_PROPERTY, lDeadline);
+			}
+			if (isLargePayloadEnabled()) {
+				pRequestMessage.setBooleanProperty(PayloadChunker.ACCEPT_PROPERTY, true);
+			}
+		}
+		if (pMetadata.getLane() != null) {
+			pRequestMessage.setStringProperty(InvocationLanes.LANE_PROPERTY, pMetadata.getLane());
+		}
+		PayloadChunker.Sender lSender = lMessage -> {
+			if (pProducer.getDestination() == null) {
+				pProducer.send(pDestination, lMessage, pMetadata.getDeliveryMode(), pMetadata.getPriority(),
+						pMetadata.getTimeToLive());
+			} else {
+				pProducer.send(lMessage, pMetadata.getDeliveryMode(), pMetadata.getPriority(),
+						pMetadata.getTimeToLive());
+			}
+		};
+		if (mLargePayloadsAccepted) {
+			mPayloadChunker.send(pSession, pRequestMessage, lSender);
+		} else {
+			lSender.send(pRequestMessage);
+		}
+		recordPhase(pMetadata.getMethodName(), InvocationPhase.SEND, lStart);
+	}
+
+	/**
+	 * Returns the deadline of a request: the time after which the caller gives up, or the deadline of
+	 * the invocation being served by the calling thread if earlier.
+	 * 
+	 * @param pMetadata
+	 *            the method settings
+	 * @return the absolute deadline, {@link InvocationContext#NO_DEADLINE} if none
+	 */
+	private static long getDeadline(MethodMetadata pMetadata) {
+		long lDeadline = InvocationContext.getDeadline();
+		if (pMetadata.getReceiveTimeout() > 0) {
+			long lReplyDeadline = System.currentTimeMillis() + pMetadata.getReceiveTimeout();
+			if (lDeadline == InvocationContext.NO_DEADLINE || lReplyDeadline < lDeadline) {
+				lDeadline = lReplyDeadline;
+			}
+		}
+		return lDeadline;
+	}
+
+	/**
+	 * Returns the delivery mode
+	 * 
+	 * @return the delivery mode
+	 */
+	private int getDeliveryMode() {
+		int lResult = DEFAULT_DELIVERY_MODE;
+		if (mJmsMessageNonPersistent) {
+			lResult = DeliveryMode.NON_PERSISTENT;
+		}
+		return lResult;
+	}
+
+	 /**
+	   * Sets the JMS message expiration flag
+	   * 
+	   * @param jmsMessageExpiration
+	   *          the JMS message expiration flag
+	   */
+	  public void setJmsMessageExpiration(boolean jmsMessageExpiration)
+	  {
+	    this.mJmsMessageExpiration = jmsMessageExpiration;
+	  }
+
+	  /**
 	   * Sets the JMS message non persistent flag
 	   * 
 	   * @param jmsMessageNonPersistent
@@ -214,4 +2150,657 @@ public class JmsInvokerProxyFactoryBean extends org.springframework.jms.remoting
 	  {
 	    this.mJmsMessageNonPersistent = jmsMessageNonPersistent;
 	  }
+
+	/**
+	 * Sets the shared reply consumer flag. When set, the proxy keeps a single consumer open on the ACK
+	 * destination and routes the replies to the waiting callers by response ID, instead of creating and
+	 * closing a selector-filtered consumer for every call.
+	 * 
+	 * @param pSharedReplyConsumer
+	 *            the shared reply consumer flag
+	 */
+	public void setSharedReplyConsumer(boolean pSharedReplyConsumer) {
+		mSharedReplyConsumer = pSharedReplyConsumer;
+	}
+
+	/**
+	 * Sets the routing of the replies ({@link ReplyRouting#SHARED_DESTINATION} by default). With a
+	 * temporary or a private queue the replies are delivered point-to-point to the shared reply
+	 * consumer of this proxy, without selector evaluation, and no ACK destination is required.
+	 *
+	 * @param pReplyRouting
+	 *            the reply routing
+	 */
+	public void setReplyRouting(ReplyRouting pReplyRouting) {
+		mReplyRouting = pReplyRouting;
+	}
+
+	/**
+	 * Sets the executor completing the futures returned by the methods declaring a
+	 * {@link CompletableFuture} return type (the common fork/join pool by default). The callbacks
+	 * chained by the caller on these futures run on this executor, never on the JMS reply thread.
+	 * 
+	 * @param pAsyncExecutor
+	 *            the executor
+	 */
+	public void setAsyncExecutor(Executor pAsyncExecutor) {
+		mAsyncExecutor = pAsyncExecutor;
+	}
+
+	/**
+	 * Sets the maximum number of pooled sessions (0 by default, i.e. no pooling). When set, the
+	 * sessions and their anonymous producer are kept open between invocations instead of being created
+	 * and closed for each call; combined with the shared reply consumer no JMS resource is created on
+	 * the invocation path anymore. The pool is invalidated and re-opened on connection failure.
+	 * 
+	 * @param pSessionPoolSize
+	 *            the maximum number of pooled sessions
+	 */
+	public void setSessionPoolSize(int pSessionPoolSize) {
+		mSessionPoolSize = pSessionPoolSize;
+	}
+
+	/**
+	 * Sets the codec encoding the requests, e.g. a {@link BinaryInvocationCodec} for the service
+	 * interface. By default the requests are sent as Java serialized object messages.
+	 * 
+	 * @param pCodec
+	 *            the codec
+	 */
+	public void setCodec(InvocationCodec pCodec) {
+		mCodec = pCodec;
+	}
+
+	/**
+	 * Sets the packages and classes which the replies encoded by the {@link JavaSerializationCodec} may
+	 * hold; any other class is rejected before being instantiated. An entry is a package name, trusting
+	 * its sub-packages too, or a class name. By default the {@code java} packages, the Spring remoting
+	 * classes and the package of the service interface are trusted.
+	 * 
+	 * @param pTrustedPackages
+	 *            the trusted packages and classes
+	 */
+	public void setTrustedPackages(Collection<String> pTrustedPackages) {
+		mTrustedPackages = pTrustedPackages;
+	}
+
+	/**
+	 * Sets the codec negotiation flag (true by default). When set, the requests are sent as Java
+	 * serialized object messages, one invocation per message and uncompressed, until the replies show
+	 * that every exporter accepts the codec, the batches and the large payloads, so that the proxies
+	 * can be upgraded before the exporters. When all the exporters of the destination are known to
+	 * accept them, the negotiation can be disabled to use the codec, the batches and the large
+	 * payloads from the first request.
+	 * <p>
+	 * A reply only tells about the exporter which sent it: on a destination shared by upgraded and
+	 * legacy exporters during a rollout, a request encoded by the codec could be delivered to a legacy
+	 * exporter unable to decode it. The capabilities are therefore used once as many distinct exporters
+	 * as {@link #setExporterCount(int) the exporter count} have advertised them, and the count is
+	 * required when the negotiation is enabled with a codec, a batch size, a compression threshold or a
+	 * chunk size.
+	 * 
+	 * @param pCodecNegotiation
+	 *            the codec negotiation flag
+	 */
+	public void setCodecNegotiation(boolean pCodecNegotiation) {
+		mCodecNegotiation = pCodecNegotiation;
+	}
+
+	/**
+	 * Sets the number of exporters of the service (0 by default, unknown). The capabilities negotiated
+	 * with the exporters are used once that many distinct exporters have advertised them in their
+	 * replies, so that the requests stay readable by the legacy exporters of a mixed fleet. The count
+	 * is set, or raised to the new fleet size, once the rollout of the exporters is over. Required when
+	 * the {@link #setCodecNegotiation(boolean) negotiation} is enabled with a codec, a batch size, a
+	 * compression threshold or a chunk size.
+	 * 
+	 * @param pExporterCount
+	 *            the number of exporters
+	 */
+	public void setExporterCount(int pExporterCount) {
+		mExporterCount = pExporterCount;
+	}
+
+	/**
+	 * Sets the names of the methods invoked as one-way, in addition to the methods annotated with
+	 * {@link OneWay}. These methods must return void: the request is sent without reply destination,
+	 * the exporter sends no reply and the proxy returns as soon as the request is sent.
+	 * 
+	 * @param pOneWayMethodNames
+	 *            the method names
+	 */
+	public void setOneWayMethodNames(Collection<String> pOneWayMethodNames) {
+		mOneWayMethodNames = pOneWayMethodNames != null ? pOneWayMethodNames : Collections.<String> emptySet();
+	}
+
+	/**
+	 * Sets the maximum number of invocations of a batch (0 by default, i.e. no batching). When set,
+	 * the synchronous invocations made concurrently with the same method settings are gathered and
+	 * sent in a single message, and their results come back in a single reply; the batching starts
+	 * once the replies show that every exporter accepts the batches, as counted by
+	 * {@link #setExporterCount(int) the exporter count}, so that no batch reaches a legacy exporter,
+	 * or from the first invocation if the {@link #setCodecNegotiation(boolean) negotiation} is
+	 * disabled. A batch is sent when full or after the {@link #setBatchDelay(long) batch delay}.
+	 * 
+	 * @param pBatchSize
+	 *            the maximum number of invocations of a batch
+	 */
+	public void setBatchSize(int pBatchSize) {
+		mBatchSize = pBatchSize;
+	}
+
+	/**
+	 * Sets the maximum delay between the first invocation of a batch and its sending (500 us by
+	 * default), i.e. the maximum latency added to an invocation when the proxy is not loaded enough to
+	 * fill the batches.
+	 * 
+	 * @param pBatchDelay
+	 *            the batch delay in microseconds
+	 */
+	public void setBatchDelay(long pBatchDelay) {
+		mBatchDelay = pBatchDelay;
+	}
+
+	/**
+	 * Sets the size above which a request is compressed (0 by default, never compressed). Only the
+	 * payloads encoded by a codec are compressed: without codec, the requests are encoded by the
+	 * {@link JavaSerializationCodec} once the exporter accepts it. The requests are compressed and
+	 * chunked once every exporter is known to restore them, as counted by
+	 * {@link #setExporterCount(int) the exporter count}, or from the first request if the
+	 * {@link #setCodecNegotiation(boolean) negotiation} is disabled. The exporters compress and chunk
+	 * the replies only for the proxies setting a compression threshold or a chunk size.
+	 *
+	 * @param pCompressionThreshold
+	 *            the compression threshold in bytes
+	 */
+	public void setCompressionThreshold(int pCompressionThreshold) {
+		mCompressionThreshold = pCompressionThreshold;
+	}
+
+	/**
+	 * Sets the size above which a request, once compressed, is sent as a sequence of chunk messages
+	 * (0 by default, never chunked), so that no large frame stalls the network of brokers.
+	 *
+	 * @param pChunkSize
+	 *            the chunk size in bytes
+	 */
+	public void setChunkSize(int pChunkSize) {
+		mChunkSize = pChunkSize;
+	}
+
+	/**
+	 * Sets the memory budget of the reply chunks being reassembled (64 MB by default). A reply
+	 * exceeding it is dropped and its caller times out.
+	 *
+	 * @param pMaxReassemblySize
+	 *            the memory budget in bytes
+	 */
+	public void setMaxReassemblySize(long pMaxReassemblySize) {
+		mMaxReassemblySize = pMaxReassemblySize;
+	}
+
+	/**
+	 * Sets the connection factory of a second broker through which the requests of the idempotent
+	 * methods are hedged (not set by default, i.e. no hedging). When the reply is later than the
+	 * hedge delay, a duplicate request with the same correlation ID is sent through this broker and
+	 * the first reply wins; an exporter detecting the duplicates runs the method once.
+	 * 
+	 * @param pHedgeConnectionFactory
+	 *            the connection factory of the second broker
+	 * @see #setIdempotentMethodNames(Collection)
+	 */
+	public void setHedgeConnectionFactory(ConnectionFactory pHedgeConnectionFactory) {
+		mHedgeConnectionFactory = pHedgeConnectionFactory;
+	}
+
+	/**
+	 * Sets the percentile of the recent latencies of a method after which its request is hedged
+	 * (0.95 by default).
+	 * 
+	 * @param pHedgePercentile
+	 *            the percentile as a ratio, between 0 and 1
+	 */
+	public void setHedgePercentile(double pHedgePercentile) {
+		if (pHedgePercentile <= 0 || pHedgePercentile >= 1) {
+			throw new IllegalArgumentException("Invalid hedge percentile " + pHedgePercentile);
+		}
+		mHedgePercentile = pHedgePercentile;
+	}
+
+	/**
+	 * Sets the minimum delay before hedging a request (100 ms by default), also used until enough
+	 * latencies of the method are known.
+	 * 
+	 * @param pHedgeDelay
+	 *            the minimum delay (ms)
+	 */
+	public void setHedgeDelay(long pHedgeDelay) {
+		mHedgeDelay = pHedgeDelay;
+	}
+
+	/**
+	 * Sets the names of the methods whose request may be sent more than once, in addition to the
+	 * methods annotated with {@link Idempotent}.
+	 * 
+	 * @param pIdempotentMethodNames
+	 *            the method names
+	 */
+	public void setIdempotentMethodNames(Collection<String> pIdempotentMethodNames) {
+		mIdempotentMethodNames = pIdempotentMethodNames != null ? pIdempotentMethodNames
+				: Collections.<String> emptySet();
+	}
+
+	/**
+	 * Sets the number of replies the exporter may send ahead of the caller consuming a streamed
+	 * result (4 by default). Each reply holds a batch of elements, so the window bounds the elements
+	 * buffered by the proxy.
+	 *
+	 * @param pStreamWindow
+	 *            the stream window
+	 */
+	public void setStreamWindow(int pStreamWindow) {
+		if (pStreamWindow < 1) {
+			throw new IllegalArgumentException("Invalid stream window " + pStreamWindow);
+		}
+		mStreamWindow = pStreamWindow;
+	}
+
+	/**
+	 * Sets the number of shards of the queue (0 by default, i.e. not sharded). The routing key of
+	 * each request, an argument of the invoked method, is hashed onto the shard queues named after
+	 * the queue suffixed with ".shard." and the shard index. The exporters claim the shards (see
+	 * {@link JmsInvokerServiceExporter#getShardDestinations(Destination, int, String)}), so that the
+	 * throughput grows with the number of exporters while the requests of a key stay in order. All
+	 * the proxies and exporters of a queue must use the same number of shards; the requests cannot be
+	 * batched.
+	 * 
+	 * @param pShardCount
+	 *            the number of shards
+	 */
+	public void setShardCount(int pShardCount) {
+		mShardCount = pShardCount;
+	}
+
+	/**
+	 * Sets the index of the argument holding the routing key of the sharded requests (0 by default).
+	 * The key is hashed by its string form; the requests of a method without this argument are all
+	 * sent to the same shard.
+	 * 
+	 * @param pShardKeyArgument
+	 *            the argument index
+	 */
+	public void setShardKeyArgument(int pShardKeyArgument) {
+		mShardKeyArgument = pShardKeyArgument;
+	}
+
+	/**
+	 * Sets the lane of the requests (none by default). The requests of a lane are sent to the service
+	 * destination suffixed with a dot and the lane name, so that the exporter serves them with their
+	 * own listener container and concurrency (see
+	 * {@link JmsInvokerServiceExporter#setLaneConcurrentInvocations(Map)}). The lane of a method can
+	 * be overridden by its {@link InvocationPolicy} annotation or {@link MethodPolicy}; a caller
+	 * sending bulk traffic can use its own proxy in a bulk lane.
+	 * 
+	 * @param pLane
+	 *            the lane, null for the default lane
+	 */
+	public void setLane(String pLane) {
+		mLane = pLane != null && !pLane.isEmpty() ? pLane : null;
+	}
+
+	/**
+	 * Sets the policies of the service interface methods, indexed by method name (the overloads of a
+	 * method share its policy). A policy overrides the {@link InvocationPolicy} annotation of the
+	 * method.
+	 * 
+	 * @param pMethodPolicies
+	 *            the method policies
+	 */
+	public void setMethodPolicies(Map<String, MethodPolicy> pMethodPolicies) {
+		mMethodPolicies = pMethodPolicies != null ? pMethodPolicies : Collections.<String, MethodPolicy> emptyMap();
+	}
+
+	/**
+	 * Returns the codec currently encoding the requests
+	 * 
+	 * @return the codec, or null while the requests are sent as Java serialized object messages
+	 */
+	public InvocationCodec getActiveCodec() {
+		return mCodecAccepted ? mCodec : null;
+	}
+
+	/**
+	 * Sets the metrics flag. When set, the proxy records per-method latency histograms of the
+	 * invocation phases, and counts the timeouts and the errors (see {@link #getMetrics()}).
+	 * 
+	 * @param pMetricsEnabled
+	 *            the metrics flag
+	 */
+	public void setMetricsEnabled(boolean pMetricsEnabled) {
+		mMetricsEnabled = pMetricsEnabled;
+	}
+
+	/**
+	 * Sets the JMX object name under which the metrics are registered in the platform MBean server.
+	 * Setting it enables the metrics.
+	 * 
+	 * @param pMetricsObjectName
+	 *            the object name, e.g. "com.test:type=JmsInvokerProxy,name=myService"
+	 */
+	public void setMetricsObjectName(String pMetricsObjectName) {
+		mMetricsObjectName = pMetricsObjectName;
+	}
+
+	/**
+	 * Returns the invocation metrics
+	 * 
+	 * @return the metrics, or null if disabled
+	 */
+	public InvocationMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Tells whether the invocations are currently batched
+	 * 
+	 * @return true once every exporter is known to accept the batches, if the batching is enabled
+	 */
+	public boolean isBatching() {
+		return mBatchAccepted;
+	}
+
+	/**
+	 * Returns the statistics of the session pool
+	 * 
+	 * @return the statistics, or null if the pooling is disabled
+	 */
+	public SessionPoolStatistics getSessionPoolStatistics() {
+		return mSessionPool != null ? mSessionPool.getStatistics() : null;
+	}
+
+	/**
+	 * Sets the maximum number of cached results (1000 by default), shared by the methods whose
+	 * results are cached (see {@link InvocationPolicy#cacheTimeToLive()} and
+	 * {@link MethodPolicy#setCacheTimeToLive(Long)}). The least recently used result is evicted when
+	 * the cache is full.
+	 * <p>
+	 * A result is cached under a snapshot of the arguments, so that an argument mutated by the caller
+	 * after the invocation does not alter the cached entry: the strings, the primitive wrappers, the
+	 * big numbers and the enums are kept as is, any other argument is copied and compared in its
+	 * serialized form, and an invocation with an argument which is not serializable is not cached.
+	 * The cached results themselves are shared by the callers, which must not mutate them.
+	 * 
+	 * @param pCacheSize
+	 *            the maximum number of cached results
+	 */
+	public void setCacheSize(int pCacheSize) {
+		mCacheSize = pCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of invocations in flight (0 by default, i.e. no limit). The actual limit
+	 * adapts to the round trip times, starting from 10: it grows while the replies come back as fast
+	 * as usual and shrinks on timeouts or slower replies, so that a slow exporter is not flooded with
+	 * requests bound to time out. An invocation over the limit waits for the
+	 * {@link #setConcurrencyQueueTimeout(long) queue timeout} and is then rejected with the first
+	 * exception declared by the method. One-way invocations are not limited.
+	 * 
+	 * @param pMaxConcurrentInvocations
+	 *            the maximum number of invocations in flight
+	 */
+	public void setMaxConcurrentInvocations(int pMaxConcurrentInvocations) {
+		mMaxConcurrentInvocations = pMaxConcurrentInvocations;
+	}
+
+	/**
+	 * Sets the maximum time an invocation over the concurrency limit waits (0 by default, i.e. the
+	 * invocation is rejected immediately).
+	 * 
+	 * @param pConcurrencyQueueTimeout
+	 *            the timeout in milliseconds
+	 */
+	public void setConcurrencyQueueTimeout(long pConcurrencyQueueTimeout) {
+		mConcurrencyQueueTimeout = pConcurrencyQueueTimeout;
+	}
+
+	/**
+	 * Returns the current limit of the invocations in flight
+	 * 
+	 * @return the limit, or 0 if the invocations are not limited
+	 */
+	public int getConcurrencyLimit() {
+		return mConcurrencyLimiter != null ? mConcurrencyLimiter.getLimit() : 0;
+	}
+
+	/**
+	 * Returns the number of invocations rejected because of the concurrency limit
+	 * 
+	 * @return the number of rejected invocations
+	 */
+	public long getRejectedInvocationCount() {
+		return mConcurrencyLimiter != null ? mConcurrencyLimiter.getRejectedCount() : 0;
+	}
+
+	/**
+	 * Sets the number of last invocations whose timeout rate opens the circuit breaker (0 by
+	 * default, i.e. no circuit breaker).
+	 * <p>
+	 * While the breaker is open, and while the ActiveMQ consumer advisories tell that no exporter
+	 * consumes the destination, the invocations fail immediately with the first exception declared
+	 * by the method instead of waiting for the receive timeout. After the
+	 * {@link #setCircuitBreakerOpenTime(long) open time}, a probe invocation is let through; its
+	 * reply, or a consumer reappearing on the destination, closes the breaker. One-way, streamed and
+	 * gathered invocations are not checked.
+	 * 
+	 * @param pCircuitBreakerWindow
+	 *            the number of invocations
+	 */
+	public void setCircuitBreakerWindow(int pCircuitBreakerWindow) {
+		mCircuitBreakerWindow = pCircuitBreakerWindow;
+	}
+
+	/**
+	 * Sets the timeout rate opening the circuit breaker (0.5 by default).
+	 * 
+	 * @param pCircuitBreakerTimeoutRate
+	 *            the rate, in (0, 1]
+	 */
+	public void setCircuitBreakerTimeoutRate(double pCircuitBreakerTimeoutRate) {
+		if (pCircuitBreakerTimeoutRate <= 0 || pCircuitBreakerTimeoutRate > 1) {
+			throw new IllegalArgumentException("'circuitBreakerTimeoutRate' must be in (0, 1]");
+		}
+		mCircuitBreakerTimeoutRate = pCircuitBreakerTimeoutRate;
+	}
+
+	/**
+	 * Sets the time the circuit breaker stays open before a probe invocation (5000 by default).
+	 * 
+	 * @param pCircuitBreakerOpenTime
+	 *            the time in milliseconds
+	 */
+	public void setCircuitBreakerOpenTime(long pCircuitBreakerOpenTime) {
+		mCircuitBreakerOpenTime = pCircuitBreakerOpenTime;
+	}
+
+	/**
+	 * Tells whether the circuit breaker fails the invocations fast
+	 * 
+	 * @return true if the breaker is open or probing, false if closed or disabled
+	 */
+	public boolean isCircuitOpen() {
+		return mCircuitBreaker != null && mCircuitBreaker.getState() != CircuitBreaker.State.CLOSED;
+	}
+
+	/**
+	 * Returns the number of consumers of the service destination, as told by the consumer advisories
+	 * 
+	 * @return the consumer count, -1 if unknown or if the circuit breaker is disabled
+	 */
+	public int getConsumerCount() {
+		ConsumerTracker lTracker = mConsumerTrackers.get(mDestination);
+		return lTracker != null ? lTracker.getConsumerCount() : ConsumerTracker.UNKNOWN;
+	}
+
+	/**
+	 * Returns the number of invocations failed fast by the circuit breaker
+	 * 
+	 * @return the number of invocations failed fast
+	 */
+	public long getFastFailedInvocationCount() {
+		return mFastFailedCount.sum();
+	}
+
+	/**
+	 * Returns the number of hedged requests
+	 * 
+	 * @return the number of requests duplicated through the second broker
+	 */
+	public long getHedgedRequestCount() {
+		return mHedger != null ? mHedger.getHedgedCount() : 0;
+	}
+
+	/**
+	 * Returns the number of hedged requests answered first through the second broker
+	 * 
+	 * @return the number of hedges which won
+	 */
+	public long getHedgeWinCount() {
+		return mHedger != null ? mHedger.getWonCount() : 0;
+	}
+
+	/**
+	 * Returns the statistics of the result cache
+	 * 
+	 * @return the statistics, or null if no method result is cached
+	 */
+	public CacheStatistics getCacheStatistics() {
+		return mResultCache != null ? mResultCache.getStatistics() : null;
+	}
+
+	/**
+	 * An action run by {@link JmsInvokerProxyFactoryBean#withSession(SessionCallback)}.
+	 * 
+	 * @param <T>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface SessionCallback<T> {
+
+		/**
+		 * Runs the action.
+		 * 
+		 * @param pSession
+		 *            the JMS session
+		 * @param pProducer
+		 *            an anonymous producer of the session
+		 * @return the result of the action
+		 * @throws JMSException
+		 *             if thrown by JMS methods
+		 */
+		T doInSession(Session pSession, MessageProducer pProducer) throws JMSException;
+	}
+
+	/**
+	 * A synchronous invocation waiting in a batch, completed with its result, or with null if the
+	 * batch reply timed out.
+	 */
+	private static final class BatchedInvocation extends CompletableFuture<RemoteInvocationResult> {
+
+		/** the remote invocation */
+		private final RemoteInvocation mInvocation;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param pInvocation
+		 *            the remote invocation
+		 */
+		BatchedInvocation(RemoteInvocation pInvocation) {
+			mInvocation = pInvocation;
+		}
+
+		/**
+		 * Returns the remote invocation
+		 * 
+		 * @return the remote invocation
+		 */
+		RemoteInvocation getInvocation() {
+			return mInvocation;
+		}
+	}
+
+	/**
+	 * The key of a cached result: the invoked method and a snapshot of its arguments, where the
+	 * immutable arguments are kept as is and the others are replaced by their serialized form.
+	 */
+	private static final class CacheKey {
+
+		/** the argument types kept as is, immutable */
+		private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+				String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+				Float.class, Double.class, BigInteger.class, BigDecimal.class));
+
+		/** the method settings, one instance per method */
+		private final MethodMetadata mMetadata;
+
+		/** the snapshot of the arguments */
+		private final Object[] mArguments;
+
+		/** the hash code */
+		private final int mHashCode;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param pMetadata
+		 *            the method settings
+		 * @param pArguments
+		 *            the snapshot of the arguments
+		 */
+		private CacheKey(MethodMetadata pMetadata, Object[] pArguments) {
+			mMetadata = pMetadata;
+			mArguments = pArguments;
+			mHashCode = 31 * System.identityHashCode(pMetadata) + Arrays.deepHashCode(mArguments);
+		}
+
+		/**
+		 * Creates the key of an invocation.
+		 * 
+		 * @param pMetadata
+		 *            the method settings
+		 * @param pArguments
+		 *            the arguments
+		 * @return the key, or null if an argument can be neither kept nor serialized
+		 */
+		static CacheKey create(MethodMetadata pMetadata, Object[] pArguments) {
+			Object[] lSnapshot = new Object[pArguments.length];
+			for (int i = 0; i < pArguments.length; i++) {
+				Object lArgument = pArguments[i];
+				if (lArgument == null || lArgument instanceof Enum || IMMUTABLE_TYPES.contains(lArgument.getClass())) {
+					lSnapshot[i] = lArgument;
+				} else {
+					try {
+						lSnapshot[i] = JavaSerializationCodec.serialize(lArgument);
+					} catch (IOException lE) {// NOSONAR
+						return null;
+					}
+				}
+			}
+			return new CacheKey(pMetadata, lSnapshot);
+		}
+
+		@Override
+		public int hashCode() {
+			return mHashCode;
+		}
+
+		@Override
+		public boolean equals(Object pObject) {
+			if (!(pObject instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey lKey = (CacheKey) pObject;
+			return mMetadata == lKey.mMetadata && Arrays.deepEquals(mArguments, lKey.mArguments);
+		}
+	}
 }
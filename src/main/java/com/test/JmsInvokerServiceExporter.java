@@ -5,16 +5,48 @@
  */
 package com.test;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
 
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
+import javax.jms.TemporaryQueue;
 
+import org.apache.activemq.command.ActiveMQDestination;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.jms.support.JmsUtils;
+import org.springframework.remoting.RemoteTimeoutException;
 import org.springframework.remoting.support.RemoteInvocation;
 import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.test.SessionPool.PooledSession;
 
 
 /**
@@ -24,10 +56,113 @@ import org.springframework.remoting.support.RemoteInvocationResult;
  */
 public class JmsInvokerServiceExporter
   extends org.springframework.jms.remoting.JmsInvokerServiceExporter
+  implements DisposableBean
 {
 
   /** The remote proxy. */
   private Object proxy;
+
+  /** The codecs accepted in addition to the Java serialized object messages. */
+  private List<InvocationCodec> codecs;
+
+  /** The accepted codecs. */
+  private InvocationCodecs acceptedCodecs;
+
+  /** The packages and classes trusted by the default codecs, null for the default ones. */
+  private Collection<String> trustedPackages;
+
+  /** The ID of the exporter advertised in its replies. */
+  private String exporterId = UUID.randomUUID().toString();
+
+  /** The maximum number of invocations in flight, 0 to invoke on the listener thread. */
+  private int concurrentInvocations;
+
+  /** The maximum wait for an asynchronous result of a request without deadline (ms). */
+  private long asynchronousResultTimeout = 60000;
+
+  /** The virtual threads flag. */
+  private boolean useVirtualThreads;
+
+  /** The executor running the dispatched invocations (created if not set). */
+  private Executor dispatchExecutor;
+
+  /** The executor created by this exporter. */
+  private ExecutorService ownedExecutor;
+
+  /** The executor keeping the order of the invocations sharing an ordering key. */
+  private OrderedExecutor orderedExecutor;
+
+  /** The maximum number of invocations in flight by lane. */
+  private Map<String, Integer> laneConcurrentInvocations = Collections.emptyMap();
+
+  /** The executors of the lanes, indexed by lane name. */
+  private final Map<String, OrderedExecutor> laneExecutors = new HashMap<String, OrderedExecutor>();
+
+  /** The name of the request property holding the ordering key. */
+  private String orderingKeyProperty;
+
+  /** The flag using the first argument as ordering key. */
+  private boolean orderByFirstArgument;
+
+  /** The connection factory used to send the replies of the dispatched invocations. */
+  private ConnectionFactory replyConnectionFactory;
+
+  /** The sessions sending the replies of the dispatched invocations. */
+  private SessionPool replySessionPool;
+
+  /** The maximum number of cached reply producers. */
+  private int replyProducerCacheSize = 32;
+
+  /** The reply producers of the listener sessions. */
+  private ReplyProducerCache replyProducers;
+
+  /** The non persistent replies flag. */
+  private boolean replyNonPersistent;
+
+  /** The metrics flag. */
+  private boolean metricsEnabled;
+
+  /** The JMX name of the metrics (null to not register them). */
+  private String metricsObjectName;
+
+  /** The invocation metrics (null if the metrics are disabled). */
+  private InvocationMetrics metrics;
+
+  /** The maximum number of results kept to answer duplicate requests, 0 to disable the detection. */
+  private int idempotencyCacheSize;
+
+  /** The time during which a result is kept to answer duplicate requests (ms). */
+  private long idempotencyTimeToLive = 60000;
+
+  /** The results of the recent requests indexed by response ID (null if disabled). */
+  private ExpiringCache<String, RemoteInvocationResult> idempotencyCache;
+
+  /** The time of the last removal of the expired results. */
+  private volatile long idempotencyPurgeTime;
+
+  /** The number of requests discarded because their caller gave up. */
+  private final LongAdder expiredRequests = new LongAdder();
+
+  /** The size above which a reply is compressed (bytes), 0 to never compress. */
+  private int compressionThreshold;
+
+  /** The size above which a reply is sent as chunks (bytes), 0 to never chunk. */
+  private int chunkSize;
+
+  /** The memory budget of the request chunks being reassembled (bytes). */
+  private long maxReassemblySize = PayloadChunker.DEFAULT_MAX_REASSEMBLY_SIZE;
+
+  /** The compression and chunking of the payloads. */
+  private PayloadChunker payloadChunker;
+
+  /** The maximum number of elements of a streamed result sent in one reply. */
+  private int streamBatchSize = 100;
+
+  /** The maximum wait for credits of the proxy consuming a streamed result (ms). */
+  private long streamCreditTimeout = 60000;
+
+  /** The sessions streaming the results (null without reply connection factory). */
+  private SessionPool streamSessionPool;
   
   /*
    * (non-Javadoc)
@@ -37,6 +172,515 @@ public class JmsInvokerServiceExporter
   public void afterPropertiesSet()
   {
     this.proxy = getProxyForService();
+    List<InvocationCodec> codecList = this.codecs;
+    if (codecList == null)
+    {
+      codecList = new ArrayList<InvocationCodec>();
+      Collection<String> trusted = this.trustedPackages;
+      if (trusted == null)
+      {
+        trusted = JavaSerializationCodec.getTrustedPackages(getServiceInterface());
+      }
+      codecList.add(new JavaSerializationCodec(getBeanClassLoader(), trusted));
+      codecList.add(new BinaryInvocationCodec(getServiceInterface(), trusted));
+    }
+    this.acceptedCodecs = new InvocationCodecs(codecList);
+    this.payloadChunker = new PayloadChunker(this.compressionThreshold, this.chunkSize, this.maxReassemblySize,
+      PayloadChunker.DEFAULT_REASSEMBLY_TIMEOUT);
+    this.replyProducers = new ReplyProducerCache(this.replyProducerCacheSize);
+    if (this.idempotencyCacheSize > 0)
+    {
+      this.idempotencyCache = new ExpiringCache<String, RemoteInvocationResult>(this.idempotencyCacheSize);
+    }
+    if (this.metricsEnabled || this.metricsObjectName != null)
+    {
+      this.metrics = new InvocationMetrics();
+      if (this.metricsObjectName != null)
+      {
+        this.metrics.registerMBean(this.metricsObjectName);
+      }
+    }
+    int totalInvocations = this.concurrentInvocations;
+    for (Integer laneInvocations : this.laneConcurrentInvocations.values())
+    {
+      totalInvocations += laneInvocations;
+    }
+    if (totalInvocations > 0)
+    {
+      if (this.replyConnectionFactory == null)
+      {
+        throw new IllegalArgumentException("'replyConnectionFactory' is required for concurrent dispatch");
+      }
+      Executor executor = this.dispatchExecutor;
+      if (executor == null)
+      {
+        this.ownedExecutor = createDispatchExecutor(totalInvocations);
+        executor = this.ownedExecutor;
+      }
+      if (this.concurrentInvocations > 0)
+      {
+        this.orderedExecutor = new OrderedExecutor(executor, this.concurrentInvocations);
+      }
+      this.laneExecutors.clear();
+      for (Map.Entry<String, Integer> lane : this.laneConcurrentInvocations.entrySet())
+      {
+        this.laneExecutors.put(lane.getKey(), new OrderedExecutor(executor, lane.getValue()));
+      }
+      this.replySessionPool = new SessionPool(this.replyConnectionFactory, totalInvocations);
+    }
+    if (this.replyConnectionFactory != null)
+    {
+      this.streamSessionPool = new SessionPool(this.replyConnectionFactory, Math.max(1, totalInvocations));
+    }
+    else if (hasStreamedMethod())
+    {
+      throw new IllegalArgumentException("'replyConnectionFactory' is required to stream the results of "
+        + getServiceInterface().getName());
+    }
+  }
+
+  /**
+   * Tells whether the service interface has methods returning an {@link Iterator} or a
+   * {@link Stream}, whose results are streamed.
+   *
+   * @return true if a result may be streamed
+   */
+  private boolean hasStreamedMethod()
+  {
+    for (Method method : getServiceInterface().getMethods())
+    {
+      if (Iterator.class.equals(method.getReturnType()) || Stream.class.equals(method.getReturnType()))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Stops the dispatch executor and closes the reply sessions.
+   */
+  @Override
+  public void destroy()
+  {
+    if (this.metrics != null)
+    {
+      this.metrics.unregisterMBean();
+    }
+    if (this.ownedExecutor != null)
+    {
+      this.ownedExecutor.shutdown();
+    }
+    if (this.replySessionPool != null)
+    {
+      this.replySessionPool.close();
+    }
+    if (this.streamSessionPool != null)
+    {
+      this.streamSessionPool.close();
+    }
+    if (this.replyProducers != null)
+    {
+      this.replyProducers.clear();
+    }
+    if (this.idempotencyCache != null)
+    {
+      this.idempotencyCache.clear();
+    }
+  }
+
+  /**
+   * Creates the executor of the dispatched invocations: virtual threads if requested and supported
+   * by the JVM, a fixed thread pool otherwise.
+   *
+   * @param threads
+   *          the number of threads of the pool
+   * @return the executor
+   */
+  private ExecutorService createDispatchExecutor(int threads)
+  {
+    if (this.useVirtualThreads)
+    {
+      try
+      {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException ex)
+      {
+        logger.info("Virtual threads are not supported by this JVM, using a thread pool");
+      }
+    }
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-exporter-");
+    threadFactory.setDaemon(true);
+    return Executors.newFixedThreadPool(threads, threadFactory);
+  }
+
+  /**
+   * Sets the ID of the exporter advertised with its capabilities in its replies (a random ID by
+   * default). The proxies count the exporters of a service by their IDs before using a capability,
+   * so a stable ID keeps a restarted exporter from being counted twice.
+   *
+   * @param exporterId
+   *          the exporter ID
+   */
+  public void setExporterId(String exporterId)
+  {
+    this.exporterId = exporterId;
+  }
+
+  /**
+   * Sets the packages and classes which the default codecs may deserialize. The requests encoded by
+   * a codec are not checked against the trusted packages of the ActiveMQ connection factory, so the
+   * codecs reject any class outside these packages. An entry is a package name, trusting its
+   * sub-packages too, or a class name. By default the {@code java} packages, the Spring remoting
+   * classes and the package of the service interface are trusted.
+   *
+   * @param trustedPackages
+   *          the trusted packages and classes
+   */
+  public void setTrustedPackages(Collection<String> trustedPackages)
+  {
+    this.trustedPackages = trustedPackages;
+  }
+
+  /**
+   * Sets the codecs accepted in addition to the Java serialized object messages. By default the
+   * {@link JavaSerializationCodec} and a {@link BinaryInvocationCodec} for the service interface are
+   * accepted.
+   *
+   * @param codecs
+   *          the codecs
+   */
+  public void setCodecs(List<InvocationCodec> codecs)
+  {
+    this.codecs = codecs;
+  }
+
+  /**
+   * Sets the maximum number of invocations in flight (0 by default). When set, the invocations are
+   * handed to an executor and their replies sent from there, so that a single listener consumer
+   * serves several requests in parallel; the listener thread blocks when the maximum is reached.
+   * The invocations of a batch run in parallel within the same maximum. Note that the request is
+   * acknowledged once handed to the executor. Requires the
+   * {@link #setReplyConnectionFactory(ConnectionFactory) reply connection factory}.
+   *
+   * @param concurrentInvocations
+   *          the maximum number of invocations in flight
+   */
+  public void setConcurrentInvocations(int concurrentInvocations)
+  {
+    this.concurrentInvocations = concurrentInvocations;
+  }
+
+  /**
+   * Sets the maximum wait for the completion of a {@link Future} returned by an asynchronous service
+   * method, in milliseconds (one minute by default), so that a future never completed does not hold
+   * the consumer forever. The wait is also bounded by the deadline the proxy stamped on the request
+   * from its receive timeout. A request whose result is not completed in time is answered by a
+   * {@link RemoteTimeoutException}.
+   *
+   * @param asynchronousResultTimeout
+   *          the maximum wait in milliseconds
+   */
+  public void setAsynchronousResultTimeout(long asynchronousResultTimeout)
+  {
+    this.asynchronousResultTimeout = asynchronousResultTimeout;
+  }
+
+  /**
+   * Sets the maximum number of invocations in flight of each lane (none by default). The requests of
+   * a lane are sent by the proxy to the service destination suffixed with a dot and the lane name
+   * (see {@link JmsInvokerProxyFactoryBean#setLane(String)}); each lane destination is expected to
+   * be consumed by its own listener container with this exporter as listener. The invocations of a
+   * lane are dispatched with their own limit, so that a lane saturated by bulk requests neither
+   * blocks the listener threads nor takes the executor threads of the other lanes. The requests of
+   * a lane without limit are dispatched as the requests without lane.
+   *
+   * @param laneConcurrentInvocations
+   *          the maximum number of invocations in flight, indexed by lane name
+   */
+  public void setLaneConcurrentInvocations(Map<String, Integer> laneConcurrentInvocations)
+  {
+    this.laneConcurrentInvocations = laneConcurrentInvocations;
+  }
+
+  /**
+   * Sets the virtual threads flag: the dispatched invocations run on virtual threads when the JVM
+   * supports them.
+   *
+   * @param useVirtualThreads
+   *          the virtual threads flag
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads)
+  {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  /**
+   * Sets the executor running the dispatched invocations, instead of an executor created and
+   * stopped by this exporter.
+   *
+   * @param dispatchExecutor
+   *          the executor
+   */
+  public void setDispatchExecutor(Executor dispatchExecutor)
+  {
+    this.dispatchExecutor = dispatchExecutor;
+  }
+
+  /**
+   * Sets the name of the request property holding the ordering key: the dispatched invocations
+   * sharing the same key run in order, the others in parallel.
+   *
+   * @param orderingKeyProperty
+   *          the property name
+   */
+  public void setOrderingKeyProperty(String orderingKeyProperty)
+  {
+    this.orderingKeyProperty = orderingKeyProperty;
+  }
+
+  /**
+   * Sets the flag using the first argument of the invocation as ordering key when the request has
+   * no ordering key property.
+   *
+   * @param orderByFirstArgument
+   *          the flag
+   */
+  public void setOrderByFirstArgument(boolean orderByFirstArgument)
+  {
+    this.orderByFirstArgument = orderByFirstArgument;
+  }
+
+  /**
+   * Returns the shard queues of a sharded queue, as claimed by an exporter node (see
+   * {@link JmsInvokerProxyFactoryBean#setShardCount(int)}). Each returned queue is expected to be
+   * consumed by its own listener container with the exporter of the node as listener.
+   * <p>
+   * The queues are consumed as exclusive consumers, with a priority ranking the shard for this node:
+   * the broker dispatches each shard to the best ranked live exporter only, which keeps the requests
+   * of a key in order, and hands it over when an exporter leaves or a better ranked one joins. The
+   * consumers prefetch one request, so that a shard handed over leaves at most one request in flight
+   * on its former exporter. The requests of a shard dispatched to the executor run in the order of
+   * their routing key.
+   *
+   * @param destination
+   *          the sharded queue
+   * @param shardCount
+   *          the number of shards, as configured on the proxies
+   * @param nodeId
+   *          the ID of the exporter node, unique among the exporters of the queue; a stable ID gives
+   *          a node back the same shards after a restart
+   * @return the shard queues, with their consumer options
+   * @throws JMSException
+   *           if the queue is not an ActiveMQ destination
+   */
+  public static List<Destination> getShardDestinations(Destination destination, int shardCount, String nodeId)
+    throws JMSException
+  {
+    List<Destination> destinations = new ArrayList<Destination>(shardCount);
+    for (int shard = 0; shard < shardCount; shard++)
+    {
+      ActiveMQDestination shardDestination = (ActiveMQDestination) InvocationShards.getDestination(destination, shard);
+      destinations.add(ActiveMQDestination.createDestination(shardDestination.getPhysicalName()
+        + "?consumer.exclusive=true&consumer.prefetchSize=1&consumer.priority="
+        + InvocationShards.getClaimPriority(nodeId, shard), shardDestination.getDestinationType()));
+    }
+    return destinations;
+  }
+
+  /**
+   * Sets the connection factory used to send the replies of the dispatched invocations and of the
+   * streamed results, since the listener session cannot be used outside the listener thread.
+   * Required when the service interface has methods returning an {@link Iterator} or a
+   * {@link Stream}.
+   *
+   * @param replyConnectionFactory
+   *          the connection factory
+   */
+  public void setReplyConnectionFactory(ConnectionFactory replyConnectionFactory)
+  {
+    this.replyConnectionFactory = replyConnectionFactory;
+  }
+
+  /**
+   * Sets the maximum number of cached reply producers (32 by default): one anonymous producer is
+   * kept per listener session, so it should not be lower than the number of listener consumers.
+   *
+   * @param replyProducerCacheSize
+   *          the maximum number of cached reply producers
+   */
+  public void setReplyProducerCacheSize(int replyProducerCacheSize)
+  {
+    this.replyProducerCacheSize = replyProducerCacheSize;
+  }
+
+  /**
+   * Sets the non persistent replies flag: when set, the replies are sent with the non persistent
+   * delivery mode, the caller waiting for them anyway.
+   *
+   * @param replyNonPersistent
+   *          the non persistent replies flag
+   */
+  public void setReplyNonPersistent(boolean replyNonPersistent)
+  {
+    this.replyNonPersistent = replyNonPersistent;
+  }
+
+  /**
+   * Sets the metrics flag. When set, the exporter records per-method latency histograms of the
+   * request transit, the service execution and the reply phases, and counts the failed invocations
+   * (see {@link #getMetrics()}).
+   *
+   * @param metricsEnabled
+   *          the metrics flag
+   */
+  public void setMetricsEnabled(boolean metricsEnabled)
+  {
+    this.metricsEnabled = metricsEnabled;
+  }
+
+  /**
+   * Sets the JMX object name under which the metrics are registered in the platform MBean server.
+   * Setting it enables the metrics.
+   *
+   * @param metricsObjectName
+   *          the object name, e.g. "com.test:type=JmsInvokerExporter,name=myService"
+   */
+  public void setMetricsObjectName(String metricsObjectName)
+  {
+    this.metricsObjectName = metricsObjectName;
+  }
+
+  /**
+   * Sets the maximum number of results kept to answer duplicate requests (0 by default, i.e. no
+   * detection). A request delivered twice, by a redelivery or a failover of the network of brokers,
+   * gets the result of its first delivery instead of invoking the service again. The requests are
+   * identified by their response ID, so one-way requests are not detected.
+   *
+   * @param idempotencyCacheSize
+   *          the maximum number of kept results
+   */
+  public void setIdempotencyCacheSize(int idempotencyCacheSize)
+  {
+    this.idempotencyCacheSize = idempotencyCacheSize;
+  }
+
+  /**
+   * Sets the time during which a result is kept to answer duplicate requests, in milliseconds (one
+   * minute by default).
+   *
+   * @param idempotencyTimeToLive
+   *          the time to live of a kept result in milliseconds
+   */
+  public void setIdempotencyTimeToLive(long idempotencyTimeToLive)
+  {
+    this.idempotencyTimeToLive = idempotencyTimeToLive;
+  }
+
+  /**
+   * Sets the size above which a reply is compressed, in bytes (0 by default, i.e. never compressed).
+   * Only the replies encoded by a codec are compressed, for the proxies able to inflate them.
+   *
+   * @param compressionThreshold
+   *          the compression threshold in bytes
+   */
+  public void setCompressionThreshold(int compressionThreshold)
+  {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Sets the size above which a reply, once compressed, is sent as a sequence of chunk messages, in
+   * bytes (0 by default, i.e. never chunked).
+   *
+   * @param chunkSize
+   *          the chunk size in bytes
+   */
+  public void setChunkSize(int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Sets the memory budget of the request chunks being reassembled, in bytes (64 MB by default). A
+   * request exceeding it is dropped and its caller times out.
+   *
+   * @param maxReassemblySize
+   *          the reassembly budget in bytes
+   */
+  public void setMaxReassemblySize(long maxReassemblySize)
+  {
+    this.maxReassemblySize = maxReassemblySize;
+  }
+
+  /**
+   * Sets the maximum number of elements of a streamed result sent in one reply (100 by default). A
+   * method returning an {@link java.util.Iterator} or a {@link java.util.stream.Stream} is streamed
+   * to the proxy as a sequence of replies, paced by the credits the proxy grants as its caller
+   * consumes them.
+   *
+   * @param streamBatchSize
+   *          the maximum number of elements of a reply
+   */
+  public void setStreamBatchSize(int streamBatchSize)
+  {
+    this.streamBatchSize = streamBatchSize;
+  }
+
+  /**
+   * Sets the maximum wait for the credits of a proxy consuming a streamed result, in milliseconds
+   * (one minute by default). The stream is aborted when the proxy grants no credit in time.
+   *
+   * @param streamCreditTimeout
+   *          the maximum wait in milliseconds
+   */
+  public void setStreamCreditTimeout(long streamCreditTimeout)
+  {
+    this.streamCreditTimeout = streamCreditTimeout;
+  }
+
+  /**
+   * Returns the number of chunked requests dropped because the reassembly budget was exceeded or
+   * their chunks did not arrive in time.
+   *
+   * @return the number of dropped requests
+   */
+  public long getDroppedChunkedRequestCount()
+  {
+    return this.payloadChunker.getDroppedStreamCount();
+  }
+
+  /**
+   * Returns the statistics of the results kept to answer duplicate requests, the hits being the
+   * duplicate requests.
+   *
+   * @return the statistics, or null if the detection is disabled
+   */
+  public CacheStatistics getIdempotencyCacheStatistics()
+  {
+    return this.idempotencyCache != null ? this.idempotencyCache.getStatistics() : null;
+  }
+
+  /**
+   * Returns the number of requests discarded without invoking the service because their deadline
+   * had passed when they were about to run.
+   *
+   * @return the number of expired requests
+   */
+  public long getExpiredRequestCount()
+  {
+    return this.expiredRequests.sum();
+  }
+
+  /**
+   * Returns the invocation metrics.
+   *
+   * @return the metrics, or null if disabled
+   */
+  public InvocationMetrics getMetrics()
+  {
+    return this.metrics;
   }
 
   /**
@@ -45,39 +689,1035 @@ public class JmsInvokerServiceExporter
    * Implementors are supposed to process the given Message, typically sending reply messages
    * through the given Session.
    *
-   * @param requestMessage
-   *          the request message
+   * @param message
+   *          the request message, or one of its chunks
    * @param session
    *          the underlying JMS Session (never {@code null})
    * @throws JMSException
    *           if thrown by JMS methods
    */
   @Override
-  public void onMessage(Message requestMessage, Session session) throws JMSException
+  public void onMessage(Message message, Session session) throws JMSException
   {
+    // a chunked request is complete with its last chunk
+    Message requestMessage = this.payloadChunker.restore(message);
+    if (requestMessage == null)
+    {
+      return;
+    }
+    if (InvocationBatch.isBatch(requestMessage))
+    {
+      onBatch(requestMessage, session);
+      return;
+    }
     RemoteInvocation invocation = readRemoteInvocation(requestMessage);
-    if (invocation != null)
+    if (invocation != null && !isExpired(requestMessage, invocation))
     {
-      RemoteInvocationResult result = invokeAndCreateResult(invocation, this.proxy);
-      writeRemoteInvocationResult(requestMessage, session, result);
+      if (getOrderedExecutor(requestMessage) != null)
+      {
+        dispatch(requestMessage, invocation);
+        return;
+      }
+      RemoteInvocationResult result = invokeOnce(requestMessage, null, invocation);
+      if (isOneWay(requestMessage))
+      {
+        onOneWayResult(invocation, result);
+        return;
+      }
+      writeRemoteInvocationResult(requestMessage, session, invocation, result);
     }
   }
-  
+
+  /**
+   * Invokes the service and waits for the completion of an asynchronous result. The deadline is
+   * available to the service through the {@link InvocationContext}.
+   *
+   * @param invocation
+   *          the invocation
+   * @param deadline
+   *          the deadline of the invocation
+   * @return the invocation result
+   */
+  private RemoteInvocationResult invokeService(RemoteInvocation invocation, long deadline)
+  {
+    long start = startPhase();
+    long previousDeadline = InvocationContext.enter(deadline);
+    RemoteInvocationResult result;
+    try
+    {
+      result = awaitAsynchronousResult(invokeAndCreateResult(invocation, this.proxy), deadline);
+    }
+    finally
+    {
+      InvocationContext.exit(previousDeadline);
+    }
+    recordPhase(invocation.getMethodName(), InvocationPhase.SERVICE, start);
+    if (this.metrics != null && result.hasException())
+    {
+      this.metrics.recordError(invocation.getMethodName());
+    }
+    return result;
+  }
+
+  /**
+   * Invokes the service unless the request is a duplicate of a recent one, in which case the result
+   * of the first delivery is returned. A duplicate received while the first delivery is still being
+   * invoked waits for its result until the deadline of the request, or for the time to live of the
+   * duplicate detection if the request has no deadline, and is answered by a
+   * {@link RemoteTimeoutException} past it.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param entry
+   *          the suffix identifying the invocation in a batch, null for a single invocation
+   * @param invocation
+   *          the invocation
+   * @return the invocation result
+   */
+  private RemoteInvocationResult invokeOnce(Message requestMessage, String entry, final RemoteInvocation invocation)
+  {
+    final long deadline = getDeadline(requestMessage);
+    String requestId = getRequestId(requestMessage);
+    // a streamed result is consumed by its first delivery
+    if (requestId == null || isStreamRequest(requestMessage))
+    {
+      return invokeService(invocation, deadline);
+    }
+    if (entry != null)
+    {
+      requestId = requestId + entry;
+    }
+    long now = System.currentTimeMillis();
+    if (now - this.idempotencyPurgeTime > this.idempotencyTimeToLive)
+    {
+      this.idempotencyPurgeTime = now;
+      this.idempotencyCache.purge();
+    }
+    long maxWait = this.idempotencyTimeToLive;
+    if (deadline != InvocationContext.NO_DEADLINE)
+    {
+      maxWait = Math.max(0, deadline - now);
+    }
+    try
+    {
+      return this.idempotencyCache.get(requestId, this.idempotencyTimeToLive, () -> invokeService(invocation, deadline),
+          maxWait);
+    }
+    catch (TimeoutException ex)
+    {
+      // the first delivery is still being invoked, its own reply answers the caller
+      return new RemoteInvocationResult(new InvocationTargetException(
+        new RemoteTimeoutException("Duplicate request not completed within " + maxWait + " ms")));
+    }
+    catch (RuntimeException | Error ex)
+    {
+      throw ex;
+    }
+    catch (Throwable ex)
+    {
+      // invokeService does not throw checked exceptions
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Tells whether the caller of a request gave up, in which case the request is discarded.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param description
+   *          the description of the request for the log
+   * @return true if the deadline of the request has passed
+   */
+  private boolean isExpired(Message requestMessage, Object description)
+  {
+    long deadline = getDeadline(requestMessage);
+    if (deadline == InvocationContext.NO_DEADLINE || System.currentTimeMillis() < deadline)
+    {
+      return false;
+    }
+    this.expiredRequests.increment();
+    if (logger.isDebugEnabled())
+    {
+      logger.debug("Discarding " + description + ", its caller gave up " + (System.currentTimeMillis() - deadline) + " ms ago");
+    }
+    return true;
+  }
+
+  /**
+   * Returns the deadline stamped by the proxy on a request.
+   *
+   * @param requestMessage
+   *          the request message
+   * @return the absolute deadline, {@link InvocationContext#NO_DEADLINE} if none
+   */
+  private long getDeadline(Message requestMessage)
+  {
+    try
+    {
+      if (requestMessage.propertyExists(InvocationContext.DEADLINE_PROPERTY))
+      {
+        return requestMessage.getLongProperty(InvocationContext.DEADLINE_PROPERTY);
+      }
+    }
+    catch (JMSException ex)
+    {
+      logger.debug("Cannot read the deadline of a request", ex);
+    }
+    return InvocationContext.NO_DEADLINE;
+  }
+
+  /**
+   * Returns the ID identifying a request among its duplicates.
+   *
+   * @param requestMessage
+   *          the request message
+   * @return the response ID, or null if the duplicates are not detected or if the request has no ID
+   */
+  private String getRequestId(Message requestMessage)
+  {
+    if (this.idempotencyCache == null)
+    {
+      return null;
+    }
+    try
+    {
+      String responseID = requestMessage.getStringProperty(ReplyDispatcher.RESPONSE_ID_PROPERTY);
+      return responseID != null && !responseID.isEmpty() ? responseID : null;
+    }
+    catch (JMSException ex)
+    {
+      logger.debug("Cannot read the response ID of a request, duplicates are not detected", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the start time of a measured phase.
+   *
+   * @return the current {@link System#nanoTime()}, or 0 if the metrics are disabled
+   */
+  private long startPhase()
+  {
+    return this.metrics != null ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records the duration of a phase, if the metrics are enabled.
+   *
+   * @param methodName
+   *          the method name
+   * @param phase
+   *          the phase
+   * @param start
+   *          the start time of the phase
+   * @return the end time of the phase, start time of the next one
+   */
+  private long recordPhase(String methodName, InvocationPhase phase, long start)
+  {
+    if (this.metrics == null)
+    {
+      return 0;
+    }
+    long end = System.nanoTime();
+    this.metrics.record(methodName, phase, end - start);
+    return end;
+  }
+
+  /**
+   * Handles a batch of invocations: the invocations are run, in parallel on the dispatch executor
+   * when no ordering is configured, and their results are sent back in a single reply.
+   *
+   * @param requestMessage
+   *          the batch message
+   * @param session
+   *          the listener session
+   * @throws JMSException
+   *           if the batch cannot be read or its reply cannot be sent
+   */
+  protected void onBatch(final Message requestMessage, Session session) throws JMSException
+  {
+    final InvocationCodec codec = this.acceptedCodecs.getCodec(requestMessage);
+    final List<byte[]> payloads = InvocationBatch.read(requestMessage);
+    if (isExpired(requestMessage, "batch of " + payloads.size() + " invocations"))
+    {
+      return;
+    }
+    final OrderedExecutor executor = getOrderedExecutor(requestMessage);
+    if (executor != null)
+    {
+      try
+      {
+        executor.execute(null, new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            invokeBatchAndReply(requestMessage, codec, payloads, executor);
+          }
+        });
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new JMSException("Interrupted while dispatching a batch of " + payloads.size() + " invocations");
+      }
+      return;
+    }
+    List<RemoteInvocationResult> results = invokeBatch(requestMessage, codec, payloads, null);
+    if (isOneWay(requestMessage))
+    {
+      return;
+    }
+    Message response = createBatchResponseMessage(requestMessage, session, codec, results);
+    try
+    {
+      sendResponse(requestMessage, response, session, this.replyProducers.get(session));
+    }
+    catch (JMSException ex)
+    {
+      // the session may be broken: its producer is re-created on the next reply
+      this.replyProducers.evict(session);
+      throw ex;
+    }
+  }
+
+  /**
+   * Runs a dispatched batch and sends its reply through a reply session.
+   *
+   * @param requestMessage
+   *          the batch message
+   * @param codec
+   *          the codec of the batch
+   * @param payloads
+   *          the encoded invocations
+   * @param executor
+   *          the executor of the batch
+   */
+  private void invokeBatchAndReply(Message requestMessage, InvocationCodec codec, List<byte[]> payloads,
+    OrderedExecutor executor)
+  {
+    if (isExpired(requestMessage, "batch of " + payloads.size() + " invocations"))
+    {
+      return;
+    }
+    List<RemoteInvocationResult> results = invokeBatch(requestMessage, codec, payloads, executor);
+    PooledSession replySession = null;
+    boolean broken = true;
+    try
+    {
+      if (isOneWay(requestMessage))
+      {
+        return;
+      }
+      replySession = this.replySessionPool.borrow();
+      Message response = createBatchResponseMessage(requestMessage, replySession.getSession(), codec, results);
+      sendResponse(requestMessage, response, replySession.getSession(), replySession.getProducer());
+      broken = false;
+    }
+    catch (JMSException ex)
+    {
+      logger.warn("Cannot send the reply of a batch of " + payloads.size() + " invocations", ex);
+    }
+    finally
+    {
+      if (replySession != null)
+      {
+        this.replySessionPool.release(replySession, broken);
+      }
+    }
+  }
+
+  /**
+   * Runs the invocations of a batch. An invocation which cannot be decoded gets a failed result,
+   * the others are still run. The invocations run in parallel on the executor of the batch as long
+   * as it has permits left, each invocation in flight counting as much as a dispatched request.
+   *
+   * @param requestMessage
+   *          the batch message
+   * @param codec
+   *          the codec of the batch
+   * @param payloads
+   *          the encoded invocations
+   * @param executor
+   *          the executor of the batch, null if the batch runs on the listener thread
+   * @return the results, in the order of the invocations
+   */
+  private List<RemoteInvocationResult> invokeBatch(Message requestMessage, InvocationCodec codec,
+    List<byte[]> payloads, OrderedExecutor executor)
+  {
+    List<RemoteInvocationResult> results = new ArrayList<RemoteInvocationResult>(payloads.size());
+    List<FutureTask<RemoteInvocationResult>> tasks = new ArrayList<FutureTask<RemoteInvocationResult>>(payloads.size());
+    for (byte[] payload : payloads)
+    {
+      final String entry = "#" + tasks.size();
+      FutureTask<RemoteInvocationResult> task = null;
+      try
+      {
+        long start = startPhase();
+        final RemoteInvocation invocation = codec.decodeInvocation(payload);
+        if (this.metrics != null)
+        {
+          recordPhase(invocation.getMethodName(), InvocationPhase.DESERIALIZE, start);
+          this.metrics.recordTransit(invocation.getMethodName(), InvocationPhase.BROKER_TRANSIT, requestMessage);
+        }
+        task = new FutureTask<RemoteInvocationResult>(() -> invokeOnce(requestMessage, entry, invocation));
+        results.add(null);
+      }
+      catch (IOException ex)
+      {
+        results.add(new RemoteInvocationResult(InvocationCodecs.conversionFailure("Cannot decode invocation with codec " + codec.getName(), ex)));
+      }
+      tasks.add(task);
+    }
+    // with ordering keys, the invocations of a batch run one after the other
+    if (executor != null && this.orderingKeyProperty == null && !this.orderByFirstArgument)
+    {
+      for (FutureTask<RemoteInvocationResult> task : tasks)
+      {
+        if (task != null && !executor.tryExecute(task))
+        {
+          break;
+        }
+      }
+    }
+    // the tasks not started yet by the executor are run by the calling thread, so that a batch
+    // never waits for an executor busy with other batches
+    for (FutureTask<RemoteInvocationResult> task : tasks)
+    {
+      if (task != null)
+      {
+        task.run();
+      }
+    }
+    for (int i = 0; i < tasks.size(); i++)
+    {
+      if (tasks.get(i) != null)
+      {
+        results.set(i, awaitBatchedResult(tasks.get(i)));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Waits for the result of an invocation of a batch run by another thread.
+   *
+   * @param task
+   *          the invocation task
+   * @return the invocation result
+   */
+  private RemoteInvocationResult awaitBatchedResult(FutureTask<RemoteInvocationResult> task)
+  {
+    try
+    {
+      return task.get();
+    }
+    catch (ExecutionException ex)
+    {
+      return new RemoteInvocationResult(new InvocationTargetException(ex.getCause()));
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      return new RemoteInvocationResult(new InvocationTargetException(ex));
+    }
+  }
+
+  /**
+   * Creates the single response holding the results of a batch, encoded with the codec of the batch.
+   *
+   * @param request
+   *          the batch message
+   * @param session
+   *          the session
+   * @param codec
+   *          the codec of the batch
+   * @param results
+   *          the results, in the order of the invocations
+   * @return the response
+   * @throws JMSException
+   *           if a result cannot be encoded
+   */
+  private Message createBatchResponseMessage(Message request, Session session, InvocationCodec codec,
+    List<RemoteInvocationResult> results) throws JMSException
+  {
+    List<byte[]> payloads = new ArrayList<byte[]>(results.size());
+    for (RemoteInvocationResult result : results)
+    {
+      try
+      {
+        payloads.add(encodeResult(codec, result));
+      }
+      catch (IOException ex)
+      {
+        throw InvocationCodecs.conversionFailure("Cannot encode invocation result", ex);
+      }
+    }
+    Message response = InvocationBatch.createMessage(session, payloads, codec);
+    String correlation = request.getJMSCorrelationID();
+    response.setJMSCorrelationID(correlation != null ? correlation : request.getJMSMessageID());
+    advertiseCapabilities(response);
+    return response;
+  }
+
+  /**
+   * Encodes the result of an invocation, replacing a result which cannot be encoded (e.g. a non
+   * serializable value) by the failure to encode it.
+   *
+   * @param codec
+   *          the codec
+   * @param result
+   *          the result
+   * @return the encoded result
+   * @throws IOException
+   *           if even the failure cannot be encoded
+   */
+  private byte[] encodeResult(InvocationCodec codec, RemoteInvocationResult result) throws IOException
+  {
+    try
+    {
+      return codec.encodeResult(result);
+    }
+    catch (IOException ex)
+    {
+      return codec.encodeResult(new RemoteInvocationResult(InvocationCodecs.conversionFailure("Cannot encode invocation result", ex)));
+    }
+  }
+
+  /**
+   * Tells whether a request is one-way, i.e. has no reply destination.
+   *
+   * @param requestMessage
+   *          the request message
+   * @return true if no reply must be sent
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  protected boolean isOneWay(Message requestMessage) throws JMSException
+  {
+    return requestMessage.getJMSReplyTo() == null;
+  }
+
+  /**
+   * Handles the result of a one-way invocation: the caller does not wait for it, so a failure is
+   * logged.
+   *
+   * @param invocation
+   *          the invocation
+   * @param result
+   *          the invocation result
+   */
+  protected void onOneWayResult(RemoteInvocation invocation, RemoteInvocationResult result)
+  {
+    if (result.hasException())
+    {
+      logger.warn("One-way invocation " + invocation + " failed", result.getException());
+    }
+  }
+
+  /**
+   * Hands an invocation to the dispatch executor.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param invocation
+   *          the invocation
+   * @throws JMSException
+   *           if interrupted while waiting for the executor
+   */
+  protected void dispatch(final Message requestMessage, final RemoteInvocation invocation) throws JMSException
+  {
+    try
+    {
+      getOrderedExecutor(requestMessage).execute(getOrderingKey(requestMessage, invocation), new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          invokeAndReply(requestMessage, invocation);
+        }
+      });
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new JMSException("Interrupted while dispatching " + invocation);
+    }
+  }
+
+  /**
+   * Returns the executor of the invocations of the lane of a request.
+   *
+   * @param requestMessage
+   *          the request message
+   * @return the executor of the lane, or else the executor of the requests without lane, null to
+   *         invoke on the listener thread
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private OrderedExecutor getOrderedExecutor(Message requestMessage) throws JMSException
+  {
+    String lane = InvocationLanes.getLane(requestMessage);
+    OrderedExecutor executor = lane != null ? this.laneExecutors.get(lane) : null;
+    return executor != null ? executor : this.orderedExecutor;
+  }
+
+  /**
+   * Returns the ordering key of an invocation.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param invocation
+   *          the invocation
+   * @return the ordering key property, or else the routing key of a sharded request, or else the
+   *         first argument if so configured; null if the invocation can run in any order
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  protected Object getOrderingKey(Message requestMessage, RemoteInvocation invocation) throws JMSException
+  {
+    if (this.orderingKeyProperty != null)
+    {
+      Object key = requestMessage.getObjectProperty(this.orderingKeyProperty);
+      if (key != null)
+      {
+        return key;
+      }
+    }
+    // the requests of a sharded queue keep the order of their routing key
+    Object shardKey = requestMessage.getObjectProperty(InvocationShards.KEY_PROPERTY);
+    if (shardKey != null)
+    {
+      return shardKey;
+    }
+    Object[] arguments = invocation.getArguments();
+    if (this.orderByFirstArgument && arguments != null && arguments.length > 0)
+    {
+      return arguments[0];
+    }
+    return null;
+  }
+
+  /**
+   * Runs a dispatched invocation and sends its reply through a reply session.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param invocation
+   *          the invocation
+   */
+  private void invokeAndReply(Message requestMessage, RemoteInvocation invocation)
+  {
+    // the request may have waited for the executor
+    if (isExpired(requestMessage, invocation))
+    {
+      return;
+    }
+    RemoteInvocationResult result = invokeOnce(requestMessage, null, invocation);
+    try
+    {
+      if (isOneWay(requestMessage))
+      {
+        onOneWayResult(invocation, result);
+        return;
+      }
+    }
+    catch (JMSException ex)
+    {
+      logger.warn("Cannot read the reply destination of " + invocation, ex);
+      return;
+    }
+    PooledSession replySession = null;
+    boolean broken = true;
+    try
+    {
+      replySession = this.replySessionPool.borrow();
+      reply(requestMessage, invocation, result, replySession.getSession(), replySession.getProducer());
+      broken = false;
+    }
+    catch (JMSException ex)
+    {
+      logger.warn("Cannot send the reply of " + invocation, ex);
+    }
+    finally
+    {
+      if (replySession != null)
+      {
+        this.replySessionPool.release(replySession, broken);
+      }
+    }
+  }
+
+  /**
+   * Waits for the completion of a result returned as a {@link Future} by an asynchronous service
+   * method, since the future itself cannot be sent back to the caller. The wait ends at the deadline
+   * of the request or after the {@link #setAsynchronousResultTimeout(long) asynchronous result
+   * timeout}, whichever comes first; the future is then cancelled.
+   *
+   * @param result
+   *          the invocation result
+   * @param deadline
+   *          the deadline of the invocation, {@link InvocationContext#NO_DEADLINE} if none
+   * @return the result holding the completed value or the failure of the future, or a
+   *         {@link RemoteTimeoutException} if the future did not complete in time
+   */
+  protected RemoteInvocationResult awaitAsynchronousResult(RemoteInvocationResult result, long deadline)
+  {
+    if (!(result.getValue() instanceof Future))
+    {
+      return result;
+    }
+    Future<?> future = (Future<?>) result.getValue();
+    long timeout = this.asynchronousResultTimeout;
+    if (deadline != InvocationContext.NO_DEADLINE)
+    {
+      timeout = Math.min(timeout, Math.max(0, deadline - System.currentTimeMillis()));
+    }
+    try
+    {
+      return new RemoteInvocationResult(future.get(timeout, TimeUnit.MILLISECONDS));
+    }
+    catch (ExecutionException ex)
+    {
+      return new RemoteInvocationResult(new InvocationTargetException(ex.getCause()));
+    }
+    catch (TimeoutException ex)
+    {
+      future.cancel(true);
+      return new RemoteInvocationResult(new InvocationTargetException(
+        new RemoteTimeoutException("Asynchronous result not completed within " + timeout + " ms")));
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      return new RemoteInvocationResult(new InvocationTargetException(ex));
+    }
+  }
+  
+  /**
+   * Reads the invocation with the codec of the request message, as a Java serialized object message
+   * if no codec is set.
+   */
   @Override
-  protected void writeRemoteInvocationResult(Message requestMessage, Session session, RemoteInvocationResult result) throws JMSException
+  protected RemoteInvocation readRemoteInvocation(Message requestMessage) throws JMSException
   {
-    Message response = createResponseMessage(requestMessage, session, result);
-    if (requestMessage.getStringProperty("responseID") != null && !requestMessage.getStringProperty("responseID").equals("")) {
-    	response.setStringProperty("responseID", requestMessage.getStringProperty("responseID"));
+    long start = startPhase();
+    RemoteInvocation invocation;
+    if (InvocationCodecs.getCodecName(requestMessage) != null)
+    {
+      invocation = this.acceptedCodecs.readInvocation(requestMessage);
+    }
+    else
+    {
+      invocation = super.readRemoteInvocation(requestMessage);
+    }
+    if (this.metrics != null && invocation != null)
+    {
+      recordPhase(invocation.getMethodName(), InvocationPhase.DESERIALIZE, start);
+      this.metrics.recordTransit(invocation.getMethodName(), InvocationPhase.BROKER_TRANSIT, requestMessage);
+    }
+    return invocation;
+  }
+
+  /**
+   * Tells whether a request comes from a proxy consuming streamed results.
+   *
+   * @param requestMessage
+   *          the request message
+   * @return true if the request carries a stream window
+   */
+  private boolean isStreamRequest(Message requestMessage)
+  {
+    try
+    {
+      return requestMessage.propertyExists(StreamedResult.WINDOW_PROPERTY);
     }
-    MessageProducer producer = session.createProducer(requestMessage.getJMSReplyTo());
+    catch (JMSException ex)
+    {
+      logger.debug("Cannot read the stream window of a request", ex);
+      return false;
+    }
+  }
+
+  /**
+   * Streams a result returned as an iterator or a stream: the elements are sent by batches, each
+   * reply consuming a credit of the proxy, until the end of the elements, a cancellation of the proxy
+   * or the expiration of the credit timeout. The calling thread is busy for the whole stream.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param result
+   *          the invocation result holding the iterator or the stream
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private void streamResult(Message requestMessage, RemoteInvocationResult result) throws JMSException
+  {
+    if (this.streamSessionPool == null)
+    {
+      throw new JMSException("Streamed results require a 'replyConnectionFactory'");
+    }
+    Object value = result.getValue();
+    Iterator<?> iterator = value instanceof BaseStream ? ((BaseStream<?, ?>) value).iterator() : (Iterator<?>) value;
+    int credits = requestMessage.getIntProperty(StreamedResult.WINDOW_PROPERTY);
+    PooledSession streamSession = this.streamSessionPool.borrow();
+    boolean broken = true;
+    TemporaryQueue creditQueue = null;
+    MessageConsumer creditConsumer = null;
     try
     {
-      producer.send(response);
+      Session session = streamSession.getSession();
+      creditQueue = session.createTemporaryQueue();
+      creditConsumer = session.createConsumer(creditQueue);
+      int sequence = 0;
+      boolean end = false;
+      while (!end)
+      {
+        RemoteInvocationResult batch;
+        try
+        {
+          List<Object> elements = new ArrayList<Object>(this.streamBatchSize);
+          while (elements.size() < this.streamBatchSize && iterator.hasNext())
+          {
+            elements.add(iterator.next());
+          }
+          end = !iterator.hasNext();
+          batch = new RemoteInvocationResult(elements);
+        }
+        catch (RuntimeException ex)
+        {
+          end = true;
+          batch = new RemoteInvocationResult(new InvocationTargetException(ex));
+        }
+        credits = awaitCredits(creditConsumer, credits, sequence);
+        if (credits <= 0)
+        {
+          broken = false;
+          return;
+        }
+        Message response = createResponseMessage(requestMessage, session, batch);
+        response.setJMSReplyTo(creditQueue);
+        response.setIntProperty(StreamedResult.SEQUENCE_PROPERTY, sequence++);
+        if (end)
+        {
+          response.setBooleanProperty(StreamedResult.END_PROPERTY, true);
+        }
+        sendResponse(requestMessage, response, session, streamSession.getProducer());
+        credits--;
+      }
+      broken = false;
     }
     finally
     {
-      JmsUtils.closeMessageProducer(producer);
+      JmsUtils.closeMessageConsumer(creditConsumer);
+      if (creditQueue != null)
+      {
+        try
+        {
+          creditQueue.delete();
+        }
+        catch (JMSException ex)
+        {
+          logger.debug("Cannot delete the credit queue of a stream", ex);
+        }
+      }
+      this.streamSessionPool.release(streamSession, broken);
+      if (value instanceof AutoCloseable)
+      {
+        try
+        {
+          ((AutoCloseable) value).close();
+        }
+        catch (Exception ex)
+        {
+          logger.debug("Cannot close a streamed result", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Collects the credits granted by the proxy consuming a stream, waiting for one if none is left.
+   *
+   * @param creditConsumer
+   *          the consumer of the credits
+   * @param credits
+   *          the credits left
+   * @param sequence
+   *          the sequence number of the next reply
+   * @return the credits left, 0 if the stream is cancelled or no credit arrived in time
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private int awaitCredits(MessageConsumer creditConsumer, int credits, int sequence) throws JMSException
+  {
+    int available = credits;
+    Message credit = available > 0 ? creditConsumer.receiveNoWait() : creditConsumer.receive(this.streamCreditTimeout);
+    if (credit == null && available <= 0)
+    {
+      logger.warn("No credit for reply " + sequence + " of a stream within " + this.streamCreditTimeout + " ms, stream aborted");
+      return 0;
+    }
+    while (credit != null)
+    {
+      if (credit.propertyExists(StreamedResult.CANCEL_PROPERTY))
+      {
+        logger.debug("Stream cancelled by the proxy before reply " + sequence);
+        return 0;
+      }
+      available += credit.getIntProperty(StreamedResult.CREDITS_PROPERTY);
+      credit = creditConsumer.receiveNoWait();
+    }
+    return available;
+  }
+
+  /**
+   * Creates the response with the codec of the request, so that a proxy always gets the encoding it
+   * used, and advertises the accepted codecs.
+   */
+  @Override
+  protected Message createResponseMessage(Message request, Session session, RemoteInvocationResult result)
+    throws JMSException
+  {
+    Message response;
+    if (InvocationCodecs.getCodecName(request) != null)
+    {
+      response = InvocationCodecs.createResultMessage(session, result, this.acceptedCodecs.getCodec(request));
+      String correlation = request.getJMSCorrelationID();
+      response.setJMSCorrelationID(correlation != null ? correlation : request.getJMSMessageID());
+    }
+    else
+    {
+      response = super.createResponseMessage(request, session, result);
+    }
+    advertiseCapabilities(response);
+    return response;
+  }
+
+  /**
+   * Advertises the exporter ID, the accepted codecs and the support of the batches and of the large
+   * payloads in a response.
+   *
+   * @param response
+   *          the response
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private void advertiseCapabilities(Message response) throws JMSException
+  {
+    response.setStringProperty(InvocationCodecs.EXPORTER_ID_PROPERTY, this.exporterId);
+    response.setStringProperty(InvocationCodecs.ACCEPT_CODECS_PROPERTY, this.acceptedCodecs.getNames());
+    response.setBooleanProperty(InvocationBatch.ACCEPT_BATCHES_PROPERTY, true);
+    response.setBooleanProperty(PayloadChunker.ACCEPT_PROPERTY, true);
+  }
+
+  @Override
+  protected void writeRemoteInvocationResult(Message requestMessage, Session session, RemoteInvocationResult result) throws JMSException
+  {
+    writeRemoteInvocationResult(requestMessage, session, null, result);
+  }
+
+  /**
+   * Sends the reply of an invocation through the listener session.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param session
+   *          the listener session
+   * @param invocation
+   *          the invocation, or null if unknown (the reply phases are then not measured)
+   * @param result
+   *          the invocation result
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private void writeRemoteInvocationResult(Message requestMessage, Session session, RemoteInvocation invocation,
+    RemoteInvocationResult result) throws JMSException
+  {
+    try
+    {
+      reply(requestMessage, invocation, result, session, this.replyProducers.get(session));
+    }
+    catch (JMSException ex)
+    {
+      // the session may be broken: its producer is re-created on the next reply
+      this.replyProducers.evict(session);
+      throw ex;
+    }
+  }
+
+  /**
+   * Creates and sends the reply of an invocation, measuring both phases.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param invocation
+   *          the invocation, or null if unknown (the reply phases are then not measured)
+   * @param result
+   *          the invocation result
+   * @param session
+   *          the session creating the response
+   * @param producer
+   *          the anonymous producer of the session
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private void reply(Message requestMessage, RemoteInvocation invocation, RemoteInvocationResult result,
+    Session session, MessageProducer producer) throws JMSException
+  {
+    if (StreamedResult.isStreamable(result.getValue()) && isStreamRequest(requestMessage))
+    {
+      streamResult(requestMessage, result);
+      return;
+    }
+    boolean measured = this.metrics != null && invocation != null;
+    long start = measured ? System.nanoTime() : 0;
+    Message response = createResponseMessage(requestMessage, session, result);
+    if (measured)
+    {
+      start = recordPhase(invocation.getMethodName(), InvocationPhase.SERIALIZE, start);
+    }
+    sendResponse(requestMessage, response, session, producer);
+    if (measured)
+    {
+      recordPhase(invocation.getMethodName(), InvocationPhase.SEND, start);
+    }
+  }
+
+  /**
+   * Sends a response to the reply destination of the request through an anonymous producer,
+   * compressed and chunked according to its size if the proxy accepts it.
+   *
+   * @param requestMessage
+   *          the request message
+   * @param response
+   *          the response message
+   * @param session
+   *          the session of the producer
+   * @param producer
+   *          the anonymous producer
+   * @throws JMSException
+   *           if thrown by JMS methods
+   */
+  private void sendResponse(final Message requestMessage, Message response, Session session,
+    final MessageProducer producer) throws JMSException
+  {
+    String responseID = requestMessage.getStringProperty(ReplyDispatcher.RESPONSE_ID_PROPERTY);
+    if (responseID != null && !responseID.isEmpty())
+    {
+      response.setStringProperty(ReplyDispatcher.RESPONSE_ID_PROPERTY, responseID);
+    }
+    final int deliveryMode = this.replyNonPersistent ? DeliveryMode.NON_PERSISTENT : producer.getDeliveryMode();
+    PayloadChunker.Sender sender = message -> producer.send(requestMessage.getJMSReplyTo(), message, deliveryMode,
+      producer.getPriority(), producer.getTimeToLive());
+    if (PayloadChunker.accepts(requestMessage))
+    {
+      this.payloadChunker.send(session, response, sender);
+    }
+    else
+    {
+      sender.send(response);
     }
   }
 
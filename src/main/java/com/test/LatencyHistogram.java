@@ -0,0 +1,166 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. The buckets are log-linear: each power of two
+ * is split into {@value #SUB_BUCKETS} buckets, so that a percentile is known with a relative error
+ * below 12.5% whatever its magnitude, with a fixed memory footprint.
+ *
+ * @author T0130672
+ */
+class LatencyHistogram {
+
+	/** number of buckets per power of two */
+	private static final int SUB_BUCKETS = 8;
+
+	/** log2 of {@link #SUB_BUCKETS} */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/** number of buckets covering the positive longs */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/** the bucket counts */
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+	/** the number of recorded values */
+	private final LongAdder mCount = new LongAdder();
+
+	/** the sum of the recorded values */
+	private final LongAdder mSum = new LongAdder();
+
+	/** the maximum recorded value */
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param pNanos
+	 *            the duration in nanoseconds (negative values are recorded as 0)
+	 */
+	void record(long pNanos) {
+		long lValue = Math.max(0, pNanos);
+		mCounts.incrementAndGet(indexOf(lValue));
+		mCount.increment();
+		mSum.add(lValue);
+		if (lValue > mMax.get()) {
+			mMax.accumulateAndGet(lValue, Math::max);
+		}
+	}
+
+	/**
+	 * Forgets the recorded values.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.reset();
+		mSum.reset();
+		mMax.set(0);
+	}
+
+	/**
+	 * Takes a snapshot of the histogram. The snapshot is consistent enough for monitoring but may
+	 * miss the values recorded while it is taken.
+	 *
+	 * @return the snapshot
+	 */
+	LatencySnapshot snapshot() {
+		long[] lCounts = new long[BUCKETS];
+		long lTotal = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			lCounts[i] = mCounts.get(i);
+			lTotal += lCounts[i];
+		}
+		long lMax = mMax.get();
+		long lMean = lTotal > 0 ? mSum.sum() / Math.max(1, mCount.sum()) : 0;
+		return new LatencySnapshot(lTotal, lMean, lMax, percentile(lCounts, lTotal, 0.5, lMax),
+				percentile(lCounts, lTotal, 0.9, lMax), percentile(lCounts, lTotal, 0.99, lMax),
+				percentile(lCounts, lTotal, 0.999, lMax));
+	}
+
+	/**
+	 * Returns a percentile of the recorded durations, with the approximation of a snapshot.
+	 *
+	 * @param pRatio
+	 *            the percentile as a ratio
+	 * @return the percentile (ns), 0 if nothing is recorded
+	 */
+	long percentile(double pRatio) {
+		long[] lCounts = new long[BUCKETS];
+		long lTotal = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			lCounts[i] = mCounts.get(i);
+			lTotal += lCounts[i];
+		}
+		return percentile(lCounts, lTotal, pRatio, mMax.get());
+	}
+
+	/**
+	 * Returns a percentile of the bucket counts.
+	 *
+	 * @param pCounts
+	 *            the bucket counts
+	 * @param pTotal
+	 *            the sum of the counts
+	 * @param pRatio
+	 *            the percentile as a ratio
+	 * @param pMax
+	 *            the maximum recorded value
+	 * @return the upper bound of the bucket holding the percentile, capped by the maximum
+	 */
+	private static long percentile(long[] pCounts, long pTotal, double pRatio, long pMax) {
+		if (pTotal == 0) {
+			return 0;
+		}
+		long lRank = (long) Math.ceil(pRatio * pTotal);
+		long lSeen = 0;
+		for (int i = 0; i < pCounts.length; i++) {
+			lSeen += pCounts[i];
+			if (lSeen >= lRank) {
+				return Math.min(upperBoundOf(i), pMax);
+			}
+		}
+		return pMax;
+	}
+
+	/**
+	 * Returns the bucket of a value.
+	 *
+	 * @param pValue
+	 *            the positive value
+	 * @return the bucket index
+	 */
+	static int indexOf(long pValue) {
+		if (pValue < SUB_BUCKETS) {
+			return (int) pValue;
+		}
+		int lExponent = 63 - Long.numberOfLeadingZeros(pValue);
+		int lSubBucket = (int) (pValue >>> (lExponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (lExponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + lSubBucket;
+	}
+
+	/**
+	 * Returns the largest value of a bucket.
+	 *
+	 * @param pIndex
+	 *            the bucket index
+	 * @return the upper bound
+	 */
+	static long upperBoundOf(int pIndex) {
+		if (pIndex < SUB_BUCKETS) {
+			return pIndex;
+		}
+		int lShift = pIndex / SUB_BUCKETS - 1;
+		long lLowerBound = (long) (SUB_BUCKETS + pIndex % SUB_BUCKETS) << lShift;
+		return lLowerBound + (1L << lShift) - 1;
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of a latency histogram. The durations are in microseconds; a percentile is the upper
+ * bound of the histogram bucket holding it, i.e. over-estimated by less than 12.5%.
+ *
+ * @author T0130672
+ */
+public class LatencySnapshot {
+
+	/** the number of recorded values */
+	private final long mCount;
+
+	/** the mean (ns) */
+	private final long mMean;
+
+	/** the maximum (ns) */
+	private final long mMax;
+
+	/** the median (ns) */
+	private final long mP50;
+
+	/** the 90th percentile (ns) */
+	private final long mP90;
+
+	/** the 99th percentile (ns) */
+	private final long mP99;
+
+	/** the 99.9th percentile (ns) */
+	private final long mP999;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pCount
+	 *            the number of recorded values
+	 * @param pMean
+	 *            the mean (ns)
+	 * @param pMax
+	 *            the maximum (ns)
+	 * @param pP50
+	 *            the median (ns)
+	 * @param pP90
+	 *            the 90th percentile (ns)
+	 * @param pP99
+	 *            the 99th percentile (ns)
+	 * @param pP999
+	 *            the 99.9th percentile (ns)
+	 */
+	LatencySnapshot(long pCount, long pMean, long pMax, long pP50, long pP90, long pP99, long pP999) {
+		mCount = pCount;
+		mMean = pMean;
+		mMax = pMax;
+		mP50 = pP50;
+		mP90 = pP90;
+		mP99 = pP99;
+		mP999 = pP999;
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the mean
+	 *
+	 * @return the mean in microseconds
+	 */
+	public long getMean() {
+		return toMicros(mMean);
+	}
+
+	/**
+	 * Returns the maximum
+	 *
+	 * @return the maximum in microseconds
+	 */
+	public long getMax() {
+		return toMicros(mMax);
+	}
+
+	/**
+	 * Returns the median
+	 *
+	 * @return the median in microseconds
+	 */
+	public long getP50() {
+		return toMicros(mP50);
+	}
+
+	/**
+	 * Returns the 90th percentile
+	 *
+	 * @return the 90th percentile in microseconds
+	 */
+	public long getP90() {
+		return toMicros(mP90);
+	}
+
+	/**
+	 * Returns the 99th percentile
+	 *
+	 * @return the 99th percentile in microseconds
+	 */
+	public long getP99() {
+		return toMicros(mP99);
+	}
+
+	/**
+	 * Returns the 99.9th percentile
+	 *
+	 * @return the 99.9th percentile in microseconds
+	 */
+	public long getP999() {
+		return toMicros(mP999);
+	}
+
+	/**
+	 * Converts a duration to microseconds
+	 *
+	 * @param pNanos
+	 *            the duration in nanoseconds
+	 * @return the duration in microseconds
+	 */
+	private static long toMicros(long pNanos) {
+		return TimeUnit.NANOSECONDS.toMicros(pNanos);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "count=" + mCount + ", mean=" + getMean() + "us, p50=" + getP50() + "us, p90=" + getP90() + "us, p99="
+				+ getP99() + "us, p99.9=" + getP999() + "us, max=" + getMax() + "us";
+	}
+}
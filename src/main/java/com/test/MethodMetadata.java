@@ -0,0 +1,295 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import javax.jms.Destination;
+
+/**
+ * The settings of the invocations of a service interface method, resolved once when the proxy is
+ * initialized so that no reflection is done on the invocation path.
+ *
+ * @author T0130672
+ */
+final class MethodMetadata {
+
+	/** message of the exceptions wrapping a runtime exception */
+	private static final String RUNTIME_EXCEPTION_MESSAGE = "A runtime exception occurred during the method invocation.";
+
+	/** the method name (null for the methods outside the service interface) */
+	private final String mMethodName;
+
+	/** the JMS priority */
+	private final int mPriority;
+
+	/** the JMS delivery mode */
+	private final int mDeliveryMode;
+
+	/** the time to live (ms) */
+	private final long mTimeToLive;
+
+	/** the reply timeout (ms) */
+	private final long mReceiveTimeout;
+
+	/** one-way flag */
+	private final boolean mOneWay;
+
+	/** the time to live of the cached results (ms), 0 for no caching */
+	private final long mCacheTimeToLive;
+
+	/** idempotent flag, i.e. the request may be sent more than once */
+	private final boolean mIdempotent;
+
+	/** asynchronous flag, i.e. the method returns a {@link CompletableFuture} */
+	private final boolean mAsynchronous;
+
+	/** streamed flag, i.e. the method returns an {@link Iterator} or a {@link Stream} */
+	private final boolean mStreamed;
+
+	/** the number of replies gathered from a topic, 0 until the reply timeout, -1 if not gathered */
+	private final int mGatherCount;
+
+	/** the minimum number of successful replies gathered from a topic */
+	private final int mGatherQuorum;
+
+	/** the lane, null for the default lane */
+	private final String mLane;
+
+	/** the destination of the requests */
+	private final Destination mDestination;
+
+	/** the constructor of the first declared exception (null if none can wrap a runtime exception) */
+	private final Constructor<? extends Throwable> mExceptionConstructor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMethod
+	 *            the method, or null for the settings of the methods outside the service interface
+	 * @param pPriority
+	 *            the JMS priority
+	 * @param pDeliveryMode
+	 *            the JMS delivery mode
+	 * @param pTimeToLive
+	 *            the time to live (ms)
+	 * @param pReceiveTimeout
+	 *            the reply timeout (ms)
+	 * @param pOneWay
+	 *            one-way flag
+	 * @param pCacheTimeToLive
+	 *            the time to live of the cached results (ms), 0 for no caching
+	 * @param pGatherCount
+	 *            the number of replies gathered from a topic, 0 until the reply timeout, -1 if not
+	 *            gathered
+	 * @param pGatherQuorum
+	 *            the minimum number of successful replies gathered, 0 for the default
+	 * @param pIdempotent
+	 *            idempotent flag
+	 * @param pLane
+	 *            the lane, null for the default lane
+	 * @param pDestination
+	 *            the destination of the requests
+	 */
+	MethodMetadata(Method pMethod, int pPriority, int pDeliveryMode, long pTimeToLive, long pReceiveTimeout,
+			boolean pOneWay, long pCacheTimeToLive, int pGatherCount, int pGatherQuorum, boolean pIdempotent,
+			String pLane, Destination pDestination) {
+		mMethodName = pMethod != null ? pMethod.getName() : null;
+		mPriority = pPriority;
+		mDeliveryMode = pDeliveryMode;
+		mTimeToLive = pTimeToLive;
+		mReceiveTimeout = pReceiveTimeout;
+		mOneWay = pOneWay;
+		mCacheTimeToLive = pCacheTimeToLive;
+		mIdempotent = pIdempotent;
+		mAsynchronous = pMethod != null && CompletableFuture.class.equals(pMethod.getReturnType());
+		mStreamed = pMethod != null
+				&& (Iterator.class.equals(pMethod.getReturnType()) || Stream.class.equals(pMethod.getReturnType()));
+		mGatherCount = pGatherCount;
+		mGatherQuorum = pGatherQuorum > 0 ? pGatherQuorum : Math.max(1, pGatherCount);
+		mLane = pLane;
+		mDestination = pDestination;
+		mExceptionConstructor = pMethod != null ? resolveExceptionConstructor(pMethod) : null;
+	}
+
+	/**
+	 * Resolves the (String, Throwable) constructor of the first exception declared by a method.
+	 *
+	 * @param pMethod
+	 *            the method
+	 * @return the constructor, or null if the method declares no exception or if the exception has no
+	 *         such constructor
+	 */
+	private static Constructor<? extends Throwable> resolveExceptionConstructor(Method pMethod) {
+		Class<?>[] lExceptionClasses = pMethod.getExceptionTypes();
+		if (lExceptionClasses.length == 0) {
+			return null;
+		}
+		try {
+			return lExceptionClasses[0].asSubclass(Throwable.class).getConstructor(String.class, Throwable.class);
+		} catch (NoSuchMethodException lE) {
+			return null;
+		}
+	}
+
+	/**
+	 * Converts a runtime exception to the first exception declared on the method (if possible).
+	 *
+	 * @param pException
+	 *            the runtime exception
+	 * @return the exception to throw, the runtime exception itself if it cannot be converted
+	 */
+	Throwable convert(RuntimeException pException) {
+		if (mExceptionConstructor == null) {
+			return pException;
+		}
+		try {
+			return mExceptionConstructor.newInstance(RUNTIME_EXCEPTION_MESSAGE, pException);
+		} catch (ReflectiveOperationException lE) {
+			pException.addSuppressed(lE);
+			return pException;
+		}
+	}
+
+	/**
+	 * Returns the method name
+	 *
+	 * @return the method name, or null for the methods outside the service interface
+	 */
+	String getMethodName() {
+		return mMethodName;
+	}
+
+	/**
+	 * Returns the lane
+	 *
+	 * @return the lane, null for the default lane
+	 */
+	String getLane() {
+		return mLane;
+	}
+
+	/**
+	 * Returns the destination of the requests
+	 *
+	 * @return the service destination, or the destination of the lane
+	 */
+	Destination getDestination() {
+		return mDestination;
+	}
+
+	/**
+	 * Returns the JMS priority
+	 *
+	 * @return the priority
+	 */
+	int getPriority() {
+		return mPriority;
+	}
+
+	/**
+	 * Returns the JMS delivery mode
+	 *
+	 * @return the delivery mode
+	 */
+	int getDeliveryMode() {
+		return mDeliveryMode;
+	}
+
+	/**
+	 * Returns the time to live
+	 *
+	 * @return the time to live (ms), 0 for no expiration
+	 */
+	long getTimeToLive() {
+		return mTimeToLive;
+	}
+
+	/**
+	 * Returns the reply timeout
+	 *
+	 * @return the reply timeout (ms), 0 for no timeout
+	 */
+	long getReceiveTimeout() {
+		return mReceiveTimeout;
+	}
+
+	/**
+	 * Tells whether the method is one-way
+	 *
+	 * @return true if one-way
+	 */
+	boolean isOneWay() {
+		return mOneWay;
+	}
+
+	/**
+	 * Returns the time to live of the cached results
+	 *
+	 * @return the time to live (ms), 0 if the results are not cached
+	 */
+	long getCacheTimeToLive() {
+		return mCacheTimeToLive;
+	}
+
+	/**
+	 * Tells whether the method is idempotent
+	 *
+	 * @return true if the request may be sent more than once
+	 */
+	boolean isIdempotent() {
+		return mIdempotent;
+	}
+
+	/**
+	 * Tells whether the method is asynchronous
+	 *
+	 * @return true if asynchronous
+	 */
+	boolean isAsynchronous() {
+		return mAsynchronous;
+	}
+
+	/**
+	 * Tells whether the result of the method is streamed
+	 *
+	 * @return true if the method returns an iterator or a stream
+	 */
+	boolean isStreamed() {
+		return mStreamed;
+	}
+
+	/**
+	 * Tells whether the replies of the exporters subscribed to a topic are gathered
+	 *
+	 * @return true if the method returns the list of the replies
+	 */
+	boolean isGathered() {
+		return mGatherCount >= 0;
+	}
+
+	/**
+	 * Returns the number of replies gathered
+	 *
+	 * @return the number of replies, 0 to gather the replies until the reply timeout
+	 */
+	int getGatherCount() {
+		return mGatherCount;
+	}
+
+	/**
+	 * Returns the minimum number of successful replies gathered
+	 *
+	 * @return the quorum
+	 */
+	int getGatherQuorum() {
+		return mGatherQuorum;
+	}
+}
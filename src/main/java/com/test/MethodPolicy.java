@@ -0,0 +1,203 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * JMS settings of the requests of a service interface method, configured on the proxy by method
+ * name (see {@link JmsInvokerProxyFactoryBean#setMethodPolicies(java.util.Map)}). A setting left
+ * null keeps the {@link InvocationPolicy} annotation of the method, or else the setting of the
+ * proxy.
+ *
+ * @author T0130672
+ */
+public class MethodPolicy {
+
+	/** the JMS priority */
+	private Integer mPriority;
+
+	/** the JMS delivery mode */
+	private Integer mDeliveryMode;
+
+	/** the time to live (ms) */
+	private Long mTimeToLive;
+
+	/** the reply timeout (ms) */
+	private Long mReceiveTimeout;
+
+	/** the time to live of the cached results (ms) */
+	private Long mCacheTimeToLive;
+
+	/** the number of replies gathered from a topic */
+	private Integer mGatherCount;
+
+	/** the minimum number of successful replies gathered from a topic */
+	private Integer mGatherQuorum;
+
+	/** the lane */
+	private String mLane;
+
+	/**
+	 * Returns the JMS priority
+	 *
+	 * @return the priority, or null if not set
+	 */
+	public Integer getPriority() {
+		return mPriority;
+	}
+
+	/**
+	 * Sets the JMS priority of the requests, from 0 to 9
+	 *
+	 * @param pPriority
+	 *            the priority
+	 */
+	public void setPriority(Integer pPriority) {
+		mPriority = pPriority;
+	}
+
+	/**
+	 * Returns the JMS delivery mode
+	 *
+	 * @return the delivery mode, or null if not set
+	 */
+	public Integer getDeliveryMode() {
+		return mDeliveryMode;
+	}
+
+	/**
+	 * Sets the JMS delivery mode of the requests
+	 *
+	 * @param pDeliveryMode
+	 *            {@link javax.jms.DeliveryMode#PERSISTENT} or
+	 *            {@link javax.jms.DeliveryMode#NON_PERSISTENT}
+	 */
+	public void setDeliveryMode(Integer pDeliveryMode) {
+		mDeliveryMode = pDeliveryMode;
+	}
+
+	/**
+	 * Returns the time to live
+	 *
+	 * @return the time to live in milliseconds, or null if not set
+	 */
+	public Long getTimeToLive() {
+		return mTimeToLive;
+	}
+
+	/**
+	 * Sets the time to live of the requests
+	 *
+	 * @param pTimeToLive
+	 *            the time to live in milliseconds, 0 for no expiration
+	 */
+	public void setTimeToLive(Long pTimeToLive) {
+		mTimeToLive = pTimeToLive;
+	}
+
+	/**
+	 * Returns the reply timeout
+	 *
+	 * @return the reply timeout in milliseconds, or null if not set
+	 */
+	public Long getReceiveTimeout() {
+		return mReceiveTimeout;
+	}
+
+	/**
+	 * Sets the reply timeout
+	 *
+	 * @param pReceiveTimeout
+	 *            the reply timeout in milliseconds, 0 for no timeout
+	 */
+	public void setReceiveTimeout(Long pReceiveTimeout) {
+		mReceiveTimeout = pReceiveTimeout;
+	}
+
+	/**
+	 * Returns the time to live of the cached results
+	 *
+	 * @return the time to live in milliseconds, or null if not set
+	 */
+	public Long getCacheTimeToLive() {
+		return mCacheTimeToLive;
+	}
+
+	/**
+	 * Sets the time to live of the cached results. The results of the method are cached by the proxy,
+	 * by a snapshot of the arguments, which is only correct for a method without side effect.
+	 *
+	 * @param pCacheTimeToLive
+	 *            the time to live in milliseconds, 0 for no caching
+	 */
+	public void setCacheTimeToLive(Long pCacheTimeToLive) {
+		mCacheTimeToLive = pCacheTimeToLive;
+	}
+
+	/**
+	 * Returns the number of replies gathered from a topic
+	 *
+	 * @return the number of replies, or null if not set
+	 */
+	public Integer getGatherCount() {
+		return mGatherCount;
+	}
+
+	/**
+	 * Sets the number of replies gathered from a topic. The request is broadcast to the exporters
+	 * subscribed to the topic, and the invocation returns the list of their results once this number
+	 * of results is received. The method must declare a {@link java.util.List} (or a super type) of
+	 * the type returned by the exporters.
+	 *
+	 * @param pGatherCount
+	 *            the number of replies, 0 to gather the replies until the reply timeout
+	 */
+	public void setGatherCount(Integer pGatherCount) {
+		mGatherCount = pGatherCount;
+	}
+
+	/**
+	 * Returns the minimum number of successful replies gathered from a topic
+	 *
+	 * @return the quorum, or null if not set
+	 */
+	public Integer getGatherQuorum() {
+		return mGatherQuorum;
+	}
+
+	/**
+	 * Sets the minimum number of successful replies gathered from a topic. When fewer results than
+	 * the gather count are received before the reply timeout, the invocation returns them if they
+	 * reach the quorum, and fails otherwise. By default the quorum is the gather count, or 1 when the
+	 * replies are gathered until the reply timeout.
+	 *
+	 * @param pGatherQuorum
+	 *            the quorum, 0 to keep the default
+	 */
+	public void setGatherQuorum(Integer pGatherQuorum) {
+		mGatherQuorum = pGatherQuorum;
+	}
+
+	/**
+	 * Returns the lane
+	 *
+	 * @return the lane, or null if not set
+	 */
+	public String getLane() {
+		return mLane;
+	}
+
+	/**
+	 * Sets the lane of the requests. The requests of a lane are sent to the service destination
+	 * suffixed with a dot and the lane name, and served by the exporter with their own concurrency
+	 * (see {@link JmsInvokerServiceExporter#setLaneConcurrentInvocations(java.util.Map)}).
+	 *
+	 * @param pLane
+	 *            the lane, an empty string for the default lane
+	 */
+	public void setLane(String pLane) {
+		mLane = pLane;
+	}
+}
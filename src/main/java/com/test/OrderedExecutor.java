@@ -0,0 +1,213 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executor running the tasks sharing the same key one after the other, in submission order, while
+ * tasks with different keys (or without key) run in parallel on the underlying executor.
+ * <p>
+ * The number of submitted but not completed tasks is bounded: {@link #execute(Object, Runnable)}
+ * blocks the submitting thread when the bound is reached, which pushes the back pressure onto the
+ * JMS listener thread.
+ *
+ * @author T0130672
+ */
+class OrderedExecutor {
+
+	/** the underlying executor */
+	private final Executor mExecutor;
+
+	/** permits for the tasks in flight */
+	private final Semaphore mPermits;
+
+	/** the queues of the keys having tasks in flight */
+	private final ConcurrentMap<Object, KeyQueue> mQueues = new ConcurrentHashMap<Object, KeyQueue>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pExecutor
+	 *            the underlying executor
+	 * @param pMaxInFlight
+	 *            the maximum number of tasks in flight
+	 */
+	OrderedExecutor(Executor pExecutor, int pMaxInFlight) {
+		mExecutor = pExecutor;
+		mPermits = new Semaphore(pMaxInFlight);
+	}
+
+	/**
+	 * Submits a task, waiting for a permit if the maximum number of tasks in flight is reached.
+	 *
+	 * @param pKey
+	 *            the ordering key, or null if the task can run in any order
+	 * @param pTask
+	 *            the task
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a permit
+	 */
+	void execute(Object pKey, Runnable pTask) throws InterruptedException {
+		mPermits.acquire();
+		final Runnable lTask = releasing(pTask);
+		try {
+			if (pKey == null) {
+				mExecutor.execute(lTask);
+				return;
+			}
+			final boolean[] lStart = new boolean[1];
+			KeyQueue lQueue = mQueues.compute(pKey, (pQueueKey, pExisting) -> {
+				KeyQueue lExisting = pExisting != null ? pExisting : new KeyQueue(pQueueKey);
+				lExisting.mTasks.add(lTask);
+				if (!lExisting.mScheduled) {
+					lExisting.mScheduled = true;
+					lStart[0] = true;
+				}
+				return lExisting;
+			});
+			if (lStart[0]) {
+				try {
+					mExecutor.execute(lQueue);
+				} catch (RuntimeException lE) {
+					// the next task of the key schedules the queue again
+					mQueues.computeIfPresent(pKey, (pQueueKey, pExisting) -> {
+						pExisting.mTasks.remove(lTask);
+						pExisting.mScheduled = false;
+						return pExisting.mTasks.isEmpty() ? null : pExisting;
+					});
+					throw lE;
+				}
+			}
+		} catch (RuntimeException lE) {
+			// rejected by the underlying executor
+			mPermits.release();
+			throw lE;
+		}
+	}
+
+	/**
+	 * Submits a task without ordering key if a permit is available, without waiting.
+	 *
+	 * @param pTask
+	 *            the task
+	 * @return true if submitted, false if the maximum number of tasks in flight is reached or the
+	 *         underlying executor rejected the task
+	 */
+	boolean tryExecute(Runnable pTask) {
+		if (!mPermits.tryAcquire()) {
+			return false;
+		}
+		try {
+			mExecutor.execute(releasing(pTask));
+			return true;
+		} catch (RejectedExecutionException lE) {
+			mPermits.release();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of keys having tasks in flight
+	 *
+	 * @return the number of keys
+	 */
+	int getActiveKeyCount() {
+		return mQueues.size();
+	}
+
+	/**
+	 * Wraps a task to release its permit once run.
+	 *
+	 * @param pTask
+	 *            the task
+	 * @return the wrapping task
+	 */
+	private Runnable releasing(final Runnable pTask) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pTask.run();
+				} finally {
+					mPermits.release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * The pending tasks of one key, drained one task per run so that the keys share the underlying
+	 * executor fairly.
+	 */
+	private class KeyQueue implements Runnable {
+
+		/** the key */
+		private final Object mKey;
+
+		/** the pending tasks, guarded by the map entry of the key */
+		private final Queue<Runnable> mTasks = new ArrayDeque<Runnable>();
+
+		/** true while the queue is submitted to the underlying executor */
+		private boolean mScheduled;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pKey
+		 *            the key
+		 */
+		KeyQueue(Object pKey) {
+			mKey = pKey;
+		}
+
+		/**
+		 * Runs the next task of the key and re-submits the queue if other tasks are pending.
+		 */
+		@Override
+		public void run() {
+			final Runnable[] lNext = new Runnable[1];
+			mQueues.computeIfPresent(mKey, (pKey, pQueue) -> {
+				lNext[0] = mTasks.poll();
+				return pQueue;
+			});
+			try {
+				if (lNext[0] != null) {
+					lNext[0].run();
+				}
+			} finally {
+				final boolean[] lMore = new boolean[1];
+				mQueues.computeIfPresent(mKey, (pKey, pQueue) -> {
+					if (mTasks.isEmpty()) {
+						mScheduled = false;
+						// no task left: the key is forgotten
+						return null;
+					}
+					lMore[0] = true;
+					return pQueue;
+				});
+				if (lMore[0]) {
+					try {
+						mExecutor.execute(this);
+					} catch (RuntimeException lE) {
+						// the next task of the key schedules the queue again
+						mQueues.computeIfPresent(mKey, (pKey, pQueue) -> {
+							mScheduled = false;
+							return pQueue;
+						});
+						throw lE;
+					}
+				}
+			}
+		}
+	}
+}
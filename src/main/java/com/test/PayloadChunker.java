@@ -0,0 +1,472 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Size-aware transfer of the payloads encoded by a codec: a payload larger than the compression
+ * threshold is deflated, and a payload still larger than the chunk size is sent as a sequence of
+ * chunk messages, so that no frame exceeds the chunk size on the broker network.
+ * <p>
+ * The receiver restores the payload before reading it: a compressed body is inflated and the chunks
+ * are reassembled, whatever their arrival order or the consumer receiving them. The chunks being
+ * reassembled are bounded by a memory budget: a stream exceeding it, or not completed within the
+ * reassembly timeout, is dropped and its caller times out.
+ * <p>
+ * The peers advertise that they can restore such payloads in the {@value #ACCEPT_PROPERTY} property,
+ * and only the Java serialized object messages are left untouched.
+ *
+ * @author T0130672
+ */
+final class PayloadChunker {
+
+	/** logger */
+	private static final Log LOGGER = LogFactory.getLog(PayloadChunker.class);
+
+	/** name of the property telling that the peer can restore compressed and chunked payloads */
+	static final String ACCEPT_PROPERTY = "acceptLargePayloads";
+
+	/** name of the property holding the compression of the payload */
+	static final String COMPRESSION_PROPERTY = "compression";
+
+	/** name of the property holding the identifier of the chunk stream */
+	static final String CHUNK_STREAM_PROPERTY = "chunkStream";
+
+	/** name of the property holding the index of a chunk */
+	static final String CHUNK_INDEX_PROPERTY = "chunkIndex";
+
+	/** name of the property holding the number of chunks of the stream */
+	static final String CHUNK_COUNT_PROPERTY = "chunkCount";
+
+	/** the only compression supported */
+	private static final String DEFLATE = "deflate";
+
+	/** default memory budget of the chunks being reassembled (bytes) */
+	static final long DEFAULT_MAX_REASSEMBLY_SIZE = 64L * 1024 * 1024;
+
+	/** default time allowed to receive every chunk of a stream (ms) */
+	static final long DEFAULT_REASSEMBLY_TIMEOUT = 60000;
+
+	/** the size above which a payload is compressed, 0 to never compress */
+	private final int mCompressionThreshold;
+
+	/** the size above which a payload is chunked, 0 to never chunk */
+	private final int mChunkSize;
+
+	/** the memory budget of the chunks being reassembled */
+	private final long mMaxReassemblySize;
+
+	/** the time allowed to receive every chunk of a stream */
+	private final long mReassemblyTimeout;
+
+	/** the streams being reassembled in arrival order, guarded by itself */
+	private final LinkedHashMap<String, ChunkStream> mStreams = new LinkedHashMap<String, ChunkStream>();
+
+	/** the size of the chunks being reassembled, guarded by mStreams */
+	private long mReassemblySize;
+
+	/** the number of streams dropped */
+	private final LongAdder mDroppedStreams = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pCompressionThreshold
+	 *            the size above which a payload is compressed, 0 to never compress
+	 * @param pChunkSize
+	 *            the size above which a payload is chunked, 0 to never chunk
+	 * @param pMaxReassemblySize
+	 *            the memory budget of the chunks being reassembled
+	 * @param pReassemblyTimeout
+	 *            the time allowed to receive every chunk of a stream (ms)
+	 */
+	PayloadChunker(int pCompressionThreshold, int pChunkSize, long pMaxReassemblySize, long pReassemblyTimeout) {
+		if (pCompressionThreshold < 0 || pChunkSize < 0 || pMaxReassemblySize <= 0 || pReassemblyTimeout <= 0) {
+			throw new IllegalArgumentException("Invalid payload settings: compression threshold "
+					+ pCompressionThreshold + ", chunk size " + pChunkSize + ", max reassembly size "
+					+ pMaxReassemblySize + ", reassembly timeout " + pReassemblyTimeout);
+		}
+		mCompressionThreshold = pCompressionThreshold;
+		mChunkSize = pChunkSize;
+		mMaxReassemblySize = pMaxReassemblySize;
+		mReassemblyTimeout = pReassemblyTimeout;
+	}
+
+	/**
+	 * Tells whether the peer sending a message can restore the compressed and chunked payloads.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @return true if accepted
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static boolean accepts(Message pMessage) throws JMSException {
+		return pMessage.propertyExists(ACCEPT_PROPERTY) && pMessage.getBooleanProperty(ACCEPT_PROPERTY);
+	}
+
+	/**
+	 * Sends a message, compressed and chunked according to its size. The chunks are created and sent
+	 * one at a time.
+	 *
+	 * @param pSession
+	 *            the session creating the chunks
+	 * @param pMessage
+	 *            the message, with its properties and reply destination set
+	 * @param pSender
+	 *            the sender of the message or of each chunk
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	void send(Session pSession, Message pMessage, Sender pSender) throws JMSException {
+		if (!(pMessage instanceof BytesMessage) || (mCompressionThreshold == 0 && mChunkSize == 0)) {
+			pSender.send(pMessage);
+			return;
+		}
+		BytesMessage lMessage = (BytesMessage) pMessage;
+		lMessage.reset();
+		long lLength = lMessage.getBodyLength();
+		boolean lCompress = mCompressionThreshold > 0 && lLength > mCompressionThreshold;
+		if (!lCompress && (mChunkSize == 0 || lLength <= mChunkSize)) {
+			pSender.send(pMessage);
+			return;
+		}
+		byte[] lPayload = InvocationCodecs.readBody(lMessage);
+		boolean lCompressed = false;
+		if (lCompress) {
+			byte[] lDeflated = deflate(lPayload);
+			if (lDeflated.length < lPayload.length) {
+				lPayload = lDeflated;
+				lCompressed = true;
+			}
+		}
+		if (mChunkSize == 0 || lPayload.length <= mChunkSize) {
+			// the properties of a bytes message are only writable with its body
+			lMessage.clearBody();
+			lMessage.writeBytes(lPayload);
+			if (lCompressed) {
+				lMessage.setStringProperty(COMPRESSION_PROPERTY, DEFLATE);
+			}
+			pSender.send(lMessage);
+			return;
+		}
+		String lStream = UUID.randomUUID().toString();
+		int lCount = (lPayload.length + mChunkSize - 1) / mChunkSize;
+		for (int i = 0; i < lCount; i++) {
+			int lOffset = i * mChunkSize;
+			BytesMessage lChunk = pSession.createBytesMessage();
+			copyHeaders(lMessage, lChunk);
+			if (lCompressed) {
+				lChunk.setStringProperty(COMPRESSION_PROPERTY, DEFLATE);
+			}
+			lChunk.setStringProperty(CHUNK_STREAM_PROPERTY, lStream);
+			lChunk.setIntProperty(CHUNK_INDEX_PROPERTY, i);
+			lChunk.setIntProperty(CHUNK_COUNT_PROPERTY, lCount);
+			lChunk.writeBytes(lPayload, lOffset, Math.min(mChunkSize, lPayload.length - lOffset));
+			pSender.send(lChunk);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Sent " + lPayload.length + " bytes in " + lCount + " chunks of stream " + lStream);
+		}
+	}
+
+	/**
+	 * Restores the payload of a received message: the returned message holds the whole inflated
+	 * payload, ready to be read by the codecs.
+	 *
+	 * @param pMessage
+	 *            the received message or chunk
+	 * @return the message holding the whole payload, null while chunks are missing or if the stream
+	 *         was dropped
+	 * @throws JMSException
+	 *             if the payload cannot be restored
+	 */
+	Message restore(Message pMessage) throws JMSException {
+		if (pMessage.propertyExists(CHUNK_STREAM_PROPERTY)) {
+			byte[] lPayload = reassemble(pMessage);
+			if (lPayload == null) {
+				return null;
+			}
+			// the last chunk received carries the properties of the whole payload
+			writeBody((BytesMessage) pMessage, lPayload);
+		}
+		if (DEFLATE.equals(pMessage.getStringProperty(COMPRESSION_PROPERTY))) {
+			writeBody((BytesMessage) pMessage, inflate(InvocationCodecs.readBody(pMessage)));
+		}
+		return pMessage;
+	}
+
+	/**
+	 * Returns the number of streams dropped because the memory budget was exceeded or their chunks
+	 * did not arrive in time
+	 *
+	 * @return the number of dropped streams
+	 */
+	long getDroppedStreamCount() {
+		return mDroppedStreams.sum();
+	}
+
+	/**
+	 * Stores a chunk, and returns the payload of its stream once complete.
+	 *
+	 * @param pChunk
+	 *            the chunk
+	 * @return the payload, or null while chunks are missing or if the stream was dropped
+	 * @throws JMSException
+	 *             if the chunk is invalid
+	 */
+	private byte[] reassemble(Message pChunk) throws JMSException {
+		String lStreamId = pChunk.getStringProperty(CHUNK_STREAM_PROPERTY);
+		int lIndex = pChunk.getIntProperty(CHUNK_INDEX_PROPERTY);
+		int lCount = pChunk.getIntProperty(CHUNK_COUNT_PROPERTY);
+		if (lIndex < 0 || lIndex >= lCount) {
+			throw new MessageFormatException("Invalid chunk " + lIndex + " of " + lCount + " in stream " + lStreamId);
+		}
+		byte[] lData = InvocationCodecs.readBody(pChunk);
+		long lNow = System.currentTimeMillis();
+		synchronized (mStreams) {
+			dropExpiredStreams(lNow);
+			ChunkStream lStream = mStreams.get(lStreamId);
+			if (lStream == null) {
+				lStream = new ChunkStream(lCount, lNow + mReassemblyTimeout);
+				mStreams.put(lStreamId, lStream);
+			}
+			if (lStream.mChunks[lIndex] != null) {
+				// redelivered chunk
+				return null;
+			}
+			if (mReassemblySize + lData.length > mMaxReassemblySize) {
+				LOGGER.warn("Dropping chunk stream " + lStreamId + ": reassembly budget of " + mMaxReassemblySize
+						+ " bytes exceeded");
+				drop(lStream);
+				return null;
+			}
+			lStream.mChunks[lIndex] = lData;
+			lStream.mSize += lData.length;
+			mReassemblySize += lData.length;
+			if (++lStream.mReceived < lCount) {
+				return null;
+			}
+			mStreams.remove(lStreamId);
+			mReassemblySize -= lStream.mSize;
+			return lStream.join();
+		}
+	}
+
+	/**
+	 * Drops the streams whose chunks did not arrive in time.
+	 *
+	 * @param pNow
+	 *            the current time
+	 */
+	private void dropExpiredStreams(long pNow) {
+		Iterator<Map.Entry<String, ChunkStream>> lIterator = mStreams.entrySet().iterator();
+		while (lIterator.hasNext()) {
+			Map.Entry<String, ChunkStream> lEntry = lIterator.next();
+			if (lEntry.getValue().mExpiration > pNow) {
+				// in arrival order, the next streams expire later
+				return;
+			}
+			LOGGER.warn("Dropping incomplete chunk stream " + lEntry.getKey());
+			lIterator.remove();
+			mReassemblySize -= lEntry.getValue().mSize;
+			mDroppedStreams.increment();
+		}
+	}
+
+	/**
+	 * Drops a stream. The stream stays known, without its chunks, until it expires, so that its
+	 * following chunks are discarded as well.
+	 *
+	 * @param pStream
+	 *            the stream
+	 */
+	private void drop(ChunkStream pStream) {
+		mReassemblySize -= pStream.mSize;
+		pStream.mSize = 0;
+		Arrays.fill(pStream.mChunks, ChunkStream.DROPPED);
+		mDroppedStreams.increment();
+	}
+
+	/**
+	 * Copies the properties and the reply headers of a message to a chunk.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @param pChunk
+	 *            the chunk
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private static void copyHeaders(Message pMessage, Message pChunk) throws JMSException {
+		Enumeration<?> lNames = pMessage.getPropertyNames();
+		while (lNames.hasMoreElements()) {
+			String lName = (String) lNames.nextElement();
+			pChunk.setObjectProperty(lName, pMessage.getObjectProperty(lName));
+		}
+		pChunk.setJMSReplyTo(pMessage.getJMSReplyTo());
+		pChunk.setJMSCorrelationID(pMessage.getJMSCorrelationID());
+		pChunk.setJMSType(pMessage.getJMSType());
+	}
+
+	/**
+	 * Replaces the body of a bytes message and makes it readable.
+	 *
+	 * @param pMessage
+	 *            the message
+	 * @param pBody
+	 *            the new body
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private static void writeBody(BytesMessage pMessage, byte[] pBody) throws JMSException {
+		pMessage.clearBody();
+		pMessage.writeBytes(pBody);
+		pMessage.reset();
+	}
+
+	/**
+	 * Compresses a payload.
+	 *
+	 * @param pPayload
+	 *            the payload
+	 * @return the compressed payload
+	 */
+	private static byte[] deflate(byte[] pPayload) {
+		Deflater lDeflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			lDeflater.setInput(pPayload);
+			lDeflater.finish();
+			ByteArrayOutputStream lOut = new ByteArrayOutputStream(Math.max(64, pPayload.length / 4));
+			byte[] lBuffer = new byte[8192];
+			while (!lDeflater.finished()) {
+				lOut.write(lBuffer, 0, lDeflater.deflate(lBuffer));
+			}
+			return lOut.toByteArray();
+		} finally {
+			lDeflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses a payload, within the memory budget of the reassembly.
+	 *
+	 * @param pCompressed
+	 *            the compressed payload
+	 * @return the payload
+	 * @throws JMSException
+	 *             if the payload is corrupted or exceeds the memory budget
+	 */
+	private byte[] inflate(byte[] pCompressed) throws JMSException {
+		Inflater lInflater = new Inflater();
+		try {
+			lInflater.setInput(pCompressed);
+			ByteArrayOutputStream lOut = new ByteArrayOutputStream(pCompressed.length * 4);
+			byte[] lBuffer = new byte[8192];
+			while (!lInflater.finished()) {
+				int lLength = lInflater.inflate(lBuffer);
+				if (lLength == 0 && (lInflater.needsInput() || lInflater.needsDictionary())) {
+					throw new DataFormatException("Truncated compressed payload");
+				}
+				lOut.write(lBuffer, 0, lLength);
+				if (lOut.size() > mMaxReassemblySize) {
+					throw new DataFormatException("Inflated payload exceeds " + mMaxReassemblySize + " bytes");
+				}
+			}
+			return lOut.toByteArray();
+		} catch (DataFormatException lE) {
+			throw InvocationCodecs.conversionFailure("Cannot inflate payload", new IOException(lE.getMessage(), lE));
+		} finally {
+			lInflater.end();
+		}
+	}
+
+	/**
+	 * Sends a message or a chunk.
+	 */
+	interface Sender {
+
+		/**
+		 * Sends the message.
+		 *
+		 * @param pMessage
+		 *            the message or chunk
+		 * @throws JMSException
+		 *             if thrown by JMS methods
+		 */
+		void send(Message pMessage) throws JMSException;
+	}
+
+	/**
+	 * The chunks of a payload being reassembled.
+	 */
+	private static final class ChunkStream {
+
+		/** marker of the chunks of a dropped stream */
+		static final byte[] DROPPED = new byte[0];
+
+		/** the chunks received, by index */
+		final byte[][] mChunks;
+
+		/** the expiration time */
+		final long mExpiration;
+
+		/** the number of chunks received */
+		int mReceived;
+
+		/** the size of the chunks received */
+		long mSize;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pCount
+		 *            the number of chunks
+		 * @param pExpiration
+		 *            the expiration time
+		 */
+		ChunkStream(int pCount, long pExpiration) {
+			mChunks = new byte[pCount][];
+			mExpiration = pExpiration;
+		}
+
+		/**
+		 * Joins the chunks.
+		 *
+		 * @return the payload
+		 */
+		byte[] join() {
+			byte[] lPayload = new byte[(int) mSize];
+			int lOffset = 0;
+			for (byte[] lChunk : mChunks) {
+				System.arraycopy(lChunk, 0, lPayload, lOffset, lChunk.length);
+				lOffset += lChunk.length;
+			}
+			return lPayload;
+		}
+	}
+}
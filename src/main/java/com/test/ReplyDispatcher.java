@@ -0,0 +1,470 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jms.connection.ConnectionFactoryUtils;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Long-lived reply consumer shared by all the invocations of one proxy.
+ * <p>
+ * A single {@link MessageConsumer} is kept open on the reply destination and incoming replies are
+ * routed to the waiting callers through a correlation ID &rarr; pending reply map. Entries whose
+ * deadline has passed are removed by a periodic sweep so that callers which gave up do not leak.
+ * The replies of a streamed result are routed to their {@link ReplyStream} until it unregisters.
+ * <p>
+ * The reply destination is either configured, or private to the dispatcher: a temporary queue or a
+ * named queue, in which case no selector is needed.
+ *
+ * @author T0130672
+ */
+class ReplyDispatcher implements MessageListener, ExceptionListener {
+
+	/** logger */
+	private static final Log LOGGER = LogFactory.getLog(ReplyDispatcher.class);
+
+	/** name of the correlation property set on requests and copied on replies */
+	static final String RESPONSE_ID_PROPERTY = "responseID";
+
+	/** the connection factory */
+	private final ConnectionFactory mConnectionFactory;
+
+	/** the configured reply destination (null for a private queue) */
+	private final Destination mReplyDestination;
+
+	/** the name of the private reply queue (null for a configured destination or a temporary queue) */
+	private final String mReplyQueueName;
+
+	/** the reply selector (may be null) */
+	private final String mSelector;
+
+	/** the pending replies indexed by correlation ID */
+	private final Map<String, PendingReply> mPendingReplies = new ConcurrentHashMap<String, PendingReply>();
+
+	/** the streamed results indexed by correlation ID */
+	private final Map<String, ReplyStream> mReplyStreams = new ConcurrentHashMap<String, ReplyStream>();
+
+	/** the JMS connection */
+	private Connection mConnection;
+
+	/** the JMS session owning the reply consumer */
+	private Session mSession;
+
+	/** the reply consumer */
+	private MessageConsumer mConsumer;
+
+	/** the destination the consumer listens to (null until started) */
+	private volatile Destination mCurrentDestination;
+
+	/** the restoration of the compressed and chunked replies (null if none) */
+	private volatile PayloadChunker mPayloadChunker;
+
+	/** the orphan sweep task */
+	private ScheduledFuture<?> mSweepTask;
+
+	/** started flag */
+	private volatile boolean mStarted;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pConnectionFactory
+	 *            the connection factory used to open the reply consumer
+	 * @param pReplyDestination
+	 *            the reply destination
+	 * @param pSelector
+	 *            the reply selector, or null to receive every reply
+	 */
+	ReplyDispatcher(ConnectionFactory pConnectionFactory, Destination pReplyDestination, String pSelector) {
+		mConnectionFactory = pConnectionFactory;
+		mReplyDestination = pReplyDestination;
+		mReplyQueueName = null;
+		mSelector = pSelector;
+	}
+
+	/**
+	 * Constructor of a dispatcher receiving every reply of a private queue
+	 *
+	 * @param pConnectionFactory
+	 *            the connection factory used to open the reply consumer
+	 * @param pReplyQueueName
+	 *            the name of the reply queue, or null for a temporary queue
+	 */
+	ReplyDispatcher(ConnectionFactory pConnectionFactory, String pReplyQueueName) {
+		mConnectionFactory = pConnectionFactory;
+		mReplyDestination = null;
+		mReplyQueueName = pReplyQueueName;
+		mSelector = null;
+	}
+
+	/**
+	 * Sets the restoration of the compressed and chunked replies.
+	 *
+	 * @param pPayloadChunker
+	 *            the payload chunker
+	 */
+	void setPayloadChunker(PayloadChunker pPayloadChunker) {
+		mPayloadChunker = pPayloadChunker;
+	}
+
+	/**
+	 * Opens the reply consumer if not already done.
+	 *
+	 * @throws JMSException
+	 *             if the consumer cannot be created
+	 */
+	void start() throws JMSException {
+		if (mStarted) {
+			return;
+		}
+		synchronized (this) {
+			if (mStarted) {
+				return;
+			}
+			Connection lConnection = mConnectionFactory.createConnection();
+			try {
+				try {
+					lConnection.setExceptionListener(this);
+				} catch (javax.jms.IllegalStateException lE) {
+					// shared connection without reconnect support: failures are
+					// detected on send instead
+					LOGGER.debug("Cannot register exception listener on reply connection", lE);
+				}
+				mSession = lConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				Destination lDestination = createReplyDestination(mSession);
+				mConsumer = mSession.createConsumer(lDestination, mSelector);
+				mConsumer.setMessageListener(this);
+				lConnection.start();
+				mConnection = lConnection;
+				mCurrentDestination = lDestination;
+				mStarted = true;
+			} finally {
+				if (!mStarted) {
+					JmsUtils.closeMessageConsumer(mConsumer);
+					JmsUtils.closeSession(mSession);
+					ConnectionFactoryUtils.releaseConnection(lConnection, mConnectionFactory, true);
+					mConsumer = null;
+					mSession = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the reply destination, creating the private queue if needed.
+	 *
+	 * @param pSession
+	 *            the session of the reply consumer
+	 * @return the reply destination
+	 * @throws JMSException
+	 *             if the queue cannot be created
+	 */
+	private Destination createReplyDestination(Session pSession) throws JMSException {
+		if (mReplyDestination != null) {
+			return mReplyDestination;
+		}
+		if (mReplyQueueName != null) {
+			return pSession.createQueue(mReplyQueueName);
+		}
+		return pSession.createTemporaryQueue();
+	}
+
+	/**
+	 * Returns the destination to set as reply-to of the requests
+	 *
+	 * @return the reply destination, null if the dispatcher is not started
+	 */
+	Destination getReplyDestination() {
+		return mCurrentDestination;
+	}
+
+	/**
+	 * Schedules the periodic removal of the expired pending replies.
+	 *
+	 * @param pScheduler
+	 *            the scheduler running the sweep
+	 * @param pPeriod
+	 *            the sweep period in milliseconds
+	 */
+	synchronized void scheduleSweep(ScheduledExecutorService pScheduler, long pPeriod) {
+		if (mSweepTask == null) {
+			mSweepTask = pScheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sweep();
+				}
+			}, pPeriod, pPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Registers a caller waiting for the reply with the given correlation ID.
+	 *
+	 * @param pCorrelationId
+	 *            the correlation ID
+	 * @param pTimeout
+	 *            the time after which the entry is considered orphaned, 0 for never
+	 * @return the pending reply
+	 */
+	PendingReply register(String pCorrelationId, long pTimeout) {
+		PendingReply lPending = new PendingReply(pCorrelationId,
+				pTimeout > 0 ? System.currentTimeMillis() + pTimeout : Long.MAX_VALUE);
+		mPendingReplies.put(pCorrelationId, lPending);
+		return lPending;
+	}
+
+	/**
+	 * Removes a pending reply, typically after a timeout on the caller side.
+	 *
+	 * @param pCorrelationId
+	 *            the correlation ID
+	 */
+	void unregister(String pCorrelationId) {
+		mPendingReplies.remove(pCorrelationId);
+	}
+
+	/**
+	 * Registers a streamed result before sending its request: every reply with the correlation ID is
+	 * routed to it until unregistered.
+	 *
+	 * @param pCorrelationId
+	 *            the correlation ID
+	 * @param pStream
+	 *            the streamed result
+	 */
+	void registerStream(String pCorrelationId, ReplyStream pStream) {
+		mReplyStreams.put(pCorrelationId, pStream);
+	}
+
+	/**
+	 * Removes a streamed result, once complete or closed by its caller.
+	 *
+	 * @param pCorrelationId
+	 *            the correlation ID
+	 */
+	void unregisterStream(String pCorrelationId) {
+		mReplyStreams.remove(pCorrelationId);
+	}
+
+	/**
+	 * Returns the number of pending replies
+	 *
+	 * @return the number of pending replies
+	 */
+	int getPendingCount() {
+		return mPendingReplies.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onMessage(Message pMessage) {
+		String lCorrelationId;
+		try {
+			lCorrelationId = pMessage.getStringProperty(RESPONSE_ID_PROPERTY);
+		} catch (JMSException lE) {
+			LOGGER.warn("Cannot read correlation ID of reply", lE);
+			return;
+		}
+		Message lMessage = pMessage;
+		PayloadChunker lPayloadChunker = mPayloadChunker;
+		if (lPayloadChunker != null) {
+			try {
+				// a chunked reply is complete with its last chunk
+				lMessage = lPayloadChunker.restore(pMessage);
+				if (lMessage == null) {
+					return;
+				}
+			} catch (JMSException lE) {
+				PendingReply lPending = lCorrelationId == null ? null : mPendingReplies.remove(lCorrelationId);
+				ReplyStream lStream = lCorrelationId == null ? null : mReplyStreams.get(lCorrelationId);
+				if (lPending != null) {
+					lPending.completeExceptionally(lE);
+				} else if (lStream != null) {
+					lStream.onException(lE);
+				} else {
+					LOGGER.warn("Cannot restore reply " + lCorrelationId, lE);
+				}
+				return;
+			}
+		}
+		ReplyStream lStream = lCorrelationId == null ? null : mReplyStreams.get(lCorrelationId);
+		if (lStream != null) {
+			lStream.onMessage(lMessage);
+			return;
+		}
+		PendingReply lPending = lCorrelationId == null ? null : mPendingReplies.remove(lCorrelationId);
+		if (lPending == null) {
+			// late reply of a caller which already gave up
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Discarding reply without waiting caller: " + lCorrelationId);
+			}
+			return;
+		}
+		lPending.complete(lMessage);
+	}
+
+	/**
+	 * Invalidates the reply consumer: the pending callers are released with the given exception and
+	 * the consumer is re-opened on the next {@link #start()}.
+	 *
+	 * @param pException
+	 *            the connection failure
+	 */
+	@Override
+	public void onException(JMSException pException) {
+		LOGGER.warn("Reply connection failure, reply consumer will be re-opened", pException);
+		close();
+		failAll(pException);
+	}
+
+	/**
+	 * Closes the reply consumer and releases every pending caller.
+	 */
+	void stop() {
+		synchronized (this) {
+			if (mSweepTask != null) {
+				mSweepTask.cancel(false);
+				mSweepTask = null;
+			}
+		}
+		close();
+		failAll(new JMSException("Reply dispatcher stopped"));
+	}
+
+	/**
+	 * Closes the JMS resources.
+	 */
+	private synchronized void close() {
+		mStarted = false;
+		JmsUtils.closeMessageConsumer(mConsumer);
+		if (mCurrentDestination instanceof TemporaryQueue) {
+			try {
+				((TemporaryQueue) mCurrentDestination).delete();
+			} catch (JMSException lE) {
+				// deleted with its connection anyway
+				LOGGER.debug("Cannot delete temporary reply queue", lE);
+			}
+		}
+		mCurrentDestination = null;
+		JmsUtils.closeSession(mSession);
+		if (mConnection != null) {
+			ConnectionFactoryUtils.releaseConnection(mConnection, mConnectionFactory, true);
+		}
+		mConsumer = null;
+		mSession = null;
+		mConnection = null;
+	}
+
+	/**
+	 * Releases every pending caller with the given exception.
+	 *
+	 * @param pException
+	 *            the exception
+	 */
+	private void failAll(JMSException pException) {
+		Iterator<PendingReply> lIterator = mPendingReplies.values().iterator();
+		while (lIterator.hasNext()) {
+			PendingReply lPending = lIterator.next();
+			lIterator.remove();
+			lPending.completeExceptionally(pException);
+		}
+		Iterator<ReplyStream> lStreams = mReplyStreams.values().iterator();
+		while (lStreams.hasNext()) {
+			ReplyStream lStream = lStreams.next();
+			lStreams.remove();
+			lStream.onException(pException);
+		}
+	}
+
+	/**
+	 * Removes the pending replies whose deadline has passed.
+	 */
+	void sweep() {
+		long lNow = System.currentTimeMillis();
+		Iterator<PendingReply> lIterator = mPendingReplies.values().iterator();
+		while (lIterator.hasNext()) {
+			PendingReply lPending = lIterator.next();
+			if (lPending.getDeadline() < lNow) {
+				lIterator.remove();
+				// a null reply means timeout
+				lPending.complete(null);
+			}
+		}
+	}
+
+	/**
+	 * A caller waiting for its reply.
+	 */
+	static class PendingReply extends CompletableFuture<Message> {
+
+		/** the correlation ID */
+		private final String mCorrelationId;
+
+		/** the absolute deadline */
+		private final long mDeadline;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pCorrelationId
+		 *            the correlation ID
+		 * @param pDeadline
+		 *            the absolute deadline
+		 */
+		PendingReply(String pCorrelationId, long pDeadline) {
+			mCorrelationId = pCorrelationId;
+			mDeadline = pDeadline;
+		}
+
+		/**
+		 * Returns the correlation ID
+		 *
+		 * @return the correlation ID
+		 */
+		String getCorrelationId() {
+			return mCorrelationId;
+		}
+
+		/**
+		 * Returns the absolute deadline
+		 *
+		 * @return the absolute deadline
+		 */
+		long getDeadline() {
+			return mDeadline;
+		}
+	}
+
+	/**
+	 * The receiver of the replies of a streamed result.
+	 */
+	interface ReplyStream extends MessageListener, ExceptionListener {
+		// the exception listener is told when the reply consumer fails
+	}
+}
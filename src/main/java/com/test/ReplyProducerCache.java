@@ -0,0 +1,97 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Least recently used cache of the anonymous producers sending the replies, one per listener
+ * session. The producer of a session which is not used anymore (e.g. after a reconnection of the
+ * listener container) is closed when evicted.
+ *
+ * @author T0130672
+ */
+class ReplyProducerCache {
+
+	/** the producers indexed by session, in access order */
+	private final Map<Session, MessageProducer> mProducers;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMaxSize
+	 *            the maximum number of cached producers
+	 */
+	ReplyProducerCache(final int pMaxSize) {
+		mProducers = new LinkedHashMap<Session, MessageProducer>(16, 0.75f, true) {
+
+			/** serial version UID */
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Session, MessageProducer> pEldest) {
+				if (size() > pMaxSize) {
+					JmsUtils.closeMessageProducer(pEldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the anonymous producer of a session, creating it if needed.
+	 *
+	 * @param pSession
+	 *            the session
+	 * @return the anonymous producer
+	 * @throws JMSException
+	 *             if the producer cannot be created
+	 */
+	MessageProducer get(Session pSession) throws JMSException {
+		synchronized (mProducers) {
+			MessageProducer lProducer = mProducers.get(pSession);
+			if (lProducer == null) {
+				lProducer = pSession.createProducer(null);
+				mProducers.put(pSession, lProducer);
+			}
+			return lProducer;
+		}
+	}
+
+	/**
+	 * Closes and forgets the producer of a session, typically after a send failure.
+	 *
+	 * @param pSession
+	 *            the session
+	 */
+	void evict(Session pSession) {
+		MessageProducer lProducer;
+		synchronized (mProducers) {
+			lProducer = mProducers.remove(pSession);
+		}
+		JmsUtils.closeMessageProducer(lProducer);
+	}
+
+	/**
+	 * Closes every cached producer.
+	 */
+	void clear() {
+		synchronized (mProducers) {
+			for (MessageProducer lProducer : mProducers.values()) {
+				JmsUtils.closeMessageProducer(lProducer);
+			}
+			mProducers.clear();
+		}
+	}
+}
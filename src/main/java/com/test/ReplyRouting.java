@@ -0,0 +1,33 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * How the replies are routed back to a proxy.
+ *
+ * @author T0130672
+ */
+public enum ReplyRouting {
+
+	/**
+	 * The replies are sent to the ack destination shared by the proxies, each proxy filtering its
+	 * own replies with a selector on the response ID.
+	 */
+	SHARED_DESTINATION,
+
+	/**
+	 * The replies are sent to a temporary queue of the proxy, created again when its connection is
+	 * lost. No selector is evaluated.
+	 */
+	TEMPORARY_QUEUE,
+
+	/**
+	 * The replies are sent to a queue named after the unique ID of the proxy. No selector is
+	 * evaluated. Unlike a temporary queue the queue outlives the proxy, the brokers should be
+	 * configured to remove the inactive destinations.
+	 */
+	PRIVATE_QUEUE
+}
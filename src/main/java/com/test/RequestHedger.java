@@ -0,0 +1,146 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when the request of an idempotent method is hedged, i.e. duplicated through a second
+ * broker: once it has waited longer than a percentile of the recent latencies of the method.
+ * <p>
+ * The latency of a request is measured from its own sending, so a hedge winning after the delay
+ * does not make the delay grow. The percentile is recomputed every {@value #REFRESH_PERIOD}
+ * latencies over the last {@value #WINDOW} ones at most; until then the minimum delay is used.
+ *
+ * @author T0130672
+ */
+final class RequestHedger {
+
+	/** the number of latencies between two computations of the delay */
+	private static final int REFRESH_PERIOD = 100;
+
+	/** the number of latencies after which the histogram is reset */
+	private static final int WINDOW = 1000;
+
+	/** the percentile of the latencies as a ratio */
+	private final double mPercentile;
+
+	/** the minimum delay (ms) */
+	private final long mMinDelay;
+
+	/** the latencies by method name */
+	private final ConcurrentMap<String, MethodLatency> mLatencies = new ConcurrentHashMap<String, MethodLatency>();
+
+	/** the number of hedged requests */
+	private final LongAdder mHedgedCount = new LongAdder();
+
+	/** the number of hedged requests answered first through the second broker */
+	private final LongAdder mWonCount = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param pPercentile
+	 *            the percentile of the latencies after which a request is hedged, as a ratio
+	 * @param pMinDelay
+	 *            the minimum delay (ms)
+	 */
+	RequestHedger(double pPercentile, long pMinDelay) {
+		mPercentile = pPercentile;
+		mMinDelay = pMinDelay;
+	}
+
+	/**
+	 * Returns the delay after which a request is hedged.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @return the delay (ms)
+	 */
+	long getDelay(String pMethodName) {
+		MethodLatency lLatency = mLatencies.get(pMethodName);
+		return lLatency != null ? Math.max(mMinDelay, lLatency.mDelay) : mMinDelay;
+	}
+
+	/**
+	 * Records the latency of a request, from its sending to its reply.
+	 *
+	 * @param pMethodName
+	 *            the method name
+	 * @param pNanos
+	 *            the latency (ns)
+	 */
+	void record(String pMethodName, long pNanos) {
+		mLatencies.computeIfAbsent(pMethodName, pName -> new MethodLatency()).record(pNanos);
+	}
+
+	/**
+	 * Counts a hedged request.
+	 *
+	 * @param pWon
+	 *            true if the reply came first through the second broker
+	 */
+	void recordHedge(boolean pWon) {
+		mHedgedCount.increment();
+		if (pWon) {
+			mWonCount.increment();
+		}
+	}
+
+	/**
+	 * Returns the number of hedged requests
+	 *
+	 * @return the number of hedged requests
+	 */
+	long getHedgedCount() {
+		return mHedgedCount.sum();
+	}
+
+	/**
+	 * Returns the number of hedged requests answered first through the second broker
+	 *
+	 * @return the number of hedges which won
+	 */
+	long getWonCount() {
+		return mWonCount.sum();
+	}
+
+	/**
+	 * The recent latencies of a method.
+	 */
+	private final class MethodLatency {
+
+		/** the latencies */
+		private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+		/** the number of latencies recorded */
+		private final AtomicLong mRecordedCount = new AtomicLong();
+
+		/** the percentile of the latencies (ms) */
+		private volatile long mDelay;
+
+		/**
+		 * Records a latency, recomputing the delay periodically.
+		 *
+		 * @param pNanos
+		 *            the latency (ns)
+		 */
+		void record(long pNanos) {
+			mHistogram.record(pNanos);
+			long lCount = mRecordedCount.incrementAndGet();
+			if (lCount % REFRESH_PERIOD == 0) {
+				mDelay = TimeUnit.NANOSECONDS.toMillis(mHistogram.percentile(mPercentile)) + 1;
+				if (lCount % WINDOW == 0) {
+					mHistogram.reset();
+				}
+			}
+		}
+	}
+}
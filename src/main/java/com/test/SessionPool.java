@@ -0,0 +1,351 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jms.connection.ConnectionFactoryUtils;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Bounded pool of sessions, each one holding an anonymous producer, kept open between invocations.
+ * <p>
+ * When the pool is exhausted a transient session is created and closed on release, so that callers
+ * never wait for a session. A connection failure invalidates the pool: the idle sessions are closed
+ * right away and the borrowed ones are closed when released, the next borrow re-opening sessions on
+ * the reconnected connection.
+ *
+ * @author T0130672
+ */
+class SessionPool implements ExceptionListener {
+
+	/** logger */
+	private static final Log LOGGER = LogFactory.getLog(SessionPool.class);
+
+	/** the connection factory */
+	private final ConnectionFactory mConnectionFactory;
+
+	/** the maximum number of pooled sessions */
+	private final int mMaxSize;
+
+	/** the idle sessions */
+	private final BlockingDeque<PooledSession> mIdleSessions = new LinkedBlockingDeque<PooledSession>();
+
+	/** the number of pooled sessions currently open */
+	private final AtomicInteger mPooledCount = new AtomicInteger();
+
+	/** generation, incremented on each invalidation */
+	private final AtomicInteger mGeneration = new AtomicInteger();
+
+	/** statistics: created sessions */
+	private final AtomicLong mCreatedCount = new AtomicLong();
+
+	/** statistics: borrowed sessions */
+	private final AtomicLong mBorrowedCount = new AtomicLong();
+
+	/** statistics: transient sessions created because the pool was exhausted */
+	private final AtomicLong mOverflowCount = new AtomicLong();
+
+	/** statistics: sessions closed because broken or invalidated */
+	private final AtomicLong mDiscardedCount = new AtomicLong();
+
+	/** statistics: pool invalidations */
+	private final AtomicLong mInvalidationCount = new AtomicLong();
+
+	/** the JMS connection */
+	private Connection mConnection;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pConnectionFactory
+	 *            the connection factory
+	 * @param pMaxSize
+	 *            the maximum number of pooled sessions
+	 */
+	SessionPool(ConnectionFactory pConnectionFactory, int pMaxSize) {
+		mConnectionFactory = pConnectionFactory;
+		mMaxSize = pMaxSize;
+	}
+
+	/**
+	 * Borrows a session from the pool.
+	 *
+	 * @return the session
+	 * @throws JMSException
+	 *             if a new session cannot be created
+	 */
+	PooledSession borrow() throws JMSException {
+		mBorrowedCount.incrementAndGet();
+		int lGeneration = mGeneration.get();
+		PooledSession lSession;
+		while ((lSession = mIdleSessions.pollFirst()) != null) {
+			if (lSession.getGeneration() == lGeneration) {
+				return lSession;
+			}
+			discard(lSession);
+		}
+		if (mPooledCount.incrementAndGet() <= mMaxSize) {
+			try {
+				return create(lGeneration, true);
+			} catch (JMSException lE) {
+				mPooledCount.decrementAndGet();
+				throw lE;
+			}
+		}
+		mPooledCount.decrementAndGet();
+		mOverflowCount.incrementAndGet();
+		return create(lGeneration, false);
+	}
+
+	/**
+	 * Opens the missing sessions of the pool in advance, so that the first requests do not pay for
+	 * their creation.
+	 *
+	 * @throws JMSException
+	 *             if a new session cannot be created
+	 */
+	void prewarm() throws JMSException {
+		int lGeneration = mGeneration.get();
+		while (mPooledCount.incrementAndGet() <= mMaxSize) {
+			try {
+				mIdleSessions.offerLast(create(lGeneration, true));
+			} catch (JMSException lE) {
+				mPooledCount.decrementAndGet();
+				throw lE;
+			}
+		}
+		mPooledCount.decrementAndGet();
+	}
+
+	/**
+	 * Gives a session back to the pool.
+	 *
+	 * @param pSession
+	 *            the session
+	 * @param pBroken
+	 *            true if a JMS failure occurred while the session was used
+	 */
+	void release(PooledSession pSession, boolean pBroken) {
+		if (!pSession.isPooled()) {
+			pSession.close();
+		} else if (pBroken || pSession.getGeneration() != mGeneration.get()) {
+			discard(pSession);
+		} else {
+			// most recently used first to keep the others idle and reclaimable
+			mIdleSessions.offerFirst(pSession);
+		}
+	}
+
+	/**
+	 * Invalidates the pool on a connection failure.
+	 *
+	 * @param pException
+	 *            the connection failure
+	 */
+	@Override
+	public void onException(JMSException pException) {
+		LOGGER.warn("Connection failure, pooled sessions will be re-opened", pException);
+		invalidate();
+	}
+
+	/**
+	 * Closes every idle session and makes the borrowed ones be closed on release.
+	 */
+	void invalidate() {
+		mInvalidationCount.incrementAndGet();
+		mGeneration.incrementAndGet();
+		PooledSession lSession;
+		while ((lSession = mIdleSessions.pollFirst()) != null) {
+			discard(lSession);
+		}
+		releaseConnection();
+	}
+
+	/**
+	 * Returns a snapshot of the pool statistics
+	 *
+	 * @return the pool statistics
+	 */
+	SessionPoolStatistics getStatistics() {
+		return new SessionPoolStatistics(mMaxSize, mPooledCount.get(), mIdleSessions.size(), mCreatedCount.get(),
+				mBorrowedCount.get(), mOverflowCount.get(), mDiscardedCount.get(), mInvalidationCount.get());
+	}
+
+	/**
+	 * Creates a new session.
+	 *
+	 * @param pGeneration
+	 *            the pool generation
+	 * @param pPooled
+	 *            false for a transient session closed on release
+	 * @return the session
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private PooledSession create(int pGeneration, boolean pPooled) throws JMSException {
+		Session lSession = getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try {
+			// anonymous producer: the destination is given on each send
+			MessageProducer lProducer = lSession.createProducer(null);
+			mCreatedCount.incrementAndGet();
+			return new PooledSession(lSession, lProducer, pGeneration, pPooled);
+		} catch (JMSException lE) {
+			JmsUtils.closeSession(lSession);
+			throw lE;
+		}
+	}
+
+	/**
+	 * Closes a pooled session and frees its slot.
+	 *
+	 * @param pSession
+	 *            the session
+	 */
+	private void discard(PooledSession pSession) {
+		mDiscardedCount.incrementAndGet();
+		mPooledCount.decrementAndGet();
+		pSession.close();
+	}
+
+	/**
+	 * Returns the started connection, opening it if needed.
+	 *
+	 * @return the connection
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	private synchronized Connection getConnection() throws JMSException {
+		if (mConnection == null) {
+			Connection lConnection = mConnectionFactory.createConnection();
+			try {
+				lConnection.setExceptionListener(this);
+			} catch (javax.jms.IllegalStateException lE) {
+				// shared connection without reconnect support: broken sessions are
+				// discarded on release instead
+				LOGGER.debug("Cannot register exception listener on pooled connection", lE);
+			}
+			try {
+				lConnection.start();
+			} catch (JMSException lE) {
+				ConnectionFactoryUtils.releaseConnection(lConnection, mConnectionFactory, true);
+				throw lE;
+			}
+			mConnection = lConnection;
+		}
+		return mConnection;
+	}
+
+	/**
+	 * Releases the connection.
+	 */
+	private synchronized void releaseConnection() {
+		if (mConnection != null) {
+			ConnectionFactoryUtils.releaseConnection(mConnection, mConnectionFactory, true);
+			mConnection = null;
+		}
+	}
+
+	/**
+	 * Closes every session and the connection.
+	 */
+	void close() {
+		invalidate();
+	}
+
+	/**
+	 * A session of the pool with its anonymous producer.
+	 */
+	static class PooledSession {
+
+		/** the session */
+		private final Session mSession;
+
+		/** the anonymous producer */
+		private final MessageProducer mProducer;
+
+		/** the pool generation the session was created in */
+		private final int mGeneration;
+
+		/** false for a transient session */
+		private final boolean mPooled;
+
+		/**
+		 * Constructor
+		 *
+		 * @param pSession
+		 *            the session
+		 * @param pProducer
+		 *            the anonymous producer
+		 * @param pGeneration
+		 *            the pool generation
+		 * @param pPooled
+		 *            false for a transient session
+		 */
+		PooledSession(Session pSession, MessageProducer pProducer, int pGeneration, boolean pPooled) {
+			mSession = pSession;
+			mProducer = pProducer;
+			mGeneration = pGeneration;
+			mPooled = pPooled;
+		}
+
+		/**
+		 * Returns the session
+		 *
+		 * @return the session
+		 */
+		Session getSession() {
+			return mSession;
+		}
+
+		/**
+		 * Returns the anonymous producer
+		 *
+		 * @return the anonymous producer
+		 */
+		MessageProducer getProducer() {
+			return mProducer;
+		}
+
+		/**
+		 * Returns the pool generation
+		 *
+		 * @return the pool generation
+		 */
+		int getGeneration() {
+			return mGeneration;
+		}
+
+		/**
+		 * Tells whether the session goes back to the pool on release
+		 *
+		 * @return false for a transient session
+		 */
+		boolean isPooled() {
+			return mPooled;
+		}
+
+		/**
+		 * Closes the producer and the session.
+		 */
+		void close() {
+			JmsUtils.closeMessageProducer(mProducer);
+			JmsUtils.closeSession(mSession);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * Snapshot of the statistics of the session pool of a {@link JmsInvokerProxyFactoryBean}.
+ *
+ * @author T0130672
+ */
+public class SessionPoolStatistics {
+
+	/** the maximum number of pooled sessions */
+	private final int mMaxSize;
+
+	/** the number of pooled sessions currently open */
+	private final int mOpenCount;
+
+	/** the number of idle sessions */
+	private final int mIdleCount;
+
+	/** the number of created sessions */
+	private final long mCreatedCount;
+
+	/** the number of borrowed sessions */
+	private final long mBorrowedCount;
+
+	/** the number of transient sessions created because the pool was exhausted */
+	private final long mOverflowCount;
+
+	/** the number of sessions closed because broken or invalidated */
+	private final long mDiscardedCount;
+
+	/** the number of pool invalidations on connection failure */
+	private final long mInvalidationCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pMaxSize
+	 *            the maximum number of pooled sessions
+	 * @param pOpenCount
+	 *            the number of pooled sessions currently open
+	 * @param pIdleCount
+	 *            the number of idle sessions
+	 * @param pCreatedCount
+	 *            the number of created sessions
+	 * @param pBorrowedCount
+	 *            the number of borrowed sessions
+	 * @param pOverflowCount
+	 *            the number of transient sessions
+	 * @param pDiscardedCount
+	 *            the number of discarded sessions
+	 * @param pInvalidationCount
+	 *            the number of pool invalidations
+	 */
+	public SessionPoolStatistics(int pMaxSize, int pOpenCount, int pIdleCount, long pCreatedCount, long pBorrowedCount,
+			long pOverflowCount, long pDiscardedCount, long pInvalidationCount) {
+		mMaxSize = pMaxSize;
+		mOpenCount = pOpenCount;
+		mIdleCount = pIdleCount;
+		mCreatedCount = pCreatedCount;
+		mBorrowedCount = pBorrowedCount;
+		mOverflowCount = pOverflowCount;
+		mDiscardedCount = pDiscardedCount;
+		mInvalidationCount = pInvalidationCount;
+	}
+
+	/**
+	 * Returns the maximum number of pooled sessions
+	 *
+	 * @return the maximum number of pooled sessions
+	 */
+	public int getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Returns the number of pooled sessions currently open
+	 *
+	 * @return the number of pooled sessions currently open
+	 */
+	public int getOpenCount() {
+		return mOpenCount;
+	}
+
+	/**
+	 * Returns the number of idle sessions
+	 *
+	 * @return the number of idle sessions
+	 */
+	public int getIdleCount() {
+		return mIdleCount;
+	}
+
+	/**
+	 * Returns the number of created sessions, pooled or transient
+	 *
+	 * @return the number of created sessions
+	 */
+	public long getCreatedCount() {
+		return mCreatedCount;
+	}
+
+	/**
+	 * Returns the number of borrowed sessions
+	 *
+	 * @return the number of borrowed sessions
+	 */
+	public long getBorrowedCount() {
+		return mBorrowedCount;
+	}
+
+	/**
+	 * Returns the number of transient sessions created because the pool was exhausted
+	 *
+	 * @return the number of transient sessions
+	 */
+	public long getOverflowCount() {
+		return mOverflowCount;
+	}
+
+	/**
+	 * Returns the number of sessions closed because broken or invalidated
+	 *
+	 * @return the number of discarded sessions
+	 */
+	public long getDiscardedCount() {
+		return mDiscardedCount;
+	}
+
+	/**
+	 * Returns the number of pool invalidations on connection failure
+	 *
+	 * @return the number of pool invalidations
+	 */
+	public long getInvalidationCount() {
+		return mInvalidationCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "SessionPoolStatistics [maxSize=" + mMaxSize + ", open=" + mOpenCount + ", idle=" + mIdleCount
+				+ ", created=" + mCreatedCount + ", borrowed=" + mBorrowedCount + ", overflow=" + mOverflowCount
+				+ ", discarded=" + mDiscardedCount + ", invalidations=" + mInvalidationCount + "]";
+	}
+}
@@ -0,0 +1,344 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.BaseStream;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteInvocationFailureException;
+import org.springframework.remoting.RemoteTimeoutException;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * The result of a method returning an {@link Iterator} or a {@link java.util.stream.Stream},
+ * received as a stream of replies instead of a single one.
+ * <p>
+ * The request carries the window, i.e. the number of replies the exporter may send ahead of the
+ * caller. Each reply holds a list of elements and the destination receiving the credits; the proxy
+ * grants credits back as the caller consumes the replies, so that neither the exporter nor the proxy
+ * holds more than a window of elements. The last reply is flagged, and closing the iterator before
+ * the end cancels the stream.
+ *
+ * @author T0130672
+ */
+final class StreamedResult implements Iterator<Object>, AutoCloseable, ReplyDispatcher.ReplyStream {
+
+	/** logger */
+	private static final Log LOGGER = LogFactory.getLog(StreamedResult.class);
+
+	/** name of the request property holding the window */
+	static final String WINDOW_PROPERTY = "streamWindow";
+
+	/** name of the reply property holding the sequence number */
+	static final String SEQUENCE_PROPERTY = "streamSequence";
+
+	/** name of the reply property flagging the last reply */
+	static final String END_PROPERTY = "streamEnd";
+
+	/** name of the property holding the credits granted */
+	static final String CREDITS_PROPERTY = "streamCredits";
+
+	/** name of the property cancelling the stream */
+	static final String CANCEL_PROPERTY = "streamCancel";
+
+	/** the description of the stream for the error messages */
+	private final String mDescription;
+
+	/** the maximum wait for a reply (ms), 0 for no timeout */
+	private final long mTimeout;
+
+	/** the number of consumed replies worth a credit message */
+	private final int mCreditBatch;
+
+	/** the reader of the replies */
+	private final ResultReader mReader;
+
+	/** the sender of the credits */
+	private final CreditSender mCreditSender;
+
+	/** called once the stream is complete or closed */
+	private final Runnable mOnClose;
+
+	/** the replies received, or the failure of the reply consumer */
+	private final BlockingQueue<Object> mReplies = new LinkedBlockingQueue<Object>();
+
+	/** the elements of the current reply */
+	private Iterator<?> mCurrent = Collections.emptyIterator();
+
+	/** the destination receiving the credits (null until the first reply) */
+	private Destination mCreditDestination;
+
+	/** the sequence number of the next reply */
+	private int mSequence;
+
+	/** the number of consumed replies not credited yet */
+	private int mConsumed;
+
+	/** set once the last reply is received */
+	private boolean mEnded;
+
+	/** closed flag */
+	private volatile boolean mClosed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pDescription
+	 *            the description of the stream
+	 * @param pWindow
+	 *            the number of replies the exporter may send ahead
+	 * @param pTimeout
+	 *            the maximum wait for a reply (ms), 0 for no timeout
+	 * @param pReader
+	 *            the reader of the replies
+	 * @param pCreditSender
+	 *            the sender of the credits
+	 * @param pOnClose
+	 *            called once the stream is complete or closed
+	 */
+	StreamedResult(String pDescription, int pWindow, long pTimeout, ResultReader pReader, CreditSender pCreditSender,
+			Runnable pOnClose) {
+		mDescription = pDescription;
+		mTimeout = pTimeout;
+		mCreditBatch = Math.max(1, pWindow / 2);
+		mReader = pReader;
+		mCreditSender = pCreditSender;
+		mOnClose = pOnClose;
+	}
+
+	/**
+	 * Tells whether a value can be sent as a streamed result.
+	 *
+	 * @param pValue
+	 *            the value returned by the service
+	 * @return true for an iterator or a stream
+	 */
+	static boolean isStreamable(Object pValue) {
+		return pValue instanceof Iterator || pValue instanceof BaseStream;
+	}
+
+	/**
+	 * Creates the message granting credits to the exporter, or cancelling the stream.
+	 *
+	 * @param pSession
+	 *            the JMS session
+	 * @param pCredits
+	 *            the number of replies the exporter may send in addition
+	 * @param pCancel
+	 *            true to cancel the stream
+	 * @return the message
+	 * @throws JMSException
+	 *             if thrown by JMS methods
+	 */
+	static Message createCreditMessage(Session pSession, int pCredits, boolean pCancel) throws JMSException {
+		Message lMessage = pSession.createMessage();
+		lMessage.setIntProperty(CREDITS_PROPERTY, pCredits);
+		if (pCancel) {
+			lMessage.setBooleanProperty(CANCEL_PROPERTY, true);
+		}
+		return lMessage;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onMessage(Message pMessage) {
+		mReplies.add(pMessage);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onException(JMSException pException) {
+		mReplies.add(pException);
+	}
+
+	/**
+	 * Tells whether the stream has more elements, waiting for the next reply if needed.
+	 *
+	 * @throws RemoteAccessException
+	 *             if the next reply does not arrive in time or cannot be read
+	 */
+	@Override
+	public boolean hasNext() {
+		while (!mCurrent.hasNext()) {
+			if (mEnded || mClosed) {
+				close();
+				return false;
+			}
+			try {
+				receive();
+			} catch (RuntimeException | Error lE) {
+				close();
+				throw lE;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("End of " + mDescription);
+		}
+		return mCurrent.next();
+	}
+
+	/**
+	 * Closes the stream, cancelling it on the exporter side if not complete.
+	 */
+	@Override
+	public void close() {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+		mOnClose.run();
+		mReplies.clear();
+		if (!mEnded && mCreditDestination != null) {
+			try {
+				mCreditSender.send(mCreditDestination, 0, true);
+			} catch (JMSException lE) {
+				// the exporter gives up once its credits are exhausted
+				LOGGER.debug("Cannot cancel " + mDescription, lE);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next reply and makes its elements current.
+	 */
+	private void receive() {
+		Object lReply;
+		try {
+			lReply = mTimeout > 0 ? mReplies.poll(mTimeout, TimeUnit.MILLISECONDS) : mReplies.take();
+		} catch (InterruptedException lE) {
+			Thread.currentThread().interrupt();
+			throw new RemoteAccessException("Interrupted while waiting for " + mDescription);
+		}
+		if (lReply == null) {
+			throw new RemoteTimeoutException("No reply of " + mDescription + " within " + mTimeout + " ms");
+		}
+		if (lReply instanceof JMSException) {
+			throw new RemoteAccessException("Reply consumer of " + mDescription + " failed", (JMSException) lReply);
+		}
+		try {
+			Message lMessage = (Message) lReply;
+			RemoteInvocationResult lResult = mReader.read(lMessage);
+			if (!lMessage.propertyExists(SEQUENCE_PROPERTY)) {
+				// the service failed before returning, or did not return a stream
+				mEnded = true;
+				mCurrent = toIterator(recreate(lResult));
+				return;
+			}
+			int lSequence = lMessage.getIntProperty(SEQUENCE_PROPERTY);
+			if (lSequence != mSequence) {
+				throw new RemoteAccessException("Expected reply " + mSequence + " of " + mDescription + " but got " + lSequence);
+			}
+			mSequence++;
+			mEnded = lMessage.propertyExists(END_PROPERTY) && lMessage.getBooleanProperty(END_PROPERTY);
+			mCreditDestination = lMessage.getJMSReplyTo();
+			if (!mEnded && ++mConsumed >= mCreditBatch) {
+				mCreditSender.send(mCreditDestination, mConsumed, false);
+				mConsumed = 0;
+			}
+			mCurrent = ((List<?>) recreate(lResult)).iterator();
+		} catch (JMSException lE) {
+			throw new RemoteAccessException("Cannot read reply of " + mDescription, lE);
+		}
+	}
+
+	/**
+	 * Recreates the value of a reply.
+	 *
+	 * @param pResult
+	 *            the invocation result
+	 * @return the value
+	 */
+	private Object recreate(RemoteInvocationResult pResult) {
+		try {
+			return pResult.recreate();
+		} catch (RuntimeException | Error lE) {
+			throw lE;
+		} catch (Throwable lE) {// NOSONAR
+			throw new RemoteInvocationFailureException(mDescription + " failed", lE);
+		}
+	}
+
+	/**
+	 * Returns an iterator on a value which was not streamed.
+	 *
+	 * @param pValue
+	 *            the value
+	 * @return the iterator
+	 */
+	private Iterator<?> toIterator(Object pValue) {
+		if (pValue == null) {
+			return Collections.emptyIterator();
+		}
+		if (pValue instanceof Collection) {
+			return ((Collection<?>) pValue).iterator();
+		}
+		throw new RemoteAccessException("Expected a stream for " + mDescription + " but got " + pValue.getClass().getName());
+	}
+
+	/**
+	 * Reads the invocation result of a reply.
+	 */
+	interface ResultReader {
+
+		/**
+		 * Reads the invocation result.
+		 *
+		 * @param pMessage
+		 *            the reply
+		 * @return the invocation result
+		 * @throws JMSException
+		 *             if the reply cannot be read
+		 */
+		RemoteInvocationResult read(Message pMessage) throws JMSException;
+	}
+
+	/**
+	 * Sends the credits of a stream to the exporter.
+	 */
+	interface CreditSender {
+
+		/**
+		 * Sends credits, or cancels the stream.
+		 *
+		 * @param pDestination
+		 *            the destination receiving the credits
+		 * @param pCredits
+		 *            the number of replies the exporter may send in addition
+		 * @param pCancel
+		 *            true to cancel the stream
+		 * @throws JMSException
+		 *             if thrown by JMS methods
+		 */
+		void send(Destination pDestination, int pCredits, boolean pCancel) throws JMSException;
+	}
+}
@@ -1,9 +1,38 @@
 package com.test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
 import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.broker.BrokerPlugin;
@@ -14,11 +43,17 @@ import org.apache.activemq.plugin.DiscardingDLQBrokerPlugin;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.jms.connection.SingleConnectionFactory;
 import org.springframework.jms.listener.SimpleMessageListenerContainer;
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+import org.springframework.remoting.RemoteTimeoutException;
+import org.springframework.remoting.support.RemoteInvocation;
 
 public class ActiveMQTest {
 
@@ -30,10 +65,21 @@ public class ActiveMQTest {
 
 	private static BrokerService noBroker2;
 
+	/** the exporters of the current test, shut down with the brokers */
+	private static final List<DisposableBean> exporterBeans = new ArrayList<DisposableBean>();
+
 	private static final int CALL_NUMBER = 200;
 
 	private static final int SERVICE_CONSUMER_NUMBER = 20;
 
+	private static final int LOAD_PROXY_NUMBER = 10;
+
+	/** the 99th percentile above which a load is saturating (us) */
+	private static final long LOAD_MAX_P99 = 500000;
+
+	/** the maximum wait for the network bridges to start (ms) */
+	private static final long BRIDGE_TIMEOUT = 10000;
+
 	@BeforeClass
 	   public static void initLog() {
 	       BasicConfigurator.configure();
@@ -78,20 +124,66 @@ public class ActiveMQTest {
 
 		noBroker1.start();
 		noBroker2.start();
-		Thread.sleep(3000);
+		noBroker1.waitUntilStarted();
+		noBroker2.waitUntilStarted();
+		Assert.assertTrue("broker1 bridge not started", new BrokerReadiness(new ActiveMQConnectionFactory("tcp://127.0.0.1:50001")).awaitNetworkBridge(BRIDGE_TIMEOUT));
+		Assert.assertTrue("broker2 bridge not started", new BrokerReadiness(new ActiveMQConnectionFactory("tcp://127.0.0.1:50002")).awaitNetworkBridge(BRIDGE_TIMEOUT));
 	}
 
 	public static void stopNetworkOfBroker() throws Exception {
-		Thread.sleep(1000);
+		// the listener containers would otherwise reconnect to the brokers of the next test
+		stopExporters();
 		noBroker1.stop();
 		noBroker2.stop();
-		Thread.sleep(2000);
+		noBroker1.waitUntilStopped();
+		noBroker2.waitUntilStopped();
+	}
+
+	private static void stopExporters() throws Exception {
+		for (DisposableBean bean : exporterBeans) {
+			bean.destroy();
+		}
+		exporterBeans.clear();
+	}
+
+	private static void stopExporter(JmsInvokerServiceExporter exporter) throws Exception {
+		// the listener container is registered just before its exporter
+		exporterBeans.get(exporterBeans.indexOf(exporter) - 1).destroy();
+	}
+
+	private static void awaitConsumerCount(JmsInvokerProxyFactoryBean proxyFactoryBean, boolean present) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + BRIDGE_TIMEOUT;
+		while ((proxyFactoryBean.getConsumerCount() > 0) != present && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(present, proxyFactoryBean.getConsumerCount() > 0);
+	}
+
+	@After
+	public void ensureNetworkOfBrokerStopped() throws Exception {
+		stopExporters();
+		// a failed test does not reach stopNetworkOfBroker and would keep the ports bound
+		for (BrokerService broker : new BrokerService[] { noBroker1, noBroker2 }) {
+			if (broker != null && broker.isStarted()) {
+				broker.stop();
+				broker.waitUntilStopped();
+			}
+		}
 	}
 
 	public JmsInvokerServiceExporter exporterFactory(Destination destination, Object service, String url) {
+		return exporterFactory(destination, IMockService.class, service, url);
+	}
+
+	public JmsInvokerServiceExporter exporterFactory(Destination destination, Class<?> serviceInterface, Object service, String url) {
+		return exporterFactory(destination, serviceInterface, service, url, null);
+	}
+
+	public JmsInvokerServiceExporter exporterFactory(Destination destination, Class<?> serviceInterface, Object service, String url,
+			Consumer<JmsInvokerServiceExporter> configurer) {
 		JmsInvokerServiceExporter lJmsInvokerServiceExporter = new JmsInvokerServiceExporter();
 		lJmsInvokerServiceExporter.setService(service);
-		lJmsInvokerServiceExporter.setServiceInterface(IMockService.class);
+		lJmsInvokerServiceExporter.setServiceInterface(serviceInterface);
 
 		ActiveMQConnectionFactory exporterConnectionFactory = new ActiveMQConnectionFactory(url + "?connectionTimeout=2000&soTimeout=2000&wireFormat.maxInactivityDuration=2000");
 		exporterConnectionFactory.setTrustAllPackages(true);
@@ -105,12 +197,43 @@ public class ActiveMQTest {
 		lSimpleMessageListenerContainer.setDestination(destination);
 		lSimpleMessageListenerContainer.setMessageListener(lJmsInvokerServiceExporter);
 		lSimpleMessageListenerContainer.afterPropertiesSet();
+		lJmsInvokerServiceExporter.setReplyConnectionFactory(lExporterSingleConnectionFactory);
+		if (configurer != null) {
+			configurer.accept(lJmsInvokerServiceExporter);
+		}
 		lJmsInvokerServiceExporter.afterPropertiesSet();
 		lSimpleMessageListenerContainer.start();
+		exporterBeans.add(lSimpleMessageListenerContainer);
+		exporterBeans.add(lJmsInvokerServiceExporter);
+		exporterBeans.add(lExporterSingleConnectionFactory);
 		return lJmsInvokerServiceExporter;
 	}
 
+	public void listenerContainer(Destination destination, JmsInvokerServiceExporter exporter, String url) {
+		ActiveMQConnectionFactory containerConnectionFactory = new ActiveMQConnectionFactory(url + "?connectionTimeout=2000&soTimeout=2000&wireFormat.maxInactivityDuration=2000");
+		containerConnectionFactory.setTrustAllPackages(true);
+		SingleConnectionFactory lContainerSingleConnectionFactory = new SingleConnectionFactory();
+		lContainerSingleConnectionFactory.setTargetConnectionFactory(containerConnectionFactory);
+		lContainerSingleConnectionFactory.setReconnectOnException(true);
+		lContainerSingleConnectionFactory.afterPropertiesSet();
+
+		SimpleMessageListenerContainer lSimpleMessageListenerContainer = new SimpleMessageListenerContainer();
+		lSimpleMessageListenerContainer.setConnectionFactory(lContainerSingleConnectionFactory);
+		lSimpleMessageListenerContainer.setDestination(destination);
+		lSimpleMessageListenerContainer.setMessageListener(exporter);
+		lSimpleMessageListenerContainer.afterPropertiesSet();
+		lSimpleMessageListenerContainer.start();
+		exporterBeans.add(lSimpleMessageListenerContainer);
+		exporterBeans.add(lContainerSingleConnectionFactory);
+	}
+
 	public JmsInvokerProxyFactoryBean proxyFactory(Destination destination, Destination ackDestination, String url) {
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(destination, ackDestination, url);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		return lJmsInvokerProxyFactoryBean;
+	}
+
+	public JmsInvokerProxyFactoryBean createProxyFactory(Destination destination, Destination ackDestination, String url) {
 		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = new JmsInvokerProxyFactoryBean();
 		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockService.class);
 
@@ -125,7 +248,6 @@ public class ActiveMQTest {
 		lJmsInvokerProxyFactoryBean.setDestination(destination);
 		lJmsInvokerProxyFactoryBean.setAckDestination(ackDestination);
 		lJmsInvokerProxyFactoryBean.setReceiveTimeout(10000);
-		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
 		return lJmsInvokerProxyFactoryBean;
 	}
 
@@ -159,7 +281,7 @@ public class ActiveMQTest {
 	}
 
 	@Test
-	public void testNobTopicUsingOneDuplex() throws Exception {
+	public void testNobQueueUsingOneDuplexWithSharedReplyConsumer() throws Exception {
 		startNetworkOfBroker(NobConf.ONE_DUPLEX);
 
 		IMockService service = new IMockService() {
@@ -173,13 +295,16 @@ public class ActiveMQTest {
 				// Nothing
 			}
 		};
-		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQTopic("TEST_TOPIC"), service, "tcp://127.0.0.1:50001");
-		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQTopic("TEST_TOPIC"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
 		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
 
-		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using topic");
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue and a shared reply consumer");
 		caller.run();
-		
+		lJmsInvokerProxyFactoryBean.destroy();
+
 		if (caller.hasFailed()) {
 			Assert.fail("Test has failed");
 		}
@@ -188,8 +313,8 @@ public class ActiveMQTest {
 	}
 
 	@Test
-	public void testNobQueueUsingHalfDuplex() throws Exception {
-		startNetworkOfBroker(NobConf.HALF_DUPLEX);
+	public void testNobQueueUsingOneDuplexWithSessionPool() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
 
 		IMockService service = new IMockService() {
 			@Override
@@ -199,17 +324,370 @@ public class ActiveMQTest {
 
 			@Override
 			public void call() throws MockServiceException {
-				// TODO Auto-generated method stub
-				
+				// Nothing
 			}
 		};
-		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
-		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.setSessionPoolSize(4);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
 		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
 
-		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue");
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Caller> callers = new ArrayList<ActiveMQTest.Caller>();
+		for (int i = 1; i <= 4; i++) {
+			Caller caller = new Caller(serviceRemote, "Pooled caller #" + i + " mean time on a NOB using queue", "" + i);
+			callers.add(caller);
+			Thread thread = new Thread(caller);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		SessionPoolStatistics statistics = lJmsInvokerProxyFactoryBean.getSessionPoolStatistics();
+		System.out.println(statistics);
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		for (Caller caller : callers) {
+			if (caller.hasFailed()) {
+				Assert.fail("At least one caller failed");
+			}
+		}
+		Assert.assertEquals(4 * CALL_NUMBER, statistics.getBorrowedCount());
+		Assert.assertTrue(statistics.getCreatedCount() - statistics.getOverflowCount() <= 4);
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithPrivateReplyQueues() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		for (ReplyRouting replyRouting : new ReplyRouting[] { ReplyRouting.TEMPORARY_QUEUE, ReplyRouting.PRIVATE_QUEUE }) {
+			// no ACK destination is needed
+			JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), null, "tcp://127.0.0.1:50002");
+			lJmsInvokerProxyFactoryBean.setReplyRouting(replyRouting);
+			lJmsInvokerProxyFactoryBean.setSessionPoolSize(4);
+			lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+			IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+			Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue and replies on a " + replyRouting, replyRouting.name());
+			caller.run();
+			lJmsInvokerProxyFactoryBean.destroy();
+
+			if (caller.hasFailed()) {
+				Assert.fail("Test has failed with " + replyRouting);
+			}
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithResultCache() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger invocations = new AtomicInteger();
+		IMockLookupService service = new IMockLookupService() {
+			@Override
+			public String lookup(List<String> keys) {
+				invocations.incrementAndGet();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return String.join(",", keys);
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockLookupService.class, service, "tcp://127.0.0.1:50001",
+				exporter -> exporter.setConcurrentInvocations(SERVICE_CONSUMER_NUMBER));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockLookupService.class);
+		MethodPolicy policy = new MethodPolicy();
+		policy.setCacheTimeToLive(2000L);
+		lJmsInvokerProxyFactoryBean.setMethodPolicies(Collections.singletonMap("lookup", policy));
+		lJmsInvokerProxyFactoryBean.setCacheSize(2);
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		final IMockLookupService serviceRemote = (IMockLookupService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// concurrent misses share one request
+		final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 20; i++) {
+			Thread thread = new Thread(() -> results.add(serviceRemote.lookup(Arrays.asList("lookup"))));
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(Collections.nCopies(20, "lookup"), results);
+		Assert.assertEquals(1, invocations.get());
+
+		// an argument mutated after the call is another entry, and leaves the cached one intact; the
+		// least recently used entry is evicted
+		List<String> keys = new ArrayList<String>(Arrays.asList("a"));
+		Assert.assertEquals("a", serviceRemote.lookup(keys));
+		keys.add("b");
+		Assert.assertEquals("a,b", serviceRemote.lookup(keys));
+		Assert.assertEquals(3, invocations.get());
+		Assert.assertEquals("a", serviceRemote.lookup(new ArrayList<String>(Arrays.asList("a"))));
+		Assert.assertEquals(3, invocations.get());
+
+		// expired results are invoked again
+		Thread.sleep(2500);
+		Assert.assertEquals("a", serviceRemote.lookup(new ArrayList<String>(Arrays.asList("a"))));
+		Assert.assertEquals(4, invocations.get());
+
+		CacheStatistics statistics = lJmsInvokerProxyFactoryBean.getCacheStatistics();
+		System.out.println(statistics);
+		Assert.assertEquals(4, statistics.getMissCount());
+		Assert.assertEquals(20, statistics.getHitCount());
+		Assert.assertEquals(1, statistics.getEvictionCount());
+		Assert.assertTrue(statistics.getExpirationCount() >= 1);
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithDuplicateRequests() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger invocations = new AtomicInteger();
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				invocations.incrementAndGet();
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		JmsInvokerServiceExporter exporter = exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				e -> e.setIdempotencyCacheSize(100));
+
+		// the same request delivered twice, as after a failover
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("tcp://127.0.0.1:50002");
+		connectionFactory.setTrustAllPackages(true);
+		Connection connection = connectionFactory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			Destination replyQueue = session.createTemporaryQueue();
+			MessageConsumer consumer = session.createConsumer(replyQueue);
+			MessageProducer producer = session.createProducer(new ActiveMQQueue("TEST_QUEUE"));
+			for (int i = 0; i < 2; i++) {
+				ObjectMessage request = session.createObjectMessage(new RemoteInvocation("call", new Class<?>[] { String.class }, new Object[] { "duplicate" }));
+				request.setJMSReplyTo(replyQueue);
+				request.setStringProperty("responseID", "duplicated-request");
+				producer.send(request);
+			}
+			for (int i = 0; i < 2; i++) {
+				Message reply = consumer.receive(10000);
+				Assert.assertNotNull("No reply #" + i, reply);
+				Assert.assertEquals("duplicated-request", reply.getStringProperty("responseID"));
+			}
+		} finally {
+			connection.close();
+		}
+		Assert.assertEquals(1, invocations.get());
+		Assert.assertEquals(1, exporter.getIdempotencyCacheStatistics().getHitCount());
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithConcurrencyLimit() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		// an exporter serving at most 4 invocations of 50 ms at a time
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				exporter -> exporter.setConcurrentInvocations(4));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.setSessionPoolSize(8);
+		lJmsInvokerProxyFactoryBean.setMaxConcurrentInvocations(100);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		final IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		final AtomicInteger succeeded = new AtomicInteger();
+		final AtomicInteger rejected = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 40; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 20; j++) {
+					try {
+						serviceRemote.call("limited");
+						succeeded.incrementAndGet();
+					} catch (MockServiceException e) {
+						// the rejection is converted to the declared exception
+						if (e.getCause() instanceof java.util.concurrent.RejectedExecutionException) {
+							rejected.incrementAndGet();
+							try {
+								Thread.sleep(10);
+							} catch (InterruptedException ie) {
+								Thread.currentThread().interrupt();
+							}
+						} else {
+							failed.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		System.out.println("###########################################################################");
+		System.out.println("Concurrency limit " + lJmsInvokerProxyFactoryBean.getConcurrencyLimit() + ", succeeded " + succeeded
+				+ ", rejected " + rejected + ", failed " + failed);
+		System.out.println("###########################################################################");
+		Assert.assertEquals(0, failed.get());
+		Assert.assertTrue(succeeded.get() > 0);
+		Assert.assertTrue(rejected.get() > 0);
+		Assert.assertEquals(rejected.get(), lJmsInvokerProxyFactoryBean.getRejectedInvocationCount());
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.getConcurrencyLimit() < 40);
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithDeadlines() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger invocations = new AtomicInteger();
+		final List<Long> remainingTimes = Collections.synchronizedList(new ArrayList<Long>());
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				invocations.incrementAndGet();
+				remainingTimes.add(InvocationContext.getRemainingTime());
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		// a single invocation at a time: the requests wait in the exporter
+		JmsInvokerServiceExporter exporter = exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				e -> e.setConcurrentInvocations(1));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.setReceiveTimeout(1000);
+		// without JMS expiration every request reaches the exporter, which sheds the expired ones
+		lJmsInvokerProxyFactoryBean.setJmsMessageExpiration(false);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		final IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		final AtomicInteger timedOut = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					serviceRemote.call("deadline");
+				} catch (MockServiceException e) {
+					timedOut.incrementAndGet();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// let the exporter drain its backlog
+		Thread.sleep(2000);
+		System.out.println("###########################################################################");
+		System.out.println("Invoked " + invocations + ", timed out " + timedOut + ", expired " + exporter.getExpiredRequestCount()
+				+ ", remaining times " + remainingTimes);
+		System.out.println("###########################################################################");
+		Assert.assertTrue(timedOut.get() > 0);
+		Assert.assertTrue(exporter.getExpiredRequestCount() > 0);
+		Assert.assertEquals(10, invocations.get() + exporter.getExpiredRequestCount());
+		for (Long remainingTime : remainingTimes) {
+			Assert.assertTrue(remainingTime > 0 && remainingTime <= 1000);
+		}
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithBinaryCodec() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setCodec(new BinaryInvocationCodec(IMockService.class));
+		lJmsInvokerProxyFactoryBean.setExporterCount(2);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// a reply only tells about its exporter: the second exporter of the service is still unknown
+		serviceRemote.call("negotiation");
+		Assert.assertNull(lJmsInvokerProxyFactoryBean.getActiveCodec());
+
+		// the codec is negotiated once both exporters have replied
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue and the binary codec", "binary");
 		caller.run();
-		
+		Assert.assertEquals(BinaryInvocationCodec.NAME, lJmsInvokerProxyFactoryBean.getActiveCodec().getName());
+
 		if (caller.hasFailed()) {
 			Assert.fail("Test has failed");
 		}
@@ -218,35 +696,1098 @@ public class ActiveMQTest {
 	}
 
 	@Test
-	public void testNobTopicUsingHalfDuplex() throws Exception {
-		startNetworkOfBroker(NobConf.HALF_DUPLEX);
+	public void testNobQueueUsingOneDuplexWithConcurrentDispatch() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
 
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
 		IMockService service = new IMockService() {
 			@Override
 			public void call(String message) throws MockServiceException {
+				int current = running.incrementAndGet();
+				maxRunning.accumulateAndGet(current, Math::max);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+			}
+
+			@Override
+			public void call() throws MockServiceException {
 				// Nothing
 			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001", exporter -> {
+			exporter.setConcurrentInvocations(4);
+			exporter.setOrderByFirstArgument(true);
+		});
+
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Caller> callers = new ArrayList<ActiveMQTest.Caller>();
+		for (int i = 1; i <= 4; i++) {
+			IMockService serviceRemote = (IMockService) proxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002").getObject();
+			Caller caller = new Caller(serviceRemote, "Caller #" + i + " mean time on a NOB using queue and concurrent dispatch", "" + i);
+			callers.add(caller);
+			Thread thread = new Thread(caller);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (Caller caller : callers) {
+			if (caller.hasFailed()) {
+				Assert.fail("At least one caller failed");
+			}
+		}
+		// a single listener consumer served several invocations at once
+		Assert.assertTrue("No concurrent invocation", maxRunning.get() > 1);
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithOneWayCalls() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final CountDownLatch received = new CountDownLatch(CALL_NUMBER);
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				received.countDown();
+			}
 
 			@Override
 			public void call() throws MockServiceException {
-				// TODO Auto-generated method stub
-				
+				// Nothing
 			}
 		};
-		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQTopic("TEST_TOPIC"), service, "tcp://127.0.0.1:50001");
-		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQTopic("TEST_TOPIC"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setOneWayMethodNames(Collections.singleton("call"));
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
 		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
 
-		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using topic");
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue and one-way calls", "one-way");
 		caller.run();
 
 		if (caller.hasFailed()) {
 			Assert.fail("Test has failed");
 		}
-		
+		Assert.assertTrue("One-way calls not all received", received.await(10, TimeUnit.SECONDS));
+
 		stopNetworkOfBroker();
 	}
 
+	@Test
+	public void testNobQueueUsingOneDuplexWithMethodPolicies() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				throw new IllegalStateException("Remote failure");
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		MethodPolicy policy = new MethodPolicy();
+		policy.setPriority(9);
+		policy.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+		policy.setReceiveTimeout(5000L);
+		lJmsInvokerProxyFactoryBean.setMethodPolicies(Collections.singletonMap("call", policy));
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue and method policies");
+		caller.run();
+
+		if (caller.hasFailed()) {
+			Assert.fail("Test has failed");
+		}
+		// the remote runtime exception is wrapped in the exception declared by the method
+		try {
+			serviceRemote.call();
+			Assert.fail("No exception");
+		} catch (MockServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithBatching() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				exporter -> exporter.setConcurrentInvocations(10));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setBatchSize(SERVICE_CONSUMER_NUMBER);
+		lJmsInvokerProxyFactoryBean.setBatchDelay(1000);
+		lJmsInvokerProxyFactoryBean.setSessionPoolSize(4);
+		try {
+			lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+			Assert.fail("Batching negotiated without exporter count");
+		} catch (IllegalArgumentException e) {
+			// expected, the batching would never start
+		}
+		lJmsInvokerProxyFactoryBean.setExporterCount(1);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// the first reply tells that the only exporter accepts the batches
+		Assert.assertFalse(lJmsInvokerProxyFactoryBean.isBatching());
+		serviceRemote.call("negotiation");
+		Assert.assertTrue("Batching not negotiated", lJmsInvokerProxyFactoryBean.isBatching());
+
+		// all the callers share the same proxy
+		long start = System.currentTimeMillis();
+		List<Caller> callers = new ArrayList<ActiveMQTest.Caller>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 1; i <= SERVICE_CONSUMER_NUMBER; i++) {
+			Caller caller = new Caller(serviceRemote, "Batched caller #" + i + " mean time on a NOB using queue", "" + i);
+			callers.add(caller);
+			Thread thread = new Thread(caller);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long end = System.currentTimeMillis();
+		System.out.println("###########################################################################");
+		System.out.println("Total time of " + (SERVICE_CONSUMER_NUMBER * CALL_NUMBER) + " batched calls on a NOB using queue (ms):" + (end - start));
+		System.out.println("###########################################################################");
+		for (Caller caller : callers) {
+			if (caller.hasFailed()) {
+				Assert.fail("At least one caller failed");
+			}
+		}
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithMetrics() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				exporter -> exporter.setMetricsEnabled(true));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setMetricsObjectName("com.test:type=JmsInvokerProxy,name=metricsTest");
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue with metrics");
+		caller.run();
+
+		if (caller.hasFailed()) {
+			Assert.fail("Test has failed");
+		}
+		InvocationMetrics proxyMetrics = lJmsInvokerProxyFactoryBean.getMetrics();
+		InvocationMetrics exporterMetrics = lJmsInvokerServiceExporter.getMetrics();
+		Assert.assertEquals(CALL_NUMBER, proxyMetrics.getLatency("call", InvocationPhase.TOTAL).getCount());
+		Assert.assertEquals(CALL_NUMBER, exporterMetrics.getLatency("call", InvocationPhase.SERVICE).getCount());
+		Assert.assertEquals(0, proxyMetrics.getErrorCount("call"));
+		System.out.println("###########################################################################");
+		System.out.println("Proxy latencies: " + proxyMetrics.getLatencies());
+		System.out.println("Exporter latencies: " + exporterMetrics.getLatencies());
+		System.out.println("###########################################################################");
+
+		// the same data is exposed through JMX
+		ObjectName name = new ObjectName("com.test:type=JmsInvokerProxy,name=metricsTest");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Assert.assertNotNull(server.getAttribute(name, "Latencies"));
+		lJmsInvokerProxyFactoryBean.destroy();
+		Assert.assertFalse(server.isRegistered(name));
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithAsyncCalls() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockAsyncService service = new IMockAsyncService() {
+			@Override
+			public CompletableFuture<String> echo(String message) {
+				if ("stalled".equals(message)) {
+					return new CompletableFuture<String>();
+				}
+				return CompletableFuture.completedFuture(message);
+			}
+		};
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockAsyncService.class, service, "tcp://127.0.0.1:50001")
+				.setAsynchronousResultTimeout(500);
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockAsyncService.class);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockAsyncService serviceRemote = (IMockAsyncService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// all the calls are in flight at the same time from a single thread
+		long start = System.currentTimeMillis();
+		List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < CALL_NUMBER; i++) {
+			results.add(serviceRemote.echo("" + i));
+		}
+		for (int i = 0; i < CALL_NUMBER; i++) {
+			Assert.assertEquals("" + i, results.get(i).get());
+		}
+		long end = System.currentTimeMillis();
+		System.out.println("###########################################################################");
+		System.out.println("Total time of " + CALL_NUMBER + " async calls on a NOB using queue (ms):" + (end - start));
+		System.out.println("###########################################################################");
+
+		// a future never completed is answered by a timeout instead of holding the consumer
+		try {
+			serviceRemote.echo("stalled").get();
+			Assert.fail("Stalled asynchronous result has been answered");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause().toString(), e.getCause() instanceof RemoteTimeoutException);
+		}
+		Assert.assertEquals("after", serviceRemote.echo("after").get());
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithStreamedResults() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger produced = new AtomicInteger();
+		IMockStreamService service = new IMockStreamService() {
+			@Override
+			public Iterator<Integer> range(int count) {
+				if (count < 0) {
+					throw new IllegalArgumentException("Negative count " + count);
+				}
+				return rangeStream(count).iterator();
+			}
+
+			@Override
+			public Stream<Integer> rangeStream(int count) {
+				return IntStream.range(0, count).peek(i -> produced.incrementAndGet()).boxed();
+			}
+		};
+		JmsInvokerServiceExporter invalidExporter = new JmsInvokerServiceExporter();
+		invalidExporter.setServiceInterface(IMockStreamService.class);
+		invalidExporter.setService(service);
+		try {
+			invalidExporter.afterPropertiesSet();
+			Assert.fail("Streaming exporter accepted without reply connection factory");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		exporterFactory(new ActiveMQQueue("STREAM_QUEUE"), IMockStreamService.class, service, "tcp://127.0.0.1:50001",
+				e -> e.setStreamBatchSize(100));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("STREAM_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockStreamService.class);
+		lJmsInvokerProxyFactoryBean.setStreamWindow(2);
+		lJmsInvokerProxyFactoryBean.setReceiveTimeout(10000);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockStreamService serviceRemote = (IMockStreamService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// the exporter stops producing once the window is full
+		long start = System.currentTimeMillis();
+		Iterator<Integer> range = serviceRemote.range(10000);
+		Assert.assertEquals(Integer.valueOf(0), range.next());
+		long firstResult = System.currentTimeMillis() - start;
+		Thread.sleep(500);
+		Assert.assertTrue("Produced " + produced.get() + " elements ahead of the caller", produced.get() <= 500);
+		int expected = 1;
+		while (range.hasNext()) {
+			Assert.assertEquals(Integer.valueOf(expected++), range.next());
+		}
+		long end = System.currentTimeMillis();
+		Assert.assertEquals(10000, expected);
+		Assert.assertEquals(10000, produced.get());
+		System.out.println("###########################################################################");
+		System.out.println("First of 10000 streamed results on a NOB using queue (ms):" + firstResult + ", all (ms):" + (end - start));
+		System.out.println("###########################################################################");
+
+		// closing the stream early cancels it
+		produced.set(0);
+		try (Stream<Integer> stream = serviceRemote.rangeStream(100000)) {
+			Assert.assertEquals(Arrays.asList(0, 1, 2), stream.limit(3).collect(Collectors.toList()));
+		}
+		Thread.sleep(500);
+		Assert.assertTrue("Produced " + produced.get() + " elements after the cancellation", produced.get() <= 500);
+
+		// a failure of the service is thrown by the iterator
+		try {
+			serviceRemote.range(-1).hasNext();
+			Assert.fail("Failure of the service not thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Negative count -1", e.getMessage());
+		}
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithReadiness() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("READINESS_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.setSessionPoolSize(4);
+		lJmsInvokerProxyFactoryBean.setReceiveTimeout(2000);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// no exporter yet
+		Assert.assertFalse(lJmsInvokerProxyFactoryBean.awaitReady(500));
+
+		final AtomicInteger calls = new AtomicInteger();
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				calls.incrementAndGet();
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				calls.incrementAndGet();
+			}
+		};
+		exporterFactory(new ActiveMQQueue("READINESS_QUEUE"), service, "tcp://127.0.0.1:50001");
+		long start = System.currentTimeMillis();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		long ready = System.currentTimeMillis() - start;
+
+		// the first call after the readiness does not wait for the bridge
+		serviceRemote.call();
+		Assert.assertEquals(1, calls.get());
+		System.out.println("###########################################################################");
+		System.out.println("Exporter behind the bridge ready after (ms):" + ready);
+		System.out.println("###########################################################################");
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobTopicUsingOneDuplexWithScatterGather() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		for (int i = 1; i <= 3; i++) {
+			final String name = "node" + i;
+			IMockNodeService service = new IMockNodeService() {
+				@Override
+				public String nodeName(boolean fail) throws MockServiceException {
+					if (fail && name.equals("node3")) {
+						throw new MockServiceException(name + " failed", null);
+					}
+					return name;
+				}
+			};
+			exporterFactory(new ActiveMQTopic("GATHER_TOPIC"), IMockNodeService.class, service, "tcp://127.0.0.1:50001");
+		}
+		MethodPolicy policy = new MethodPolicy();
+		policy.setGatherCount(3);
+		policy.setGatherQuorum(2);
+		policy.setReceiveTimeout(2000L);
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQTopic("GATHER_TOPIC"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockNodeGatherService.class);
+		lJmsInvokerProxyFactoryBean.setMethodPolicies(Collections.singletonMap("nodeName", policy));
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		IMockNodeGatherService serviceRemote = (IMockNodeGatherService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// one broadcast round trip completes with the expected count
+		long start = System.currentTimeMillis();
+		List<String> names = new ArrayList<String>(serviceRemote.nodeName(false));
+		long gathered = System.currentTimeMillis() - start;
+		Collections.sort(names);
+		Assert.assertEquals(Arrays.asList("node1", "node2", "node3"), names);
+		Assert.assertTrue("Gathered in " + gathered + " ms", gathered < 2000);
+		System.out.println("###########################################################################");
+		System.out.println("Replies of 3 nodes gathered on a NOB using topic (ms):" + gathered);
+		System.out.println("###########################################################################");
+
+		// a failed node leaves the quorum at the deadline
+		start = System.currentTimeMillis();
+		names = new ArrayList<String>(serviceRemote.nodeName(true));
+		Collections.sort(names);
+		Assert.assertEquals(Arrays.asList("node1", "node2"), names);
+		Assert.assertTrue(System.currentTimeMillis() - start >= 2000);
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		// below the quorum the failure of the node is thrown
+		policy.setGatherQuorum(3);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		serviceRemote = (IMockNodeGatherService) lJmsInvokerProxyFactoryBean.getObject();
+		try {
+			serviceRemote.nodeName(true);
+			Assert.fail("Quorum not checked");
+		} catch (MockServiceException e) {
+			Assert.assertEquals("node3 failed", e.getMessage());
+		}
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		// only the replies to a topic can be gathered
+		JmsInvokerProxyFactoryBean queueProxyFactoryBean = createProxyFactory(new ActiveMQQueue("GATHER_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		queueProxyFactoryBean.setServiceInterface(IMockNodeGatherService.class);
+		queueProxyFactoryBean.setMethodPolicies(Collections.singletonMap("nodeName", policy));
+		try {
+			queueProxyFactoryBean.afterPropertiesSet();
+			Assert.fail("Gathering from a queue accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithHedgedRequests() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		// the first delivery of each request stalls as behind a slow bridge hop
+		final Set<String> seen = ConcurrentHashMap.newKeySet();
+		final AtomicInteger invocations = new AtomicInteger();
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				invocations.incrementAndGet();
+				if (seen.add(message)) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(new ActiveMQQueue("HEDGE_QUEUE"), IMockService.class, service, "tcp://127.0.0.1:50001",
+				e -> e.setConcurrentInvocations(SERVICE_CONSUMER_NUMBER));
+		ActiveMQConnectionFactory hedgeTargetConnectionFactory = new ActiveMQConnectionFactory("tcp://127.0.0.1:50001?connectionTimeout=2000&soTimeout=2000&wireFormat.maxInactivityDuration=2000");
+		hedgeTargetConnectionFactory.setTrustAllPackages(true);
+		SingleConnectionFactory hedgeConnectionFactory = new SingleConnectionFactory(hedgeTargetConnectionFactory);
+		hedgeConnectionFactory.setReconnectOnException(true);
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("HEDGE_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setHedgeConnectionFactory(hedgeConnectionFactory);
+		lJmsInvokerProxyFactoryBean.setHedgeDelay(50);
+		lJmsInvokerProxyFactoryBean.setIdempotentMethodNames(Collections.singleton("call"));
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// the request answered first wins, the late replies are discarded
+		long max = 0;
+		for (int i = 0; i < 10; i++) {
+			long start = System.currentTimeMillis();
+			serviceRemote.call("request" + i);
+			max = Math.max(max, System.currentTimeMillis() - start);
+		}
+		Assert.assertTrue("Slowest call took " + max + " ms", max < 1000);
+		Assert.assertEquals(10, lJmsInvokerProxyFactoryBean.getHedgedRequestCount());
+		System.out.println("###########################################################################");
+		System.out.println("Slowest of 10 hedged calls on a NOB using queue (ms):" + max + ", won by the hedge: "
+				+ lJmsInvokerProxyFactoryBean.getHedgeWinCount());
+		System.out.println("###########################################################################");
+		lJmsInvokerProxyFactoryBean.destroy();
+		hedgeConnectionFactory.destroy();
+
+		// both requests were run as the exporter does not detect the duplicates
+		Thread.sleep(1000);
+		Assert.assertEquals(20, invocations.get());
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithCircuitBreaker() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger calls = new AtomicInteger();
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// a stalled exporter
+				try {
+					Thread.sleep(1500);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				calls.incrementAndGet();
+			}
+		};
+		JmsInvokerServiceExporter exporter = exporterFactory(new ActiveMQQueue("BREAKER_QUEUE"), IMockService.class, service,
+				"tcp://127.0.0.1:50001", e -> e.setConcurrentInvocations(4));
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("BREAKER_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.setReceiveTimeout(500);
+		lJmsInvokerProxyFactoryBean.setCircuitBreakerWindow(4);
+		lJmsInvokerProxyFactoryBean.setCircuitBreakerOpenTime(1000);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		awaitConsumerCount(lJmsInvokerProxyFactoryBean, true);
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+		serviceRemote.call();
+
+		// a timeout out of two invocations opens the breaker
+		try {
+			serviceRemote.call("stalled");
+			Assert.fail("Timeout expected");
+		} catch (MockServiceException e) {
+			Assert.assertFalse(e.getCause() instanceof RemoteConnectFailureException);
+		}
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.isCircuitOpen());
+		long start = System.currentTimeMillis();
+		try {
+			serviceRemote.call();
+			Assert.fail("Fast failure expected");
+		} catch (MockServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof RemoteConnectFailureException);
+		}
+		long openFailure = System.currentTimeMillis() - start;
+		Assert.assertTrue(openFailure < 500);
+
+		// the probe after the open time closes the breaker
+		Thread.sleep(1000);
+		serviceRemote.call();
+		Assert.assertFalse(lJmsInvokerProxyFactoryBean.isCircuitOpen());
+
+		// no consumer behind the bridge
+		stopExporter(exporter);
+		awaitConsumerCount(lJmsInvokerProxyFactoryBean, false);
+		start = System.currentTimeMillis();
+		try {
+			serviceRemote.call();
+			Assert.fail("Fast failure expected");
+		} catch (MockServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof RemoteConnectFailureException);
+		}
+		long noConsumerFailure = System.currentTimeMillis() - start;
+		Assert.assertTrue(noConsumerFailure < 500);
+
+		// the exporter is back
+		exporterFactory(new ActiveMQQueue("BREAKER_QUEUE"), service, "tcp://127.0.0.1:50001");
+		awaitConsumerCount(lJmsInvokerProxyFactoryBean, true);
+		serviceRemote.call();
+		Assert.assertEquals(3, calls.get());
+		Assert.assertEquals(2, lJmsInvokerProxyFactoryBean.getFastFailedInvocationCount());
+		System.out.println("###########################################################################");
+		System.out.println("Fast failures on a NOB using queue (ms), breaker open: " + openFailure + ", no consumer: "
+				+ noConsumerFailure);
+		System.out.println("###########################################################################");
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithPriorityLanes() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		final AtomicInteger bulkCalls = new AtomicInteger();
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				bulkCalls.incrementAndGet();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		// the bulk lane has its own listener container and at most 2 invocations in flight
+		Map<String, Integer> laneConcurrentInvocations = Collections.singletonMap("bulk", 2);
+		JmsInvokerServiceExporter exporter = exporterFactory(new ActiveMQQueue("LANE_QUEUE"), IMockService.class, service,
+				"tcp://127.0.0.1:50001", e -> {
+					e.setConcurrentInvocations(2);
+					e.setLaneConcurrentInvocations(laneConcurrentInvocations);
+				});
+		listenerContainer(new ActiveMQQueue("LANE_QUEUE.bulk"), exporter, "tcp://127.0.0.1:50001");
+
+		// the bulk caller uses its own proxy in the bulk lane
+		JmsInvokerProxyFactoryBean bulkProxyFactoryBean = createProxyFactory(new ActiveMQQueue("LANE_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		bulkProxyFactoryBean.setSharedReplyConsumer(true);
+		bulkProxyFactoryBean.setLane("bulk");
+		bulkProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(bulkProxyFactoryBean.awaitReady(10000));
+		final IMockService bulkRemote = (IMockService) bulkProxyFactoryBean.getObject();
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("LANE_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// about 3 s of bulk backlog
+		final AtomicInteger bulkFailures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 3; j++) {
+					try {
+						bulkRemote.call("bulk");
+					} catch (MockServiceException e) {
+						bulkFailures.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		Thread.sleep(200);
+
+		// the interactive calls do not queue behind the bulk ones
+		long max = 0;
+		for (int i = 0; i < 10; i++) {
+			long start = System.currentTimeMillis();
+			serviceRemote.call();
+			max = Math.max(max, System.currentTimeMillis() - start);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, bulkFailures.get());
+		Assert.assertEquals(30, bulkCalls.get());
+		Assert.assertTrue("Slowest interactive call took " + max + " ms", max < 1000);
+		System.out.println("###########################################################################");
+		System.out.println("Slowest of 10 interactive calls beside a bulk lane on a NOB using queue (ms):" + max);
+		System.out.println("###########################################################################");
+		lJmsInvokerProxyFactoryBean.destroy();
+		bulkProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithShardedQueue() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		// the sequence numbers received by key, and the number of requests served by node
+		final Map<String, List<Integer>> sequences = new ConcurrentHashMap<String, List<Integer>>();
+		final Map<String, AtomicInteger> served = new ConcurrentHashMap<String, AtomicInteger>();
+		final AtomicInteger received = new AtomicInteger();
+		Destination queue = new ActiveMQQueue("SHARD_QUEUE");
+		Function<String, JmsInvokerServiceExporter> node = nodeId -> {
+			IMockKeyedService service = new IMockKeyedService() {
+				@Override
+				public void call(String key, int sequence) {
+					sequences.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<Integer>())).add(sequence);
+					served.computeIfAbsent(nodeId, id -> new AtomicInteger()).incrementAndGet();
+					received.incrementAndGet();
+				}
+			};
+			try {
+				List<Destination> shards = JmsInvokerServiceExporter.getShardDestinations(queue, 8, nodeId);
+				JmsInvokerServiceExporter exporter = exporterFactory(shards.get(0), IMockKeyedService.class, service, "tcp://127.0.0.1:50001",
+						e -> e.setConcurrentInvocations(4));
+				for (Destination shard : shards.subList(1, shards.size())) {
+					listenerContainer(shard, exporter, "tcp://127.0.0.1:50001");
+				}
+				return exporter;
+			} catch (javax.jms.JMSException e) {
+				throw new IllegalStateException(e);
+			}
+		};
+		node.apply("nodeA");
+
+		// one-way requests, which the concurrent dispatch would reorder without sharding
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(queue, new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockKeyedService.class);
+		lJmsInvokerProxyFactoryBean.setSharedReplyConsumer(true);
+		// the key, first argument, routes the requests
+		lJmsInvokerProxyFactoryBean.setShardCount(8);
+		lJmsInvokerProxyFactoryBean.setOneWayMethodNames(Collections.singleton("call"));
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		Assert.assertTrue(lJmsInvokerProxyFactoryBean.awaitReady(10000));
+		IMockKeyedService serviceRemote = (IMockKeyedService) lJmsInvokerProxyFactoryBean.getObject();
+
+		int round = 0;
+		sendShardedRound(serviceRemote, round++, received);
+		Assert.assertEquals(1, served.size());
+
+		// a second node takes over the shards it ranks higher
+		int nodeBBeans = exporterBeans.size();
+		node.apply("nodeB");
+		sendShardedRound(serviceRemote, round++, received);
+		Assert.assertEquals(2, served.size());
+		int servedByB = served.get("nodeB").get();
+		Assert.assertTrue(servedByB > 0);
+
+		// its shards go back to the first node when it leaves
+		for (DisposableBean bean : new ArrayList<DisposableBean>(exporterBeans.subList(nodeBBeans, exporterBeans.size()))) {
+			bean.destroy();
+		}
+		sendShardedRound(serviceRemote, round++, received);
+		Assert.assertEquals(servedByB, served.get("nodeB").get());
+
+		// the requests of each key were served in order
+		Assert.assertEquals(16, sequences.size());
+		for (List<Integer> keySequences : sequences.values()) {
+			Assert.assertEquals(IntStream.range(0, round * 20).boxed().collect(Collectors.toList()), keySequences);
+		}
+		System.out.println("###########################################################################");
+		System.out.println("Requests served by node of a NOB using sharded queue: " + served);
+		System.out.println("###########################################################################");
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	private void sendShardedRound(IMockKeyedService serviceRemote, int round, AtomicInteger received) throws Exception {
+		int expected = received.get() + 16 * 20;
+		for (int sequence = round * 20; sequence < (round + 1) * 20; sequence++) {
+			for (int key = 0; key < 16; key++) {
+				serviceRemote.call("key" + key, sequence);
+			}
+		}
+		long deadline = System.currentTimeMillis() + BRIDGE_TIMEOUT;
+		while (received.get() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, received.get());
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithLargePayloads() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockAsyncService service = new IMockAsyncService() {
+			@Override
+			public CompletableFuture<String> echo(String message) {
+				return CompletableFuture.completedFuture(message);
+			}
+		};
+		JmsInvokerServiceExporter exporter = exporterFactory(new ActiveMQQueue("LARGE_PAYLOAD_QUEUE"), IMockAsyncService.class, service,
+				"tcp://127.0.0.1:50001", e -> {
+					e.setCompressionThreshold(1024);
+					e.setChunkSize(64 * 1024);
+					e.setMaxReassemblySize(4 * 1024 * 1024);
+				});
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = createProxyFactory(new ActiveMQQueue("LARGE_PAYLOAD_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		lJmsInvokerProxyFactoryBean.setServiceInterface(IMockAsyncService.class);
+		lJmsInvokerProxyFactoryBean.setCompressionThreshold(1024);
+		lJmsInvokerProxyFactoryBean.setChunkSize(64 * 1024);
+		lJmsInvokerProxyFactoryBean.setExporterCount(1);
+		lJmsInvokerProxyFactoryBean.setReceiveTimeout(5000);
+		lJmsInvokerProxyFactoryBean.afterPropertiesSet();
+		IMockAsyncService serviceRemote = (IMockAsyncService) lJmsInvokerProxyFactoryBean.getObject();
+
+		// the first request is sent whole, the next ones compressed and chunked once negotiated
+		Random random = new Random(42);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			String message = randomText(random, 1024 * 1024);
+			Assert.assertEquals(message, serviceRemote.echo(message).get());
+		}
+		long end = System.currentTimeMillis();
+		System.out.println("###########################################################################");
+		System.out.println("Total time of 10 echoes of 1 MB on a NOB using queue and chunks (ms):" + (end - start));
+		System.out.println("###########################################################################");
+		Assert.assertEquals(JavaSerializationCodec.NAME, lJmsInvokerProxyFactoryBean.getActiveCodec().getName());
+		Assert.assertEquals(0, exporter.getDroppedChunkedRequestCount());
+
+		// a request exceeding the reassembly budget of the exporter is dropped
+		try {
+			serviceRemote.echo(randomText(random, 8 * 1024 * 1024)).get();
+			Assert.fail("Request exceeding the reassembly budget has been served");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RemoteAccessException);
+		}
+		Assert.assertEquals(1, exporter.getDroppedChunkedRequestCount());
+		lJmsInvokerProxyFactoryBean.destroy();
+
+		stopNetworkOfBroker();
+	}
+
+	private static String randomText(Random random, int length) {
+		char[] text = new char[length];
+		for (int i = 0; i < length; i++) {
+			text[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(text);
+	}
+
+	@Test
+	public void testNobLoadSweepUsingOneDuplex() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+		// the DEBUG logs would be the bottleneck
+		Logger.getRootLogger().setLevel(Level.INFO);
+		try {
+			for (Destination destination : new Destination[] { new ActiveMQQueue("LOAD_QUEUE"), new ActiveMQTopic("LOAD_TOPIC") }) {
+				List<OpenLoopLoadGenerator.Result> results = sweep(destination, new int[] { 50, 200, 800, 1600, 3200, 6400 });
+				OpenLoopLoadGenerator.Result last = results.get(results.size() - 1);
+				System.out.println("###########################################################################");
+				System.out.println("Load sweep on a NOB using " + destination + ": "
+						+ (last.isSaturated(LOAD_MAX_P99) ? "saturated at " + last.getTargetRate() + "/s" : "not saturated"));
+				System.out.println("###########################################################################");
+				Assert.assertFalse("Saturated at the lowest rate: " + results.get(0), results.get(0).isSaturated(LOAD_MAX_P99));
+			}
+		} finally {
+			Logger.getRootLogger().setLevel(Level.DEBUG);
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	/**
+	 * Sweeps rates with an open-loop load from {@link #LOAD_PROXY_NUMBER} proxies connected to the
+	 * second broker, served by an exporter connected to the first one.
+	 */
+	private List<OpenLoopLoadGenerator.Result> sweep(Destination destination, int[] rates) throws Exception {
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		exporterFactory(destination, IMockService.class, service, "tcp://127.0.0.1:50001",
+				exporter -> exporter.setConcurrentInvocations(SERVICE_CONSUMER_NUMBER));
+		List<JmsInvokerProxyFactoryBean> proxyFactories = new ArrayList<JmsInvokerProxyFactoryBean>();
+		List<IMockService> proxies = new ArrayList<IMockService>();
+		for (int i = 0; i < LOAD_PROXY_NUMBER; i++) {
+			JmsInvokerProxyFactoryBean proxyFactory = createProxyFactory(destination, new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+			proxyFactory.setSharedReplyConsumer(true);
+			proxyFactory.setSessionPoolSize(4);
+			proxyFactory.afterPropertiesSet();
+			proxyFactories.add(proxyFactory);
+			IMockService proxy = (IMockService) proxyFactory.getObject();
+			// creates the consumers before the measure
+			proxy.call("warmup");
+			proxies.add(proxy);
+		}
+		try {
+			return new OpenLoopLoadGenerator(proxies, 4 * LOAD_PROXY_NUMBER, "load").sweep(rates, 2000, LOAD_MAX_P99);
+		} finally {
+			for (JmsInvokerProxyFactoryBean proxyFactory : proxyFactories) {
+				proxyFactory.destroy();
+			}
+		}
+	}
+
+	@Test
+	public void testNobTopicUsingOneDuplex() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		};
+		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQTopic("TEST_TOPIC"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQTopic("TEST_TOPIC"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using topic");
+		caller.run();
+		
+		if (caller.hasFailed()) {
+			Assert.fail("Test has failed");
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingHalfDuplex() throws Exception {
+		startNetworkOfBroker(NobConf.HALF_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// TODO Auto-generated method stub
+				
+			}
+		};
+		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQQueue("TEST_QUEUE"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQQueue("TEST_QUEUE"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using queue");
+		caller.run();
+		
+		if (caller.hasFailed()) {
+			Assert.fail("Test has failed");
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobTopicUsingHalfDuplex() throws Exception {
+		startNetworkOfBroker(NobConf.HALF_DUPLEX);
+
+		IMockService service = new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// TODO Auto-generated method stub
+				
+			}
+		};
+		JmsInvokerServiceExporter lJmsInvokerServiceExporter = exporterFactory(new ActiveMQTopic("TEST_TOPIC"), service, "tcp://127.0.0.1:50001");
+		JmsInvokerProxyFactoryBean lJmsInvokerProxyFactoryBean = proxyFactory(new ActiveMQTopic("TEST_TOPIC"), new ActiveMQTopic("ACK"), "tcp://127.0.0.1:50002");
+		IMockService serviceRemote = (IMockService) lJmsInvokerProxyFactoryBean.getObject();
+
+		Caller caller = new Caller(serviceRemote, "Mean time on a NOB using topic");
+		caller.run();
+
+		if (caller.hasFailed()) {
+			Assert.fail("Test has failed");
+		}
+		
+		stopNetworkOfBroker();
+	}
+
+	@Test
+	public void testNobQueueUsingOneDuplexWithReplyProducerCache() throws Exception {
+		startNetworkOfBroker(NobConf.ONE_DUPLEX);
+
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("tcp://127.0.0.1:50001");
+		connectionFactory.setTrustAllPackages(true);
+		Connection connection = connectionFactory.createConnection();
+		try {
+			// the replies of a session reuse its producer, the least recently used is closed when full
+			AtomicInteger created = new AtomicInteger();
+			Session session1 = countingSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE), created);
+			Session session2 = countingSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE), created);
+			Session session3 = countingSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE), created);
+			ReplyProducerCache cache = new ReplyProducerCache(2);
+			MessageProducer producer1 = cache.get(session1);
+			for (int i = 0; i < 10; i++) {
+				Assert.assertSame(producer1, cache.get(session1));
+			}
+			Assert.assertEquals(1, created.get());
+			cache.get(session2);
+			cache.get(session3);
+			Assert.assertEquals(3, created.get());
+			try {
+				producer1.send(new ActiveMQQueue("TEST_QUEUE"), session1.createTextMessage("evicted"));
+				Assert.fail("Evicted producer not closed");
+			} catch (javax.jms.IllegalStateException e) {
+				// expected
+			}
+			Assert.assertNotSame(producer1, cache.get(session1));
+			Assert.assertEquals(4, created.get());
+			cache.clear();
+		} finally {
+			connection.close();
+		}
+
+		// the replies are non persistent whatever the delivery mode of the requests
+		exporterFactory(new ActiveMQQueue("TEST_QUEUE"), IMockService.class, new IMockService() {
+			@Override
+			public void call(String message) throws MockServiceException {
+				// Nothing
+			}
+
+			@Override
+			public void call() throws MockServiceException {
+				// Nothing
+			}
+		}, "tcp://127.0.0.1:50001", e -> e.setReplyNonPersistent(true));
+		connection = connectionFactory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			Destination replyQueue = session.createTemporaryQueue();
+			MessageConsumer consumer = session.createConsumer(replyQueue);
+			MessageProducer producer = session.createProducer(new ActiveMQQueue("TEST_QUEUE"));
+			producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+			for (int i = 0; i < 3; i++) {
+				ObjectMessage request = session.createObjectMessage(new RemoteInvocation("call", new Class<?>[] { String.class }, new Object[] { "" + i }));
+				request.setJMSReplyTo(replyQueue);
+				request.setStringProperty("responseID", "request-" + i);
+				producer.send(request);
+				Message reply = consumer.receive(10000);
+				Assert.assertNotNull("No reply #" + i, reply);
+				Assert.assertEquals(DeliveryMode.NON_PERSISTENT, reply.getJMSDeliveryMode());
+			}
+		} finally {
+			connection.close();
+		}
+
+		stopNetworkOfBroker();
+	}
+
+	private static Session countingSession(Session session, AtomicInteger createdProducers) {
+		return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] { Session.class },
+				(proxy, method, args) -> {
+					if ("createProducer".equals(method.getName())) {
+						createdProducers.incrementAndGet();
+					}
+					try {
+						return method.invoke(session, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
 	@Test
 	public void testOnTopicMultiConsumerOnNobUsingDuplex() throws Exception {
 		startNetworkOfBroker(NobConf.ONE_DUPLEX);
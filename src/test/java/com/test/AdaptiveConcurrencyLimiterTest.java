@@ -0,0 +1,102 @@
+package com.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testInvalidLimits() {
+		try {
+			new AdaptiveConcurrencyLimiter(1, 0, 10);
+			Assert.fail("Minimum limit 0 accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new AdaptiveConcurrencyLimiter(1, 5, 4);
+			Assert.fail("Maximum limit below the minimum limit accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals(10, new AdaptiveConcurrencyLimiter(100, 1, 10).getLimit());
+		Assert.assertEquals(5, new AdaptiveConcurrencyLimiter(1, 5, 10).getLimit());
+	}
+
+	@Test
+	public void testRejectedAtLimit() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+
+		Assert.assertTrue(limiter.acquire(0));
+		Assert.assertTrue(limiter.acquire(0));
+		Assert.assertFalse(limiter.acquire(0));
+		Assert.assertFalse(limiter.acquire(50));
+		Assert.assertEquals(2, limiter.getRejectedCount());
+
+		limiter.release(RTT, false);
+		Assert.assertTrue(limiter.acquire(0));
+	}
+
+	@Test
+	public void testAdditiveIncreaseBoundedByMaximum() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 4);
+		int previous = limiter.getLimit();
+
+		for (int round = 0; round < 200; round++) {
+			int limit = limiter.getLimit();
+			for (int i = 0; i < limit; i++) {
+				Assert.assertTrue(limiter.acquire(0));
+			}
+			for (int i = 0; i < limit; i++) {
+				limiter.release(RTT, false);
+			}
+			Assert.assertTrue(limiter.getLimit() >= previous);
+			Assert.assertTrue(limiter.getLimit() <= 4);
+			previous = limiter.getLimit();
+		}
+		Assert.assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void testNoIncreaseWhenNotSaturated() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertTrue(limiter.acquire(0));
+			limiter.release(RTT, false);
+		}
+		Assert.assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void testMultiplicativeDecreaseBoundedByMinimum() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 10);
+
+		Assert.assertTrue(limiter.acquire(0));
+		limiter.release(0, true);
+		Assert.assertEquals(9, limiter.getLimit());
+		for (int i = 0; i < 100; i++) {
+			Assert.assertTrue(limiter.acquire(0));
+			limiter.release(0, true);
+		}
+		Assert.assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testOneDecreasePerRoundTrip() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+		long minRtt = TimeUnit.SECONDS.toNanos(5);
+
+		Assert.assertTrue(limiter.acquire(0));
+		limiter.release(minRtt, false);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(limiter.acquire(0));
+			limiter.release(minRtt * 10, true);
+		}
+		Assert.assertEquals(10, limiter.getLimit());
+	}
+}
@@ -0,0 +1,117 @@
+package com.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+public class BinaryInvocationCodecTest {
+
+	interface ICodecService {
+		String convert(String text, int count, byte[] data, List<String> items, Long optional);
+	}
+
+	interface ICollidingService {
+		// "Aa" and "BB" have the same string hash code
+		void Aa();
+
+		void BB();
+	}
+
+	interface IInheritingService extends IMockService, IMockServiceCopy {
+		// call() and call(String) inherited twice
+	}
+
+	interface IMockServiceCopy {
+		void call() throws MockServiceException;
+	}
+
+	@Test
+	public void testInvocationRoundTrip() throws Exception {
+		BinaryInvocationCodec codec = new BinaryInvocationCodec(ICodecService.class);
+		List<String> items = new ArrayList<>(Arrays.asList("a", "b"));
+		RemoteInvocation invocation = new RemoteInvocation("convert", new Class<?>[] { String.class, int.class,
+				byte[].class, List.class, Long.class }, new Object[] { "text", 3, new byte[] { 1, 2 }, items, null });
+		invocation.addAttribute("trace", "id");
+
+		RemoteInvocation decoded = codec.decodeInvocation(codec.encodeInvocation(invocation));
+
+		Assert.assertEquals("convert", decoded.getMethodName());
+		Assert.assertArrayEquals(invocation.getParameterTypes(), decoded.getParameterTypes());
+		Assert.assertEquals("text", decoded.getArguments()[0]);
+		Assert.assertEquals(3, decoded.getArguments()[1]);
+		Assert.assertArrayEquals(new byte[] { 1, 2 }, (byte[]) decoded.getArguments()[2]);
+		Assert.assertEquals(items, decoded.getArguments()[3]);
+		Assert.assertNull(decoded.getArguments()[4]);
+		Assert.assertEquals("id", decoded.getAttribute("trace"));
+	}
+
+	@Test
+	public void testOverloadsResolved() throws Exception {
+		BinaryInvocationCodec codec = new BinaryInvocationCodec(IMockService.class);
+
+		RemoteInvocation noArgument = codec.decodeInvocation(codec.encodeInvocation(new RemoteInvocation("call",
+				new Class<?>[0], new Object[0])));
+		RemoteInvocation oneArgument = codec.decodeInvocation(codec.encodeInvocation(new RemoteInvocation("call",
+				new Class<?>[] { String.class }, new Object[] { "message" })));
+
+		Assert.assertEquals(0, noArgument.getParameterTypes().length);
+		Assert.assertArrayEquals(new Class<?>[] { String.class }, oneArgument.getParameterTypes());
+		Assert.assertEquals("message", oneArgument.getArguments()[0]);
+	}
+
+	@Test
+	public void testResultRoundTrip() throws Exception {
+		BinaryInvocationCodec codec = new BinaryInvocationCodec(IMockService.class);
+
+		Assert.assertEquals("value", codec.decodeResult(codec.encodeResult(new RemoteInvocationResult("value")))
+				.getValue());
+		Assert.assertNull(codec.decodeResult(codec.encodeResult(new RemoteInvocationResult(null))).getValue());
+		RemoteInvocationResult failure = codec.decodeResult(codec.encodeResult(new RemoteInvocationResult(
+				new MockServiceException("failure", null))));
+		Assert.assertTrue(failure.getException() instanceof MockServiceException);
+		Assert.assertEquals("failure", failure.getException().getMessage());
+	}
+
+	@Test
+	public void testMethodIdCollisionRejected() {
+		try {
+			new BinaryInvocationCodec(ICollidingService.class);
+			Assert.fail("Method ID collision has not been detected");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Method ID collision"));
+		}
+	}
+
+	@Test
+	public void testSignatureInheritedTwiceAccepted() throws Exception {
+		BinaryInvocationCodec codec = new BinaryInvocationCodec(IInheritingService.class);
+
+		RemoteInvocation decoded = codec.decodeInvocation(codec.encodeInvocation(new RemoteInvocation("call",
+				new Class<?>[0], new Object[0])));
+		Assert.assertEquals("call", decoded.getMethodName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testClassRejected() {
+		new BinaryInvocationCodec(String.class);
+	}
+
+	@Test
+	public void testUnknownMethodRejected() throws Exception {
+		byte[] data = new BinaryInvocationCodec(ICodecService.class).encodeInvocation(new RemoteInvocation("convert",
+				new Class<?>[] { String.class, int.class, byte[].class, List.class, Long.class }, new Object[5]));
+
+		try {
+			new BinaryInvocationCodec(IMockService.class).decodeInvocation(data);
+			Assert.fail("Invocation of an unknown method has been decoded");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Unknown method ID"));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpensAtTimeoutRate() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, 60000);
+
+		breaker.onReply();
+		Assert.assertTrue(breaker.tryAcquire());
+		breaker.onTimeout();
+
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testClosedBelowMinimumCount() {
+		CircuitBreaker breaker = new CircuitBreaker(10, 0.5, 60000);
+
+		for (int i = 0; i < 4; i++) {
+			breaker.onTimeout();
+			Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		}
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.75, 60000);
+
+		for (int i = 0; i < 4; i++) {
+			breaker.onReply();
+		}
+		breaker.onTimeout();
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbeCloses() throws Exception {
+		CircuitBreaker breaker = open(50);
+
+		Thread.sleep(100);
+		Assert.assertTrue(breaker.tryAcquire());
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(breaker.tryAcquire());
+
+		breaker.onReply();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.tryAcquire());
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbeTimeoutReopens() throws Exception {
+		CircuitBreaker breaker = open(50);
+
+		Thread.sleep(100);
+		Assert.assertTrue(breaker.tryAcquire());
+		breaker.onTimeout();
+
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.tryAcquire());
+		Thread.sleep(100);
+		Assert.assertTrue(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testHalfOpenProbeAbortAllowsNewProbe() throws Exception {
+		CircuitBreaker breaker = open(50);
+
+		Thread.sleep(100);
+		Assert.assertTrue(breaker.tryAcquire());
+		breaker.onAbort();
+
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertTrue(breaker.tryAcquire());
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testCloseResetsWindow() {
+		CircuitBreaker breaker = open(60000);
+
+		breaker.close();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private static CircuitBreaker open(long openTime) {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, openTime);
+		breaker.onTimeout();
+		breaker.onTimeout();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+}
@@ -0,0 +1,177 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+	private static <V> V load(ExpiringCache<String, V> cache, String key, long timeToLive,
+			ExpiringCache.Loader<V> loader) {
+		try {
+			return cache.get(key, timeToLive, loader);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new ExpiringCache<String, String>(0);
+	}
+
+	@Test
+	public void testStampedeLoadsOnce() throws Exception {
+		final ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExpiringCache.Loader<String> loader = () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			release.await();
+			return "value";
+		};
+
+		List<CompletableFuture<String>> callers = new ArrayList<>();
+		callers.add(CompletableFuture.supplyAsync(() -> load(cache, "key", 60000, loader)));
+		Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 9; i++) {
+			callers.add(CompletableFuture.supplyAsync(() -> load(cache, "key", 60000, loader)));
+		}
+		for (int i = 0; i < 500 && cache.getStatistics().getHitCount() < 9; i++) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+
+		for (CompletableFuture<String> caller : callers) {
+			Assert.assertEquals("value", caller.get(5, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(1, cache.getStatistics().getMissCount());
+		Assert.assertEquals(9, cache.getStatistics().getHitCount());
+	}
+
+	@Test
+	public void testFailureNotCached() throws Throwable {
+		ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+		AtomicInteger loads = new AtomicInteger();
+		IllegalStateException failure = new IllegalStateException("failure");
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get("key", 60000, () -> {
+					loads.incrementAndGet();
+					throw failure;
+				});
+				Assert.fail("Failure has not been thrown");
+			} catch (IllegalStateException e) {
+				Assert.assertSame(failure, e);
+			}
+		}
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(0, cache.getStatistics().getSize());
+
+		Assert.assertEquals("value", cache.get("key", 60000, () -> "value"));
+		Assert.assertEquals("value", cache.get("key", 60000, () -> "other"));
+	}
+
+	@Test
+	public void testFailureReleasesWaiters() throws Exception {
+		final ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final IllegalStateException failure = new IllegalStateException("failure");
+
+		CompletableFuture<String> loader = CompletableFuture.supplyAsync(() -> load(cache, "key", 60000, () -> {
+			loading.countDown();
+			release.await();
+			throw failure;
+		}));
+		Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+		CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> load(cache, "key", 60000,
+				() -> "unexpected"));
+		for (int i = 0; i < 500 && cache.getStatistics().getHitCount() < 1; i++) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+
+		for (CompletableFuture<String> caller : Arrays.asList(loader, waiter)) {
+			try {
+				caller.get(5, TimeUnit.SECONDS);
+				Assert.fail("Failure has not been thrown");
+			} catch (ExecutionException e) {
+				Assert.assertSame(failure, e.getCause());
+			}
+		}
+	}
+
+	@Test
+	public void testWaitTimeout() throws Throwable {
+		final ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<String> loader = CompletableFuture.supplyAsync(() -> load(cache, "key", 60000, () -> {
+			loading.countDown();
+			release.await();
+			return "value";
+		}));
+		Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+		try {
+			cache.get("key", 60000, () -> "unexpected", 50);
+			Assert.fail("Timeout has not been thrown");
+		} catch (TimeoutException e) {
+			// expected, the value is still being loaded
+		}
+		release.countDown();
+
+		Assert.assertEquals("value", loader.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals("value", cache.get("key", 60000, () -> "unexpected", 0));
+	}
+
+	@Test
+	public void testExpiration() throws Throwable {
+		ExpiringCache<String, Integer> cache = new ExpiringCache<>(10);
+		AtomicInteger loads = new AtomicInteger();
+
+		Assert.assertEquals(1, cache.get("a", 50, loads::incrementAndGet).intValue());
+		Assert.assertEquals(1, cache.get("a", 50, loads::incrementAndGet).intValue());
+		cache.get("b", 50, loads::incrementAndGet);
+		Thread.sleep(100);
+
+		Assert.assertEquals(3, cache.get("a", 50, loads::incrementAndGet).intValue());
+		cache.purge();
+		Assert.assertEquals(1, cache.getStatistics().getSize());
+		Assert.assertEquals(2, cache.getStatistics().getExpirationCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Throwable {
+		ExpiringCache<String, String> cache = new ExpiringCache<>(2);
+
+		cache.get("a", 60000, () -> "a");
+		cache.get("b", 60000, () -> "b");
+		cache.get("a", 60000, () -> "unexpected");
+		cache.get("c", 60000, () -> "c");
+
+		Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+		Assert.assertEquals("a", cache.get("a", 60000, () -> "unexpected"));
+		Assert.assertEquals("reloaded", cache.get("b", 60000, () -> "reloaded"));
+		Assert.assertEquals(2, cache.getStatistics().getSize());
+
+		cache.clear();
+		Assert.assertEquals(0, cache.getStatistics().getSize());
+	}
+}
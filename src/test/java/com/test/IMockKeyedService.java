@@ -0,0 +1,15 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+/**
+ * @author T0128980
+ */
+public interface IMockKeyedService
+{
+  void call(String key, int sequence);
+
+}
@@ -0,0 +1,17 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.List;
+
+/**
+ * @author T0128980
+ */
+public interface IMockLookupService
+{
+  String lookup(List<String> keys);
+
+}
@@ -0,0 +1,19 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.List;
+
+/**
+ * Caller side of {@link IMockNodeService}, gathering the replies of all the nodes.
+ *
+ * @author T0128980
+ */
+public interface IMockNodeGatherService
+{
+  List<String> nodeName(boolean fail) throws MockServiceException;
+
+}
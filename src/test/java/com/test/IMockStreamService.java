@@ -0,0 +1,20 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * @author T0128980
+ */
+public interface IMockStreamService
+{
+  Iterator<Integer> range(int count);
+
+  Stream<Integer> rangeStream(int count);
+
+}
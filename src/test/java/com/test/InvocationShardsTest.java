@@ -0,0 +1,106 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jms.Destination;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InvocationShardsTest {
+
+	private static final int KEYS = 10000;
+
+	enum Side {
+		LEFT, RIGHT
+	}
+
+	@Test
+	public void testKeysSpreadOverShards() {
+		InvocationShards shards = new InvocationShards(8);
+		int[] counts = new int[8];
+
+		for (int i = 0; i < KEYS; i++) {
+			counts[shards.getShard("key-" + i)]++;
+		}
+		for (int count : counts) {
+			Assert.assertTrue(Arrays.toString(counts), count > KEYS / 8 / 2 && count < KEYS / 8 * 3 / 2);
+		}
+	}
+
+	@Test
+	public void testShardStableAcrossInstances() {
+		InvocationShards shards = new InvocationShards(8);
+		InvocationShards other = new InvocationShards(8);
+
+		for (int i = 0; i < KEYS; i++) {
+			Assert.assertEquals(shards.getShard("key-" + i), other.getShard("key-" + i));
+		}
+	}
+
+	@Test
+	public void testAddedShardMovesItsShareOnly() {
+		InvocationShards before = new InvocationShards(8);
+		InvocationShards after = new InvocationShards(9);
+		int moved = 0;
+
+		for (int i = 0; i < KEYS; i++) {
+			int shard = after.getShard("key-" + i);
+			if (shard != before.getShard("key-" + i)) {
+				Assert.assertEquals(8, shard);
+				moved++;
+			}
+		}
+		Assert.assertTrue(String.valueOf(moved), moved > KEYS / 9 / 2 && moved < KEYS / 9 * 3 / 2);
+	}
+
+	@Test
+	public void testKeys() {
+		Assert.assertEquals("LEFT", InvocationShards.getKey(Side.LEFT));
+		Assert.assertEquals("42", InvocationShards.getKey(42));
+		Assert.assertEquals("", InvocationShards.getKey(null));
+	}
+
+	@Test
+	public void testDestination() throws Exception {
+		Destination destination = InvocationShards.getDestination(new ActiveMQQueue("service"), 3);
+
+		Assert.assertEquals(new ActiveMQQueue("service.shard.3"), destination);
+	}
+
+	@Test
+	public void testClaimPriorityRendezvous() {
+		List<String> nodes = Arrays.asList("node-a", "node-b", "node-c");
+
+		for (int shard = 0; shard < 64; shard++) {
+			for (String node : nodes) {
+				int priority = InvocationShards.getClaimPriority(node, shard);
+				Assert.assertTrue(String.valueOf(priority), priority >= 1 && priority <= 126);
+				Assert.assertEquals(priority, InvocationShards.getClaimPriority(node, shard));
+			}
+			// the shards of the remaining nodes stay in place when node-c leaves
+			String owner = owner(nodes, shard);
+			if (owner != null && !"node-c".equals(owner)) {
+				Assert.assertEquals(owner, owner(nodes.subList(0, 2), shard));
+			}
+		}
+	}
+
+	private static String owner(List<String> nodes, int shard) {
+		String owner = null;
+		int best = 0;
+		for (String node : nodes) {
+			int priority = InvocationShards.getClaimPriority(node, shard);
+			if (priority > best) {
+				owner = node;
+				best = priority;
+			} else if (priority == best) {
+				// tie, the broker picks any of them
+				owner = null;
+			}
+		}
+		return owner;
+	}
+}
@@ -0,0 +1,77 @@
+package com.test;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+public class JavaSerializationCodecTest {
+
+	private static RemoteInvocation invocation(Object... arguments) {
+		RemoteInvocation invocation = new RemoteInvocation();
+		invocation.setMethodName("call");
+		invocation.setParameterTypes(new Class<?>[] { Object.class });
+		invocation.setArguments(arguments);
+		return invocation;
+	}
+
+	@Test
+	public void testTrustedClassesDecoded() throws Exception {
+		JavaSerializationCodec codec = new JavaSerializationCodec();
+
+		RemoteInvocation decoded = codec.decodeInvocation(codec.encodeInvocation(invocation("message", new String[] { "a" },
+				new int[] { 1 })));
+		Assert.assertEquals("message", decoded.getArguments()[0]);
+		Assert.assertArrayEquals(new String[] { "a" }, (String[]) decoded.getArguments()[1]);
+
+		RemoteInvocationResult result = codec.decodeResult(codec.encodeResult(new RemoteInvocationResult(
+				new IllegalStateException("failure"))));
+		Assert.assertEquals("failure", result.getException().getMessage());
+	}
+
+	@Test
+	public void testUntrustedClassRejected() throws Exception {
+		JavaSerializationCodec codec = new JavaSerializationCodec();
+
+		try {
+			codec.decodeInvocation(codec.encodeInvocation(invocation(new MockServiceException("failure", null))));
+			Assert.fail("Class outside the trusted packages has been deserialized");
+		} catch (InvalidClassException e) {
+			Assert.assertEquals(MockServiceException.class.getName(), e.classname);
+		}
+		try {
+			codec.decodeInvocation(codec.encodeInvocation(invocation((Object) new MockServiceException[1])));
+			Assert.fail("Array of a class outside the trusted packages has been deserialized");
+		} catch (InvalidClassException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testServicePackageTrusted() throws Exception {
+		JavaSerializationCodec codec = new JavaSerializationCodec(getClass().getClassLoader(),
+				JavaSerializationCodec.getTrustedPackages(IMockService.class));
+
+		RemoteInvocation decoded = codec.decodeInvocation(codec.encodeInvocation(invocation(new MockServiceException("failure", null))));
+		Assert.assertTrue(decoded.getArguments()[0] instanceof MockServiceException);
+	}
+
+	@Test
+	public void testBinaryCodecSerializedValuesFiltered() throws Exception {
+		BinaryInvocationCodec trusting = new BinaryInvocationCodec(IMockService.class);
+		BinaryInvocationCodec restricted = new BinaryInvocationCodec(IMockService.class,
+				JavaSerializationCodec.DEFAULT_TRUSTED_PACKAGES);
+		byte[] data = trusting.encodeResult(new RemoteInvocationResult(new MockServiceException("failure", null)));
+
+		Assert.assertTrue(trusting.decodeResult(data).getException() instanceof MockServiceException);
+		try {
+			restricted.decodeResult(data);
+			Assert.fail("Class outside the trusted packages has been deserialized");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ *-------------------------------------------------------------------------
+ * Copyright 2018 (C) by Thales Alenia Space France - all rights reserved
+ *-------------------------------------------------------------------------
+ */
+package com.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator: the calls are started at a fixed target rate, round robin over several
+ * proxies, whether or not the previous ones are answered. The latency of a call is measured from
+ * its intended start time rather than from its actual one, so that the time spent waiting for a
+ * free caller is not hidden (coordinated omission).
+ *
+ * @author T0128980
+ */
+public class OpenLoopLoadGenerator {
+
+	/** the ratio of the target rate below which the achieved rate is considered saturated */
+	private static final double SATURATION_RATIO = 0.9;
+
+	/** the proxies */
+	private final List<IMockService> services;
+
+	/** the maximum number of calls in progress */
+	private final int maxConcurrentCalls;
+
+	/** the argument of the calls */
+	private final String message;
+
+	/**
+	 * @param services
+	 *            the proxies, one per simulated client
+	 * @param maxConcurrentCalls
+	 *            the maximum number of calls in progress; the calls beyond it wait for a caller
+	 *            and this wait is part of their latency
+	 * @param message
+	 *            the argument of the calls
+	 */
+	public OpenLoopLoadGenerator(List<IMockService> services, int maxConcurrentCalls, String message) {
+		this.services = new ArrayList<IMockService>(services);
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.message = message;
+	}
+
+	/**
+	 * Sends calls at a fixed rate.
+	 *
+	 * @param rate
+	 *            the target rate (calls per second)
+	 * @param duration
+	 *            the sending duration (ms)
+	 * @param drainTimeout
+	 *            the maximum time waited for the calls in progress once the sending is over (ms)
+	 * @return the result
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public Result run(int rate, long duration, long drainTimeout) throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		LongAdder errors = new LongAdder();
+		ExecutorService callers = Executors.newFixedThreadPool(maxConcurrentCalls);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long callCount = duration * rate / 1000;
+		long start = System.nanoTime();
+		try {
+			for (long i = 0; i < callCount; i++) {
+				final long intendedStart = start + i * intervalNanos;
+				long delay = intendedStart - System.nanoTime();
+				if (delay > 0) {
+					LockSupport.parkNanos(delay);
+				}
+				final IMockService service = services.get((int) (i % services.size()));
+				callers.execute(() -> {
+					try {
+						service.call(message);
+					} catch (MockServiceException | RuntimeException e) {
+						errors.increment();
+					}
+					histogram.record(System.nanoTime() - intendedStart);
+				});
+			}
+		} finally {
+			callers.shutdown();
+		}
+		boolean drained = callers.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS);
+		if (!drained) {
+			callers.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+		LatencySnapshot latency = histogram.snapshot();
+		return new Result(rate, latency.getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed, callCount,
+				errors.sum(), latency);
+	}
+
+	/**
+	 * Sends calls at increasing rates until the system saturates, i.e. does not keep up with the
+	 * target rate or exceeds a latency bound.
+	 *
+	 * @param rates
+	 *            the target rates in increasing order (calls per second)
+	 * @param duration
+	 *            the sending duration of each rate (ms)
+	 * @param maxP99
+	 *            the 99th percentile above which the system is saturated (us)
+	 * @return the results, the last one being the saturated rate if reached
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public List<Result> sweep(int[] rates, long duration, long maxP99) throws InterruptedException {
+		List<Result> results = new ArrayList<Result>();
+		for (int rate : rates) {
+			Result result = run(rate, duration, Math.max(duration, 10000));
+			results.add(result);
+			System.out.println(result);
+			if (result.isSaturated(maxP99)) {
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * The outcome of a run at a given rate.
+	 */
+	public static class Result {
+
+		private final int targetRate;
+
+		private final double achievedRate;
+
+		private final long sentCount;
+
+		private final long errorCount;
+
+		private final LatencySnapshot latency;
+
+		Result(int targetRate, double achievedRate, long sentCount, long errorCount, LatencySnapshot latency) {
+			this.targetRate = targetRate;
+			this.achievedRate = achievedRate;
+			this.sentCount = sentCount;
+			this.errorCount = errorCount;
+			this.latency = latency;
+		}
+
+		/**
+		 * @return the target rate (calls per second)
+		 */
+		public int getTargetRate() {
+			return targetRate;
+		}
+
+		/**
+		 * @return the rate of completed calls (calls per second)
+		 */
+		public double getAchievedRate() {
+			return achievedRate;
+		}
+
+		/**
+		 * @return the number of calls to send
+		 */
+		public long getSentCount() {
+			return sentCount;
+		}
+
+		/**
+		 * @return the number of failed calls
+		 */
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		/**
+		 * @return the latency corrected for coordinated omission
+		 */
+		public LatencySnapshot getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @param maxP99
+		 *            the 99th percentile bound (us)
+		 * @return true if the rate was not sustained, some calls did not complete or failed, or the
+		 *         99th percentile exceeds the bound
+		 */
+		public boolean isSaturated(long maxP99) {
+			return achievedRate < SATURATION_RATIO * targetRate || latency.getCount() < sentCount
+					|| errorCount > 0 || latency.getP99() > maxP99;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("target %d/s, achieved %.1f/s, sent %d, completed %d, errors %d, latency %s",
+					targetRate, achievedRate, sentCount, latency.getCount(), errorCount, latency);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrderedExecutorTest {
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testPerKeyOrderUnderContention() throws Exception {
+		final int keys = 10;
+		final int tasks = 200;
+		final OrderedExecutor executor = new OrderedExecutor(pool, 32);
+		final List<List<Integer>> executed = new ArrayList<>();
+		final AtomicInteger[] running = new AtomicInteger[keys];
+		final AtomicInteger overlaps = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(keys * tasks);
+		for (int key = 0; key < keys; key++) {
+			executed.add(Collections.synchronizedList(new ArrayList<Integer>()));
+			running[key] = new AtomicInteger();
+		}
+
+		List<Thread> submitters = new ArrayList<>();
+		for (int key = 0; key < keys; key++) {
+			final int k = key;
+			Thread submitter = new Thread(() -> {
+				try {
+					for (int i = 0; i < tasks; i++) {
+						final int index = i;
+						executor.execute("key-" + k, () -> {
+							if (running[k].incrementAndGet() > 1) {
+								overlaps.incrementAndGet();
+							}
+							executed.get(k).add(index);
+							running[k].decrementAndGet();
+							done.countDown();
+						});
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			submitters.add(submitter);
+			submitter.start();
+		}
+		for (Thread submitter : submitters) {
+			submitter.join();
+		}
+
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(0, overlaps.get());
+		for (int key = 0; key < keys; key++) {
+			List<Integer> order = executed.get(key);
+			Assert.assertEquals(tasks, order.size());
+			for (int i = 0; i < tasks; i++) {
+				Assert.assertEquals(i, order.get(i).intValue());
+			}
+		}
+		for (int i = 0; i < 100 && executor.getActiveKeyCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, executor.getActiveKeyCount());
+	}
+
+	@Test
+	public void testKeysRunInParallel() throws Exception {
+		OrderedExecutor executor = new OrderedExecutor(pool, 8);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch other = new CountDownLatch(1);
+		CountDownLatch sameKey = new CountDownLatch(1);
+
+		executor.execute("a", () -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		executor.execute("a", sameKey::countDown);
+		executor.execute("b", other::countDown);
+
+		Assert.assertTrue(other.await(5, TimeUnit.SECONDS));
+		Assert.assertFalse(sameKey.await(100, TimeUnit.MILLISECONDS));
+		blocked.countDown();
+		Assert.assertTrue(sameKey.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSubmitterBlockedAtMaxInFlight() throws Exception {
+		final OrderedExecutor executor = new OrderedExecutor(pool, 2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Runnable waiting = () -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		executor.execute("a", waiting);
+		executor.execute(null, waiting);
+
+		Thread submitter = new Thread(() -> {
+			try {
+				executor.execute("b", () -> {
+					// nothing to do
+				});
+				submitted.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		submitter.start();
+
+		Assert.assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+		blocked.countDown();
+		Assert.assertTrue(submitted.await(5, TimeUnit.SECONDS));
+		submitter.join();
+	}
+
+	@Test
+	public void testTryExecuteWithinMaxInFlight() throws Exception {
+		OrderedExecutor executor = new OrderedExecutor(pool, 1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+
+		Assert.assertTrue(executor.tryExecute(() -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		Assert.assertFalse(executor.tryExecute(done::countDown));
+		blocked.countDown();
+
+		for (int i = 0; i < 100 && !executor.tryExecute(done::countDown); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testKeyRescheduledAfterRejection() throws Exception {
+		final AtomicInteger rejections = new AtomicInteger(1);
+		OrderedExecutor executor = new OrderedExecutor(task -> {
+			if (rejections.getAndDecrement() > 0) {
+				throw new RejectedExecutionException("rejected");
+			}
+			pool.execute(task);
+		}, 1);
+		CountDownLatch done = new CountDownLatch(1);
+
+		try {
+			executor.execute("a", () -> Assert.fail("Rejected task has run"));
+			Assert.fail("Task has not been rejected");
+		} catch (RejectedExecutionException e) {
+			// expected, and the key is not left scheduled
+		}
+		Assert.assertEquals(0, executor.getActiveKeyCount());
+		executor.execute("a", done::countDown);
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRejectedTaskReleasesPermit() throws Exception {
+		OrderedExecutor executor = new OrderedExecutor(task -> {
+			throw new RejectedExecutionException("rejected");
+		}, 1);
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				executor.execute(null, () -> {
+					// nothing to do
+				});
+				Assert.fail("Task has not been rejected");
+			} catch (RejectedExecutionException e) {
+				// expected, and the permit is available again
+			}
+		}
+	}
+}
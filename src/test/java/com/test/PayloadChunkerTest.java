@@ -0,0 +1,156 @@
+package com.test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadChunkerTest {
+
+	private static final Session SESSION = (Session) Proxy.newProxyInstance(PayloadChunkerTest.class.getClassLoader(),
+			new Class<?>[] { Session.class }, (proxy, method, args) -> {
+				if ("createBytesMessage".equals(method.getName())) {
+					return new ActiveMQBytesMessage();
+				}
+				throw new UnsupportedOperationException(method.getName());
+			});
+
+	private static byte[] payload(int size) {
+		// compressible, yet larger than a chunk once compressed
+		Random random = new Random(size);
+		byte[] payload = new byte[size];
+		for (int i = 0; i < size; i++) {
+			payload[i] = (byte) ('a' + random.nextInt(16));
+		}
+		return payload;
+	}
+
+	private static List<Message> send(PayloadChunker chunker, byte[] payload) throws JMSException {
+		BytesMessage message = new ActiveMQBytesMessage();
+		message.setStringProperty("codec", "binary");
+		message.writeBytes(payload);
+		List<Message> sent = new ArrayList<>();
+		chunker.send(SESSION, message, sent::add);
+		for (Message chunk : sent) {
+			((BytesMessage) chunk).reset();
+		}
+		return sent;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSettings() {
+		new PayloadChunker(0, -1, 1024, 1000);
+	}
+
+	@Test
+	public void testSmallPayloadUnchanged() throws Exception {
+		PayloadChunker chunker = new PayloadChunker(1024, 4096, 1 << 20, 60000);
+		byte[] payload = payload(100);
+
+		List<Message> sent = send(chunker, payload);
+
+		Assert.assertEquals(1, sent.size());
+		Assert.assertFalse(sent.get(0).propertyExists(PayloadChunker.COMPRESSION_PROPERTY));
+		Assert.assertFalse(sent.get(0).propertyExists(PayloadChunker.CHUNK_STREAM_PROPERTY));
+		Assert.assertArrayEquals(payload, InvocationCodecs.readBody(chunker.restore(sent.get(0))));
+	}
+
+	@Test
+	public void testCompressedPayloadRestored() throws Exception {
+		PayloadChunker chunker = new PayloadChunker(1024, 0, 1 << 20, 60000);
+		byte[] payload = payload(64 * 1024);
+
+		List<Message> sent = send(chunker, payload);
+
+		Assert.assertEquals(1, sent.size());
+		Assert.assertTrue(((BytesMessage) sent.get(0)).getBodyLength() < payload.length);
+		Assert.assertArrayEquals(payload, InvocationCodecs.readBody(new PayloadChunker(1024, 0, 1 << 20, 60000)
+				.restore(sent.get(0))));
+	}
+
+	@Test
+	public void testChunksReassembledOutOfOrder() throws Exception {
+		PayloadChunker sender = new PayloadChunker(1024, 4096, 1 << 20, 60000);
+		PayloadChunker receiver = new PayloadChunker(1024, 4096, 1 << 20, 60000);
+		byte[] payload = payload(64 * 1024);
+
+		List<Message> chunks = send(sender, payload);
+		Assert.assertTrue(chunks.size() > 1);
+		Collections.shuffle(chunks, new Random(1));
+
+		Message restored = null;
+		for (int i = 0; i < chunks.size(); i++) {
+			Assert.assertTrue(((BytesMessage) chunks.get(i)).getBodyLength() <= 4096);
+			restored = receiver.restore(chunks.get(i));
+			if (i < chunks.size() - 1) {
+				Assert.assertNull(restored);
+			}
+		}
+		Assert.assertNotNull(restored);
+		Assert.assertEquals("binary", restored.getStringProperty("codec"));
+		Assert.assertArrayEquals(payload, InvocationCodecs.readBody(restored));
+		Assert.assertEquals(0, receiver.getDroppedStreamCount());
+	}
+
+	@Test
+	public void testDuplicateChunkIgnored() throws Exception {
+		PayloadChunker sender = new PayloadChunker(0, 1024, 1 << 20, 60000);
+		PayloadChunker receiver = new PayloadChunker(0, 1024, 1 << 20, 60000);
+		byte[] payload = payload(3000);
+
+		List<Message> chunks = send(sender, payload);
+		Assert.assertEquals(3, chunks.size());
+		Assert.assertNull(receiver.restore(chunks.get(0)));
+		((BytesMessage) chunks.get(0)).reset();
+		Assert.assertNull(receiver.restore(chunks.get(0)));
+		Assert.assertNull(receiver.restore(chunks.get(1)));
+
+		Assert.assertArrayEquals(payload, InvocationCodecs.readBody(receiver.restore(chunks.get(2))));
+	}
+
+	@Test
+	public void testIncompleteStreamDroppedAfterTimeout() throws Exception {
+		PayloadChunker sender = new PayloadChunker(0, 1024, 1 << 20, 60000);
+		PayloadChunker receiver = new PayloadChunker(0, 1024, 1 << 20, 50);
+		byte[] payload = payload(3000);
+
+		List<Message> lost = send(sender, payload);
+		Assert.assertNull(receiver.restore(lost.get(0)));
+		Assert.assertNull(receiver.restore(lost.get(1)));
+		Thread.sleep(100);
+
+		List<Message> next = send(sender, payload);
+		Assert.assertNull(receiver.restore(next.get(0)));
+		Assert.assertEquals(1, receiver.getDroppedStreamCount());
+		Assert.assertNull(receiver.restore(lost.get(2)));
+		Assert.assertNull(receiver.restore(next.get(1)));
+		Assert.assertArrayEquals(payload, InvocationCodecs.readBody(receiver.restore(next.get(2))));
+	}
+
+	@Test
+	public void testStreamDroppedOverBudget() throws Exception {
+		PayloadChunker sender = new PayloadChunker(0, 1024, 1 << 20, 60000);
+		PayloadChunker receiver = new PayloadChunker(0, 1024, 2048, 60000);
+		byte[] payload = payload(3000);
+
+		List<Message> chunks = send(sender, payload);
+		Assert.assertNull(receiver.restore(chunks.get(0)));
+		Assert.assertNull(receiver.restore(chunks.get(1)));
+		Assert.assertNull(receiver.restore(chunks.get(2)));
+		Assert.assertEquals(1, receiver.getDroppedStreamCount());
+
+		List<Message> small = send(sender, payload(2000));
+		Assert.assertNull(receiver.restore(small.get(0)));
+		Assert.assertNotNull(receiver.restore(small.get(1)));
+	}
+}